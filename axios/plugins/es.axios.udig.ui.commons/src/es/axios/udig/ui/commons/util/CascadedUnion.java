@@ -0,0 +1,248 @@
+/* Spatial Operations & Editing Tools for uDig
+ *
+ * Axios Engineering under a funding contract with:
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT).
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ *
+ * You can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.ui.commons.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * Computes the union of a set of geometries bottom-up.
+ * <p>
+ * The geometries are added one by one, then they are packed in an STRtree, so each node of
+ * the tree groups geometries which are near each other. The union is made from the leaves to
+ * the root: the geometries of each node are unioned, and the results are unioned at the parent
+ * node. In this way each union works with small, near geometries, instead of adding every
+ * geometry to a single geometry that grows with each step as the fold
+ * <code>result = result.union(geometry)</code> does.
+ * </p>
+ * <p>
+ * If the parallelism is greater than one the nodes of the first level of the tree holding at
+ * least as many nodes as the parallelism, or the leaves if there is not such a level, are
+ * unioned on a pool of threads. The added geometries are not modified.
+ * </p>
+ *
+ * @author Mauricio Pazos (www.axios.es)
+ * @author Gabriel Roldan (www.axios.es)
+ * @since 1.1.0
+ */
+public final class CascadedUnion {
+
+    /** number of geometries grouped by each node of the tree */
+    private static final int     NODE_CAPACITY = 4;
+
+    private final STRtree        tree          = new STRtree(NODE_CAPACITY);
+
+    private final List<Geometry> geometries    = new ArrayList<Geometry>();
+
+    /** returned as result if only empty geometries are added */
+    private Geometry             emptyGeometry = null;
+
+    private int                  parallelism   = 1;
+
+    /**
+     * Computes the union of the geometries on the caller thread
+     *
+     * @param geometries
+     * @return the union of the geometries, null if there is not any geometry
+     */
+    public static Geometry union( final List<Geometry> geometries ) {
+
+        CascadedUnion union = new CascadedUnion();
+        for( Geometry geometry : geometries ) {
+            union.add(geometry);
+        }
+        return union.getResult();
+    }
+
+    /**
+     * @param parallelism number of threads used to union the subtrees, 1 or less does the
+     *        union on the caller thread
+     */
+    public void setParallelism( final int parallelism ) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Adds a geometry to the union. Null geometries are ignored and the empty ones do not
+     * take part in the union.
+     *
+     * @param geometry
+     */
+    public void add( final Geometry geometry ) {
+
+        if (geometry == null) {
+            return;
+        }
+        if (geometry.isEmpty()) {
+            if (this.emptyGeometry == null) {
+                this.emptyGeometry = geometry;
+            }
+            return;
+        }
+        this.geometries.add(geometry);
+        this.tree.insert(geometry.getEnvelopeInternal(), geometry);
+    }
+
+    /**
+     * @return the union of the added geometries, an empty geometry if only empty geometries
+     *         were added or null if there is not any geometry
+     */
+    public Geometry getResult() {
+
+        if (this.geometries.isEmpty()) {
+            return this.emptyGeometry;
+        }
+        if (this.geometries.size() == 1) {
+            Geometry single = (Geometry) this.geometries.get(0).clone();
+            single.normalize();
+            return single;
+        }
+        List< ? > root = this.tree.itemsTree();
+
+        if (this.parallelism > 1) {
+            List< ? > level = getParallelLevel(root, this.parallelism);
+            if (level.size() > 1) {
+                return unionInParallel(level);
+            }
+        }
+        return unionTree(root);
+    }
+
+    /**
+     * Goes down the tree until a level holds at least <code>count</code> nodes. The nodes of
+     * each level are in the order of their parents, so near nodes stay together.
+     *
+     * @param root
+     * @param count
+     * @return the nodes of the first level holding at least <code>count</code> nodes, or the
+     *         leaves if there is not such a level
+     */
+    private static List< ? > getParallelLevel( final List< ? > root, final int count ) {
+
+        List< ? > level = root;
+        while( level.size() < count ) {
+            List<Object> next = new ArrayList<Object>();
+            boolean leaves = true;
+            for( Object node : level ) {
+                if (node instanceof List) {
+                    next.addAll((List< ? >) node);
+                    leaves = false;
+                } else {
+                    next.add(node);
+                }
+            }
+            if (leaves) {
+                break;
+            }
+            level = next;
+        }
+        return level;
+    }
+
+    /**
+     * Unions each node of the level in a different task and then unions their results.
+     */
+    private Geometry unionInParallel( final List< ? > level ) {
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.parallelism, level.size()));
+        try {
+            List<Future<Geometry>> subtrees = new ArrayList<Future<Geometry>>(level.size());
+            for( final Object node : level ) {
+
+                subtrees.add(executor.submit(new Callable<Geometry>(){
+                    public Geometry call() {
+                        return unionNode(node);
+                    }
+                }));
+            }
+            List<Geometry> results = new ArrayList<Geometry>(subtrees.size());
+            for( Future<Geometry> subtree : subtrees ) {
+                results.add(subtree.get());
+            }
+            return binaryUnion(results, 0, results.size());
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (IllegalStateException) new IllegalStateException(e.getMessage()).initCause(e);
+
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (IllegalStateException) new IllegalStateException(cause.getMessage()).initCause(cause);
+
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static Geometry unionNode( final Object node ) {
+
+        if (node instanceof List) {
+            return unionTree((List< ? >) node);
+        }
+        return (Geometry) node;
+    }
+
+    /**
+     * Unions the geometries of a node of the items tree
+     *
+     * @param node list of geometries or lists of geometries
+     * @return the union
+     */
+    private static Geometry unionTree( final List< ? > node ) {
+
+        List<Geometry> children = new ArrayList<Geometry>(node.size());
+        for( Object child : node ) {
+            children.add(unionNode(child));
+        }
+        return binaryUnion(children, 0, children.size());
+    }
+
+    /**
+     * Unions the geometries in the range [start, end) halving it, so both sides of each union
+     * have a similar size
+     */
+    private static Geometry binaryUnion( final List<Geometry> geometries, final int start, final int end ) {
+
+        if (end - start == 1) {
+            return geometries.get(start);
+        }
+        if (end - start == 2) {
+            return geometries.get(start).union(geometries.get(start + 1));
+        }
+        final int middle = (start + end) / 2;
+        Geometry left = binaryUnion(geometries, start, middle);
+        Geometry right = binaryUnion(geometries, middle, end);
+
+        return left.union(right);
+    }
+
+}
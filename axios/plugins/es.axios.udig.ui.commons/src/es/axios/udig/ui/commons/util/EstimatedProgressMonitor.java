@@ -0,0 +1,112 @@
+/* Spatial Operations & Editing Tools for uDig
+ *
+ * Axios Engineering under a funding contract with:
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT).
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ *
+ * You can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.ui.commons.util;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.ProgressMonitorWrapper;
+
+/**
+ * Progress monitor whose total work can be corrected while the task is running.
+ * <p>
+ * {@link IProgressMonitor#beginTask(String, int)} can be called only once, so the wrapped
+ * monitor is begun with a fixed number of units and the work done is scaled to those units
+ * with the current total. When the total is corrected with {@link #setTotalWork(int)}, for
+ * example because an estimated count of features has been replaced by the exact one, the
+ * following work is scaled with the new total. The progress reported never goes back.
+ * </p>
+ *
+ * @author Mauricio Pazos (www.axios.es)
+ * @author Gabriel Roldan (www.axios.es)
+ * @since 1.1.0
+ */
+public final class EstimatedProgressMonitor extends ProgressMonitorWrapper {
+
+    /** units of the wrapped monitor */
+    private static final int UNITS    = 10000;
+
+    private double           total    = 0;
+    private double           done     = 0;
+    private int              reported = 0;
+
+    /**
+     * @param monitor the monitor to wrap
+     */
+    public EstimatedProgressMonitor( final IProgressMonitor monitor ) {
+        super(monitor);
+    }
+
+    /**
+     * Begins the task with the estimated total work
+     */
+    @Override
+    public void beginTask( final String name, final int totalWork ) {
+
+        this.total = totalWork;
+        this.done = 0;
+        this.reported = 0;
+
+        super.beginTask(name, UNITS);
+    }
+
+    /**
+     * Replaces the total work, the work already done is kept
+     *
+     * @param totalWork
+     */
+    public void setTotalWork( final int totalWork ) {
+        this.total = totalWork;
+        report();
+    }
+
+    /**
+     * @return the work done since the task was begun
+     */
+    public int getWorkDone() {
+        return (int) Math.min(Integer.MAX_VALUE, this.done);
+    }
+
+    @Override
+    public void worked( final int work ) {
+        internalWorked(work);
+    }
+
+    @Override
+    public void internalWorked( final double work ) {
+        this.done += work;
+        report();
+    }
+
+    /**
+     * Reports the units corresponding to the work done, if they are more than the reported
+     */
+    private void report() {
+
+        if (this.total <= 0) {
+            return;
+        }
+        // the last unit is reported by done()
+        int units = (int) Math.min(UNITS - 1, UNITS * (this.done / this.total));
+        if (units > this.reported) {
+            super.internalWorked(units - this.reported);
+            this.reported = units;
+        }
+    }
+}
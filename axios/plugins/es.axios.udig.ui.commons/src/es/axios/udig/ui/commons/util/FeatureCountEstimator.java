@@ -0,0 +1,254 @@
+/* Spatial Operations & Editing Tools for uDig
+ *
+ * Axios Engineering under a funding contract with:
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT).
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ *
+ * You can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.ui.commons.util;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.geotools.data.DefaultQuery;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.filter.visitor.ExtractBoundsFilterVisitor;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Estimates the number of features without reading all of them when it is possible.
+ * <p>
+ * The strategies are tried from the cheapest to the most expensive:
+ * <ol>
+ * <li>the count answered by the feature source, if it can do it without reading the
+ * features</li>
+ * <li>the ratio between the area of the query's bounds and the area of the layer's bounds,
+ * applied to the count of the whole layer</li>
+ * <li>reading up to {@link #SAMPLE_SIZE} features; if there are fewer, the count is exact,
+ * if not the sample size is taken as a lower bound</li>
+ * </ol>
+ * The features are never all read, nor are the bounds of a filtered collection asked for,
+ * since both mean a pass over the data before the real one. The estimates are intended to
+ * size progress monitors, see {@link EstimatedProgressMonitor}, which are corrected when the
+ * exact count is known during the real pass.
+ * </p>
+ *
+ * @author Mauricio Pazos (www.axios.es)
+ * @author Gabriel Roldan (www.axios.es)
+ * @since 1.1.0
+ */
+public final class FeatureCountEstimator {
+
+    /** number of features read to decide if the count is small */
+    public static final int SAMPLE_SIZE = 1000;
+
+    private FeatureCountEstimator() {
+        // util class
+    }
+
+    /**
+     * Count of features, exact or estimated
+     */
+    public static final class Estimate {
+
+        private final int     count;
+        private final boolean exact;
+
+        Estimate( final long count, final boolean exact ) {
+            this.count = (count > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) count;
+            this.exact = exact;
+        }
+
+        /**
+         * @return the number of features, Integer.MAX_VALUE if there are more
+         */
+        public int getCount() {
+            return this.count;
+        }
+
+        /**
+         * @return true if the count is the number of features, false if it is an estimate
+         */
+        public boolean isExact() {
+            return this.exact;
+        }
+
+        @Override
+        public String toString() {
+            return (this.exact ? "" : "~") + this.count; //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    /**
+     * Estimates the number of features that the query retrieves from the source
+     *
+     * @param source
+     * @param query
+     * @return the estimate
+     * @throws IOException
+     */
+    public static Estimate estimate( final FeatureSource<SimpleFeatureType, SimpleFeature> source,
+                                     final Query query ) throws IOException {
+
+        assert source != null;
+        assert query != null;
+
+        int count = source.getCount(query);
+        if (count >= 0) {
+            return new Estimate(count, true);
+        }
+        Estimate byBounds = estimateByBounds(source, query);
+        if (byBounds != null) {
+            return byBounds;
+        }
+        long sampled = countUpTo(source, query, SAMPLE_SIZE + 1);
+
+        return new Estimate(sampled, sampled <= SAMPLE_SIZE);
+    }
+
+    /**
+     * Counts the features that the query retrieves from the source, reading them only if the
+     * source can not count them
+     *
+     * @param source
+     * @param query
+     * @return the number of features
+     * @throws IOException
+     */
+    public static int count( final FeatureSource<SimpleFeatureType, SimpleFeature> source,
+                             final Query query ) throws IOException {
+
+        int count = source.getCount(query);
+        if (count >= 0) {
+            return count;
+        }
+        return new Estimate(countAll(source.getFeatures(query)), true).getCount();
+    }
+
+    /**
+     * Estimates the number of features in the collection.
+     * <p>
+     * Up to {@link #SAMPLE_SIZE} features are read. If the collection has more, the sample
+     * size is returned as an inexact lower bound; the bounds of the collection are not used
+     * since computing them on a filtered collection reads all its features. Prefer
+     * {@link #estimate(FeatureSource, Query)} when the source and query are known.
+     * </p>
+     *
+     * @param features
+     * @return the estimate
+     */
+    public static Estimate estimate( final FeatureCollection<SimpleFeatureType, SimpleFeature> features ) {
+
+        assert features != null;
+
+        long sampled = 0;
+        FeatureIterator<SimpleFeature> iter = features.features();
+        try {
+            while( iter.hasNext() && sampled <= SAMPLE_SIZE ) {
+                iter.next();
+                sampled++;
+            }
+        } finally {
+            features.close(iter);
+        }
+        return new Estimate(sampled, sampled <= SAMPLE_SIZE);
+    }
+
+    /**
+     * Estimates the count applying the ratio of the query's bounds to the layer's bounds to
+     * the number of features in the layer.
+     *
+     * @return the estimate or null if the source can not answer the count of the layer or the
+     *         query is not constrained by a bounding box
+     * @throws IOException
+     */
+    private static Estimate estimateByBounds( final FeatureSource<SimpleFeatureType, SimpleFeature> source,
+                                              final Query query ) throws IOException {
+
+        final int total = source.getCount(Query.ALL);
+        if (total < 0) {
+            return null;
+        }
+        Envelope layerBounds = source.getBounds();
+        if (layerBounds == null || layerBounds.isNull() || layerBounds.getArea() <= 0) {
+            return null;
+        }
+        Filter filter = query.getFilter();
+        if (filter == null || Filter.INCLUDE.equals(filter)) {
+            return new Estimate(total, true);
+        }
+        Object extracted = filter.accept(ExtractBoundsFilterVisitor.BOUNDS_VISITOR, null);
+        if (!(extracted instanceof Envelope)) {
+            return null;
+        }
+        Envelope queryBounds = (Envelope) extracted;
+        if (queryBounds.isNull() || Double.isInfinite(queryBounds.getArea())) {
+            return null;
+        }
+        Envelope covered = queryBounds.intersection(layerBounds);
+        double ratio = covered.getArea() / layerBounds.getArea();
+
+        return new Estimate((long) Math.ceil(total * ratio), false);
+    }
+
+    /**
+     * Counts the features retrieved by the query, reading up to limit features
+     */
+    private static long countUpTo( final FeatureSource<SimpleFeatureType, SimpleFeature> source,
+                                   final Query query, final int limit ) throws IOException {
+
+        DefaultQuery limited = new DefaultQuery(query);
+        limited.setMaxFeatures(limit);
+
+        FeatureCollection<SimpleFeatureType, SimpleFeature> features = source.getFeatures(limited);
+        Iterator<SimpleFeature> iter = features.iterator();
+        long count = 0;
+        try {
+            while( iter.hasNext() && count < limit ) {
+                iter.next();
+                count++;
+            }
+        } finally {
+            features.close(iter);
+        }
+        return count;
+    }
+
+    /**
+     * Reads all the features to count them
+     */
+    private static long countAll( final FeatureCollection<SimpleFeatureType, SimpleFeature> features ) {
+
+        Iterator<SimpleFeature> iter = features.iterator();
+        long count = 0;
+        try {
+            while( iter.hasNext() ) {
+                iter.next();
+                count++;
+            }
+        } finally {
+            features.close(iter);
+        }
+        return count;
+    }
+}
@@ -20,6 +20,8 @@
  */
 package es.axios.udig.ui.commons.util;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -44,7 +46,6 @@ import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.feature.type.GeometryType;
-import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.cs.CoordinateSystem;
 import org.opengis.referencing.cs.CoordinateSystemAxis;
@@ -53,12 +54,16 @@ import org.opengis.referencing.operation.OperationNotFoundException;
 import org.opengis.referencing.operation.TransformException;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.CoordinateSequenceFactory;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.GeometryComponentFilter;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineSegment;
+import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
 
 import es.axios.udig.ui.commons.internal.i18n.Messages;
@@ -93,6 +98,13 @@ public class GeoToolsUtils {
      */
     private static Map<Unit, String> commonLengthUnits   = new HashMap<Unit, String>();
 
+    /**
+     * Transformer of the calling thread, reused while the coordinate sequence factory is the
+     * same.
+     */
+    private static final ThreadLocal<GeometryCoordinateSequenceTransformer> THREAD_TRANSFORMER  = new ThreadLocal<GeometryCoordinateSequenceTransformer>();
+    private static final ThreadLocal<CoordinateSequenceFactory>             THREAD_CS_FACTORY   = new ThreadLocal<CoordinateSequenceFactory>();
+
     private GeoToolsUtils() {
         // util class
     }
@@ -226,13 +238,8 @@ public class GeoToolsUtils {
         csFactory = gFactory.getCoordinateSequenceFactory();
         csTransformer = new CoordSeqFactoryPreservingCoordinateSequenceTransformer(csFactory);
         transformer = new GeometryCoordinateSequenceTransformer(csTransformer);
-        // MathTransform mathTransform = findMathTransform(geomCrs, reprojectCrs);
-        MathTransform mathTransform;
-        try {
-            mathTransform = CRS.findMathTransform(geomCrs, reprojectCrs, true);
-        } catch (FactoryException e) {
-            throw new OperationNotFoundException(e.getMessage());
-        }
+
+        MathTransform mathTransform = TransformCache.getMathTransform(geomCrs, reprojectCrs);
 
         transformer.setMathTransform(mathTransform);
 
@@ -285,17 +292,138 @@ public class GeoToolsUtils {
             return geom;
         }
 
-        GeometryFactory gFactory = geom.getFactory();
-
+        MathTransform mathTransform = TransformCache.getMathTransform(geomCrs, reprojectCrs);
+        if (mathTransform.isIdentity()) {
+            return geom;
+        }
         GeometryCoordinateSequenceTransformer transformer;
-        transformer = getTransformer(gFactory, geomCrs, reprojectCrs);
-        Geometry geometry;
-        try {
-            geometry = transformer.transform(geom);
-        } catch (TransformException e) {
-            throw e;
+        transformer = getThreadTransformer(geom.getFactory().getCoordinateSequenceFactory());
+        transformer.setMathTransform(mathTransform);
+
+        return transformer.transform(geom);
+    }
+
+    /**
+     * Reprojects the geometries from <code>geomCrs</code> to <code>reprojectCrs</code>
+     * <p>
+     * Each geometry is copied and the coordinates of the copy are transformed in place, one
+     * call to the math transform by coordinate sequence, in a single traversal. This avoids
+     * the per geometry overhead of {@link #reproject(Geometry, CoordinateReferenceSystem,
+     * CoordinateReferenceSystem)} when many geometries are reprojected. Only x and y are
+     * transformed, the remaining ordinates are kept.
+     * </p>
+     * 
+     * @param geometries the geometries to reproject, all of them in <code>geomCrs</code>. They
+     *        are not modified.
+     * @param geomCrs the original CRS of the geometries
+     * @param reprojectCrs the CRS to reproject the geometries onto
+     * @return the reprojected geometries in the same order, the same geometries if both CRS
+     *         are equivalent
+     * @throws OperationNotFoundException if there isn't a transformation in GeoTools to convert
+     *         from <code>geomCrs</code> to <code>reprojectCrs</code>
+     * @throws TransformException
+     */
+    public static List<Geometry> reproject( final Collection<Geometry> geometries,
+                                            final CoordinateReferenceSystem geomCrs,
+                                            final CoordinateReferenceSystem reprojectCrs )
+        throws OperationNotFoundException, TransformException {
+
+        assert geometries != null;
+        assert geomCrs != null;
+        assert reprojectCrs != null;
+
+        List<Geometry> result = new ArrayList<Geometry>(geometries);
+        if (result.isEmpty() || CRS.equalsIgnoreMetadata(geomCrs, reprojectCrs)) {
+            return result;
+        }
+        MathTransform mathTransform = TransformCache.getMathTransform(geomCrs, reprojectCrs);
+        if (mathTransform.isIdentity()) {
+            return result;
+        }
+        if (mathTransform.getSourceDimensions() != 2 || mathTransform.getTargetDimensions() != 2) {
+            // the ordinates can not be transformed as x,y pairs
+            for( int i = 0; i < result.size(); i++ ) {
+                result.set(i, reproject(result.get(i), geomCrs, reprojectCrs));
+            }
+            return result;
+        }
+        InPlaceTransformFilter filter = new InPlaceTransformFilter(mathTransform);
+        for( int i = 0; i < result.size(); i++ ) {
+
+            Geometry copy = (Geometry) result.get(i).clone();
+            copy.apply(filter);
+            if (filter.failure != null) {
+                throw filter.failure;
+            }
+            copy.geometryChanged();
+            result.set(i, copy);
+        }
+        return result;
+    }
+
+    private static GeometryCoordinateSequenceTransformer getThreadTransformer( final CoordinateSequenceFactory csFactory ) {
+
+        GeometryCoordinateSequenceTransformer transformer = THREAD_TRANSFORMER.get();
+        if (transformer == null || THREAD_CS_FACTORY.get() != csFactory) {
+
+            CoordinateSequenceTransformer csTransformer = new CoordSeqFactoryPreservingCoordinateSequenceTransformer(csFactory);
+            transformer = new GeometryCoordinateSequenceTransformer(csTransformer);
+
+            THREAD_TRANSFORMER.set(transformer);
+            THREAD_CS_FACTORY.set(csFactory);
+        }
+        return transformer;
+    }
+
+    /**
+     * Transforms the x,y of the coordinate sequences of the components of a geometry in place,
+     * with one call to the math transform by sequence. The ordinates are packed in a buffer
+     * reused for every sequence.
+     */
+    private static final class InPlaceTransformFilter implements GeometryComponentFilter {
+
+        private final MathTransform transform;
+        private double[]            ordinates = new double[256];
+        /** the failure of the last sequence transformed, if any */
+        TransformException          failure   = null;
+
+        InPlaceTransformFilter( final MathTransform transform ) {
+            this.transform = transform;
+        }
+
+        public void filter( final Geometry geometry ) {
+
+            final CoordinateSequence sequence;
+            if (geometry instanceof LineString) {
+                sequence = ((LineString) geometry).getCoordinateSequence();
+            } else if (geometry instanceof Point) {
+                sequence = ((Point) geometry).getCoordinateSequence();
+            } else {
+                // the components of polygons and collections are visited
+                return;
+            }
+            if (this.failure != null) {
+                return;
+            }
+            final int count = sequence.size();
+            if (2 * count > this.ordinates.length) {
+                this.ordinates = new double[2 * count];
+            }
+            for( int i = 0; i < count; i++ ) {
+                this.ordinates[2 * i] = sequence.getX(i);
+                this.ordinates[2 * i + 1] = sequence.getY(i);
+            }
+            try {
+                this.transform.transform(this.ordinates, 0, this.ordinates, 0, count);
+            } catch (TransformException e) {
+                this.failure = e;
+                return;
+            }
+            for( int i = 0; i < count; i++ ) {
+                sequence.setOrdinate(i, CoordinateSequence.X, this.ordinates[2 * i]);
+                sequence.setOrdinate(i, CoordinateSequence.Y, this.ordinates[2 * i + 1]);
+            }
         }
-        return geometry;
     }
 
     /**
@@ -458,6 +586,10 @@ public class GeoToolsUtils {
     }
     /**
      * Computes the sum of features in theSimpleFeaturecollection.
+     * <p>
+     * All the features could be read, use {@link FeatureCountEstimator} when an estimate is
+     * enough or the feature source is available.
+     * </p>
      * 
      * @param selectedFeatures
      * @return the count of features in the collection or Integer.MAX_VALUE if theSimpleFeature
@@ -506,8 +638,8 @@ public class GeoToolsUtils {
 
         MathTransform mathTransform;
         try {
-            mathTransform = CRS.findMathTransform(segmentCrs, reprojectCrs, true);
-        } catch (FactoryException e) {
+            mathTransform = TransformCache.getMathTransform(segmentCrs, reprojectCrs);
+        } catch (OperationNotFoundException e) {
             throw new RuntimeException(e.getMessage());
         }
         double[] src = {segment.p0.x, segment.p0.y, segment.p1.x, segment.p1.y};
@@ -65,34 +65,44 @@ public class GeometryUtil {
     /**
      * Returns a geometry which is the union of all the non null default geometries from the
      * features in <code>featureCollection</code>
+     * <p>
+     * The union is made with a {@link CascadedUnion}. The geometries of the features are not
+     * modified.
+     * </p>
      * 
      * @param featureCollection
-     * @param expectedGeometryClass
      * @return Gemetry Union
      */
     public static Geometry geometryUnion( final FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection ) {
 
-        Geometry resultGeom = null;
+        return geometryUnion(featureCollection, 1);
+    }
+
+    /**
+     * Returns a geometry which is the union of all the non null default geometries from the
+     * features in <code>featureCollection</code>
+     * 
+     * @param featureCollection
+     * @param parallelism number of threads used to make the union
+     * @return Gemetry Union
+     * @see CascadedUnion
+     */
+    public static Geometry geometryUnion( final FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection,
+                                          final int parallelism ) {
+
+        CascadedUnion union = new CascadedUnion();
+        union.setParallelism(parallelism);
 
-        SimpleFeature currFeature;
-        Geometry featureGeom;
         try {
             for( Iterator<SimpleFeature> iterator = featureCollection.iterator(); iterator.hasNext(); ) {
-                currFeature = iterator.next();
-                featureGeom = (Geometry) currFeature.getDefaultGeometry();
-                if (featureGeom != null) {
-                    featureGeom.normalize();
-                    if (resultGeom == null) {
-                        resultGeom = featureGeom;
-                    } else {
-                        resultGeom = resultGeom.union(featureGeom);
-                    }
-                }
+                SimpleFeature currFeature = iterator.next();
+                union.add((Geometry) currFeature.getDefaultGeometry());
             }
         } finally {
             // ask feature collection to close potentially still open iterators
             featureCollection.purge();
         }
+        Geometry resultGeom = union.getResult();
 
         return resultGeom;
 
@@ -122,17 +122,43 @@ public final class LayerUtil {
         FeatureSource<SimpleFeatureType, SimpleFeature> source = layer.getResource(FeatureSource.class, null);
         assert source != null;
 
+        // the features are read only if the source can not count them
         final Query query = getSelectionQuery(layer);
-        FeatureCollection<SimpleFeatureType, SimpleFeature> features = source.getFeatures(query);
+        int count = FeatureCountEstimator.count(source, query);
         // if empty select all layer is computed (filter none)
-        if (features.isEmpty()) {
-            features = source.getFeatures(filter);
+        if (count == 0) {
+            String typeName = source.getSchema().getTypeName();
+            count = FeatureCountEstimator.count(source, new DefaultQuery(typeName, filter));
         }
-        int count = GeoToolsUtils.computeCollectionSize(features);
-
         return count;
     }
 
+    /**
+     * Estimates the number of features selected, or of all the features if none is selected,
+     * without reading them when the layer's source can count them. It is the cheap
+     * counterpart of {@link #getCountOfSelectedFeatures(ILayer)}, intended to size progress
+     * monitors.
+     * 
+     * @param layer
+     * @return the estimated count of features in the selection, or in the whole layer
+     * @throws IOException
+     */
+    public static FeatureCountEstimator.Estimate estimateCountOfSelectedFeatures( final ILayer layer )
+        throws IOException {
+
+        FeatureSource<SimpleFeatureType, SimpleFeature> source = layer.getResource(FeatureSource.class, null);
+        if (source == null) {
+            return new FeatureCountEstimator.Estimate(0, true);
+        }
+        FeatureCountEstimator.Estimate estimate = FeatureCountEstimator.estimate(source, getSelectionQuery(layer));
+        // if empty select all layer is computed (filter none)
+        if (estimate.isExact() && estimate.getCount() == 0) {
+            String typeName = source.getSchema().getTypeName();
+            estimate = FeatureCountEstimator.estimate(source, new DefaultQuery(typeName, Filter.INCLUDE));
+        }
+        return estimate;
+    }
+
     /**
      * Returns the features selected in layer.
      * 
@@ -0,0 +1,139 @@
+/* Spatial Operations & Editing Tools for uDig
+ *
+ * Axios Engineering under a funding contract with:
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT).
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ *
+ * You can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.ui.commons.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.geotools.referencing.CRS;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.OperationNotFoundException;
+
+/**
+ * Cache of the math transforms found by {@link CRS#findMathTransform}.
+ * <p>
+ * The transforms are kept by pair of source and target crs, up to {@link #CAPACITY} pairs;
+ * when it is full the least recently used pair is discarded. The math transforms are
+ * immutable, so the same instance is shared by every thread. The access to the cache is
+ * synchronized, the transform is looked up out of the lock.
+ * </p>
+ *
+ * @author Mauricio Pazos (www.axios.es)
+ * @author Gabriel Roldan (www.axios.es)
+ * @since 1.1.0
+ */
+final class TransformCache {
+
+    /** maximum number of crs pairs kept */
+    static final int                                 CAPACITY   = 32;
+
+    private static final Map<CrsPair, MathTransform> TRANSFORMS = new LruMap();
+
+    private TransformCache() {
+        // util class
+    }
+
+    /**
+     * @param sourceCrs
+     * @param targetCrs
+     * @return the lenient math transform from <code>sourceCrs</code> to <code>targetCrs</code>
+     * @throws OperationNotFoundException if there is not a transform between both crs
+     */
+    static MathTransform getMathTransform( final CoordinateReferenceSystem sourceCrs,
+                                           final CoordinateReferenceSystem targetCrs )
+        throws OperationNotFoundException {
+
+        assert sourceCrs != null;
+        assert targetCrs != null;
+
+        final CrsPair key = new CrsPair(sourceCrs, targetCrs);
+        synchronized (TRANSFORMS) {
+            MathTransform transform = TRANSFORMS.get(key);
+            if (transform != null) {
+                return transform;
+            }
+        }
+        MathTransform transform;
+        try {
+            transform = CRS.findMathTransform(sourceCrs, targetCrs, true);
+        } catch (FactoryException e) {
+            throw new OperationNotFoundException(e.getMessage());
+        }
+        synchronized (TRANSFORMS) {
+            TRANSFORMS.put(key, transform);
+        }
+        return transform;
+    }
+
+    /**
+     * Map which discards the least recently used entry when it holds more than
+     * {@link TransformCache#CAPACITY} entries
+     */
+    private static final class LruMap extends LinkedHashMap<CrsPair, MathTransform> {
+
+        private static final long serialVersionUID = 1L;
+
+        LruMap() {
+            super(CAPACITY, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<CrsPair, MathTransform> eldest ) {
+            return size() > CAPACITY;
+        }
+    }
+
+    /**
+     * Key of the cache
+     */
+    private static final class CrsPair {
+
+        private final CoordinateReferenceSystem source;
+        private final CoordinateReferenceSystem target;
+        private final int                       hash;
+
+        CrsPair( final CoordinateReferenceSystem source, final CoordinateReferenceSystem target ) {
+            this.source = source;
+            this.target = target;
+            this.hash = 31 * source.hashCode() + target.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof CrsPair)) {
+                return false;
+            }
+            CrsPair other = (CrsPair) obj;
+            return (this.source == other.source || this.source.equals(other.source))
+                    && (this.target == other.target || this.target.equals(other.target));
+        }
+    }
+}
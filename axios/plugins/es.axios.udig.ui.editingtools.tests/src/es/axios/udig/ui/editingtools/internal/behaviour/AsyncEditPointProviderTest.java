@@ -0,0 +1,229 @@
+/* Spatial Operations & Editing Tools for uDig
+ *
+ * Axios Engineering under a funding contract with:
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT).
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ *
+ * You can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.ui.editingtools.internal.behaviour;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import net.refractions.udig.project.ui.render.displayAdapter.MapMouseEvent;
+import net.refractions.udig.tools.edit.EditToolHandler;
+import net.refractions.udig.tools.edit.support.Point;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import es.axios.udig.ui.editingtools.support.TestHandler;
+
+/**
+ * Test for {@link AsyncEditPointProvider}
+ * <p>
+ * The snap search is made by a fake {@link ISnapQueryProvider}: the query of a mouse location
+ * returns (1000 + x, 1000 + y) and can be blocked until the test releases it, the synchronous
+ * search returns (-x, -y) and is counted. The searches run in the thread shared by all the
+ * providers, then a search requested by other provider is used as a fence: when it has run the
+ * previous searches have finished.
+ * </p>
+ *
+ * @author Gabriel Roldan (www.axios.es)
+ * @author Mauricio Pazos (www.axios.es)
+ * @since 1.1.0
+ */
+public class AsyncEditPointProviderTest extends TestCase {
+
+    private static final long      TIMEOUT = 5;
+
+    private TestHandler            handler;
+
+    private FakeSnapQueryProvider  fake;
+
+    private AsyncEditPointProvider provider;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        this.handler = new TestHandler();
+        this.fake = new FakeSnapQueryProvider();
+        this.provider = new AsyncEditPointProvider(this.fake);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        this.fake.releaseAll();
+        this.provider.cancel();
+    }
+
+    /**
+     * A search that finishes after a newer request does not publish its result, nor does a
+     * search requested before a synchronous search
+     */
+    public void testOlderResultIsNotPublished() throws Exception {
+
+        MapMouseEvent first = event(1);
+        MapMouseEvent second = event(2);
+        this.fake.block(1);
+        this.fake.block(2);
+
+        assertEquals(Point.valueOf(1, 1), this.provider.getPoint(first, this.handler));
+        this.fake.awaitStarted(1);
+
+        // the first search is running when the second location is requested
+        assertEquals(Point.valueOf(2, 2), this.provider.getPoint(second, this.handler));
+        this.fake.release(1);
+        this.fake.awaitStarted(2);
+
+        // the first search has finished, its result was discarded
+        assertEquals(new Coordinate(-1, -1), this.provider.getCoordinate(first, this.handler));
+        assertEquals(1, this.fake.getSyncSearches());
+
+        // the synchronous search discarded the second request
+        this.fake.release(2);
+        fence();
+        assertEquals(new Coordinate(-2, -2), this.provider.getCoordinate(second, this.handler));
+        assertEquals(2, this.fake.getSyncSearches());
+    }
+
+    /**
+     * The published result is returned for its mouse location, any other location is searched
+     * synchronously
+     */
+    public void testCoordinateOfOtherLocationIsSearchedSynchronously() throws Exception {
+
+        MapMouseEvent first = event(1);
+        MapMouseEvent second = event(2);
+
+        this.provider.getPoint(first, this.handler);
+        fence();
+
+        assertEquals(new Coordinate(1001, 1001), this.provider.getCoordinate(first, this.handler));
+        assertEquals(0, this.fake.getSyncSearches());
+
+        assertEquals(new Coordinate(-2, -2), this.provider.getCoordinate(second, this.handler));
+        assertEquals(1, this.fake.getSyncSearches());
+
+        // the synchronous result is published too
+        assertEquals(new Coordinate(-2, -2), this.provider.getCoordinate(second, this.handler));
+        assertEquals(1, this.fake.getSyncSearches());
+    }
+
+    /**
+     * Waits until the searches requested before have finished
+     */
+    private void fence() throws Exception {
+
+        FakeSnapQueryProvider fenceFake = new FakeSnapQueryProvider();
+        new AsyncEditPointProvider(fenceFake).getPoint(event(0), this.handler);
+        fenceFake.awaitFinished(0);
+    }
+
+    private static MapMouseEvent event( final int xy ) {
+        return new MapMouseEvent(null, xy, xy, 0, 0, 0);
+    }
+
+    /**
+     * Snap provider whose searches can be blocked
+     */
+    private static final class FakeSnapQueryProvider implements ISnapQueryProvider {
+
+        private final Map<Integer, CountDownLatch> releases = new HashMap<Integer, CountDownLatch>();
+
+        private final Map<Integer, CountDownLatch> started  = new HashMap<Integer, CountDownLatch>();
+
+        private final Map<Integer, CountDownLatch> finished = new HashMap<Integer, CountDownLatch>();
+
+        private final AtomicInteger                syncSearches = new AtomicInteger();
+
+        /**
+         * The search of the location (x, x) waits until it is released
+         */
+        synchronized void block( final int x ) {
+            this.releases.put(x, new CountDownLatch(1));
+        }
+
+        synchronized void release( final int x ) {
+            this.releases.get(x).countDown();
+        }
+
+        synchronized void releaseAll() {
+            for( CountDownLatch latch : this.releases.values() ) {
+                latch.countDown();
+            }
+        }
+
+        void awaitStarted( final int x ) throws InterruptedException {
+            assertTrue(latch(this.started, x).await(TIMEOUT, TimeUnit.SECONDS));
+        }
+
+        void awaitFinished( final int x ) throws InterruptedException {
+            assertTrue(latch(this.finished, x).await(TIMEOUT, TimeUnit.SECONDS));
+        }
+
+        int getSyncSearches() {
+            return this.syncSearches.get();
+        }
+
+        private synchronized CountDownLatch latch( final Map<Integer, CountDownLatch> latches,
+                                                   final int x ) {
+            CountDownLatch latch = latches.get(x);
+            if (latch == null) {
+                latch = new CountDownLatch(1);
+                latches.put(x, latch);
+            }
+            return latch;
+        }
+
+        public SnapQuery createQuery( final MapMouseEvent e, final EditToolHandler handler ) {
+
+            final int x = e.x;
+            final CountDownLatch release;
+            synchronized (this) {
+                release = this.releases.get(x);
+            }
+            return new SnapQuery(){
+                public Coordinate search() {
+                    latch(started, x).countDown();
+                    try {
+                        if (release != null) {
+                            release.await(TIMEOUT, TimeUnit.SECONDS);
+                        }
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    latch(finished, x).countDown();
+                    return new Coordinate(1000 + x, 1000 + x);
+                }
+            };
+        }
+
+        public Coordinate getCoordinate( final MapMouseEvent e, final EditToolHandler handler ) {
+            this.syncSearches.incrementAndGet();
+            return new Coordinate(-e.x, -e.y);
+        }
+
+        public Point getPoint( final MapMouseEvent e, final EditToolHandler handler ) {
+            return Point.valueOf(e.x, e.y);
+        }
+    }
+}
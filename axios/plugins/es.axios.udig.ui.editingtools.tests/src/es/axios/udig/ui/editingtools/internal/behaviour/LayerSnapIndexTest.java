@@ -0,0 +1,319 @@
+/* Spatial Operations & Editing Tools for uDig
+ *
+ * Axios Engineering under a funding contract with:
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT).
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ *
+ * You can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.ui.editingtools.internal.behaviour;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.refractions.udig.project.ILayer;
+import net.refractions.udig.project.ILayerListener;
+import net.refractions.udig.project.IMap;
+import net.refractions.udig.project.LayerEvent;
+import net.refractions.udig.project.render.IViewportModel;
+import net.refractions.udig.project.ui.tool.IToolContext;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.FeatureEvent;
+import org.geotools.data.FeatureStore;
+import org.geotools.data.memory.MemoryDataStore;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineSegment;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * Test for {@link LayerSnapIndex}
+ * <p>
+ * The layer, its map and the tool context are stubs over a memory store holding two
+ * horizontal lines, <code>line.1</code> at y = 0 and <code>line.2</code> at y = 5. The stub
+ * layer keeps its listeners, so the tests can send it the edit and crs events.
+ * </p>
+ *
+ * @author Gabriel Roldan (www.axios.es)
+ * @author Mauricio Pazos (www.axios.es)
+ * @since 1.1.0
+ */
+public class LayerSnapIndexTest extends TestCase {
+
+    private static final CoordinateReferenceSystem CRS     = DefaultGeographicCRS.WGS84;
+
+    private static final Envelope                  VISIBLE = new Envelope(-20, 30, -20, 30);
+
+    private static final double                    SCALE   = 1000;
+
+    private final GeometryFactory                  gf      = new GeometryFactory();
+
+    private final FilterFactory2                   ff      = CommonFactoryFinder.getFilterFactory2(null);
+
+    private final List<ILayerListener>             listeners = new ArrayList<ILayerListener>();
+
+    private SimpleFeatureType                      type;
+
+    private FeatureStore<SimpleFeatureType, SimpleFeature> store;
+
+    private ILayer                                 layer;
+
+    private IToolContext                           context;
+
+    private LayerSnapIndex                         index;
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        this.type = DataUtilities.createType("lines", "geom:LineString,name:String"); //$NON-NLS-1$ //$NON-NLS-2$
+        MemoryDataStore dataStore = new MemoryDataStore();
+        dataStore.addFeature(createLine("line.1", 0)); //$NON-NLS-1$
+        dataStore.addFeature(createLine("line.2", 5)); //$NON-NLS-1$
+        this.store = (FeatureStore<SimpleFeatureType, SimpleFeature>) dataStore.getFeatureSource("lines"); //$NON-NLS-1$
+
+        this.layer = createLayer();
+        this.context = createContext();
+        this.index = new LayerSnapIndex(this.layer, CRS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        this.index.dispose(this.layer);
+    }
+
+    /**
+     * The segments of the excluded feature are ignored, then the closest one is in other
+     * feature
+     */
+    public void testClosestSegmentWithExcludedFid() throws Exception {
+
+        Coordinate center = new Coordinate(5, 1);
+        Envelope searchArea = searchArea(center);
+        load(searchArea);
+
+        LineSegment closest = this.index.closestSegment(center, searchArea, null);
+        assertNotNull(closest);
+        assertEquals(0, closest.p0.y, 0);
+
+        closest = this.index.closestSegment(center, searchArea, "line.1"); //$NON-NLS-1$
+        assertNotNull(closest);
+        assertEquals(5, closest.p0.y, 0);
+
+        assertNull(this.index.closestSegment(center, searchArea, "line.2")); //$NON-NLS-1$
+    }
+
+    /**
+     * A moved feature is searched in its new position after the edit event
+     */
+    public void testInvalidateMovedFeature() throws Exception {
+
+        Coordinate center = new Coordinate(5, 1);
+        Envelope searchArea = searchArea(center);
+        load(searchArea);
+        assertEquals(0, this.index.closestSegment(center, searchArea, null).p0.y, 0);
+
+        Envelope edited = new Envelope(0, 10, 0, 20);
+        this.store.modifyFeatures(this.type.getGeometryDescriptor(), createLineString(20),
+                                  fidFilter("line.1")); //$NON-NLS-1$
+        fireEdit(edited);
+        load(searchArea);
+
+        assertEquals(5, this.index.closestSegment(center, searchArea, null).p0.y, 0);
+
+        Coordinate moved = new Coordinate(5, 19);
+        assertEquals(20, this.index.closestSegment(moved, searchArea(moved), null).p0.y, 0);
+    }
+
+    /**
+     * A deleted feature is not returned after the edit event
+     */
+    public void testInvalidateDeletedFeature() throws Exception {
+
+        Coordinate center = new Coordinate(5, 1);
+        Envelope searchArea = searchArea(center);
+        load(searchArea);
+
+        this.store.removeFeatures(fidFilter("line.1")); //$NON-NLS-1$
+        fireEdit(new Envelope(0, 10, 0, 0));
+        load(searchArea);
+
+        LineSegment closest = this.index.closestSegment(center, searchArea, null);
+        assertNotNull(closest);
+        assertEquals(5, closest.p0.y, 0);
+    }
+
+    /**
+     * A crs change of the layer evicts the index, which is built again by the next load
+     */
+    public void testCrsChangeRebuildsIndex() throws Exception {
+
+        Coordinate center = new Coordinate(5, 1);
+        Envelope searchArea = searchArea(center);
+        load(searchArea);
+        assertNotNull(this.index.closestSegment(center, searchArea, null));
+
+        fire(new LayerEvent(this.layer, LayerEvent.EventType.CRS, null, CRS));
+        assertNull(this.index.closestSegment(center, searchArea, null));
+
+        load(searchArea);
+        assertEquals(0, this.index.closestSegment(center, searchArea, null).p0.y, 0);
+    }
+
+    /**
+     * The index of other calculation crs is replaced and stops listening the layer
+     */
+    public void testServiceReplacesIndexOfOtherCrs() throws Exception {
+
+        this.index.dispose(this.layer);
+
+        LayerSnapIndex first = SnapIndexService.getIndex(this.layer, CRS);
+        assertSame(first, SnapIndexService.getIndex(this.layer, CRS));
+        assertEquals(1, this.listeners.size());
+
+        LayerSnapIndex second = SnapIndexService.getIndex(this.layer, DefaultGeographicCRS.WGS84_3D);
+        assertNotSame(first, second);
+        assertEquals(1, this.listeners.size());
+
+        this.index = second;
+    }
+
+    private void load( final Envelope searchArea ) throws Exception {
+        this.index.load(this.layer, this.context, VISIBLE, SCALE, searchArea);
+    }
+
+    private void fireEdit( final Envelope bounds ) {
+
+        FeatureEvent featureEvent = new FeatureEvent(this.store, FeatureEvent.FEATURES_CHANGED, bounds);
+        fire(new LayerEvent(this.layer, LayerEvent.EventType.EDIT_EVENT, null, featureEvent));
+    }
+
+    private void fire( final LayerEvent event ) {
+
+        for( ILayerListener listener : new ArrayList<ILayerListener>(this.listeners) ) {
+            listener.refresh(event);
+        }
+    }
+
+    private static Envelope searchArea( final Coordinate center ) {
+
+        Envelope area = new Envelope(center);
+        area.expandBy(5);
+        return area;
+    }
+
+    private Filter fidFilter( final String fid ) {
+        return this.ff.id(Collections.singleton(this.ff.featureId(fid)));
+    }
+
+    private LineString createLineString( final double y ) {
+        return this.gf.createLineString(new Coordinate[]{new Coordinate(0, y), new Coordinate(10, y)});
+    }
+
+    private SimpleFeature createLine( final String fid, final double y ) {
+        return SimpleFeatureBuilder.build(this.type, new Object[]{createLineString(y), fid}, fid);
+    }
+
+    /**
+     * @return a layer which keeps its listeners, whose map has a viewport in {@link #CRS}
+     */
+    private ILayer createLayer() {
+
+        final IViewportModel viewport = stub(IViewportModel.class, new InvocationHandler(){
+            public Object invoke( Object proxy, Method method, Object[] args ) {
+                return "getCRS".equals(method.getName()) ? CRS : null; //$NON-NLS-1$
+            }
+        });
+        final IMap map = stub(IMap.class, new InvocationHandler(){
+            public Object invoke( Object proxy, Method method, Object[] args ) {
+                return "getViewportModel".equals(method.getName()) ? viewport : null; //$NON-NLS-1$
+            }
+        });
+        return stub(ILayer.class, new InvocationHandler(){
+            public Object invoke( Object proxy, Method method, Object[] args ) {
+                String name = method.getName();
+                if ("addListener".equals(name)) { //$NON-NLS-1$
+                    listeners.add((ILayerListener) args[0]);
+                } else if ("removeListener".equals(name)) { //$NON-NLS-1$
+                    listeners.remove(args[0]);
+                } else if ("getCRS".equals(name)) { //$NON-NLS-1$
+                    return CRS;
+                } else if ("getMap".equals(name)) { //$NON-NLS-1$
+                    return map;
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @return a context whose features in a bbox are read from the store
+     */
+    private IToolContext createContext() {
+
+        return stub(IToolContext.class, new InvocationHandler(){
+            public Object invoke( Object proxy, Method method, Object[] args ) throws Exception {
+                if (!"getFeaturesInBbox".equals(method.getName())) { //$NON-NLS-1$
+                    return null;
+                }
+                Envelope bbox = (Envelope) args[1];
+                Filter filter = ff.bbox("geom", bbox.getMinX(), bbox.getMinY(), //$NON-NLS-1$
+                                        bbox.getMaxX(), bbox.getMaxY(), null);
+                return store.getFeatures(filter);
+            }
+        });
+    }
+
+    /**
+     * Creates a stub of the interface, its equals, hashCode and toString are the identity ones
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T stub( final Class<T> type, final InvocationHandler handler ) {
+
+        return (T) Proxy.newProxyInstance(LayerSnapIndexTest.class.getClassLoader(),
+                                          new Class[]{type}, new InvocationHandler(){
+                    public Object invoke( Object proxy, Method method, Object[] args )
+                        throws Throwable {
+                        String name = method.getName();
+                        if ("equals".equals(name)) { //$NON-NLS-1$
+                            return proxy == args[0];
+                        } else if ("hashCode".equals(name)) { //$NON-NLS-1$
+                            return System.identityHashCode(proxy);
+                        } else if ("toString".equals(name)) { //$NON-NLS-1$
+                            return type.getSimpleName() + "@" + System.identityHashCode(proxy); //$NON-NLS-1$
+                        }
+                        return handler.invoke(proxy, method, args);
+                    }
+                });
+    }
+}
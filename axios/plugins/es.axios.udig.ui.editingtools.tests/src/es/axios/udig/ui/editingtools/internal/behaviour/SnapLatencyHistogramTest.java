@@ -0,0 +1,110 @@
+/* Spatial Operations & Editing Tools for uDig
+ *
+ * Axios Engineering under a funding contract with:
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT).
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ *
+ * You can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.ui.editingtools.internal.behaviour;
+
+import junit.framework.TestCase;
+
+/**
+ * Test for {@link SnapLatencyHistogram}
+ *
+ * @author Gabriel Roldan (www.axios.es)
+ * @author Mauricio Pazos (www.axios.es)
+ * @since 1.1.0
+ */
+public class SnapLatencyHistogramTest extends TestCase {
+
+    private static final long MICRO = 1000;
+
+    private SnapLatencyHistogram histogram;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.histogram = new SnapLatencyHistogram("test"); //$NON-NLS-1$
+    }
+
+    /**
+     * The bucket i counts the latencies lower than 2^i microseconds and not lower than
+     * 2^(i-1), the last one counts the rest
+     */
+    public void testBuckets() {
+
+        this.histogram.record(0);
+        this.histogram.record(MICRO - 1);
+        this.histogram.record(MICRO);
+        this.histogram.record(3 * MICRO);
+        this.histogram.record(4 * MICRO);
+        this.histogram.record(100 * MICRO);
+        this.histogram.record(10000000 * MICRO);
+
+        long[] counts = this.histogram.getCounts();
+        assertEquals(SnapLatencyHistogram.BUCKETS, counts.length);
+        assertEquals(2, counts[0]);
+        assertEquals(1, counts[1]);
+        assertEquals(1, counts[2]);
+        assertEquals(1, counts[3]);
+        assertEquals(1, counts[7]);
+        assertEquals(1, counts[SnapLatencyHistogram.BUCKETS - 1]);
+        assertEquals(7, this.histogram.getTotal());
+        assertEquals(10000000, this.histogram.getMaxMicros());
+    }
+
+    /**
+     * The percentile is the upper bound of the bucket holding its rank
+     */
+    public void testPercentiles() {
+
+        assertEquals(0, this.histogram.getPercentileMicros(50));
+
+        for( int i = 0; i < 90; i++ ) {
+            this.histogram.record(3 * MICRO);
+        }
+        for( int i = 0; i < 10; i++ ) {
+            this.histogram.record(100 * MICRO);
+        }
+        assertEquals(4, this.histogram.getPercentileMicros(50));
+        assertEquals(4, this.histogram.getPercentileMicros(90));
+        assertEquals(128, this.histogram.getPercentileMicros(91));
+        assertEquals(128, this.histogram.getPercentileMicros(100));
+    }
+
+    /**
+     * The percentiles in the last bucket are the maximum latency
+     */
+    public void testPercentileInLastBucket() {
+
+        this.histogram.record(MICRO);
+        this.histogram.record(10000000 * MICRO);
+
+        assertEquals(2, this.histogram.getPercentileMicros(50));
+        assertEquals(10000000, this.histogram.getPercentileMicros(99));
+    }
+
+    public void testReset() {
+
+        this.histogram.record(100 * MICRO);
+        this.histogram.reset();
+
+        assertEquals(0, this.histogram.getTotal());
+        assertEquals(0, this.histogram.getMaxMicros());
+        assertEquals(0, this.histogram.getPercentileMicros(99));
+    }
+}
@@ -124,6 +124,25 @@ public class TrimGeometryOpTest extends TestCase {
         assertTrue("expected " + rightPart + ", got " + ccwResult, rightPart.equalsExact(ccwResult));
     }
 
+    /**
+     * The input line is cut at one of its vertices without repeating it in the resulting parts
+     * 
+     * @throws ParseException
+     */
+    public void testTrimLineStringAtVertex() throws ParseException {
+        WKTReader reader = new WKTReader();
+        LineString input = (LineString) reader.read("LINESTRING(-1 1, 1 1, 2 1)");
+
+        LineString leftPart = (LineString) reader.read("LINESTRING(-1 1, 1 1)");
+        LineString rightPart = (LineString) reader.read("LINESTRING(1 1, 2 1)");
+
+        Geometry cwResult = TrimGeometryStrategy.trim(input, clockwiseTrimLine);
+        Geometry ccwResult = TrimGeometryStrategy.trim(input, coutnerClockwiseTrimLine);
+
+        assertTrue("expected " + leftPart + ", got " + cwResult, leftPart.equalsExact(cwResult));
+        assertTrue("expected " + rightPart + ", got " + ccwResult, rightPart.equalsExact(ccwResult));
+    }
+
     /**
      * {@link TrimGeometryStrategy} cuts the input geometries at the right of the trimming line, and
      * returns the remaining at the left.
@@ -0,0 +1,208 @@
+/* Spatial Operations & Editing Tools for uDig
+ * 
+ * Axios Engineering under a funding contract with: 
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial 
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es 
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT). 
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ * 
+ * You can redistribute it and/or modify it under the terms of the 
+ * GNU Lesser General Public License as published by the Free Software 
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.ui.editingtools.internal.geometryoperations.split;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Test suite for {@link BatchSplitStrategy}
+ * <p>
+ * Each geometry split by the batch is compared with the result of {@link SplitStrategy} using
+ * the whole splitting line.
+ * </p>
+ * 
+ * @author Gabriel Roldán (www.axios.es)
+ * @author Mauricio Pazos (www.axios.es)
+ * @since 1.1.0
+ */
+public class BatchSplitStrategyTest extends TestCase {
+
+    /**
+     * A line crossing a row of polygons, with vertices inside and outside them
+     */
+    public void testSplitPolygonsWithLongLine() throws Exception {
+        LineString splitter = (LineString) read("LINESTRING(-5 5, 5 5.5, 12 4, 15 4.5, 25 5, 35 5.2, 38 6, 45 5, 55 5)");
+        List<Geometry> splitees = read(new String[]{
+                "POLYGON((0 0, 10 0, 10 10, 0 10, 0 0))",
+                "POLYGON((20 0, 30 0, 30 10, 20 10, 20 0))",
+                "POLYGON((40 0, 50 0, 50 10, 40 10, 40 0))"});
+
+        assertSameSplit(splitter, splitees, 1);
+        assertSameSplit(splitter, splitees, 3);
+    }
+
+    /**
+     * A line entering and leaving a polygon, the same as
+     * <code>SplitOpTest.testSplitPolygon_CutoutBlock</code>, and crossing a second polygon
+     */
+    public void testSplitCutoutBlock() throws Exception {
+        LineString splitter = (LineString) read("LINESTRING(20 0, 20 30, 30 30, 30 0, 60 0, 60 30)");
+        List<Geometry> splitees = read(new String[]{
+                "POLYGON((10 10, 40 10, 40 40, 10 40, 10 10))",
+                "POLYGON((50 10, 70 10, 70 20, 50 20, 50 10))"});
+
+        List<Geometry> results = assertSameSplit(splitter, splitees, 2);
+        assertEquals(2, results.get(0).getNumGeometries());
+        assertEquals(2, results.get(1).getNumGeometries());
+    }
+
+    /**
+     * A polygon far from the line and a polygon inside the line's envelope that no segment
+     * reaches are not split
+     */
+    public void testSplitNotReached() throws Exception {
+        LineString splitter = (LineString) read("LINESTRING(0 0, 100 0, 100 100)");
+        List<Geometry> splitees = read(new String[]{
+                "POLYGON((10 50, 20 50, 20 60, 10 60, 10 50))",
+                "POLYGON((200 200, 210 200, 210 210, 200 210, 200 200))",
+                "POLYGON((90 40, 110 40, 110 60, 90 60, 90 40))"});
+
+        List<Geometry> results = assertSameSplit(splitter, splitees, 2);
+        assertNull(results.get(0));
+        assertNull(results.get(1));
+        assertNotNull(results.get(2));
+    }
+
+    /**
+     * A closed line is not cut: inside a polygon it makes a hole, crossing another one it splits
+     * it, and it does not reach a third one
+     */
+    public void testSplitWithClosedLine() throws Exception {
+        LineString splitter = (LineString) read("LINESTRING(10 10, 20 10, 20 20, 10 20, 10 10)");
+        List<Geometry> splitees = read(new String[]{
+                "POLYGON((0 0, 40 0, 40 40, 0 40, 0 0))",
+                "POLYGON((15 15, 25 15, 25 25, 15 25, 15 15))",
+                "POLYGON((100 100, 110 100, 110 110, 100 110, 100 100))"});
+
+        BatchSplitStrategy strategy = new BatchSplitStrategy(splitter, 1);
+        LineString localSplitter = strategy.getSplitterFor(splitees.get(1).getEnvelopeInternal());
+        assertTrue(splitter.equalsExact(localSplitter));
+
+        List<Geometry> results = assertSameSplit(splitter, splitees, 3);
+        assertNull(results.get(2));
+    }
+
+    /**
+     * Lines crossed several times by the splitting line
+     */
+    public void testSplitLines() throws Exception {
+        LineString splitter = (LineString) read("LINESTRING(0 0, 10 20, 20 0, 30 20, 40 0)");
+        List<Geometry> splitees = read(new String[]{
+                "LINESTRING(-5 10, 45 10)",
+                "LINESTRING(15 5, 25 5)",
+                "MULTILINESTRING((0 15, 5 15), (35 15, 40 15))",
+                "LINESTRING(0 30, 40 30)"});
+
+        List<Geometry> results = assertSameSplit(splitter, splitees, 2);
+        assertEquals(5, results.get(0).getNumGeometries());
+        assertNull(results.get(3));
+    }
+
+    /**
+     * The splitter of an envelope is the run of segments from the first to the last one
+     * intersecting it
+     */
+    public void testGetSplitterFor() throws Exception {
+        LineString splitter = (LineString) read("LINESTRING(0 0, 10 0, 20 0, 30 0, 40 0)");
+        BatchSplitStrategy strategy = new BatchSplitStrategy(splitter, 1);
+
+        LineString local = strategy.getSplitterFor(new Envelope(15, 25, -1, 1));
+        assertTrue(read("LINESTRING(10 0, 20 0, 30 0)").equalsExact(local));
+
+        local = strategy.getSplitterFor(new Envelope(-5, 5, -1, 1));
+        assertTrue(read("LINESTRING(0 0, 10 0)").equalsExact(local));
+
+        assertNull(strategy.getSplitterFor(new Envelope(15, 25, 5, 10)));
+
+        // each splitter has its own coordinates
+        local = strategy.getSplitterFor(new Envelope(15, 25, -1, 1));
+        local.getCoordinateN(0).x = -100;
+        assertEquals(10d, splitter.getCoordinateN(1).x, 0d);
+    }
+
+    /**
+     * Splits the geometries with the batch and with {@link SplitStrategy} using the whole line,
+     * and checks both have the same parts. A geometry the batch does not split must not be split
+     * by the whole line.
+     * 
+     * @return the results of the batch
+     */
+    private List<Geometry> assertSameSplit( final LineString splitter,
+                                            final List<Geometry> splitees, final int parallelism ) {
+
+        BatchSplitStrategy strategy = new BatchSplitStrategy(splitter, parallelism);
+        List<Geometry> results = strategy.split(splitees);
+
+        assertEquals(splitees.size(), results.size());
+        for( int i = 0; i < splitees.size(); i++ ) {
+            Geometry splitee = splitees.get(i);
+            Geometry expected = SplitStrategy.splitOp(splitee, (LineString) splitter.clone());
+            Geometry result = results.get(i);
+
+            if (result == null) {
+                assertTrue(splitee + " split by the whole line in " + expected, expected == null
+                        || expected.equalsExact(splitee));
+                continue;
+            }
+            assertNotNull(expected);
+            assertEquals(expected.toString(), expected.getNumGeometries(), result.getNumGeometries());
+            for( int n = 0; n < expected.getNumGeometries(); n++ ) {
+                Geometry expectedPart = expected.getGeometryN(n);
+                boolean found = false;
+                for( int m = 0; m < result.getNumGeometries() && !found; m++ ) {
+                    found = expectedPart.equals(result.getGeometryN(m));
+                }
+                if (!found) {
+                    fail(expectedPart + " not found in " + result);
+                }
+            }
+        }
+        return results;
+    }
+
+    private List<Geometry> read( final String[] wkts ) {
+        List<Geometry> geometries = new ArrayList<Geometry>(wkts.length);
+        for( String wkt : wkts ) {
+            geometries.add(read(wkt));
+        }
+        return geometries;
+    }
+
+    private Geometry read( final String wkt ) {
+        WKTReader reader = new WKTReader();
+        Geometry geometry;
+        try {
+            geometry = reader.read(wkt);
+        } catch (ParseException e) {
+            throw (RuntimeException) new RuntimeException().initCause(e);
+        }
+        return geometry;
+    }
+}
@@ -0,0 +1,164 @@
+/* Spatial Operations & Editing Tools for uDig
+ *
+ * Axios Engineering under a funding contract with:
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT).
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ *
+ * You can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.ui.editingtools.merge.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+
+import es.axios.udig.ui.commons.util.CascadedUnion;
+
+/**
+ * Checks that {@link CascadedUnion} gets the same result as the fold
+ * <code>result = result.union(geometry)</code> used before by
+ * {@link es.axios.udig.ui.commons.util.GeometryUtil#geometryUnion}.
+ *
+ * @author Mauricio Pazos (www.axios.es)
+ * @since 1.1.0
+ */
+public class CascadedUnionTest extends TestCase {
+
+    private static final GeometryFactory GF        = new GeometryFactory();
+
+    private static final double          TOLERANCE = 1E-6;
+
+    public void testNoGeometries() {
+        assertNull(union(Collections.<Geometry> emptyList(), 1));
+    }
+
+    public void testNullGeometries() {
+        List<Geometry> geometries = new ArrayList<Geometry>();
+        geometries.add(null);
+        geometries.add(null);
+
+        assertNull(union(geometries, 1));
+    }
+
+    public void testEmptyGeometries() {
+        List<Geometry> geometries = new ArrayList<Geometry>();
+        geometries.add(GF.createPolygon(null, null));
+        geometries.add(GF.createPolygon(null, null));
+
+        Geometry result = union(geometries, 1);
+        assertNotNull(result);
+        assertTrue(result.isEmpty());
+        assertTrue(GeometryUnionBenchmark.foldUnion(geometries).isEmpty());
+    }
+
+    public void testSingleGeometry() {
+        Polygon square = square(0, 0, 10);
+        Geometry expected = (Geometry) square.clone();
+        expected.normalize();
+
+        List<Geometry> geometries = new ArrayList<Geometry>();
+        geometries.add(null);
+        geometries.add(square);
+        geometries.add(GF.createPolygon(null, null));
+
+        Geometry result = union(geometries, 4);
+        assertTrue(expected.equalsExact(result));
+    }
+
+    public void testAddedGeometriesAreNotModified() {
+        Polygon square = square(0, 0, 10);
+        Polygon copy = (Polygon) square.clone();
+
+        List<Geometry> geometries = new ArrayList<Geometry>();
+        geometries.add(square);
+        geometries.add(square(5, 5, 10));
+        union(geometries, 1);
+
+        assertTrue(copy.equalsExact(square));
+    }
+
+    public void testPolygons() {
+        List<Geometry> polygons = GeometryUnionBenchmark.createPolygons(200, 7);
+        Geometry expected = GeometryUnionBenchmark.foldUnion(polygons);
+
+        for( int parallelism : new int[]{1, 2, 4, 16, 64} ) {
+            assertSameUnion(expected, union(polygons, parallelism));
+        }
+    }
+
+    public void testPolygonsWithNullAndEmptyGeometries() {
+        List<Geometry> polygons = GeometryUnionBenchmark.createPolygons(50, 11);
+        Geometry expected = GeometryUnionBenchmark.foldUnion(polygons);
+
+        List<Geometry> geometries = new ArrayList<Geometry>(polygons);
+        geometries.add(0, GF.createPolygon(null, null));
+        geometries.add(25, null);
+        geometries.add(GF.createPolygon(null, null));
+
+        assertSameUnion(expected, union(geometries, 1));
+        assertSameUnion(expected, union(geometries, 8));
+    }
+
+    public void testLines() {
+        List<Geometry> lines = new ArrayList<Geometry>();
+        for( int i = 0; i < 20; i++ ) {
+            LineString horizontal = GF.createLineString(new Coordinate[]{new Coordinate(0, i),
+                    new Coordinate(20, i)});
+            LineString vertical = GF.createLineString(new Coordinate[]{new Coordinate(i, 0),
+                    new Coordinate(i, 20)});
+            lines.add(horizontal);
+            lines.add(vertical);
+        }
+        Geometry expected = GeometryUnionBenchmark.foldUnion(lines);
+        Geometry result = union(lines, 8);
+
+        assertEquals(expected.getLength(), result.getLength(), TOLERANCE);
+        assertTrue(expected.equals(result));
+    }
+
+    private static void assertSameUnion( final Geometry expected, final Geometry result ) {
+
+        assertNotNull(result);
+        assertEquals(expected.getNumGeometries(), result.getNumGeometries());
+        assertEquals(expected.getArea(), result.getArea(), TOLERANCE);
+        assertEquals(0, expected.symDifference(result).getArea(), TOLERANCE);
+    }
+
+    private static Geometry union( final List<Geometry> geometries, final int parallelism ) {
+
+        CascadedUnion union = new CascadedUnion();
+        union.setParallelism(parallelism);
+        for( Geometry geometry : geometries ) {
+            union.add(geometry);
+        }
+        return union.getResult();
+    }
+
+    private static Polygon square( final double x, final double y, final double side ) {
+
+        Coordinate[] shell = new Coordinate[]{new Coordinate(x, y), new Coordinate(x + side, y),
+                new Coordinate(x + side, y + side), new Coordinate(x, y + side),
+                new Coordinate(x, y)};
+        return GF.createPolygon(GF.createLinearRing(shell), null);
+    }
+}
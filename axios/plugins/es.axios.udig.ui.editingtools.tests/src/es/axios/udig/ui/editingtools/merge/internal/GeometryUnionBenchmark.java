@@ -0,0 +1,187 @@
+/* Spatial Operations & Editing Tools for uDig
+ *
+ * Axios Engineering under a funding contract with:
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT).
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ *
+ * You can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.ui.editingtools.merge.internal;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import es.axios.udig.ui.commons.util.CascadedUnion;
+
+/**
+ * Compares the union made with {@link CascadedUnion}, the one used by
+ * {@link es.axios.udig.ui.commons.util.GeometryUtil#geometryUnion}, with the fold
+ * <code>result = result.union(geometry)</code> used before.
+ * <p>
+ * The input is a grid of overlapping circles, shuffled so the order of the geometries has no
+ * spatial locality, as happens with the features of a selection. Each union is timed after a
+ * warmup run and the result is printed as comma separated algorithm, polygons and
+ * milliseconds. The fold is quadratic, so it is only run for the sizes up to
+ * <code>foldLimit</code>.
+ * </p>
+ * <p>
+ * Usage: GeometryUnionBenchmark [sizes [foldLimit]], where sizes is a comma separated list,
+ * 10000,100000 by default.
+ * </p>
+ *
+ * @author Mauricio Pazos (www.axios.es)
+ * @since 1.1.0
+ */
+public class GeometryUnionBenchmark {
+
+    private static final GeometryFactory GF = new GeometryFactory();
+
+    private final PrintStream            out;
+
+    private final int                    parallelism;
+
+    public GeometryUnionBenchmark( final PrintStream out, final int parallelism ) {
+        this.out = out;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Makes a grid of circles which overlap their neighbours
+     *
+     * @param size number of polygons
+     * @param seed
+     * @return the polygons in random order
+     */
+    public static List<Geometry> createPolygons( final int size, final long seed ) {
+
+        final int columns = (int) Math.ceil(Math.sqrt(size));
+        final Random random = new Random(seed);
+
+        List<Geometry> polygons = new ArrayList<Geometry>(size);
+        for( int i = 0; i < size; i++ ) {
+            double x = (i % columns) * 10 + random.nextDouble() * 2;
+            double y = (i / columns) * 10 + random.nextDouble() * 2;
+
+            Geometry circle = GF.createPoint(new Coordinate(x, y)).buffer(6 + random.nextDouble() * 2, 4);
+            polygons.add(circle);
+        }
+        for( int i = polygons.size() - 1; i > 0; i-- ) {
+            int j = random.nextInt(i + 1);
+            polygons.set(i, polygons.set(j, polygons.get(i)));
+        }
+        return polygons;
+    }
+
+    /**
+     * The union as it was made by GeometryUtil.geometryUnion
+     */
+    public static Geometry foldUnion( final List<Geometry> geometries ) {
+
+        Geometry result = null;
+        for( Geometry geometry : geometries ) {
+            if (result == null) {
+                result = geometry;
+            } else {
+                result = result.union(geometry);
+            }
+        }
+        return result;
+    }
+
+    public Geometry cascadedUnion( final List<Geometry> geometries, final int threads ) {
+
+        CascadedUnion union = new CascadedUnion();
+        union.setParallelism(threads);
+        for( Geometry geometry : geometries ) {
+            union.add(geometry);
+        }
+        return union.getResult();
+    }
+
+    /**
+     * Runs the benchmarks for the size
+     *
+     * @param size
+     * @param runFold
+     */
+    public void run( final int size, final boolean runFold ) {
+
+        final List<Geometry> polygons = createPolygons(size, size);
+
+        // warmup
+        List<Geometry> sample = polygons.subList(0, Math.min(1000, size));
+        cascadedUnion(sample, 1);
+        foldUnion(sample);
+
+        Geometry cascaded = measure("cascaded", size, new Union(){
+            public Geometry run() {
+                return cascadedUnion(polygons, 1);
+            }
+        });
+        if (this.parallelism > 1) {
+            measure("cascaded(" + this.parallelism + " threads)", size, new Union(){
+                public Geometry run() {
+                    return cascadedUnion(polygons, parallelism);
+                }
+            });
+        }
+        if (runFold) {
+            Geometry fold = measure("fold", size, new Union(){
+                public Geometry run() {
+                    return foldUnion(polygons);
+                }
+            });
+            double difference = Math.abs(fold.getArea() - cascaded.getArea());
+            this.out.println("# area difference," + size + "," + difference);
+        }
+    }
+
+    private interface Union {
+        Geometry run();
+    }
+
+    private Geometry measure( final String name, final int size, final Union union ) {
+
+        System.gc();
+        long start = System.nanoTime();
+        Geometry result = union.run();
+        double elapsed = (System.nanoTime() - start) / 1000000.0;
+
+        this.out.println(name + "," + size + "," + elapsed);
+
+        return result;
+    }
+
+    public static void main( String[] args ) {
+
+        String sizes = (args.length > 0) ? args[0] : "10000,100000";
+        int foldLimit = (args.length > 1) ? Integer.parseInt(args[1]) : 100000;
+
+        GeometryUnionBenchmark benchmark = new GeometryUnionBenchmark(System.out, Runtime
+                .getRuntime().availableProcessors());
+
+        System.out.println("algorithm,polygons,ms");
+        for( String size : sizes.split(",") ) {
+            int n = Integer.parseInt(size.trim());
+            benchmark.run(n, n <= foldLimit);
+        }
+    }
+}
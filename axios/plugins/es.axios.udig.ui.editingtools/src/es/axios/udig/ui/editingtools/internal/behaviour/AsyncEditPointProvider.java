@@ -0,0 +1,267 @@
+/* Spatial Operations & Editing Tools for uDig
+ *
+ * Axios Engineering under a funding contract with:
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT).
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ *
+ * You can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.ui.editingtools.internal.behaviour;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.refractions.udig.project.ILayer;
+import net.refractions.udig.project.ui.render.displayAdapter.MapMouseEvent;
+import net.refractions.udig.tools.edit.EditPlugin;
+import net.refractions.udig.tools.edit.EditToolHandler;
+import net.refractions.udig.tools.edit.support.EditBlackboard;
+import net.refractions.udig.tools.edit.support.Point;
+import net.refractions.udig.tools.edit.support.PrimitiveShape;
+
+import org.eclipse.swt.widgets.Display;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Decorator of a snapping {@link ISnapQueryProvider} that performs the snap search in a
+ * background thread, so the feedback drawn while the mouse moves does not wait for the layers.
+ * <p>
+ * The query is created in the display thread, which searches the edit blackboard and copies
+ * the handler and viewport state; only the search of the layers' indexes runs in background.
+ * </p>
+ * <p>
+ * {@link #getPoint(MapMouseEvent, EditToolHandler)} is meant to be called on mouse movement: it
+ * returns the snapped point if the search for that mouse location has finished, otherwise it
+ * requests the search and returns the mouse location. A new request discards the previous one
+ * if it has not started, and the result of a running search is ignored if a newer request
+ * exists. The searches are not interrupted, as interrupting the thread would close the channels
+ * of the file based data stores.
+ * </p>
+ * <p>
+ * When a search finishes the result is published and the {@link SnapListener}s are notified in
+ * the display thread. {@link #getCoordinate(MapMouseEvent, EditToolHandler)}, used by the
+ * behaviours that add the point, returns the published result if it was computed for the same
+ * mouse location and edit shape, otherwise it searches synchronously.
+ * </p>
+ *
+ * @author Gabriel Roldan (www.axios.es)
+ * @author Mauricio Pazos (www.axios.es)
+ * @since 1.1.0
+ */
+public class AsyncEditPointProvider implements IEditPointProvider {
+
+    /**
+     * Notified, in the display thread, when the snap search for a mouse location has finished
+     */
+    public interface SnapListener {
+
+        /**
+         * @param provider the provider holding the published result
+         */
+        void snapFound( AsyncEditPointProvider provider );
+    }
+
+    /** thread shared by all the providers, it runs one search at a time */
+    private static final ExecutorService EXECUTOR   = Executors
+                                                            .newSingleThreadExecutor(new ThreadFactory(){
+                                                                public Thread newThread( Runnable r ) {
+                                                                    Thread thread = new Thread(r, "Snap search"); //$NON-NLS-1$
+                                                                    thread.setDaemon(true);
+                                                                    return thread;
+                                                                }
+                                                            });
+
+    private final ISnapQueryProvider     delegate;
+
+    private final List<SnapListener>     listeners  = new CopyOnWriteArrayList<SnapListener>();
+
+    /** identifies the last request, the results of the previous ones are discarded */
+    private final AtomicLong             generation = new AtomicLong();
+
+    private Future< ? >                  pending    = null;
+
+    private volatile SnapResult          published  = null;
+
+    /**
+     * @param delegate provider that performs the snap search
+     */
+    public AsyncEditPointProvider( final ISnapQueryProvider delegate ) {
+        assert delegate != null;
+        this.delegate = delegate;
+    }
+
+    public void addSnapListener( final SnapListener listener ) {
+        this.listeners.add(listener);
+    }
+
+    public void removeSnapListener( final SnapListener listener ) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Returns the published result if it was computed for this mouse location, otherwise
+     * requests the snap search and returns the mouse location.
+     *
+     * @see IEditPointProvider#getPoint(MapMouseEvent, EditToolHandler)
+     */
+    public Point getPoint( MapMouseEvent e, EditToolHandler handler ) {
+
+        final SnapRequest request = new SnapRequest(e, handler);
+        final SnapResult result = this.published;
+        if (result != null && result.request.equals(request)) {
+            EditBlackboard board = handler.getEditBlackboard(handler.getEditLayer());
+            return board.toPoint(result.coordinate);
+        }
+        submit(request, this.delegate.createQuery(e, handler));
+
+        return Point.valueOf(e.x, e.y);
+    }
+
+    /**
+     * Returns the published result if it was computed for this mouse location, otherwise
+     * discards the pending request and performs the search in the caller thread.
+     *
+     * @see IEditPointProvider#getCoordinate(MapMouseEvent, EditToolHandler)
+     */
+    public Coordinate getCoordinate( MapMouseEvent e, EditToolHandler handler ) {
+
+        final SnapRequest request = new SnapRequest(e, handler);
+        final SnapResult result = this.published;
+        if (result != null && result.request.equals(request)) {
+            return result.coordinate;
+        }
+        cancel();
+
+        Coordinate coordinate = this.delegate.getCoordinate(e, handler);
+        this.published = new SnapResult(request, coordinate);
+
+        return coordinate;
+    }
+
+    /**
+     * Discards the pending request and the published result
+     */
+    public synchronized void cancel() {
+
+        this.generation.incrementAndGet();
+        if (this.pending != null) {
+            this.pending.cancel(false);
+            this.pending = null;
+        }
+        this.published = null;
+    }
+
+    private synchronized void submit( final SnapRequest request,
+                                      final ISnapQueryProvider.SnapQuery query ) {
+
+        final long id = this.generation.incrementAndGet();
+        if (this.pending != null) {
+            this.pending.cancel(false);
+        }
+        this.pending = EXECUTOR.submit(new Runnable(){
+            public void run() {
+                if (id != generation.get()) {
+                    return;
+                }
+                try {
+                    Coordinate coordinate = query.search();
+                    if (id != generation.get()) {
+                        return;
+                    }
+                    published = new SnapResult(request, coordinate);
+                    fireSnapFound(id);
+
+                } catch (RuntimeException ex) {
+                    EditPlugin.log("", ex); //$NON-NLS-1$
+                }
+            }
+        });
+    }
+
+    /**
+     * Notifies the listeners in the display thread, unless a newer request exists
+     */
+    private void fireSnapFound( final long id ) {
+
+        if (this.listeners.isEmpty()) {
+            return;
+        }
+        Display.getDefault().asyncExec(new Runnable(){
+            public void run() {
+                if (id != generation.get()) {
+                    return;
+                }
+                for( SnapListener listener : listeners ) {
+                    listener.snapFound(AsyncEditPointProvider.this);
+                }
+            }
+        });
+    }
+
+    /**
+     * Mouse location and edit state for which a snap search is made
+     */
+    private static final class SnapRequest {
+
+        private final int            x;
+        private final int            y;
+        private final ILayer         editLayer;
+        private final PrimitiveShape shape;
+        private final int            numPoints;
+
+        SnapRequest( final MapMouseEvent e, final EditToolHandler handler ) {
+            this.x = e.x;
+            this.y = e.y;
+            this.editLayer = handler.getEditLayer();
+            this.shape = handler.getCurrentShape();
+            this.numPoints = (this.shape == null) ? 0 : this.shape.getNumPoints();
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if (!(obj instanceof SnapRequest)) {
+                return false;
+            }
+            SnapRequest other = (SnapRequest) obj;
+            return this.x == other.x && this.y == other.y && this.editLayer == other.editLayer
+                    && this.shape == other.shape && this.numPoints == other.numPoints;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.x + this.y;
+        }
+    }
+
+    /**
+     * Snapped coordinate, in the edit layer's crs, for a request
+     */
+    private static final class SnapResult {
+
+        final SnapRequest request;
+        final Coordinate  coordinate;
+
+        SnapResult( final SnapRequest request, final Coordinate coordinate ) {
+            this.request = request;
+            this.coordinate = coordinate;
+        }
+    }
+}
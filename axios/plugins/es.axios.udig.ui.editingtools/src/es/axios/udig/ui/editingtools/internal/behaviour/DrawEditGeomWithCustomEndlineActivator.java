@@ -46,7 +46,11 @@ import net.refractions.udig.tools.edit.support.PrimitiveShape;
  * @since 0.2.0
  * @see DrawGeomsActivator
  */
-public class DrawEditGeomWithCustomEndlineActivator implements Activator, MapMouseMotionListener {
+public class DrawEditGeomWithCustomEndlineActivator
+        implements
+            Activator,
+            MapMouseMotionListener,
+            AsyncEditPointProvider.SnapListener {
 
     /**
      * handler in use set on activate
@@ -60,9 +64,16 @@ public class DrawEditGeomWithCustomEndlineActivator implements Activator, MapMou
 
     private IEditPointProvider                     endpointStrategy;
 
+    /**
+     * Last mouse movement, used to draw again the end line when an asynchronous snap search
+     * finishes
+     */
+    private MapMouseEvent                          lastEvent;
+
     /**
      * Creates an activator that will use the provided strategy to get the target screen location
-     * upon a mouse movement event.
+     * upon a mouse movement event. If the strategy is an {@link AsyncEditPointProvider} the end
+     * line is drawn again when the snap search finishes.
      * 
      * @param endpointStrategy
      */
@@ -90,6 +101,9 @@ public class DrawEditGeomWithCustomEndlineActivator implements Activator, MapMou
         viewportPane.addDrawCommand(command);
         viewportPane.addMouseMotionListener(this);
 
+        if (endpointStrategy instanceof AsyncEditPointProvider) {
+            ((AsyncEditPointProvider) endpointStrategy).addSnapListener(this);
+        }
     }
 
     /**
@@ -101,6 +115,15 @@ public class DrawEditGeomWithCustomEndlineActivator implements Activator, MapMou
         command.setValid(false);
         ViewportPane viewportPane = handler.getContext().getViewportPane();
         viewportPane.removeMouseMotionListener(this);
+
+        if (endpointStrategy instanceof AsyncEditPointProvider) {
+            AsyncEditPointProvider asyncProvider = (AsyncEditPointProvider) endpointStrategy;
+            asyncProvider.removeSnapListener(this);
+            asyncProvider.cancel();
+
+            SnapIndexService.logLatencies();
+        }
+        lastEvent = null;
     }
 
     /**
@@ -125,12 +148,29 @@ public class DrawEditGeomWithCustomEndlineActivator implements Activator, MapMou
         if (!legalState) {
             return;
         }
+        lastEvent = event;
         boolean change = command.setCurrentLocation(event, handler);
 
         if (change) {
             handler.repaint();
         }
     }
+
+    /**
+     * Draws again the end line with the snapped point of the last mouse movement
+     * 
+     * @see AsyncEditPointProvider.SnapListener#snapFound(AsyncEditPointProvider)
+     */
+    public void snapFound( AsyncEditPointProvider provider ) {
+        if (lastEvent == null || handler.getCurrentState() != EditState.CREATING) {
+            return;
+        }
+        boolean change = command.setCurrentLocation(lastEvent, handler);
+
+        if (change) {
+            handler.repaint();
+        }
+    }
     /**
      * Empty method
      * 
@@ -0,0 +1,64 @@
+/* Spatial Operations & Editing Tools for uDig
+ *
+ * Axios Engineering under a funding contract with:
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT).
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ *
+ * You can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.ui.editingtools.internal.behaviour;
+
+import net.refractions.udig.project.ui.render.displayAdapter.MapMouseEvent;
+import net.refractions.udig.tools.edit.EditToolHandler;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Snapping {@link IEditPointProvider} whose search of the layers can be made out of the display
+ * thread.
+ * <p>
+ * {@link #createQuery(MapMouseEvent, EditToolHandler)} is called in the display thread. It
+ * searches the edit blackboard and copies the state of the handler and the viewport needed by
+ * the search, so the returned {@link SnapQuery} only queries the layers' {@link LayerSnapIndex}
+ * and can run in any thread.
+ * </p>
+ *
+ * @author Gabriel Roldan (www.axios.es)
+ * @author Mauricio Pazos (www.axios.es)
+ * @since 1.1.0
+ * @see AsyncEditPointProvider
+ */
+public interface ISnapQueryProvider extends IEditPointProvider {
+
+    /**
+     * Search of the snapped coordinate, made with the state copied when it was created
+     */
+    interface SnapQuery {
+
+        /**
+         * @return the coordinate to be added in the edit layer's CRS
+         */
+        Coordinate search();
+    }
+
+    /**
+     * Must be called in the display thread
+     *
+     * @param e mouse event whose location is snapped
+     * @param handler
+     * @return the query that searches the snapped coordinate
+     */
+    SnapQuery createQuery( MapMouseEvent e, EditToolHandler handler );
+}
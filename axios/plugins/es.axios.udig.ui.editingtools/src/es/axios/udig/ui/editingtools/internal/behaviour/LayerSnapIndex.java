@@ -0,0 +1,522 @@
+/* Spatial Operations & Editing Tools for uDig
+ *
+ * Axios Engineering under a funding contract with:
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT).
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ *
+ * You can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.ui.editingtools.internal.behaviour;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.refractions.udig.project.ILayer;
+import net.refractions.udig.project.ILayerListener;
+import net.refractions.udig.project.LayerEvent;
+import net.refractions.udig.project.ui.tool.IToolContext;
+import net.refractions.udig.tools.edit.EditPlugin;
+
+import org.geotools.data.FeatureEvent;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.OperationNotFoundException;
+import org.opengis.referencing.operation.TransformException;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineSegment;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.index.quadtree.Quadtree;
+
+import es.axios.udig.ui.commons.util.GeoToolsUtils;
+
+/**
+ * Spatial index of the segments and vertices of a layer's features, in the calculation crs
+ * used to snap.
+ * <p>
+ * The features in the visible extent plus a margin of {@link #MARGIN} are prefetched by the
+ * first search. The index is evicted and prefetched again when the viewport scale changes or
+ * the visible extent goes out of the prefetched area. The indexes are {@link Quadtree}s, so
+ * they are updated incrementally: when the layer notifies that its features have been edited,
+ * the features in the edited bounds are removed and that area is read again by the next
+ * search.
+ * </p>
+ * <p>
+ * The indexes of all the layers hold at most about {@link SnapIndexService#getMaxElements()}
+ * segments and vertices. If the prefetched area has more than the elements left by the other
+ * indexes, the index holds only the search area plus its own size at each side, and it is read
+ * again when a search goes out of it.
+ * </p>
+ * <p>
+ * The index does not keep a reference to the layer, the layer keeps the index through its
+ * listener. See {@link SnapIndexService}.
+ * </p>
+ *
+ * @author Gabriel Roldan (www.axios.es)
+ * @author Mauricio Pazos (www.axios.es)
+ * @since 1.1.0
+ */
+final class LayerSnapIndex {
+
+    /** ratio of the visible extent's width and height prefetched at each side */
+    static final double                            MARGIN           = 0.25;
+
+    private static final GeometryFactory           GEOMETRY_FACTORY = new GeometryFactory();
+
+    private final CoordinateReferenceSystem        crs;
+
+    private final ILayerListener                   layerListener;
+
+    private Quadtree                               segments         = new Quadtree();
+
+    private Quadtree                               vertices         = new Quadtree();
+
+    private final Map<String, IndexedFeature>      features         = new HashMap<String, IndexedFeature>();
+
+    /** number of segments and vertices in the index, read by other indexes without locking */
+    private volatile int                           elementCount     = 0;
+
+    /** area of the map, in map crs, whose features were prefetched */
+    private Envelope                               loadedArea       = null;
+
+    /** scale of the viewport when the features were prefetched */
+    private double                                 loadedScale      = 0;
+
+    /** true if the prefetched area exceeded the limit, then only the search area was read */
+    private boolean                                limited          = false;
+
+    /** areas of the map, in map crs, edited since they were read */
+    private final List<Envelope>                   dirtyAreas       = new ArrayList<Envelope>();
+
+    /**
+     * Creates the index and listens the changes of the layer
+     *
+     * @param layer
+     * @param crs the calculation crs
+     */
+    LayerSnapIndex( final ILayer layer, final CoordinateReferenceSystem crs ) {
+
+        assert layer != null;
+        assert crs != null;
+
+        this.crs = crs;
+        this.layerListener = new ILayerListener(){
+
+            public void refresh( LayerEvent event ) {
+
+                switch( event.getType() ) {
+                case EDIT_EVENT:
+                    Object featureEvent = event.getNewValue();
+                    Envelope bounds = (featureEvent instanceof FeatureEvent)
+                            ? ((FeatureEvent) featureEvent).getBounds()
+                            : null;
+                    invalidate(event.getSource(), bounds);
+                    break;
+                case CRS:
+                case RESOURCE:
+                    clear();
+                    break;
+                default:
+                    break;
+                }
+            }
+        };
+        layer.addListener(this.layerListener);
+    }
+
+    /**
+     * @return the calculation crs of the indexed segments
+     */
+    CoordinateReferenceSystem getCrs() {
+        return this.crs;
+    }
+
+    /**
+     * @return the number of segments and vertices in the index
+     */
+    int getElementCount() {
+        return this.elementCount;
+    }
+
+    /**
+     * Stops listening the layer
+     *
+     * @param layer
+     */
+    void dispose( final ILayer layer ) {
+        layer.removeListener(this.layerListener);
+    }
+
+    /**
+     * Reads the features in the edited areas and, if the viewport scale has changed or the
+     * visible extent or the search area are not in the prefetched area, evicts the index and
+     * prefetches the visible extent plus the margin. If it exceeds the elements available, see
+     * {@link SnapIndexService#getAvailableElements(LayerSnapIndex)}, the index is evicted again and only the search area plus its size at each side is read; then
+     * the visible extent is not required to be in the loaded area until the scale changes.
+     *
+     * <p>
+     * The viewport state is given by the caller, copied in the display thread, so the index can
+     * be loaded in a background thread; the context is only used to read the features.
+     * </p>
+     *
+     * @param layer the indexed layer
+     * @param context
+     * @param visible visible extent of the map, in map crs
+     * @param scale scale denominator of the viewport
+     * @param searchArea area of the search, in map crs
+     * @throws IOException
+     * @throws OperationNotFoundException
+     * @throws TransformException
+     */
+    synchronized void load( final ILayer layer, final IToolContext context, final Envelope visible,
+                            final double scale, final Envelope searchArea )
+        throws IOException, OperationNotFoundException, TransformException {
+
+        if (this.loadedArea != null && this.loadedScale == scale
+                && (this.limited || this.loadedArea.contains(visible))
+                && this.loadedArea.contains(searchArea)) {
+
+            boolean complete = true;
+            for( Envelope dirtyArea : this.dirtyAreas ) {
+                complete = complete && read(layer, context, dirtyArea, true);
+            }
+            this.dirtyAreas.clear();
+            if (complete) {
+                return;
+            }
+        }
+        final boolean wasLimited = this.limited && this.loadedScale == scale;
+        clear();
+
+        Envelope area = new Envelope(visible);
+        area.expandBy(visible.getWidth() * MARGIN, visible.getHeight() * MARGIN);
+        area.expandToInclude(searchArea);
+
+        // the prefetch is not tried again while the scale does not change
+        boolean limit = wasLimited || !read(layer, context, area, true);
+        if (limit) {
+            clear();
+
+            area = new Envelope(searchArea);
+            area.expandBy(searchArea.getWidth(), searchArea.getHeight());
+
+            // the search area is read whole, even if it exceeds the elements available
+            read(layer, context, area, false);
+        }
+        this.loadedArea = area;
+        this.loadedScale = scale;
+        this.limited = limit;
+    }
+
+    /**
+     * Finds the closest segment to the center point between the segments that intersect the
+     * search area
+     *
+     * @param center point, in calculation crs
+     * @param searchArea in calculation crs
+     * @param excludedFid feature whose segments are ignored, or null
+     * @return the closest segment or null if there is not any segment in the search area
+     */
+    synchronized LineSegment closestSegment( final Coordinate center, final Envelope searchArea,
+                                             final String excludedFid ) {
+
+        IndexedSegment closest = null;
+        double minDistance = Double.MAX_VALUE;
+
+        for( Object item : this.segments.query(searchArea) ) {
+
+            IndexedSegment candidate = (IndexedSegment) item;
+            if (candidate.fid.equals(excludedFid) || !searchArea.intersects(candidate.envelope)) {
+                continue;
+            }
+            double distance = candidate.segment.distance(center);
+            if (distance < minDistance) {
+                minDistance = distance;
+                closest = candidate;
+            }
+        }
+        return (closest != null) ? new LineSegment(closest.segment) : null;
+    }
+
+    /**
+     * Finds the k closest vertices to the center point. The search starts with a small area
+     * around the center, which is doubled until it holds k vertices or its half side reaches
+     * <code>maxDistance</code>.
+     *
+     * @param center point, in calculation crs
+     * @param k maximum number of vertices returned
+     * @param maxDistance maximum distance to the center, in calculation crs
+     * @param excludedFid feature whose vertices are ignored, or null
+     * @return the vertices ordered by distance to the center, it could be empty
+     */
+    synchronized List<Coordinate> nearestVertices( final Coordinate center, final int k,
+                                                   final double maxDistance,
+                                                   final String excludedFid ) {
+
+        assert k > 0;
+
+        List<IndexedVertex> found = new ArrayList<IndexedVertex>();
+        double radius = maxDistance / 16;
+        while( true ) {
+            radius = Math.min(radius, maxDistance);
+
+            found.clear();
+            Envelope area = new Envelope(center);
+            area.expandBy(radius);
+            for( Object item : this.vertices.query(area) ) {
+
+                IndexedVertex vertex = (IndexedVertex) item;
+                if (!vertex.fid.equals(excludedFid) && vertex.coordinate.distance(center) <= radius) {
+                    found.add(vertex);
+                }
+            }
+            if (found.size() >= k || radius >= maxDistance) {
+                break;
+            }
+            radius *= 2;
+        }
+        Collections.sort(found, new Comparator<IndexedVertex>(){
+            public int compare( IndexedVertex v1, IndexedVertex v2 ) {
+                return Double.compare(v1.coordinate.distance(center), v2.coordinate.distance(center));
+            }
+        });
+        int count = Math.min(k, found.size());
+        List<Coordinate> nearest = new ArrayList<Coordinate>(count);
+        for( int i = 0; i < count; i++ ) {
+            nearest.add(new Coordinate(found.get(i).coordinate));
+        }
+        return nearest;
+    }
+
+    /**
+     * Removes all the segments and vertices
+     */
+    synchronized void clear() {
+
+        this.segments = new Quadtree();
+        this.vertices = new Quadtree();
+        this.features.clear();
+        this.elementCount = 0;
+        this.loadedArea = null;
+        this.limited = false;
+        this.dirtyAreas.clear();
+    }
+
+    /**
+     * Removes the features edited in the bounds, which will be read again by the next search
+     *
+     * @param layer
+     * @param bounds edited bounds, in layer crs, or null if they are unknown
+     */
+    private synchronized void invalidate( final ILayer layer, final Envelope bounds ) {
+
+        if (bounds == null || bounds.isNull() || layer.getMap() == null) {
+            clear();
+            return;
+        }
+        try {
+            final CoordinateReferenceSystem layerCrs = layer.getCRS();
+            final CoordinateReferenceSystem mapCrs = layer.getMap().getViewportModel().getCRS();
+
+            Envelope boundsInCrs = reproject(bounds, layerCrs, this.crs);
+            Set<String> editedFids = new HashSet<String>();
+            for( Object item : this.segments.query(boundsInCrs) ) {
+
+                IndexedSegment segment = (IndexedSegment) item;
+                if (boundsInCrs.intersects(segment.envelope)) {
+                    editedFids.add(segment.fid);
+                }
+            }
+            for( Object item : this.vertices.query(boundsInCrs) ) {
+
+                IndexedVertex vertex = (IndexedVertex) item;
+                if (boundsInCrs.intersects(vertex.envelope)) {
+                    editedFids.add(vertex.fid);
+                }
+            }
+            for( String fid : editedFids ) {
+                remove(fid);
+            }
+            this.dirtyAreas.add(reproject(bounds, layerCrs, mapCrs));
+
+        } catch (Exception e) {
+            EditPlugin.log("", e); //$NON-NLS-1$
+            clear();
+        }
+    }
+
+    /**
+     * Adds the segments of the features in the area that are not in the index. If the reading
+     * is bounded it stops when the index holds more than the elements left by the other indexes.
+     *
+     * @return false if the reading was stopped by the limit
+     */
+    private boolean read( final ILayer layer, final IToolContext context,
+                          final Envelope areaInMapCrs, final boolean bounded )
+        throws IOException, OperationNotFoundException, TransformException {
+
+        final CoordinateReferenceSystem layerCrs = layer.getCRS();
+        final int available = bounded ? SnapIndexService.getAvailableElements(this) : Integer.MAX_VALUE;
+
+        FeatureCollection<SimpleFeatureType, SimpleFeature> features = context.getFeaturesInBbox(layer, areaInMapCrs);
+        FeatureIterator<SimpleFeature> iter = features.features();
+        try {
+            while( iter.hasNext() ) {
+                if (this.elementCount > available) {
+                    return false;
+                }
+                SimpleFeature feature = iter.next();
+                if (this.features.containsKey(feature.getID())) {
+                    continue;
+                }
+                Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                if (geometry != null) {
+                    geometry = GeoToolsUtils.reproject(geometry, layerCrs, this.crs);
+                    add(feature.getID(), geometry);
+                }
+            }
+        } finally {
+            features.close(iter);
+        }
+        return true;
+    }
+
+    private void add( final String fid, final Geometry geometry ) {
+
+        IndexedFeature feature = new IndexedFeature();
+
+        final int numParts = geometry.getNumGeometries();
+        for( int i = 0; i < numParts; i++ ) {
+            Geometry part = geometry.getGeometryN(i);
+            if (part instanceof Polygon) {
+                Polygon polygon = (Polygon) part;
+                addLine(fid, polygon.getExteriorRing(), feature);
+                for( int ring = 0; ring < polygon.getNumInteriorRing(); ring++ ) {
+                    addLine(fid, polygon.getInteriorRingN(ring), feature);
+                }
+            } else if (part instanceof LineString) {
+                addLine(fid, (LineString) part, feature);
+            } else if (part instanceof Point) {
+                addVertex(fid, part.getCoordinate(), feature);
+            }
+        }
+        this.features.put(fid, feature);
+    }
+
+    private void addLine( final String fid, final LineString line, final IndexedFeature feature ) {
+
+        final Coordinate[] coordinates = line.getCoordinates();
+        for( int i = 0; i < coordinates.length; i++ ) {
+            // the closing vertex of a ring is the first one
+            if (i < coordinates.length - 1 || !line.isClosed()) {
+                addVertex(fid, coordinates[i], feature);
+            }
+            if (i > 0) {
+                IndexedSegment segment = new IndexedSegment(fid, coordinates[i - 1], coordinates[i]);
+                this.segments.insert(segment.envelope, segment);
+                feature.segments.add(segment);
+                this.elementCount++;
+            }
+        }
+    }
+
+    private void addVertex( final String fid, final Coordinate coordinate, final IndexedFeature feature ) {
+
+        IndexedVertex vertex = new IndexedVertex(fid, coordinate);
+        this.vertices.insert(vertex.envelope, vertex);
+        feature.vertices.add(vertex);
+        this.elementCount++;
+    }
+
+    private void remove( final String fid ) {
+
+        IndexedFeature feature = this.features.remove(fid);
+        if (feature == null) {
+            return;
+        }
+        for( IndexedSegment segment : feature.segments ) {
+            this.segments.remove(segment.envelope, segment);
+        }
+        for( IndexedVertex vertex : feature.vertices ) {
+            this.vertices.remove(vertex.envelope, vertex);
+        }
+        this.elementCount -= feature.segments.size() + feature.vertices.size();
+    }
+
+    private static Envelope reproject( final Envelope envelope,
+                                       final CoordinateReferenceSystem sourceCrs,
+                                       final CoordinateReferenceSystem targetCrs )
+        throws OperationNotFoundException, TransformException {
+
+        Geometry geometry = GEOMETRY_FACTORY.toGeometry(envelope);
+        return GeoToolsUtils.reproject(geometry, sourceCrs, targetCrs).getEnvelopeInternal();
+    }
+
+    /**
+     * Segments and vertices of a feature
+     */
+    private static final class IndexedFeature {
+
+        final List<IndexedSegment> segments = new ArrayList<IndexedSegment>();
+        final List<IndexedVertex>  vertices = new ArrayList<IndexedVertex>();
+    }
+
+    /**
+     * Vertex of a feature
+     */
+    private static final class IndexedVertex {
+
+        final String     fid;
+        final Coordinate coordinate;
+        final Envelope   envelope;
+
+        IndexedVertex( final String fid, final Coordinate coordinate ) {
+            this.fid = fid;
+            this.coordinate = coordinate;
+            this.envelope = new Envelope(coordinate);
+        }
+    }
+
+    /**
+     * Segment of a feature
+     */
+    private static final class IndexedSegment {
+
+        final String      fid;
+        final LineSegment segment;
+        final Envelope    envelope;
+
+        IndexedSegment( final String fid, final Coordinate p0, final Coordinate p1 ) {
+            this.fid = fid;
+            this.segment = new LineSegment(p0, p1);
+            this.envelope = new Envelope(p0, p1);
+        }
+    }
+}
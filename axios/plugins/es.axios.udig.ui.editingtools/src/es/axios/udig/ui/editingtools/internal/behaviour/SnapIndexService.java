@@ -0,0 +1,146 @@
+/* Spatial Operations & Editing Tools for uDig
+ *
+ * Axios Engineering under a funding contract with:
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT).
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ *
+ * You can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.ui.editingtools.internal.behaviour;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.refractions.udig.project.ILayer;
+
+import org.geotools.referencing.CRS;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Keeps the snap index of each layer and the latencies of the snap calculations.
+ * <p>
+ * The indexes are kept while the layer is alive; if the index of a layer is required in other
+ * calculation crs it is replaced. All the indexes share a budget of {@link #getMaxElements()}
+ * segments and vertices, {@link #DEFAULT_MAX_ELEMENTS} unless it is set with the
+ * {@link #MAX_ELEMENTS_PROPERTY} system property or {@link #setMaxElements(int)}.
+ * </p>
+ *
+ * @author Gabriel Roldan (www.axios.es)
+ * @author Mauricio Pazos (www.axios.es)
+ * @since 1.1.0
+ */
+public final class SnapIndexService {
+
+    private static final Logger                      LOGGER                = Logger.getLogger(SnapIndexService.class.getName());
+
+    /** default maximum number of segments and vertices held by all the indexes */
+    public static final int                          DEFAULT_MAX_ELEMENTS  = 250000;
+
+    /** system property with the maximum number of segments and vertices */
+    public static final String                       MAX_ELEMENTS_PROPERTY = "es.axios.udig.ui.editingtools.snap.maxElements"; //$NON-NLS-1$
+
+    private static int                               maxElements           = Integer.getInteger(MAX_ELEMENTS_PROPERTY,
+                                                                                                DEFAULT_MAX_ELEMENTS);
+
+    private static final Map<ILayer, LayerSnapIndex> INDEXES               = new WeakHashMap<ILayer, LayerSnapIndex>();
+
+    private static final SnapLatencyHistogram        VERTEX_LATENCY        = new SnapLatencyHistogram("vertex snap"); //$NON-NLS-1$
+
+    private static final SnapLatencyHistogram        SEGMENT_LATENCY       = new SnapLatencyHistogram("segment snap"); //$NON-NLS-1$
+
+    private SnapIndexService() {
+        // util class
+    }
+
+    /**
+     * @param layer
+     * @param calculationCrs
+     * @return the snap index of the layer in the calculation crs
+     */
+    static synchronized LayerSnapIndex getIndex( final ILayer layer,
+                                                 final CoordinateReferenceSystem calculationCrs ) {
+
+        LayerSnapIndex index = INDEXES.get(layer);
+        if (index != null && !CRS.equalsIgnoreMetadata(index.getCrs(), calculationCrs)) {
+            index.dispose(layer);
+            index = null;
+        }
+        if (index == null) {
+            index = new LayerSnapIndex(layer, calculationCrs);
+            INDEXES.put(layer, index);
+        }
+        return index;
+    }
+
+    /**
+     * @return the maximum number of segments and vertices held by all the indexes
+     */
+    public static synchronized int getMaxElements() {
+        return maxElements;
+    }
+
+    /**
+     * Changes the maximum number of segments and vertices held by all the indexes, the indexes
+     * already loaded are limited by their next load
+     *
+     * @param max
+     */
+    public static synchronized void setMaxElements( final int max ) {
+        maxElements = Math.max(0, max);
+    }
+
+    /**
+     * @param index
+     * @return the number of segments and vertices that the index can hold, the budget less the
+     *         elements of the other indexes
+     */
+    static synchronized int getAvailableElements( final LayerSnapIndex index ) {
+
+        long used = 0;
+        for( LayerSnapIndex other : INDEXES.values() ) {
+            if (other != index) {
+                used += other.getElementCount();
+            }
+        }
+        return (int) Math.max(0, maxElements - used);
+    }
+
+    /**
+     * Logs the latency histograms at FINE level
+     */
+    public static void logLatencies() {
+
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(VERTEX_LATENCY.toString());
+            LOGGER.fine(SEGMENT_LATENCY.toString());
+        }
+    }
+
+    /**
+     * @return the latencies of {@link SnapToVertexEditPointProvider}
+     */
+    public static SnapLatencyHistogram getVertexLatency() {
+        return VERTEX_LATENCY;
+    }
+
+    /**
+     * @return the latencies of {@link SnapSegmentFinder}
+     */
+    public static SnapLatencyHistogram getSegmentLatency() {
+        return SEGMENT_LATENCY;
+    }
+}
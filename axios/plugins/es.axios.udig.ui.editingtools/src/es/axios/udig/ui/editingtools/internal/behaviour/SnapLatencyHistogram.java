@@ -0,0 +1,140 @@
+/* Spatial Operations & Editing Tools for uDig
+ *
+ * Axios Engineering under a funding contract with:
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT).
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ *
+ * You can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.ui.editingtools.internal.behaviour;
+
+/**
+ * Histogram of the latencies of a snap calculation.
+ * <p>
+ * The latencies are counted in buckets whose upper bound doubles from one to the next: the
+ * bucket <code>i</code> counts the latencies lower than <code>2^i</code> microseconds, the
+ * last one counts the rest.
+ * </p>
+ *
+ * @author Gabriel Roldan (www.axios.es)
+ * @author Mauricio Pazos (www.axios.es)
+ * @since 1.1.0
+ */
+public final class SnapLatencyHistogram {
+
+    /** number of buckets, the last one counts the latencies of more than 2^22 microseconds */
+    public static final int BUCKETS = 24;
+
+    private final String    name;
+
+    private final long[]    counts  = new long[BUCKETS];
+
+    private long            total   = 0;
+
+    private long            maxNanos = 0;
+
+    /**
+     * @param name name of the measured calculation
+     */
+    SnapLatencyHistogram( final String name ) {
+        this.name = name;
+    }
+
+    /**
+     * @return the name of the measured calculation
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Counts a latency
+     *
+     * @param nanos latency in nanoseconds
+     */
+    public synchronized void record( final long nanos ) {
+
+        long micros = Math.max(0, nanos) / 1000;
+        int bucket = 0;
+        while( bucket < BUCKETS - 1 && micros >= (1L << bucket) ) {
+            bucket++;
+        }
+        this.counts[bucket]++;
+        this.total++;
+        this.maxNanos = Math.max(this.maxNanos, nanos);
+    }
+
+    /**
+     * @return a copy of the counts by bucket
+     */
+    public synchronized long[] getCounts() {
+        return this.counts.clone();
+    }
+
+    /**
+     * @return the number of latencies counted
+     */
+    public synchronized long getTotal() {
+        return this.total;
+    }
+
+    /**
+     * @return the maximum latency counted, in microseconds
+     */
+    public synchronized long getMaxMicros() {
+        return this.maxNanos / 1000;
+    }
+
+    /**
+     * @param percent between 0 and 100
+     * @return the upper bound, in microseconds, of the bucket holding the percentile, or 0 if
+     *         there are not latencies
+     */
+    public synchronized long getPercentileMicros( final double percent ) {
+
+        assert percent >= 0 && percent <= 100;
+
+        if (this.total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(this.total * percent / 100);
+        long accumulated = 0;
+        for( int i = 0; i < BUCKETS - 1; i++ ) {
+            accumulated += this.counts[i];
+            if (accumulated >= rank) {
+                return 1L << i;
+            }
+        }
+        return getMaxMicros();
+    }
+
+    /**
+     * Discards the latencies counted
+     */
+    public synchronized void reset() {
+
+        java.util.Arrays.fill(this.counts, 0);
+        this.total = 0;
+        this.maxNanos = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return this.name + "[count=" + this.total //$NON-NLS-1$
+               + ", p50<" + getPercentileMicros(50) + "us" //$NON-NLS-1$ //$NON-NLS-2$
+               + ", p99<" + getPercentileMicros(99) + "us" //$NON-NLS-1$ //$NON-NLS-2$
+               + ", max=" + getMaxMicros() + "us]"; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+}
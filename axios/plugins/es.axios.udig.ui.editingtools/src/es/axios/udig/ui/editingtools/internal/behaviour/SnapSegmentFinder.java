@@ -20,6 +20,7 @@
  */
 package es.axios.udig.ui.editingtools.internal.behaviour;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 import net.refractions.udig.mapgraphic.grid.GridMapGraphic;
@@ -41,8 +42,6 @@ import net.refractions.udig.tools.edit.support.SnapBehaviour;
 import net.refractions.udig.ui.ProgressManager;
 
 import org.geotools.data.FeatureSource;
-import org.geotools.feature.FeatureCollection;
-import org.geotools.feature.FeatureIterator;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.referencing.FactoryException;
@@ -55,9 +54,7 @@ import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineSegment;
-import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.MultiPoint;
-import com.vividsolutions.jts.geom.Polygon;
 
 import es.axios.udig.ui.commons.util.GeoToolsUtils;
 
@@ -93,6 +90,9 @@ public class SnapSegmentFinder {
     }
 
     /**
+     * Searches the closest segment in the display thread, showing the busy state and the search
+     * box animation while the layers are searched.
+     * 
      * @param handler the edit tool handler in use
      * @param editBlackboard the EditBlackboard of the cureent edit layer
      * @param centerPoint the snapping point in screen coordinates
@@ -102,6 +102,7 @@ public class SnapSegmentFinder {
      * @param snappingRadius snap search distance in pixels
      * @return the closest line segment inside the snapping distance with coordinates in the
      *         calculation crs provided at the constructor
+     * @see #createQuery(EditToolHandler, EditBlackboard, Point, boolean, SnapBehaviour, int)
      */
     public LineSegment getClosestSnapSegment( EditToolHandler handler,
                                               final EditBlackboard editBlackboard,
@@ -111,9 +112,6 @@ public class SnapSegmentFinder {
                                               final int snappingRadius ) {
 
         final IToolContext context = handler.getContext();
-        Coordinate centerCoordInTargetCrs = getCenterCoordInTargetCrs(centerPoint, context);
-
-        MinSegFinder minFinder = new MinSegFinder(centerCoordInTargetCrs);
         SearchBoxAnimation anim = null;
 
         final EditState previousState = handler.getCurrentState();
@@ -123,36 +121,10 @@ public class SnapSegmentFinder {
                 anim = new SearchBoxAnimation(centerPoint, new IsBusyStateProvider(handler));
                 AnimationUpdater.runTimer(context.getMapDisplay(), anim);
             }
-            switch( snapBehaviour ) {
-            case OFF:
-                return null;
-            case SELECTED:
-                searchEditBlackboard(context, editBlackboard, centerPoint,
-                                     includeSegmentsInCurrent, snappingRadius, minFinder);
-                break;
-
-            case CURRENT_LAYER:
-                searchEditBlackboard(context, editBlackboard, centerPoint,
-                                     includeSegmentsInCurrent, snappingRadius, minFinder);
-                searchSegmentInLayer(handler.getEditLayer(), context, centerPoint, snappingRadius,
-                                     minFinder);
-                break;
-            case ALL_LAYERS:
-                searchEditBlackboard(context, editBlackboard, centerPoint,
-                                     includeSegmentsInCurrent, snappingRadius, minFinder);
-                for( ILayer layer : context.getMapLayers() ) {
-                    searchSegmentInLayer(layer, context, centerPoint, snappingRadius, minFinder);
-                }
-                break;
-            case GRID:
-                findClosestGridSegment(centerPoint, context.getMap(), snappingRadius, minFinder);
-            default:
-                break;
-            }
-
-            LineSegment min = minFinder.getMinSegment();
-
-            return min;
+            SegmentQuery query = createQuery(handler, editBlackboard, centerPoint,
+                                             includeSegmentsInCurrent, snapBehaviour,
+                                             snappingRadius);
+            return query.search();
 
         } finally {
             handler.setCurrentState(previousState);
@@ -163,6 +135,57 @@ public class SnapSegmentFinder {
 
     }
 
+    /**
+     * Searches the edit blackboard, or the grid, and copies the state of the handler and the
+     * viewport needed to search the layers. Must be called in the display thread; the returned
+     * query only uses the layers' {@link LayerSnapIndex} so it can be run in a background thread.
+     * 
+     * @param handler the edit tool handler in use
+     * @param editBlackboard the EditBlackboard of the cureent edit layer
+     * @param centerPoint the snapping point in screen coordinates
+     * @param includeSegmentsInCurrent whether to include the current edit feature segments in the
+     *        lookup
+     * @param snapBehaviour the snap behaviour to use
+     * @param snappingRadius snap search distance in pixels
+     * @return the query of the closest line segment
+     */
+    SegmentQuery createQuery( EditToolHandler handler, final EditBlackboard editBlackboard,
+                              final Point centerPoint, final boolean includeSegmentsInCurrent,
+                              final SnapBehaviour snapBehaviour, final int snappingRadius ) {
+
+        final IToolContext context = handler.getContext();
+        Coordinate centerCoordInTargetCrs = getCenterCoordInTargetCrs(centerPoint, context);
+
+        SegmentQuery query = new SegmentQuery(context, centerPoint, snappingRadius,
+                                              centerCoordInTargetCrs);
+        switch( snapBehaviour ) {
+        case OFF:
+            break;
+        case SELECTED:
+            searchEditBlackboard(context, editBlackboard, centerPoint, includeSegmentsInCurrent,
+                                 snappingRadius, query.minFinder);
+            break;
+
+        case CURRENT_LAYER:
+            searchEditBlackboard(context, editBlackboard, centerPoint, includeSegmentsInCurrent,
+                                 snappingRadius, query.minFinder);
+            query.addLayer(handler.getEditLayer());
+            break;
+        case ALL_LAYERS:
+            searchEditBlackboard(context, editBlackboard, centerPoint, includeSegmentsInCurrent,
+                                 snappingRadius, query.minFinder);
+            for( ILayer layer : context.getMapLayers() ) {
+                query.addLayer(layer);
+            }
+            break;
+        case GRID:
+            findClosestGridSegment(centerPoint, context.getMap(), snappingRadius, query.minFinder);
+        default:
+            break;
+        }
+        return query;
+    }
+
     private Coordinate getCenterCoordInTargetCrs( Point centerPoint, final IToolContext context ) {
         Coordinate centerCoordInMapCrs = context.pixelToWorld(centerPoint.getX(),
                                                               centerPoint.getY());
@@ -258,99 +281,120 @@ public class SnapSegmentFinder {
     // }
 
     /**
-     * Searches the layer for line segments within snapping distance
-     * 
-     * @param layer the layer to search that can resolve to {@link FeatureSource}
-     * @param context the context to use for convenience methods
-     * @param centerPoint the current centerPoint.
-     * @param snappingRadius snap search distance in pixels
-     * @param minFinder
-     * @return the closest vertex in the layer within the snapping radius or null if no segment is
-     *         found on the snapping radious distance.
+     * Search of the closest segment in the layers, made with the state of the handler and the
+     * viewport copied in the display thread
      */
-    private void searchSegmentInLayer( final ILayer layer, final IToolContext context,
-                                       final Point centerPoint, final int snappingRadius,
-                                       MinSegFinder minFinder ) {
-        if (!layer.hasResource(FeatureSource.class) || !layer.isApplicable(EditPlugin.ID)
-                || !layer.isVisible())
-            return;
-
-        final ILayer editLayer = context.getEditManager().getEditLayer();
-        SimpleFeatureType schema = layer.getSchema();
-        Class<?> geomType = schema.getDefaultGeometry().getType().getBinding();
-        if (Point.class == geomType || MultiPoint.class == geomType) {
-            return;
-        }
+    final class SegmentQuery {
+
+        private final IToolContext              context;
+
+        private final String                    editFeatureID;
+
+        private final ILayer                    editLayer;
+
+        private final CoordinateReferenceSystem mapCrs;
+
+        /** search area, in map crs */
+        private final Envelope                  bbox;
+
+        /** visible extent, in map crs */
+        private final Envelope                  visible;
+
+        private final double                    scale;
+
+        private final List<ILayer>              layers = new ArrayList<ILayer>();
+
+        /** holds the segment found in the edit blackboard or the grid */
+        private final MinSegFinder              minFinder;
+
+        private SegmentQuery( final IToolContext context, final Point centerPoint,
+                              final int snappingRadius, final Coordinate centerCoordInTargetCrs ) {
+
+            this.context = context;
+            this.mapCrs = context.getCRS();
+            this.editLayer = context.getEditManager().getEditLayer();
+
+            SimpleFeature editFeature = context.getEditManager().getEditFeature();
+            this.editFeatureID = (editFeature != null) ? editFeature.getID() : null;
+
+            int snapBoxSideLength = snappingRadius * 2;
+            java.awt.Point screenLocation = new java.awt.Point(centerPoint.getX(), centerPoint.getY());
+            this.bbox = context.getBoundingBox(screenLocation, snapBoxSideLength);
+
+            IViewportModel viewport = context.getViewportModel();
+            this.visible = new Envelope(viewport.getBounds());
+            this.scale = viewport.getScaleDenominator();
 
-        SimpleFeature editFeature = context.getEditManager().getEditFeature();
-        String editFeatureID = null;
-        if (editFeature != null) {
-            editFeatureID = editFeature.getID();
+            this.minFinder = new MinSegFinder(centerCoordInTargetCrs);
         }
 
-        int snapBoxSideLength = snappingRadius * 2;
-        java.awt.Point screenLocation = new java.awt.Point(centerPoint.getX(), centerPoint.getY());
-        Envelope bbox = context.getBoundingBox(screenLocation, snapBoxSideLength);
+        /**
+         * Adds the layer to the search if it has line segments
+         * 
+         * @param layer
+         */
+        private void addLayer( final ILayer layer ) {
+            if (!layer.hasResource(FeatureSource.class) || !layer.isApplicable(EditPlugin.ID)
+                    || !layer.isVisible())
+                return;
+
+            SimpleFeatureType schema = layer.getSchema();
+            Class<?> geomType = schema.getDefaultGeometry().getType().getBinding();
+            if (Point.class == geomType || MultiPoint.class == geomType) {
+                return;
+            }
+            this.layers.add(layer);
+        }
 
-        try {
-            FeatureCollection<SimpleFeatureType, SimpleFeature> features = context.getFeaturesInBbox(layer, bbox);
-            FeatureIterator<SimpleFeature> iter = null;
+        /**
+         * Searches the layers, it can be called in any thread
+         * 
+         * @return the closest line segment inside the snapping distance with coordinates in the
+         *         calculation crs
+         */
+        LineSegment search() {
+            final long start = System.nanoTime();
             try {
-                final CoordinateReferenceSystem layerCrs = layer.getCRS();
-                for( iter = features.features(); iter.hasNext(); ) {
-                    SimpleFeature feature = iter.next();
-                    if (feature.getID().equals(editFeatureID) && layer == editLayer) {
-                        continue;
-                    }
-                    Geometry geometry = (Geometry) feature.getDefaultGeometry();
-                    if (geometry != null) {
-                        geometry = GeoToolsUtils.reproject(geometry, layerCrs, this.calculationCrs);
-                        searchGeometry(geometry, minFinder);
-                    }
+                for( ILayer layer : this.layers ) {
+                    searchSegmentInLayer(layer);
                 }
+                return this.minFinder.getMinSegment();
+
             } finally {
-                if (iter != null) {
-                    features.close(iter);
-                }
+                SnapIndexService.getSegmentLatency().record(System.nanoTime() - start);
             }
-        } catch (Exception e) {
-            EditPlugin.log("", e); //$NON-NLS-1$
         }
-    }
 
-    /**
-     * @param geom any geometry except point or multipoint
-     * @param minFinder
-     */
-    private void searchGeometry( Geometry geom, MinSegFinder minFinder ) {
-        final int numParts = geom.getNumGeometries();
-        Geometry partN;
-        for( int i = 0; i < numParts; i++ ) {
-            partN = geom.getGeometryN(i);
-            if (partN instanceof Polygon) {
-                Polygon polygon = (Polygon) partN;
-                searchLinearGeom(polygon.getExteriorRing(), minFinder);
-                int numInteriorRing = polygon.getNumInteriorRing();
-                for( int ringN = 0; ringN < numInteriorRing; ringN++ ) {
-                    searchLinearGeom(polygon.getInteriorRingN(ringN), minFinder);
+        /**
+         * Searches the layer for line segments within snapping distance
+         * <p>
+         * The segments are looked up in the layer's {@link LayerSnapIndex}, which reads the
+         * features only the first time an area is searched or after it has been edited.
+         * </p>
+         * 
+         * @param layer the layer to search that can resolve to {@link FeatureSource}
+         */
+        private void searchSegmentInLayer( final ILayer layer ) {
+            try {
+                LayerSnapIndex index = SnapIndexService.getIndex(layer, calculationCrs);
+                index.load(layer, this.context, this.visible, this.scale, this.bbox);
+
+                Geometry bboxInCalculationCrs = GeoToolsUtils.reproject(gfac.toGeometry(this.bbox),
+                                                                        this.mapCrs,
+                                                                        calculationCrs);
+                String excludedFid = (layer == this.editLayer) ? this.editFeatureID : null;
+                LineSegment closest = index.closestSegment(this.minFinder.getCenter(),
+                                                           bboxInCalculationCrs.getEnvelopeInternal(),
+                                                           excludedFid);
+                if (closest != null) {
+                    this.minFinder.add(closest.p0, closest.p1);
                 }
-            } else {
-                searchLinearGeom((LineString) partN, minFinder);
+            } catch (Exception e) {
+                EditPlugin.log("", e); //$NON-NLS-1$
             }
         }
     }
 
-    private void searchLinearGeom( LineString line, MinSegFinder minFinder ) {
-        final int numPoints = line.getNumPoints();
-        Coordinate coordinate1;
-        Coordinate coordinate2;
-        for( int i = 1; i < numPoints; i++ ) {
-            coordinate1 = line.getCoordinateN(i - 1);
-            coordinate2 = line.getCoordinateN(i);
-            minFinder.add(coordinate1, coordinate2);
-        }
-    }
-
     /**
      * @param map
      * @param minFinder
@@ -471,6 +515,10 @@ public class SnapSegmentFinder {
             return minDistanceSegment;
         }
 
+        public Coordinate getCenter() {
+            return centerCoord;
+        }
+
         public void add( double x1, double y1, double x2, double y2 ) {
             add(new Coordinate(x1, y1), new Coordinate(x2, y2));
         }
@@ -40,11 +40,18 @@ import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.LineSegment;
 
 /**
+ * Provider that returns the closest point of the closest segment, looked up as defined by the
+ * snap behaviour configured as a preference.
+ * <p>
+ * The query created by {@link #createQuery(MapMouseEvent, EditToolHandler)} searches the layers
+ * out of the display thread, see {@link AsyncEditPointProvider}.
+ * </p>
+ * 
  * @author Gabriel Roldan (www.axios.es)
  * @author Mauricio Pazos (www.axios.es)
  * @since 0.2.0
  */
-public class SnapToLineEditPointProvider implements IEditPointProvider {
+public class SnapToLineEditPointProvider implements ISnapQueryProvider {
 
     /**
      * Performs the calculation of the point to the closest segment in map coordinates and returns
@@ -69,27 +76,78 @@ public class SnapToLineEditPointProvider implements IEditPointProvider {
                                                                    includeVerticesInCurrent,
                                                                    snapBehaviour, snappingRadius);
         final Coordinate coordInMapCrs = context.pixelToWorld(point.getX(), point.getY());
+
+        return toLayerCrs(segmentInMapCrs, coordInMapCrs, mapCrs, editLayer.getCRS(),
+                          layerBlackboard.toCoord(point));
+    }
+
+    /**
+     * @param segmentInMapCrs the closest segment or null
+     * @param coordInMapCrs the snapping point
+     * @param mapCrs
+     * @param layerCrs the edit layer's CRS
+     * @param pointInLayerCrs the snapping point in the edit layer's CRS, returned if there is not
+     *        a segment
+     * @return the closest point of the segment in the edit layer's CRS
+     */
+    private static Coordinate toLayerCrs( final LineSegment segmentInMapCrs,
+                                          final Coordinate coordInMapCrs,
+                                          final CoordinateReferenceSystem mapCrs,
+                                          final CoordinateReferenceSystem layerCrs,
+                                          final Coordinate pointInLayerCrs ) {
         Coordinate coordInLayerCrs;
         if (segmentInMapCrs != null) {
             final Coordinate closestInMapCrs = segmentInMapCrs.closestPoint(coordInMapCrs);
-            CoordinateReferenceSystem layerCrs = editLayer.getCRS();
             MathTransform transform;
             try {
                 transform = CRS.findMathTransform(mapCrs, layerCrs, true);
                 coordInLayerCrs = JTS.transform(closestInMapCrs, new Coordinate(), transform);
             } catch (FactoryException e) {
                 e.printStackTrace();
-                coordInLayerCrs = layerBlackboard.toCoord(point);
+                coordInLayerCrs = pointInLayerCrs;
             } catch (TransformException e) {
                 e.printStackTrace();
-                coordInLayerCrs = layerBlackboard.toCoord(point);
+                coordInLayerCrs = pointInLayerCrs;
             }
         } else {
-            coordInLayerCrs = layerBlackboard.toCoord(point);
+            coordInLayerCrs = pointInLayerCrs;
         }
         return coordInLayerCrs;
     }
 
+    /**
+     * Searches the edit blackboard and copies the handler and viewport state, the returned query
+     * searches the layers
+     * 
+     * @see ISnapQueryProvider#createQuery(MapMouseEvent, EditToolHandler)
+     */
+    public SnapQuery createQuery( MapMouseEvent e, EditToolHandler handler ) {
+        final Point point = Point.valueOf(e.x, e.y);
+        final ILayer editLayer = handler.getEditLayer();
+        final EditBlackboard layerBlackboard = handler.getEditBlackboard(editLayer);
+        final SnapBehaviour snapBehaviour = PreferenceUtil.instance().getSnapBehaviour();
+        final IToolContext context = handler.getContext();
+
+        final CoordinateReferenceSystem mapCrs = context.getCRS();
+        final CoordinateReferenceSystem layerCrs = editLayer.getCRS();
+        final int snappingRadius = PreferenceUtil.instance().getSnappingRadius();
+        final SnapSegmentFinder finder = new SnapSegmentFinder(mapCrs);
+
+        final SnapSegmentFinder.SegmentQuery segmentQuery;
+        segmentQuery = finder.createQuery(handler, layerBlackboard, point, true, snapBehaviour,
+                                          snappingRadius);
+        final Coordinate coordInMapCrs = context.pixelToWorld(point.getX(), point.getY());
+        final Coordinate pointInLayerCrs = layerBlackboard.toCoord(point);
+
+        return new SnapQuery(){
+            public Coordinate search() {
+                LineSegment segmentInMapCrs = segmentQuery.search();
+                return toLayerCrs(segmentInMapCrs, coordInMapCrs, mapCrs, layerCrs,
+                                  pointInLayerCrs);
+            }
+        };
+    }
+
     public Coordinate getCoordinate( MapMouseEvent e, EditToolHandler handler ) {
         Point point = Point.valueOf(e.x, e.y);
         Coordinate snapCoord = performSnapCalculation(handler, point);
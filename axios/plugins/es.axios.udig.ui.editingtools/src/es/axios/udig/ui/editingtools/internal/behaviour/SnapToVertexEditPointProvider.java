@@ -20,8 +20,15 @@
  */
 package es.axios.udig.ui.editingtools.internal.behaviour;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.refractions.udig.project.ILayer;
+import net.refractions.udig.project.render.IViewportModel;
 import net.refractions.udig.project.ui.render.displayAdapter.MapMouseEvent;
-import net.refractions.udig.tools.edit.EditState;
+import net.refractions.udig.project.ui.tool.IToolContext;
+import net.refractions.udig.tools.edit.EditPlugin;
 import net.refractions.udig.tools.edit.EditToolHandler;
 import net.refractions.udig.tools.edit.preferences.PreferenceUtil;
 import net.refractions.udig.tools.edit.support.EditBlackboard;
@@ -29,36 +36,65 @@ import net.refractions.udig.tools.edit.support.EditUtils;
 import net.refractions.udig.tools.edit.support.Point;
 import net.refractions.udig.tools.edit.support.SnapBehaviour;
 
+import org.geotools.data.FeatureSource;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.referencing.CRS;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 
 /**
  * Provider that returns a point taking in count the snap behaviour configured as a preference.
+ * <p>
+ * When the snap behaviour is {@link SnapBehaviour#CURRENT_LAYER} or
+ * {@link SnapBehaviour#ALL_LAYERS} the vertices of the layers are looked up in their
+ * {@link LayerSnapIndex}, the same index used by {@link SnapSegmentFinder}, instead of reading
+ * the features around the point each time the mouse moves. The query created by
+ * {@link #createQuery(MapMouseEvent, EditToolHandler)} searches the indexes out of the display
+ * thread, see {@link AsyncEditPointProvider}.
+ * </p>
  * 
  * @author Gabriel Roldan (www.axios.es)
  * @author Mauricio Pazos (www.axios.es)
  * @since 0.2.0
  */
-public class SnapToVertexEditPointProvider implements IEditPointProvider {
+public class SnapToVertexEditPointProvider implements ISnapQueryProvider {
 
-    private Coordinate performSnapCalculation( EditToolHandler handler, Point point ) {
-        EditBlackboard board = handler.getEditBlackboard(handler.getEditLayer());
-        SnapBehaviour snapBehaviour = PreferenceUtil.instance().getSnapBehaviour();
+    /**
+     * Searches the edit blackboard, or the grid, and copies the handler and viewport state used
+     * to search the layers' indexes
+     * 
+     * @see ISnapQueryProvider#createQuery(MapMouseEvent, EditToolHandler)
+     */
+    public SnapQuery createQuery( MapMouseEvent e, EditToolHandler handler ) {
+        final Point point = Point.valueOf(e.x, e.y);
+        final EditBlackboard board = handler.getEditBlackboard(handler.getEditLayer());
+        final SnapBehaviour snapBehaviour = PreferenceUtil.instance().getSnapBehaviour();
 
-        EditUtils editUtils = EditUtils.instance;
-        EditState currentState = handler.getCurrentState();
-
-        Coordinate snapCoord;
-        snapCoord = editUtils.getClosestSnapPoint(handler, board, point, false, snapBehaviour,
-                                                  currentState);
-        if (snapCoord != null) {
-            return snapCoord;
+        switch( snapBehaviour ) {
+        case CURRENT_LAYER:
+        case ALL_LAYERS:
+            return new VertexQuery(handler, board, point, snapBehaviour);
+        default:
+            Coordinate snapCoord = EditUtils.instance.getClosestSnapPoint(handler, board, point,
+                                                                          false, snapBehaviour,
+                                                                          handler.getCurrentState());
+            final Coordinate coordinate = (snapCoord != null) ? snapCoord : board.toCoord(point);
+            return new SnapQuery(){
+                public Coordinate search() {
+                    return coordinate;
+                }
+            };
         }
-        return board.toCoord(point);
     }
 
     public Coordinate getCoordinate( MapMouseEvent e, EditToolHandler handler ) {
-        Point point = Point.valueOf(e.x, e.y);
-        Coordinate snapCoord = performSnapCalculation(handler, point);
+        Coordinate snapCoord = createQuery(e, handler).search();
         return snapCoord;
     }
 
@@ -67,4 +103,164 @@ public class SnapToVertexEditPointProvider implements IEditPointProvider {
         EditBlackboard board = handler.getEditBlackboard(handler.getEditLayer());
         return board.toPoint(coordinate);
     }
+
+    /**
+     * Search of the closest vertex in the edit blackboard and in the layers' snap indexes.
+     * <p>
+     * The blackboard is searched, and the handler and viewport state is copied, when the query is
+     * created. {@link #search()} only uses the copied state and the indexes.
+     * </p>
+     */
+    private static final class VertexQuery implements SnapQuery {
+
+        private final IToolContext              context;
+
+        private final ILayer                    editLayer;
+
+        private final String                    editFeatureID;
+
+        private final CoordinateReferenceSystem mapCrs;
+
+        private final CoordinateReferenceSystem layerCrs;
+
+        private final List<ILayer>              layers = new ArrayList<ILayer>();
+
+        /** search area, in map crs */
+        private final Envelope                  bbox;
+
+        /** visible extent, in map crs */
+        private final Envelope                  visible;
+
+        private final double                    scale;
+
+        private final Coordinate                centerInMapCrs;
+
+        private final double                    radiusInMapCrs;
+
+        /** closest vertex in the blackboard, in layer crs, or null */
+        private final Coordinate                closestInLayerCrs;
+
+        /** distance to the closest vertex in the blackboard, in map units */
+        private final double                    minDistance;
+
+        /** the snapping point, in layer crs */
+        private final Coordinate                pointInLayerCrs;
+
+        /**
+         * @param handler
+         * @param board the edit layer's blackboard
+         * @param point the snapping point in screen coordinates
+         * @param snapBehaviour {@link SnapBehaviour#CURRENT_LAYER} or
+         *        {@link SnapBehaviour#ALL_LAYERS}
+         */
+        VertexQuery( final EditToolHandler handler, final EditBlackboard board, final Point point,
+                     final SnapBehaviour snapBehaviour ) {
+
+            this.context = handler.getContext();
+            this.editLayer = handler.getEditLayer();
+            this.mapCrs = this.context.getCRS();
+            this.layerCrs = this.editLayer.getCRS();
+            final int snappingRadius = PreferenceUtil.instance().getSnappingRadius();
+
+            SimpleFeature editFeature = this.context.getEditManager().getEditFeature();
+            this.editFeatureID = (editFeature != null) ? editFeature.getID() : null;
+
+            java.awt.Point screenLocation = new java.awt.Point(point.getX(), point.getY());
+            this.bbox = this.context.getBoundingBox(screenLocation, snappingRadius * 2);
+            this.centerInMapCrs = this.context.pixelToWorld(point.getX(), point.getY());
+            this.radiusInMapCrs = this.bbox.getWidth() / 2;
+
+            IViewportModel viewport = this.context.getViewportModel();
+            this.visible = new Envelope(viewport.getBounds());
+            this.scale = viewport.getScaleDenominator();
+
+            List<ILayer> candidates = (snapBehaviour == SnapBehaviour.ALL_LAYERS)
+                    ? this.context.getMapLayers()
+                    : Collections.singletonList(this.editLayer);
+            for( ILayer layer : candidates ) {
+                if (layer.hasResource(FeatureSource.class) && layer.isApplicable(EditPlugin.ID)
+                        && layer.isVisible()) {
+                    this.layers.add(layer);
+                }
+            }
+
+            // the vertices of the features being edited are in the blackboard
+            this.closestInLayerCrs = EditUtils.instance.getClosestSnapPoint(handler, board, point,
+                                                                            false,
+                                                                            SnapBehaviour.SELECTED,
+                                                                            handler.getCurrentState());
+            if (this.closestInLayerCrs != null) {
+                Point closestPoint = board.toPoint(this.closestInLayerCrs);
+                Coordinate closestInMapCrs = this.context.pixelToWorld(closestPoint.getX(),
+                                                                       closestPoint.getY());
+                this.minDistance = this.centerInMapCrs.distance(closestInMapCrs);
+            } else {
+                this.minDistance = Double.MAX_VALUE;
+            }
+            this.pointInLayerCrs = board.toCoord(point);
+        }
+
+        /**
+         * @return the closest vertex, in the edit layer's crs, or the snapping point if there is
+         *         not any vertex in the snapping radius
+         */
+        public Coordinate search() {
+            final long start = System.nanoTime();
+            try {
+                Coordinate snapCoord = searchIndexedVertex();
+                if (snapCoord != null) {
+                    return snapCoord;
+                }
+                return this.pointInLayerCrs;
+
+            } finally {
+                SnapIndexService.getVertexLatency().record(System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * @return the closest vertex, in the edit layer's crs, or null if there is not any vertex
+         *         in the snapping radius
+         */
+        private Coordinate searchIndexedVertex() {
+
+            double minDistance = this.minDistance;
+            Coordinate closestInMapCrs = null;
+            for( ILayer layer : this.layers ) {
+                try {
+                    LayerSnapIndex index = SnapIndexService.getIndex(layer, this.mapCrs);
+                    index.load(layer, this.context, this.visible, this.scale, this.bbox);
+
+                    String excludedFid = (layer == this.editLayer) ? this.editFeatureID : null;
+                    List<Coordinate> nearest = index.nearestVertices(this.centerInMapCrs, 1,
+                                                                     this.radiusInMapCrs,
+                                                                     excludedFid);
+                    if (nearest.isEmpty()) {
+                        continue;
+                    }
+                    Coordinate candidate = nearest.get(0);
+                    double distance = this.centerInMapCrs.distance(candidate);
+                    if (distance < minDistance) {
+                        minDistance = distance;
+                        closestInMapCrs = candidate;
+                    }
+                } catch (Exception e) {
+                    EditPlugin.log("", e); //$NON-NLS-1$
+                }
+            }
+            if (closestInMapCrs == null) {
+                return this.closestInLayerCrs;
+            }
+            try {
+                MathTransform transform = CRS.findMathTransform(this.mapCrs, this.layerCrs, true);
+                return JTS.transform(closestInMapCrs, new Coordinate(), transform);
+
+            } catch (FactoryException e) {
+                EditPlugin.log("", e); //$NON-NLS-1$
+            } catch (TransformException e) {
+                EditPlugin.log("", e); //$NON-NLS-1$
+            }
+            return this.closestInLayerCrs;
+        }
+    }
 }
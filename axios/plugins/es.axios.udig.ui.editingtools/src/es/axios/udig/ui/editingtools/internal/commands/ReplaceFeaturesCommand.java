@@ -0,0 +1,140 @@
+/* Spatial Operations & Editing Tools for uDig
+ *
+ * Axios Engineering under a funding contract with:
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT).
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ *
+ * You can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.ui.editingtools.internal.commands;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.refractions.udig.project.ILayer;
+import net.refractions.udig.project.command.AbstractCommand;
+import net.refractions.udig.project.command.UndoableMapCommand;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.FeatureStore;
+import org.geotools.factory.CommonFactoryFinder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.identity.FeatureId;
+
+/**
+ * Undoable map command that replaces a set of features of a layer by a set of new features.
+ * <p>
+ * The features are removed with one call to {@link FeatureStore#removeFeatures(Filter)} and
+ * the new features are added with one call to {@link FeatureStore#addFeatures}, instead of one
+ * command for each feature. The rollback removes the added features and adds the removed ones
+ * again; as the store gives them new ids, those ids are the ones removed if the command is run
+ * again.
+ * </p>
+ *
+ * @author Mauricio Pazos (www.axios.es)
+ * @author Gabriel Roldan (www.axios.es)
+ * @since 1.1.0
+ */
+final class ReplaceFeaturesCommand extends AbstractCommand implements UndoableMapCommand {
+
+    private final ILayer              layer;
+
+    private final List<SimpleFeature> removedFeatures;
+
+    private final List<SimpleFeature> addedFeatures;
+
+    /** ids given by the store to the added features, used by the rollback */
+    private Set<String>               addedFids   = null;
+
+    /** ids of the removed features in the store, they change when the rollback adds them */
+    private Set<String>               removedFids;
+
+    /**
+     * @param layer layer whose resource can be resolved to {@link FeatureStore}
+     * @param removedFeatures features of the layer to remove
+     * @param addedFeatures new features to add to the layer
+     */
+    public ReplaceFeaturesCommand( final ILayer layer, final List<SimpleFeature> removedFeatures,
+                                   final List<SimpleFeature> addedFeatures ) {
+
+        assert layer != null;
+        assert removedFeatures != null;
+        assert addedFeatures != null;
+
+        this.layer = layer;
+        this.removedFeatures = removedFeatures;
+        this.addedFeatures = addedFeatures;
+        this.removedFids = getFids(removedFeatures);
+    }
+
+    public String getName() {
+        return "Replace Features Command"; //$NON-NLS-1$
+    }
+
+    public void run( IProgressMonitor monitor ) throws Exception {
+
+        FeatureStore<SimpleFeatureType, SimpleFeature> store = getStore(monitor);
+
+        store.removeFeatures(createFidFilter(this.removedFids));
+
+        SimpleFeature[] features = this.addedFeatures.toArray(new SimpleFeature[this.addedFeatures.size()]);
+        this.addedFids = store.addFeatures(DataUtilities.collection(features));
+    }
+
+    public void rollback( IProgressMonitor monitor ) throws Exception {
+
+        if (this.addedFids == null) {
+            return;
+        }
+        FeatureStore<SimpleFeatureType, SimpleFeature> store = getStore(monitor);
+
+        store.removeFeatures(createFidFilter(this.addedFids));
+
+        SimpleFeature[] features = this.removedFeatures.toArray(new SimpleFeature[this.removedFeatures.size()]);
+        this.removedFids = store.addFeatures(DataUtilities.collection(features));
+
+        this.addedFids = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private FeatureStore<SimpleFeatureType, SimpleFeature> getStore( IProgressMonitor monitor ) throws Exception {
+        return this.layer.getResource(FeatureStore.class, monitor);
+    }
+
+    private static Set<String> getFids( final List<SimpleFeature> features ) {
+
+        Set<String> fids = new HashSet<String>(features.size());
+        for( SimpleFeature feature : features ) {
+            fids.add(feature.getID());
+        }
+        return fids;
+    }
+
+    private static Filter createFidFilter( final Collection<String> fids ) {
+
+        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+        Set<FeatureId> ids = new HashSet<FeatureId>(fids.size());
+        for( String fid : fids ) {
+            ids.add(ff.featureId(fid));
+        }
+        return ff.id(ids);
+    }
+}
@@ -29,7 +29,6 @@ import net.refractions.udig.project.IMap;
 import net.refractions.udig.project.command.AbstractCommand;
 import net.refractions.udig.project.command.UndoableComposite;
 import net.refractions.udig.project.command.UndoableMapCommand;
-import net.refractions.udig.project.command.factory.EditCommandFactory;
 import net.refractions.udig.project.internal.Map;
 import net.refractions.udig.tools.edit.EditPlugin;
 import net.refractions.udig.tools.edit.EditState;
@@ -62,11 +61,11 @@ import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.MultiPoint;
 import com.vividsolutions.jts.geom.Point;
 
-import es.axios.udig.ui.commons.mediator.AppGISMediator;
 import es.axios.udig.ui.commons.util.GeoToolsUtils;
 import es.axios.udig.ui.commons.util.GeometryUtil;
 import es.axios.udig.ui.commons.util.LayerUtil;
 import es.axios.udig.ui.commons.util.MapUtil;
+import es.axios.udig.ui.editingtools.internal.geometryoperations.split.BatchSplitStrategy;
 import es.axios.udig.ui.editingtools.internal.geometryoperations.split.SplitStrategy;
 import es.axios.udig.ui.editingtools.internal.i18n.Messages;
 
@@ -281,6 +280,11 @@ final class SplitFeaturesCommand extends AbstractCommand implements UndoableMapC
     /**
      * Creates the list of commands that are going to be executed on {@link #run(IProgressMonitor)}
      * <p>
+     * All the features are split as a batch by a {@link BatchSplitStrategy}, which indexes the
+     * splitting line once and splits the geometries in parallel. The splitted features and the
+     * new ones are replaced by a single {@link ReplaceFeaturesCommand}.
+     * </p>
+     * <p>
      * NOTE: visible only to be accessed by unit tests, framework uses
      * {@link #run(IProgressMonitor)} and you should never see this class from client code.
      * </p>
@@ -294,67 +298,82 @@ final class SplitFeaturesCommand extends AbstractCommand implements UndoableMapC
                                                LineString splitterInMapCrs ) throws OperationNotFoundException, TransformException, IllegalAttributeException {
         
         EditPlugin.trace("Splitter in map crs:" + splitterInMapCrs, null); //$NON-NLS-1$
-        final EditCommandFactory cmdFac = AppGISMediator.getEditCommandFactory();
-
-        final FeatureIterator<SimpleFeature> iterator = featuresToSplit.features();
-        final List<UndoableMapCommand> undoableCommands = new ArrayList<UndoableMapCommand>();
-        final SplitStrategy splitOp = new SplitStrategy(splitterInMapCrs);
 
         final CoordinateReferenceSystem layerCrs = LayerUtil.getCrs(selectedLayer);
         final CoordinateReferenceSystem splitterCrs;
         splitterCrs = (CoordinateReferenceSystem) splitterInMapCrs.getUserData();
+
+        // reads the features and projects their geometries to the splitter crs
+        final List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        final List<Geometry> geometries = new ArrayList<Geometry>();
+        final FeatureIterator<SimpleFeature> iterator = featuresToSplit.features();
         try {
-            Geometry originalGeometry;
-            Geometry splitted;
-            UndoableMapCommand command;
             while( iterator.hasNext() ) {
                 final SimpleFeature feature = iterator.next();
-                final SimpleFeatureType featureType = feature.getFeatureType();
 
-                originalGeometry = (Geometry) feature.getDefaultGeometry();
+                Geometry originalGeometry = (Geometry) feature.getDefaultGeometry();
                 EditPlugin.trace("originalGeometry=" + originalGeometry,null); //$NON-NLS-1$
 
                 originalGeometry = GeoToolsUtils.reproject(originalGeometry, layerCrs, splitterCrs);
                 EditPlugin.trace("originalGeometry projected to Map CRS =" + originalGeometry, null); //$NON-NLS-1$
 
-                splitted = splitOp.split(originalGeometry);
-
-                EditPlugin.trace("split result =" + splitted,null); //$NON-NLS-1$
-
-                splitted = GeoToolsUtils.reproject(splitted, splitterCrs, layerCrs);
-
-                EditPlugin.trace("splitted back projected to layerCrs=" + splitted,null); //$NON-NLS-1$
-
-                final int numGeometries = splitted.getNumGeometries();
-                switch( numGeometries ) {
-                case 0:
-                    throw new IllegalStateException(
-                                                    Messages.SplitFeaturesCommand_no_geometry_were_created);
-                case 1:
-                    // do nothing, same as input
-                    break;
-                default:
-                    command = cmdFac.createDeleteFeature(feature, selectedLayer);
-                    undoableCommands.add(command);
-                    for( int i = 0; i < numGeometries; i++ ) {
-                        Geometry splittedPart = splitted.getGeometryN(i);
-                        Class<?> geometryBinding =
-                        	featureType.getDefaultGeometry().getType().getBinding();
-                        
-                        splittedPart = GeometryUtil.adapt(splittedPart, (Class<? extends Geometry>) geometryBinding);
-                        
-                        SimpleFeature newFeature = SimpleFeatureBuilder.template( featureType, null );
-                        GeoToolsUtils.match(feature, newFeature);
-                        newFeature.setDefaultGeometry(splittedPart);
-                        command = cmdFac.createAddFeatureCommand(newFeature, selectedLayer);
-                        undoableCommands.add(command);
-                    }
-                }
-
+                features.add(feature);
+                geometries.add(originalGeometry);
             }
         } finally {
             featuresToSplit.close(iterator);
         }
+
+        final int parallelism = Runtime.getRuntime().availableProcessors();
+        final BatchSplitStrategy splitOp = new BatchSplitStrategy(splitterInMapCrs, parallelism);
+        final List<Geometry> splitResults = splitOp.split(geometries);
+
+        final List<SimpleFeature> splittedFeatures = new ArrayList<SimpleFeature>();
+        final List<SimpleFeature> newFeatures = new ArrayList<SimpleFeature>();
+        for( int n = 0; n < features.size(); n++ ) {
+            final SimpleFeature feature = features.get(n);
+            final SimpleFeatureType featureType = feature.getFeatureType();
+
+            Geometry splitted = splitResults.get(n);
+            EditPlugin.trace("split result =" + splitted,null); //$NON-NLS-1$
+            if (splitted == null) {
+                // the line does not split the geometry
+                continue;
+            }
+            splitted = GeoToolsUtils.reproject(splitted, splitterCrs, layerCrs);
+
+            EditPlugin.trace("splitted back projected to layerCrs=" + splitted,null); //$NON-NLS-1$
+
+            final int numGeometries = splitted.getNumGeometries();
+            switch( numGeometries ) {
+            case 0:
+                throw new IllegalStateException(
+                                                Messages.SplitFeaturesCommand_no_geometry_were_created);
+            case 1:
+                // do nothing, same as input
+                break;
+            default:
+                splittedFeatures.add(feature);
+                for( int i = 0; i < numGeometries; i++ ) {
+                    Geometry splittedPart = splitted.getGeometryN(i);
+                    Class<?> geometryBinding =
+                    	featureType.getDefaultGeometry().getType().getBinding();
+                    
+                    splittedPart = GeometryUtil.adapt(splittedPart, (Class<? extends Geometry>) geometryBinding);
+                    
+                    SimpleFeature newFeature = SimpleFeatureBuilder.template( featureType, null );
+                    GeoToolsUtils.match(feature, newFeature);
+                    newFeature.setDefaultGeometry(splittedPart);
+                    newFeatures.add(newFeature);
+                }
+            }
+        }
+
+        final List<UndoableMapCommand> undoableCommands = new ArrayList<UndoableMapCommand>(1);
+        if (!splittedFeatures.isEmpty()) {
+            undoableCommands.add(new ReplaceFeaturesCommand(selectedLayer, splittedFeatures,
+                                                            newFeatures));
+        }
         return undoableCommands;
     }
 
@@ -116,6 +116,7 @@ final class TrimFeaturesCommand extends AbstractCommand implements UndoableMapCo
 
                 final FeatureIterator<SimpleFeature> iterator = featuresToTrim.features();
                 final List<UndoableMapCommand> undoableCommands = new ArrayList<UndoableMapCommand>();
+                // the trimming line is indexed once for all the features
                 final TrimGeometryStrategy trimOp = new TrimGeometryStrategy(trimmingLine);
 
                 try {
@@ -127,6 +128,10 @@ final class TrimFeaturesCommand extends AbstractCommand implements UndoableMapCo
                         feature = iterator.next();
                         original = (Geometry) feature.getDefaultGeometry();
                         trimmed = trimOp.trim(original);
+                        if (trimmed == original) {
+                            // the trimming line does not cross this feature
+                            continue;
+                        }
                         command = editCommandFactory.createSetGeomteryCommand(feature,
                                                                               selectedLayer,
                                                                               trimmed);
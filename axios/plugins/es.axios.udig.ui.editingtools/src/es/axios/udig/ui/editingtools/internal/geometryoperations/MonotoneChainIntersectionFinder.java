@@ -0,0 +1,203 @@
+/* Spatial Operations & Editing Tools for uDig
+ *
+ * Axios Engineering under a funding contract with:
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT).
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ *
+ * You can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.ui.editingtools.internal.geometryoperations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vividsolutions.jts.algorithm.LineIntersector;
+import com.vividsolutions.jts.algorithm.RobustLineIntersector;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.index.chain.MonotoneChain;
+import com.vividsolutions.jts.index.chain.MonotoneChainBuilder;
+import com.vividsolutions.jts.index.chain.MonotoneChainOverlapAction;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * Finds the intersections between a line and a fixed cutting line without building an overlay.
+ * <p>
+ * The cutting line is broken in {@link MonotoneChain}s, indexed once in a {@link STRtree}, so
+ * the same finder can be used with many lines. The line to intersect is also broken in monotone
+ * chains; each one is intersected only with the cutting chains whose envelope overlaps it, and
+ * only the segments of overlapping sections are tested with a {@link RobustLineIntersector}.
+ * </p>
+ * <p>
+ * The instances are not thread safe.
+ * </p>
+ *
+ * @author Gabriel Roldán (www.axios.es)
+ * @author Mauricio Pazos (www.axios.es)
+ * @since 1.1.0
+ */
+final class MonotoneChainIntersectionFinder {
+
+    private final Coordinate[]    cuttingCoordinates;
+
+    private final STRtree         cuttingChains = new STRtree();
+
+    private final LineIntersector intersector   = new RobustLineIntersector();
+
+    /**
+     * @param cuttingCoordinates coordinates of the cutting line
+     */
+    MonotoneChainIntersectionFinder( final Coordinate[] cuttingCoordinates ) {
+
+        this.cuttingCoordinates = cuttingCoordinates;
+
+        List< ? > chains = MonotoneChainBuilder.getChains(cuttingCoordinates);
+        for( Object item : chains ) {
+            MonotoneChain chain = (MonotoneChain) item;
+            this.cuttingChains.insert(chain.getEnvelope(), chain);
+        }
+    }
+
+    /**
+     * @return the coordinates of the cutting line
+     */
+    Coordinate[] getCuttingCoordinates() {
+        return this.cuttingCoordinates;
+    }
+
+    /**
+     * Finds the intersections between the line and the cutting line
+     *
+     * @param lineCoordinates coordinates of the line
+     * @return the intersections found, it is empty if they do not intersect
+     */
+    Result find( final Coordinate[] lineCoordinates ) {
+
+        final Result result = new Result();
+        final MonotoneChainOverlapAction action = new MonotoneChainOverlapAction(){
+            @Override
+            public void overlap( MonotoneChain lineChain, int lineIndex,
+                                 MonotoneChain cuttingChain, int cuttingIndex ) {
+                addIntersections(lineCoordinates, lineIndex, cuttingIndex, result);
+            }
+        };
+
+        List< ? > chains = MonotoneChainBuilder.getChains(lineCoordinates);
+        for( Object item : chains ) {
+            MonotoneChain lineChain = (MonotoneChain) item;
+            for( Object candidate : this.cuttingChains.query(lineChain.getEnvelope()) ) {
+                lineChain.computeOverlaps((MonotoneChain) candidate, action);
+            }
+        }
+        return result;
+    }
+
+    private void addIntersections( final Coordinate[] lineCoordinates, final int lineIndex,
+                                   final int cuttingIndex, final Result result ) {
+
+        this.intersector.computeIntersection(lineCoordinates[lineIndex],
+                                             lineCoordinates[lineIndex + 1],
+                                             this.cuttingCoordinates[cuttingIndex],
+                                             this.cuttingCoordinates[cuttingIndex + 1]);
+        if (!this.intersector.hasIntersection()) {
+            return;
+        }
+        final int count = this.intersector.getIntersectionNum();
+        if (count == 2
+                && !this.intersector.getIntersection(0).equals2D(this.intersector.getIntersection(1))) {
+            // the segments overlap
+            result.overlap = true;
+        }
+        for( int i = 0; i < count; i++ ) {
+            Coordinate coordinate = new Coordinate(this.intersector.getIntersection(i));
+            result.intersections.add(new Intersection(lineIndex, cuttingIndex, coordinate));
+        }
+    }
+
+    /**
+     * Intersections between a line and the cutting line
+     */
+    static final class Result {
+
+        final List<Intersection> intersections = new ArrayList<Intersection>();
+
+        /** true if a segment of the line overlaps a segment of the cutting line */
+        boolean                  overlap       = false;
+
+        /**
+         * @return true if the line and the cutting line do not intersect
+         */
+        boolean isEmpty() {
+            return this.intersections.isEmpty();
+        }
+
+        /**
+         * @return true if the line and the cutting line intersect at a single point
+         */
+        boolean isSinglePoint() {
+            if (this.overlap || this.intersections.isEmpty()) {
+                return false;
+            }
+            final Coordinate first = this.intersections.get(0).coordinate;
+            for( Intersection intersection : this.intersections ) {
+                if (!first.equals2D(intersection.coordinate)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the first segment of the line holding the intersection point
+         */
+        int getFirstLineIndex() {
+            int min = Integer.MAX_VALUE;
+            for( Intersection intersection : this.intersections ) {
+                min = Math.min(min, intersection.lineIndex);
+            }
+            return min;
+        }
+
+        /**
+         * @return the first segment of the cutting line holding the intersection point
+         */
+        int getFirstCuttingIndex() {
+            int min = Integer.MAX_VALUE;
+            for( Intersection intersection : this.intersections ) {
+                min = Math.min(min, intersection.cuttingIndex);
+            }
+            return min;
+        }
+    }
+
+    /**
+     * Intersection point between a segment of the line and a segment of the cutting line
+     */
+    static final class Intersection {
+
+        /** position of the first coordinate of the line's segment */
+        final int        lineIndex;
+
+        /** position of the first coordinate of the cutting line's segment */
+        final int        cuttingIndex;
+
+        final Coordinate coordinate;
+
+        Intersection( final int lineIndex, final int cuttingIndex, final Coordinate coordinate ) {
+            this.lineIndex = lineIndex;
+            this.cuttingIndex = cuttingIndex;
+            this.coordinate = coordinate;
+        }
+    }
+}
@@ -21,21 +21,24 @@
 
 package es.axios.udig.ui.editingtools.internal.geometryoperations;
 
-import java.text.MessageFormat;
-
 import com.vividsolutions.jts.algorithm.CGAlgorithms;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.MultiLineString;
-import com.vividsolutions.jts.geom.Point;
 
 import es.axios.udig.ui.editingtools.internal.i18n.Messages;
 
 /**
  * Performs the trimming of a LineString or MultiLineString using a provided LineString as cutting
  * edge.
+ * <p>
+ * The cut point is located by a {@link MonotoneChainIntersectionFinder}, which indexes the
+ * trimming line once, instead of computing the intersection and the difference overlays for
+ * each line. Then the line is cut at that point by copying its coordinates. The same instance
+ * can be used to trim many geometries against the same trimming line.
+ * </p>
  * 
  * @author Gabriel Roldán (www.axios.es)
  * @author Mauricio Pazos (www.axios.es)
@@ -43,10 +46,13 @@ import es.axios.udig.ui.editingtools.internal.i18n.Messages;
  */
 public class TrimGeometryStrategy {
 
-    private LineString trimmingLine;
+    private LineString                      trimmingLine;
+
+    private MonotoneChainIntersectionFinder intersectionFinder;
 
     public TrimGeometryStrategy( LineString trimmingLine ) {
         this.trimmingLine = trimmingLine;
+        this.intersectionFinder = new MonotoneChainIntersectionFinder(trimmingLine.getCoordinates());
     }
 
     public static Geometry trim( Geometry input, LineString trimmingLine ) {
@@ -61,19 +67,22 @@ public class TrimGeometryStrategy {
             return original;
         }
         if (original instanceof LineString) {
-            trimmed = trimLine((LineString) original, trimmingLine);
+            trimmed = trimLine((LineString) original);
         } else if (original instanceof MultiLineString) {
             MultiLineString input = (MultiLineString) original;
             GeometryFactory gf = input.getFactory();
 
             int numGeometries = input.getNumGeometries();
             LineString[] lines = new LineString[numGeometries];
+            boolean changed = false;
             for( int i = 0; i < numGeometries; i++ ) {
                 LineString part = (LineString) input.getGeometryN(i);
-                LineString trimmedPart = trimLine(part, trimmingLine);
+                LineString trimmedPart = trimLine(part);
                 lines[i] = trimmedPart;
+                changed |= trimmedPart != part;
             }
-            trimmed = gf.createMultiLineString(lines);
+            // the original is returned if the trimming line does not cross any part
+            trimmed = changed ? gf.createMultiLineString(lines) : original;
         } else {
             throw new IllegalArgumentException(
                                                Messages.TrimGeometryStrategy_defined_for_line_geometries);
@@ -83,26 +92,31 @@ public class TrimGeometryStrategy {
 
     /**
      * @param original
-     * @param trimmingLine
      * @return if <code>original</code> intersects <code>trimmingLine</code> at a single point,
      *         the result of cutting off the part of <code>original</code> that lies at the right
      *         of <code>trimmingLine</code>. If they do not intersect, returns
      *         <code>original</code>.
      * @throws IllegalArgumentException
      */
-    private LineString trimLine( final LineString original, final LineString trimmingLine ) throws IllegalArgumentException {
-        Geometry intersectGeom = original.intersection(trimmingLine);
-        if (intersectGeom.isEmpty()) {
+    private LineString trimLine( final LineString original ) throws IllegalArgumentException {
+
+        final Coordinate[] coordinates = original.getCoordinates();
+        if (coordinates.length < 2) {
             return original;
         }
-        if (!(intersectGeom instanceof Point)) {
+        final MonotoneChainIntersectionFinder.Result intersections = intersectionFinder.find(coordinates);
+        if (intersections.isEmpty()) {
+            return original;
+        }
+        if (!intersections.isSinglePoint()) {
             throw new IllegalArgumentException(
                                                Messages.TrimGeometryStrategy_trimming_line_intersect_one_point);
         }
-        Point intersection = (Point) intersectGeom;
-        Coordinate intersectionPoint = intersection.getCoordinate();
+        final Coordinate intersectionPoint = intersections.intersections.get(0).coordinate;
 
-        final Coordinate lineFrom = getCoordinateBeforePoint(trimmingLine, intersectionPoint);
+        // the trimming line coordinate right before the intersection point
+        final Coordinate[] trimmingCoordinates = intersectionFinder.getCuttingCoordinates();
+        final Coordinate lineFrom = trimmingCoordinates[intersections.getFirstCuttingIndex()];
         // if it happened that the intersection point is the starting point of the trimming line
         // then lineTo is the next coordinate. Otherwise it is the intersection point itself
         final Coordinate lineTo = intersectionPoint.equals2D(lineFrom)
@@ -110,26 +124,30 @@ public class TrimGeometryStrategy {
                 : intersectionPoint;
 
         // split the line at the intersection point
-        Geometry difference = original.difference(trimmingLine);
+        final GeometryFactory gf = original.getFactory();
         LineString splitLine1;
         LineString splitLine2;
-        if (difference instanceof MultiLineString) {
-            splitLine1 = (LineString) difference.getGeometryN(0);
-            splitLine2 = (LineString) difference.getGeometryN(1);
-        } else if (difference instanceof LineString) {
+        final boolean atEndPoint = intersectionPoint.equals2D(coordinates[0])
+                || intersectionPoint.equals2D(coordinates[coordinates.length - 1]);
+        if (atEndPoint) {
             // original touches trimmingLine but does not crosses it
-            splitLine1 = (LineString) difference;
-            splitLine2 = difference.getFactory().createLineString(new Coordinate[0]);
+            splitLine1 = original;
+            splitLine2 = gf.createLineString(new Coordinate[0]);
         } else {
-            throw new IllegalStateException(Messages.TrimGeometryStrategy_difference_unknown_type
-                    + difference);
+            final int segment = intersections.getFirstLineIndex();
+            splitLine1 = gf.createLineString(head(coordinates, segment, intersectionPoint));
+            splitLine2 = gf.createLineString(tail(coordinates, segment, intersectionPoint));
         }
 
-        Coordinate firstLinePoint = getCoordinateBeforePoint(splitLine1, intersectionPoint);
-        if (firstLinePoint.equals2D(intersectionPoint)) {
+        final Coordinate[] line1Coordinates = splitLine1.getCoordinates();
+        Coordinate firstLinePoint;
+        if (line1Coordinates[0].equals2D(intersectionPoint)) {
             // same case as the comment for line1, or computeOrientation will return COLLINEAR,
             // and we'll have no way to tell wether the line is at the right or the left
-            firstLinePoint = splitLine1.getCoordinateN(1);
+            firstLinePoint = line1Coordinates[1];
+        } else {
+            // the intersection point is the last one of line1
+            firstLinePoint = line1Coordinates[line1Coordinates.length - 2];
         }
 
         final int firstLineOrientation = CGAlgorithms.computeOrientation(lineFrom, lineTo,
@@ -147,38 +165,34 @@ public class TrimGeometryStrategy {
     }
 
     /**
-     * Traverses the <code>line</code> in its digitizing order and returns the
-     * <code>Coordinate</code> right before the <code>intersectionPoint</code> on the segment
-     * that containst it.
-     * 
-     * @param line
-     * @param pointInLine
-     * @return
+     * @return the coordinates from the first one to the end of the segment, ending at the point
      */
-    private Coordinate getCoordinateBeforePoint( final LineString line, final Coordinate pointInLine ) {
-        Coordinate[] coordinates = line.getCoordinates();
-        Coordinate[] segment = new Coordinate[2];
-
-        final GeometryFactory gf = line.getFactory();
-        final double HACK_DISTANCE = 0.0000001;
-        for( int i = 1; i < coordinates.length; i++ ) {
-            segment[0] = coordinates[i - 1];
-            segment[1] = coordinates[i];
-            // CGAlgorithms.isOnLine is too precise and due to round off errors almost
-            // never returns true, even though intersectionPoint should be guaranteed
-            // to be over the line as it was produced by intersecting both lines
-            // so we're using this hack to determine if the point lies over the segment
-            Geometry lineSegment = gf.createLineString(segment);
-            lineSegment = lineSegment.buffer(HACK_DISTANCE, 2);
-            Point point = gf.createPoint(pointInLine);
-            Geometry intersection = lineSegment.intersection(point);
-            if (point.equals(intersection)) {
-                return segment[0];
-            }
+    private static Coordinate[] head( final Coordinate[] coordinates, final int segment,
+                                      final Coordinate point ) {
+
+        final boolean pointIsVertex = point.equals2D(coordinates[segment]);
+        final int length = pointIsVertex ? segment + 1 : segment + 2;
+        final Coordinate[] head = new Coordinate[length];
+        for( int i = 0; i < length - 1; i++ ) {
+            head[i] = new Coordinate(coordinates[i]);
         }
+        head[length - 1] = new Coordinate(point);
+        return head;
+    }
 
-        final String msg = MessageFormat.format(Messages.TrimGeometryStrategy_point_not_on_line,
-                                                pointInLine, line);
-        throw new IllegalArgumentException(msg);
+    /**
+     * @return the coordinates from the point to the last one, starting at the segment's end
+     */
+    private static Coordinate[] tail( final Coordinate[] coordinates, final int segment,
+                                      final Coordinate point ) {
+
+        final boolean pointIsVertex = point.equals2D(coordinates[segment + 1]);
+        final int from = pointIsVertex ? segment + 2 : segment + 1;
+        final Coordinate[] tail = new Coordinate[coordinates.length - from + 1];
+        tail[0] = new Coordinate(point);
+        for( int i = from; i < coordinates.length; i++ ) {
+            tail[i - from + 1] = new Coordinate(coordinates[i]);
+        }
+        return tail;
     }
 }
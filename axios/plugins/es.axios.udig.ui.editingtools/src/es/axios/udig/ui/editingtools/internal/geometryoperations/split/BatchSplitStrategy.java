@@ -0,0 +1,210 @@
+/* Spatial Operations & Editing Tools for uDig
+ *
+ * Axios Engineering under a funding contract with:
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT).
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ *
+ * You can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.ui.editingtools.internal.geometryoperations.split;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * Splits a batch of geometries with the same splitting line.
+ * <p>
+ * The segments of the splitting line are indexed once for the whole batch. Each geometry is
+ * split with the part of the line that crosses its envelope instead of the whole line, so the
+ * overlay made by {@link SplitStrategy} for each geometry only nodes the segments near it. The
+ * part is the run of segments from the first to the last one intersecting the envelope, whose
+ * end points are outside the envelope unless they are the line's end points, so the result is
+ * the same as splitting with the whole line. A closed line, used to make a hole, is not cut.
+ * </p>
+ * <p>
+ * The geometries are split in parallel, each one by an independent {@link SplitStrategy} with
+ * its own copy of the line.
+ * </p>
+ *
+ * @author Gabriel Roldán (www.axios.es)
+ * @author Mauricio Pazos (www.axios.es)
+ * @since 1.1.0
+ * @see SplitStrategy
+ */
+public class BatchSplitStrategy {
+
+    private final LineString splittingLine;
+
+    private final Coordinate[] coordinates;
+
+    /** index of the splitting line segments, the item is the position of the segment */
+    private final STRtree      segmentIndex;
+
+    private final int          parallelism;
+
+    /**
+     * @param splittingLine the line used to split all the geometries
+     * @param parallelism maximum number of geometries split at the same time
+     */
+    public BatchSplitStrategy( final LineString splittingLine, final int parallelism ) {
+        if (splittingLine == null) {
+            throw new NullPointerException();
+        }
+        this.splittingLine = splittingLine;
+        this.coordinates = splittingLine.getCoordinates();
+        this.parallelism = Math.max(1, parallelism);
+
+        this.segmentIndex = new STRtree();
+        for( int i = 0; i < this.coordinates.length - 1; i++ ) {
+            Envelope segmentEnvelope = new Envelope(this.coordinates[i], this.coordinates[i + 1]);
+            this.segmentIndex.insert(segmentEnvelope, Integer.valueOf(i));
+        }
+        // the tree is built before it is queried by several threads
+        this.segmentIndex.build();
+    }
+
+    /**
+     * Splits the geometries
+     *
+     * @param splitees geometries to split
+     * @return for each geometry, in the same order, the result of
+     *         {@link SplitStrategy#split(Geometry)} or <code>null</code> if the line does not
+     *         cross the geometry
+     * @throws IllegalArgumentException if any geometry is not of an acceptable geometry type to
+     *         be splitted
+     */
+    public List<Geometry> split( final List<Geometry> splitees ) {
+
+        final List<Callable<Geometry>> tasks = new ArrayList<Callable<Geometry>>(splitees.size());
+        for( final Geometry splitee : splitees ) {
+            tasks.add(new Callable<Geometry>(){
+                public Geometry call() {
+                    return splitOne(splitee);
+                }
+            });
+        }
+        final int threads = Math.min(this.parallelism, tasks.size());
+        if (threads <= 1) {
+            final List<Geometry> results = new ArrayList<Geometry>(tasks.size());
+            for( Callable<Geometry> task : tasks ) {
+                try {
+                    results.add(task.call());
+                } catch (Exception e) {
+                    throw asRuntimeException(e);
+                }
+            }
+            return results;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Geometry>> futures = executor.invokeAll(tasks);
+            final List<Geometry> results = new ArrayList<Geometry>(futures.size());
+            for( Future<Geometry> future : futures ) {
+                results.add(future.get());
+            }
+            return results;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e.getMessage(), e);
+        } catch (ExecutionException e) {
+            throw asRuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Splits the geometry with the part of the splitting line that crosses its envelope
+     *
+     * @param splitee
+     * @return the split result or <code>null</code> if the line does not cross the geometry
+     */
+    private Geometry splitOne( final Geometry splitee ) {
+
+        final LineString localSplitter = getSplitterFor(splitee.getEnvelopeInternal());
+        if (localSplitter == null) {
+            return null;
+        }
+        return SplitStrategy.splitOp(splitee, localSplitter);
+    }
+
+    /**
+     * @param envelope
+     * @return the run of segments of the splitting line from the first to the last one
+     *         intersecting the envelope, the whole line if it is closed, or <code>null</code>
+     *         if no segment intersects the envelope
+     */
+    LineString getSplitterFor( final Envelope envelope ) {
+
+        if (this.splittingLine.isClosed()) {
+            return envelope.intersects(this.splittingLine.getEnvelopeInternal())
+                    ? copySplitter(0, this.coordinates.length)
+                    : null;
+        }
+        int first = Integer.MAX_VALUE;
+        int last = -1;
+        for( Object item : this.segmentIndex.query(envelope) ) {
+            int i = ((Integer) item).intValue();
+            if (!envelope.intersects(new Envelope(this.coordinates[i], this.coordinates[i + 1]))) {
+                continue;
+            }
+            first = Math.min(first, i);
+            last = Math.max(last, i);
+        }
+        if (last < 0) {
+            return null;
+        }
+        return copySplitter(first, last - first + 2);
+    }
+
+    /**
+     * Each split gets its own line, as {@link SplitGraph} may reverse the line's coordinates
+     *
+     * @param from position of the first coordinate
+     * @param length number of coordinates
+     * @return a new line with the coordinates of the splitting line in the range
+     */
+    private LineString copySplitter( final int from, final int length ) {
+
+        final Coordinate[] localCoordinates = new Coordinate[length];
+        for( int i = 0; i < length; i++ ) {
+            localCoordinates[i] = new Coordinate(this.coordinates[from + i]);
+        }
+        LineString localSplitter = this.splittingLine.getFactory().createLineString(localCoordinates);
+        localSplitter.setUserData(this.splittingLine.getUserData());
+
+        return localSplitter;
+    }
+
+    private static RuntimeException asRuntimeException( final Throwable cause ) {
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        return new IllegalStateException(cause.getMessage(), cause);
+    }
+}
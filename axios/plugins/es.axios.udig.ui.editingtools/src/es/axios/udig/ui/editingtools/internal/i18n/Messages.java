@@ -62,8 +62,6 @@ public class Messages extends NLS {
     public static String        TrimFeaturesCommand_no_features_modified;
     public static String        TrimGeometryBehaviour_operation_failed;
     public static String        TrimGeometryStrategy_defined_for_line_geometries;
-    public static String        TrimGeometryStrategy_difference_unknown_type;
-    public static String        TrimGeometryStrategy_point_not_on_line;
     public static String        TrimGeometryStrategy_trimming_line_intersect_one_point;
 
     public static String        MergeFeatureBehaviour_select_two_or_more;
@@ -23,7 +23,10 @@ package es.axios.udig.ui.editingtools.parallel;
 import java.util.List;
 
 import net.refractions.udig.tools.edit.EventBehaviour;
+import net.refractions.udig.tools.edit.activator.DrawCurrentGeomVerticesActivator;
 import net.refractions.udig.tools.edit.behaviour.DrawCreateVertexSnapAreaBehaviour;
+import es.axios.udig.ui.editingtools.internal.behaviour.AsyncEditPointProvider;
+import es.axios.udig.ui.editingtools.internal.behaviour.DrawEditGeomWithCustomEndlineActivator;
 import es.axios.udig.ui.editingtools.internal.behaviour.SnapToVertexEditPointProvider;
 
 /**
@@ -37,6 +40,15 @@ public class SnapAction extends AbstractEditModifierActionDelegate {
     protected void activate() {
         List<EventBehaviour> eventBehaviours = getHandler().getBehaviours();
         eventBehaviours.add(new DrawCreateVertexSnapAreaBehaviour());
-        setEditPointProvider(new SnapToVertexEditPointProvider());
+
+        // the snap search runs in background while the mouse moves, the same provider is used
+        // to add the point so it gets the result already found
+        AsyncEditPointProvider editPointProvider = new AsyncEditPointProvider(new SnapToVertexEditPointProvider());
+
+        removeRunningActivators();
+        addActivator(new DrawEditGeomWithCustomEndlineActivator(editPointProvider));
+        addActivator(new DrawCurrentGeomVerticesActivator());
+
+        setEditPointProvider(editPointProvider);
     }
 }
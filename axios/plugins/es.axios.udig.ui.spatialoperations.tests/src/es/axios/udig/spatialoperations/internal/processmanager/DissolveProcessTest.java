@@ -0,0 +1,352 @@
+/* Spatial Operations & Editing Tools for uDig
+ *
+ * Axios Engineering under a funding contract with:
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT).
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ *
+ * You can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.spatialoperations.internal.processmanager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.refractions.udig.project.ILayer;
+import net.refractions.udig.project.IMap;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.FeatureStore;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.PrecisionModel;
+
+import es.axios.udig.spatialoperations.internal.parameters.DissolveAggregate;
+import es.axios.udig.spatialoperations.internal.parameters.IDisolveParameters;
+import es.axios.udig.spatialoperations.internal.parameters.ParametersFactory;
+import es.axios.udig.ui.testsupport.TestWorkBenchBuilder;
+
+/**
+ * Test for {@link DissolveProcess}
+ * <p>
+ * The features of the polygons layer are replaced by features whose name is the dissolve
+ * property and whose intVal is aggregated. The process is run with the geometries in memory
+ * and with a limit of coordinates that spills them to disk.
+ * </p>
+ *
+ * @author Mauricio Pazos (www.axios.es)
+ * @author Gabriel Roldan (www.axios.es)
+ * @since 1.1.0
+ */
+public class DissolveProcessTest extends TestCase {
+
+    private static final int       SRID          = 4326;
+
+    private final PrecisionModel   precision     = new PrecisionModel(1000);
+
+    private final GeometryFactory  gf            = new GeometryFactory(this.precision, SRID);
+
+    private TestWorkBenchBuilder   testData;
+
+    private ILayer                 sourceLayer;
+
+    private FeatureStore<SimpleFeatureType, SimpleFeature> sourceStore;
+
+    private List<DissolveAggregate> aggregates;
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        testData = new TestWorkBenchBuilder();
+        testData.setUp();
+
+        sourceLayer = testData.getPolygonsLayer();
+        sourceStore = testData.getPolygons().resolve(FeatureStore.class, new NullProgressMonitor());
+        sourceStore.removeFeatures(Filter.INCLUDE);
+
+        aggregates = Arrays.asList(
+                new DissolveAggregate(DissolveAggregate.Function.COUNT, null, "count"),
+                new DissolveAggregate(DissolveAggregate.Function.SUM, "intVal", "sum_intVal"),
+                new DissolveAggregate(DissolveAggregate.Function.MIN, "intVal", "min_intVal"),
+                new DissolveAggregate(DissolveAggregate.Function.MAX, "intVal", "max_intVal"));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        testData.tearDown();
+        testData = null;
+    }
+
+    /**
+     * The features are grouped by name, the geometries of each group are unioned and the
+     * aggregates are computed; a group without geometries has the aggregates only
+     */
+    public void testGroupsAndAggregates() throws Exception {
+
+        addSampleFeatures();
+
+        Map<String, SimpleFeature> result = dissolve(DissolveProcess.DEFAULT_MAX_COORDINATES);
+
+        assertSampleResult(result);
+    }
+
+    /**
+     * The geometries spilled to disk give the same result, keeping the precision model and the
+     * SRID of the source geometries
+     */
+    public void testSpillRoundTrip() throws Exception {
+
+        addSampleFeatures();
+
+        // each geometry exceeds the limit, so all of them are spilled
+        Map<String, SimpleFeature> result = dissolve(1);
+
+        assertSampleResult(result);
+
+        for( String name : new String[]{"a", "b"} ) {
+            Geometry geometry = (Geometry) result.get(name).getDefaultGeometry();
+            assertEquals(this.precision, geometry.getFactory().getPrecisionModel());
+            assertEquals(SRID, geometry.getSRID());
+        }
+    }
+
+    /**
+     * More groups than spill files, so several groups are read from each file
+     */
+    public void testSpillManyGroups() throws Exception {
+
+        final int groupCount = 50;
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        for( int i = 0; i < groupCount; i++ ) {
+            features.add(createFeature("g" + i, i, square(i * 2, 0)));
+            features.add(createFeature("g" + i, i, square(i * 2, 1)));
+        }
+        addFeatures(features);
+
+        Map<String, SimpleFeature> inMemory = dissolve(DissolveProcess.DEFAULT_MAX_COORDINATES);
+        Map<String, SimpleFeature> spilled = dissolve(12);
+
+        assertEquals(groupCount, inMemory.size());
+        assertEquals(groupCount, spilled.size());
+        for( int i = 0; i < groupCount; i++ ) {
+
+            SimpleFeature expected = inMemory.get("g" + i);
+            SimpleFeature actual = spilled.get("g" + i);
+
+            assertEquals(2L, ((Number) actual.getAttribute("count")).longValue());
+            assertEquals(2.0 * i, ((Number) actual.getAttribute("sum_intVal")).doubleValue(), 0);
+
+            Geometry expectedGeometry = (Geometry) expected.getDefaultGeometry();
+            Geometry actualGeometry = (Geometry) actual.getDefaultGeometry();
+            assertEquals(2.0, actualGeometry.getArea(), 1e-9);
+            assertTrue(expectedGeometry.equalsExact(actualGeometry));
+        }
+    }
+
+    /**
+     * The sum of a group whose values are all null is null, not 0
+     */
+    public void testSumOfNullValuesIsNull() throws Exception {
+
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        features.add(createFeature("n", null, square(0, 0)));
+        features.add(createFeature("n", null, square(1, 0)));
+        features.add(createFeature("m", null, square(5, 0)));
+        features.add(createFeature("m", 4, square(6, 0)));
+        addFeatures(features);
+
+        Map<String, SimpleFeature> result = dissolve(DissolveProcess.DEFAULT_MAX_COORDINATES);
+
+        SimpleFeature n = result.get("n");
+        assertEquals(2L, ((Number) n.getAttribute("count")).longValue());
+        assertNull(n.getAttribute("sum_intVal"));
+        assertNull(n.getAttribute("min_intVal"));
+        assertNull(n.getAttribute("max_intVal"));
+
+        assertAggregates(result.get("m"), 2, 4, 4, 4);
+    }
+
+    /**
+     * A canceled dissolve ends with an InterruptedException instead of a failure
+     */
+    public void testCancelIsNotFailure() throws Exception {
+
+        addSampleFeatures();
+
+        NullProgressMonitor monitor = new NullProgressMonitor();
+        monitor.setCanceled(true);
+        try {
+            createProcess(DissolveProcess.DEFAULT_MAX_COORDINATES).run(monitor);
+            fail("InterruptedException expected"); //$NON-NLS-1$
+        } catch (InterruptedException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Group a: three adjacent squares; group b: two disjoint squares; group c: one feature
+     * without geometry
+     */
+    private void addSampleFeatures() throws Exception {
+
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        features.add(createFeature("a", 1, square(0, 0)));
+        features.add(createFeature("b", 10, square(10, 10)));
+        features.add(createFeature("a", 3, square(2, 0)));
+        features.add(createFeature("c", 7, null));
+        features.add(createFeature("b", 20, square(20, 10)));
+        features.add(createFeature("a", 2, square(1, 0)));
+
+        addFeatures(features);
+    }
+
+    private void assertSampleResult( final Map<String, SimpleFeature> result ) {
+
+        assertEquals(3, result.size());
+
+        assertAggregates(result.get("a"), 3, 6, 1, 3);
+        assertAggregates(result.get("b"), 2, 30, 10, 20);
+        assertAggregates(result.get("c"), 1, 7, 7, 7);
+
+        Geometry a = (Geometry) result.get("a").getDefaultGeometry();
+        assertEquals(3.0, a.getArea(), 1e-9);
+        assertEquals(1, a.getNumGeometries());
+        assertEquals(new Envelope(0, 3, 0, 1), a.getEnvelopeInternal());
+
+        Geometry b = (Geometry) result.get("b").getDefaultGeometry();
+        assertEquals(2.0, b.getArea(), 1e-9);
+        assertEquals(2, b.getNumGeometries());
+
+        assertNull(result.get("c").getDefaultGeometry());
+    }
+
+    private static void assertAggregates( final SimpleFeature feature, final long count,
+                                          final double sum, final int min, final int max ) {
+
+        assertNotNull(feature);
+        assertEquals(count, ((Number) feature.getAttribute("count")).longValue());
+        assertEquals(sum, ((Number) feature.getAttribute("sum_intVal")).doubleValue(), 0);
+        assertEquals(min, ((Number) feature.getAttribute("min_intVal")).intValue());
+        assertEquals(max, ((Number) feature.getAttribute("max_intVal")).intValue());
+    }
+
+    /**
+     * Dissolves the source layer by name in a new layer
+     *
+     * @param maxCoordinates coordinates kept in memory before spilling
+     * @return the dissolved features by name
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, SimpleFeature> dissolve( final int maxCoordinates ) throws Exception {
+
+        IMap map = testData.getMap();
+        List<ILayer> layersBefore = new ArrayList<ILayer>(map.getMapLayers());
+
+        createProcess(maxCoordinates).run(new NullProgressMonitor());
+
+        List<ILayer> newLayers = new ArrayList<ILayer>(map.getMapLayers());
+        newLayers.removeAll(layersBefore);
+        assertEquals(1, newLayers.size());
+
+        FeatureSource<SimpleFeatureType, SimpleFeature> target = newLayers.get(0)
+                .getResource(FeatureSource.class, new NullProgressMonitor());
+
+        Map<String, SimpleFeature> result = new HashMap<String, SimpleFeature>();
+        FeatureCollection<SimpleFeatureType, SimpleFeature> features = target.getFeatures();
+        FeatureIterator<SimpleFeature> iter = features.features();
+        try {
+            while( iter.hasNext() ) {
+                SimpleFeature feature = iter.next();
+                assertNull(result.put((String) feature.getAttribute("name"), feature));
+            }
+        } finally {
+            features.close(iter);
+        }
+        return result;
+    }
+
+    /**
+     * @param maxCoordinates coordinates kept in memory before spilling
+     * @return a process that dissolves the source layer by name in a new layer
+     */
+    private DissolveProcess createProcess( final int maxCoordinates ) throws Exception {
+
+        FeatureCollection<SimpleFeatureType, SimpleFeature> sourceFeatures = sourceStore.getFeatures();
+        IDisolveParameters params = ParametersFactory.createDissolveParameters(sourceLayer,
+                                                                               sourceFeatures,
+                                                                               Arrays.asList("name"),
+                                                                               aggregates,
+                                                                               createTargetType());
+        DissolveProcess process = new DissolveProcess(params);
+        process.setParallelism(4);
+        process.setMaxCoordinatesInMemory(maxCoordinates);
+        return process;
+    }
+
+    private static SimpleFeatureType createTargetType() {
+
+        SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+        builder.setName("Dissolved");
+        builder.crs(DefaultGeographicCRS.WGS84).add("geom", MultiPolygon.class);
+        builder.add("name", String.class);
+        builder.add("count", Long.class);
+        builder.add("sum_intVal", Double.class);
+        builder.add("min_intVal", Integer.class);
+        builder.add("max_intVal", Integer.class);
+
+        return builder.buildFeatureType();
+    }
+
+    private void addFeatures( final List<SimpleFeature> features ) throws Exception {
+
+        SimpleFeature[] array = features.toArray(new SimpleFeature[features.size()]);
+        sourceStore.addFeatures(DataUtilities.collection(array));
+    }
+
+    private SimpleFeature createFeature( final String name, final Integer intVal, final Geometry geometry )
+        throws Exception {
+
+        SimpleFeature feature = DataUtilities.template(sourceStore.getSchema());
+        feature.setAttribute("name", name);
+        feature.setAttribute("intVal", intVal);
+        feature.setAttribute("geom", geometry);
+        return feature;
+    }
+
+    /**
+     * @return the square of side 1 whose lower left corner is (x, y)
+     */
+    private Geometry square( final double x, final double y ) {
+        return this.gf.toGeometry(new Envelope(x, x + 1, y, y + 1));
+    }
+}
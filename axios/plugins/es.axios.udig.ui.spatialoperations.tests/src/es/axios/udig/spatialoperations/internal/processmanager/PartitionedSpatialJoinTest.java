@@ -0,0 +1,247 @@
+/* Spatial Operations & Editing Tools for uDig
+ *
+ * Axios Engineering under a funding contract with:
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT).
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ *
+ * You can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.spatialoperations.internal.processmanager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import es.axios.udig.spatialoperations.internal.parameters.SpatialRelation;
+
+/**
+ * Test for {@link PartitionedSpatialJoin}
+ * <p>
+ * The join is made with small partitions and several threads, so the geometries are assigned
+ * to many cells, and the first set is joined in several batches. Its pairs are compared with
+ * the pairs found by a nested loop.
+ * </p>
+ *
+ * @author Mauricio Pazos (www.axios.es)
+ * @author Gabriel Roldan (www.axios.es)
+ * @since 1.1.0
+ */
+public class PartitionedSpatialJoinTest extends TestCase {
+
+    private static final int      PARTITION_SIZE = 4;
+
+    private static final int      PARALLELISM    = 3;
+
+    private static final int      BATCH_SIZE     = 64;
+
+    private final GeometryFactory gf             = new GeometryFactory();
+
+    private List<Geometry>        first;
+
+    private List<Geometry>        second;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        Random random = new Random(20070906);
+        this.first = createSquares(random, 200, 10);
+        this.second = createSquares(random, 300, 4);
+    }
+
+    /**
+     * Geometries whose envelopes span several cells are reported once
+     */
+    public void testPairsAreNotDuplicated() throws Exception {
+
+        // large squares overlapping many cells
+        Random random = new Random(1);
+        List<Geometry> large = createSquares(random, 50, 40);
+
+        List<Long> pairs = join(large, this.second, SpatialRelation.INTERSECTS, 0);
+
+        assertFalse(pairs.isEmpty());
+        assertEquals(pairs.size(), new HashSet<Long>(pairs).size());
+    }
+
+    public void testIntersectsMatchesNestedLoop() throws Exception {
+        assertMatchesNestedLoop(SpatialRelation.INTERSECTS, 0);
+    }
+
+    public void testContainsMatchesNestedLoop() throws Exception {
+        assertMatchesNestedLoop(SpatialRelation.CONTAINS, 0);
+    }
+
+    public void testWithinMatchesNestedLoop() throws Exception {
+
+        // small squares of the first set inside large squares of the second set
+        List<Long> pairs = join(this.second, this.first, SpatialRelation.WITHIN, 0);
+        List<Long> expected = nestedLoop(this.second, this.first, SpatialRelation.WITHIN, 0);
+
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, sorted(pairs));
+    }
+
+    public void testDWithinMatchesNestedLoop() throws Exception {
+        assertMatchesNestedLoop(SpatialRelation.DWITHIN, 5);
+    }
+
+    /**
+     * The pairs of points at less than the distance are found although their envelopes do not
+     * intersect and they are assigned to different cells
+     */
+    public void testDWithinExpandsEnvelopes() throws Exception {
+
+        List<Geometry> points = new ArrayList<Geometry>();
+        List<Geometry> others = new ArrayList<Geometry>();
+        for( int i = 0; i < 20; i++ ) {
+            points.add(this.gf.createPoint(new Coordinate(i * 10, 0)));
+            others.add(this.gf.createPoint(new Coordinate(i * 10 + 3, 4)));
+        }
+        // each point is at 5 from its pair and at more than 5 from the others
+        List<Long> pairs = join(points, others, SpatialRelation.DWITHIN, 5.5);
+
+        assertEquals(20, pairs.size());
+        for( Long pair : sorted(pairs) ) {
+            assertEquals(pair.longValue() >>> 32, pair.longValue() & 0xffffffffL);
+        }
+        assertTrue(join(points, others, SpatialRelation.DWITHIN, 4.5).isEmpty());
+        assertTrue(join(points, others, SpatialRelation.INTERSECTS, 5.5).isEmpty());
+    }
+
+    /**
+     * The pairs of each batch are delivered sorted by the positions of the geometries
+     */
+    public void testPairsAreSortedInBatch() throws Exception {
+
+        List<Long> pairs = join(this.first, this.second, SpatialRelation.INTERSECTS, 0);
+
+        assertFalse(pairs.isEmpty());
+        assertEquals(sorted(pairs), pairs);
+    }
+
+    public void testEmptySet() throws Exception {
+
+        List<Geometry> empty = Collections.emptyList();
+
+        assertTrue(join(empty, this.second, SpatialRelation.INTERSECTS, 0).isEmpty());
+        assertTrue(join(this.first, empty, SpatialRelation.INTERSECTS, 0).isEmpty());
+    }
+
+    private void assertMatchesNestedLoop( final SpatialRelation relation, final double distance )
+        throws Exception {
+
+        List<Long> pairs = join(this.first, this.second, relation, distance);
+        List<Long> expected = nestedLoop(this.first, this.second, relation, distance);
+
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, sorted(pairs));
+    }
+
+    private List<Long> join( final List<Geometry> firstSet, final List<Geometry> secondSet,
+                             final SpatialRelation relation, final double distance )
+        throws Exception {
+
+        PartitionedSpatialJoin join = new PartitionedSpatialJoin(secondSet, relation, distance);
+        join.setPartitionSize(PARTITION_SIZE);
+        join.setParallelism(PARALLELISM);
+        join.build();
+
+        final List<Long> pairs = new ArrayList<Long>();
+        for( int from = 0; from < firstSet.size(); from += BATCH_SIZE ) {
+
+            List<Geometry> batch = firstSet.subList(from, Math.min(from + BATCH_SIZE, firstSet.size()));
+            join.join(batch, from, new NullProgressMonitor(), new PartitionedSpatialJoin.PairHandler(){
+                public void join( int firstPosition, int secondPosition ) {
+                    pairs.add(pair(firstPosition, secondPosition));
+                }
+            });
+        }
+        return pairs;
+    }
+
+    private static List<Long> nestedLoop( final List<Geometry> firstSet,
+                                          final List<Geometry> secondSet,
+                                          final SpatialRelation relation, final double distance ) {
+
+        List<Long> pairs = new ArrayList<Long>();
+        for( int i = 0; i < firstSet.size(); i++ ) {
+            for( int j = 0; j < secondSet.size(); j++ ) {
+                if (evaluate(firstSet.get(i), secondSet.get(j), relation, distance)) {
+                    pairs.add(pair(i, j));
+                }
+            }
+        }
+        return pairs;
+    }
+
+    private static boolean evaluate( final Geometry first, final Geometry second,
+                                     final SpatialRelation relation, final double distance ) {
+        switch( relation ) {
+        case INTERSECTS:
+            return first.intersects(second);
+        case CONTAINS:
+            return first.contains(second);
+        case WITHIN:
+            return first.within(second);
+        case DWITHIN:
+            return first.isWithinDistance(second, distance);
+        default:
+            fail("unexpected relation " + relation); //$NON-NLS-1$
+            return false;
+        }
+    }
+
+    private static Long pair( final int first, final int second ) {
+        return Long.valueOf(((long) first << 32) | second);
+    }
+
+    private static List<Long> sorted( final List<Long> pairs ) {
+        List<Long> copy = new ArrayList<Long>(pairs);
+        Collections.sort(copy);
+        return copy;
+    }
+
+    /**
+     * @return squares of the given size placed at random in the (0,0) (200,200) extent
+     */
+    private List<Geometry> createSquares( final Random random, final int count, final double size ) {
+
+        List<Geometry> squares = new ArrayList<Geometry>(count);
+        Set<Envelope> used = new HashSet<Envelope>();
+        while( squares.size() < count ) {
+            double x = random.nextInt(200);
+            double y = random.nextInt(200);
+            Envelope envelope = new Envelope(x, x + size, y, y + size);
+            if (!used.add(envelope)) {
+                continue;
+            }
+            squares.add(this.gf.toGeometry(envelope));
+        }
+        return squares;
+    }
+}
@@ -0,0 +1,132 @@
+/* Spatial Operations & Editing Tools for uDig
+ *
+ * Axios Engineering under a funding contract with:
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT).
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ *
+ * You can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.spatialoperations.internal.processmanager;
+
+import junit.framework.TestCase;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.DefaultTransaction;
+import org.geotools.data.FeatureStore;
+import org.geotools.data.Transaction;
+import org.geotools.data.memory.MemoryDataStore;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Test for {@link ResultSink}
+ * <p>
+ * The sink writes in the transaction of the store, as it does with the layers of a map, so
+ * the batches flushed before an abort are in that transaction and must be removed by the
+ * sink.
+ * </p>
+ *
+ * @author Mauricio Pazos (www.axios.es)
+ * @author Gabriel Roldan (www.axios.es)
+ * @since 1.1.0
+ */
+public class ResultSinkTest extends TestCase {
+
+    private static final int                       BATCH_SIZE = 2;
+
+    private final GeometryFactory                  gf         = new GeometryFactory();
+
+    private SimpleFeatureType                      type;
+
+    private FeatureStore<SimpleFeatureType, SimpleFeature> store;
+
+    private Transaction                            transaction;
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        this.type = DataUtilities.createType("result", "geom:Point,name:String"); //$NON-NLS-1$ //$NON-NLS-2$
+        MemoryDataStore dataStore = new MemoryDataStore();
+        dataStore.createSchema(this.type);
+
+        this.store = (FeatureStore<SimpleFeatureType, SimpleFeature>) dataStore.getFeatureSource("result"); //$NON-NLS-1$
+        this.transaction = new DefaultTransaction();
+        this.store.setTransaction(this.transaction);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        this.store.setTransaction(Transaction.AUTO_COMMIT);
+        this.transaction.close();
+    }
+
+    /**
+     * The features of a closed sink are committed by the owner of the transaction
+     */
+    public void testCloseKeepsFeatures() throws Exception {
+
+        ResultSink sink = new ResultSink(this.store, BATCH_SIZE);
+        addFeatures(sink, 5);
+        sink.close();
+        this.transaction.commit();
+
+        assertEquals(5, this.store.getFeatures().size());
+    }
+
+    /**
+     * The batches already flushed to the store's transaction are removed when the sink is
+     * aborted, then the commit of the owner does not keep them
+     */
+    public void testAbortRemovesFlushedBatches() throws Exception {
+
+        ResultSink sink = new ResultSink(this.store, BATCH_SIZE);
+        addFeatures(sink, 5);
+        assertEquals(2, sink.getBatchCount());
+
+        sink.abort();
+        this.transaction.commit();
+
+        assertEquals(0, this.store.getFeatures().size());
+    }
+
+    /**
+     * Aborting a closed sink does not remove its features
+     */
+    public void testAbortAfterClose() throws Exception {
+
+        ResultSink sink = new ResultSink(this.store, BATCH_SIZE);
+        addFeatures(sink, 3);
+        sink.close();
+        sink.abort();
+        this.transaction.commit();
+
+        assertEquals(3, this.store.getFeatures().size());
+    }
+
+    private void addFeatures( final ResultSink sink, final int count ) throws Exception {
+
+        for( int i = 0; i < count; i++ ) {
+            Object[] values = {this.gf.createPoint(new Coordinate(i, i)), "f" + i}; //$NON-NLS-1$
+            sink.add(SimpleFeatureBuilder.build(this.type, values, null));
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/* Spatial Operations & Editing Tools for uDig
+ *
+ * Axios Engineering under a funding contract with:
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT).
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ *
+ * You can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.ui.commons.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Test for the reprojection of a collection of geometries by {@link GeoToolsUtils}
+ * <p>
+ * The geometries are reprojected from WGS84 to UTM 30N and compared with the result of
+ * reprojecting them one by one.
+ * </p>
+ *
+ * @author Mauricio Pazos (www.axios.es)
+ * @author Gabriel Roldan (www.axios.es)
+ * @since 1.1.0
+ */
+public class GeoToolsUtilsTest extends TestCase {
+
+    private static final double     TOLERANCE = 1e-6;
+
+    private final GeometryFactory   gf        = new GeometryFactory();
+
+    private CoordinateReferenceSystem sourceCrs;
+
+    private CoordinateReferenceSystem targetCrs;
+
+    private List<Geometry>          geometries;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        sourceCrs = DefaultGeographicCRS.WGS84;
+        targetCrs = CRS.decode("EPSG:23030"); //$NON-NLS-1$
+
+        geometries = new ArrayList<Geometry>();
+        geometries.add(gf.createPoint(new Coordinate(-2.1, 43.2)));
+        geometries.add(gf.createLineString(new Coordinate[]{new Coordinate(-2.3, 43.0),
+                new Coordinate(-2.2, 43.1), new Coordinate(-2.0, 43.3)}));
+        geometries.add(polygonWithHole());
+        geometries.add(gf.createMultiPolygon(new Polygon[]{polygonWithHole(),
+                (Polygon) gf.toGeometry(new Envelope(-1.5, -1.4, 42.5, 42.6))}));
+        geometries.add(gf.createGeometryCollection(new Geometry[]{
+                gf.createPoint(new Coordinate(-1.9, 43.1)), polygonWithHole()}));
+    }
+
+    /**
+     * The batch gives the same geometries than reprojecting each one
+     */
+    public void testMatchesReprojectByGeometry() throws Exception {
+
+        List<Geometry> result = GeoToolsUtils.reproject(geometries, sourceCrs, targetCrs);
+
+        assertEquals(geometries.size(), result.size());
+        for( int i = 0; i < geometries.size(); i++ ) {
+
+            Geometry expected = GeoToolsUtils.reproject(geometries.get(i), sourceCrs, targetCrs);
+            Geometry actual = result.get(i);
+
+            assertEquals(expected.getGeometryType(), actual.getGeometryType());
+            assertTrue(expected.equalsExact(actual, TOLERANCE));
+        }
+    }
+
+    /**
+     * The source geometries are copied, not transformed in place
+     */
+    public void testSourceIsNotModified() throws Exception {
+
+        List<Geometry> copies = new ArrayList<Geometry>();
+        for( Geometry geometry : geometries ) {
+            copies.add((Geometry) geometry.clone());
+        }
+        GeoToolsUtils.reproject(geometries, sourceCrs, targetCrs);
+
+        for( int i = 0; i < geometries.size(); i++ ) {
+            assertTrue(copies.get(i).equalsExact(geometries.get(i)));
+            assertEquals(copies.get(i).getEnvelopeInternal(), geometries.get(i).getEnvelopeInternal());
+        }
+    }
+
+    /**
+     * Nothing is transformed if both crs are the same
+     */
+    public void testSameCrs() throws Exception {
+
+        List<Geometry> result = GeoToolsUtils.reproject(geometries, sourceCrs, sourceCrs);
+
+        for( int i = 0; i < geometries.size(); i++ ) {
+            assertSame(geometries.get(i), result.get(i));
+        }
+    }
+
+    private Polygon polygonWithHole() {
+
+        LinearRing shell = gf.createLinearRing(new Coordinate[]{new Coordinate(-2.5, 43.0),
+                new Coordinate(-2.0, 43.0), new Coordinate(-2.0, 43.5), new Coordinate(-2.5, 43.5),
+                new Coordinate(-2.5, 43.0)});
+        LinearRing hole = gf.createLinearRing(new Coordinate[]{new Coordinate(-2.3, 43.2),
+                new Coordinate(-2.2, 43.2), new Coordinate(-2.2, 43.3), new Coordinate(-2.3, 43.3),
+                new Coordinate(-2.3, 43.2)});
+        return gf.createPolygon(shell, new LinearRing[]{hole});
+    }
+}
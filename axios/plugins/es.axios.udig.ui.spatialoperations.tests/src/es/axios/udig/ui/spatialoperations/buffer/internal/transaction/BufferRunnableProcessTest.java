@@ -74,11 +74,13 @@ public class BufferRunnableProcessTest extends TestCase {
 //        params.setTargetFeatureType(targetType);
 //        params.setNewResource(true);
 
-        SOProcessManager.bufferOperation(params);
-//        BufferProcess process = new BufferProcess(params);
-
         IMap map = testData.getMap();
         int prevCount = map.getMapLayers().size();
+
+        SOProcessManager.bufferOperation(params);
+        // the process runs as a job
+        SOProcessManager.waitForProcesses();
+//        BufferProcess process = new BufferProcess(params);
   
         int layerCount = map.getMapLayers().size();
 
@@ -103,6 +105,8 @@ public class BufferRunnableProcessTest extends TestCase {
             targetStore.removeFeatures(Filter.NONE);
 
             SOProcessManager.bufferOperation(params);
+            // the process runs as a job
+            SOProcessManager.waitForProcesses();
             
 //            BufferProcess process = new BufferProcess(params);
   //          process.run(new NullProgressMonitor());
@@ -0,0 +1,91 @@
+/* Spatial Operations & Editing Tools for uDig
+ * 
+ * Axios Engineering under a funding contract with: 
+ * 		Diputación Foral de Gipuzkoa, Ordenación Territorial 
+ *
+ * 		http://b5m.gipuzkoa.net
+ *      http://www.axios.es 
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT). 
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ * 
+ * You can redistribute it and/or modify it under the terms of the 
+ * GNU Lesser General Public License as published by the Free Software 
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.spatialoperations.internal.control;
+
+import java.util.List;
+
+import net.refractions.udig.project.ILayer;
+
+import org.geotools.feature.FeatureCollection;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import es.axios.udig.spatialoperations.internal.modelconnection.DissolveCommand;
+import es.axios.udig.spatialoperations.internal.parameters.DissolveAggregate;
+
+/**
+ * Dissolve Controller
+ * <p>
+ * Manages the collaborations between the dissolve presentation and its command
+ * </p>
+ * @author Mauricio Pazos (www.axios.es)
+ * @author Gabriel Roldan (www.axios.es)
+ * @since 1.1.0
+ */
+public final class DissolveController extends AbstractController {
+
+    @Override
+    public String getOperationID() {
+        return "Dissolve"; //$NON-NLS-1$
+    }
+
+    /**
+     * Sets dissolve command's parameters
+     *
+     * @param sourceLayer
+     * @param featuresInSourceLayer
+     * @param dissolveProperties
+     * @param aggregates
+     * @param targetLayer
+     */
+    public void setParameters( 
+            ILayer sourceLayer, FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInSourceLayer,
+            List<String> dissolveProperties, List<DissolveAggregate> aggregates,
+            ILayer targetLayer ) {
+
+        DissolveCommand cmd = (DissolveCommand) getCommand();
+        cmd.setParameters(
+                sourceLayer, featuresInSourceLayer,
+                dissolveProperties, aggregates,
+                targetLayer);
+    }
+
+    /**
+     * Sets dissolve command's parameters
+     *
+     * @param sourceLayer
+     * @param featuresInSourceLayer
+     * @param dissolveProperties
+     * @param aggregates
+     * @param targetType
+     */
+    public void setParameters( 
+            ILayer sourceLayer, FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInSourceLayer,
+            List<String> dissolveProperties, List<DissolveAggregate> aggregates,
+            SimpleFeatureType targetType ) {
+
+        DissolveCommand cmd = (DissolveCommand) getCommand();
+        cmd.setParameters(
+                sourceLayer, featuresInSourceLayer,
+                dissolveProperties, aggregates,
+                targetType);
+    }
+}
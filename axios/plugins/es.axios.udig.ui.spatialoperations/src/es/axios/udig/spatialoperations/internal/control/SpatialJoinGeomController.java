@@ -20,6 +20,14 @@
  */
 package es.axios.udig.spatialoperations.internal.control;
 
+import net.refractions.udig.project.ILayer;
+
+import org.geotools.feature.FeatureCollection;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import es.axios.udig.spatialoperations.internal.modelconnection.SpatialJoinGeomCommand;
+import es.axios.udig.spatialoperations.internal.parameters.SpatialRelation;
 
 /**
  * Spatial Join Geometries Controller
@@ -38,5 +46,54 @@ public final class SpatialJoinGeomController extends AbstractController {
         return "spatialJoinGeom"; //$NON-NLS-1$
     }
 
+    /**
+     * Sets spatial join command's parameters
+     *
+     * @param firstLayer
+     * @param featuresInFirstLayer
+     * @param secondLayer
+     * @param featuresInSecondLayer
+     * @param relation
+     * @param distance
+     * @param targetLayer
+     */
+    public void setParameters( 
+            ILayer firstLayer, FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInFirstLayer,
+            ILayer secondLayer, FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInSecondLayer,
+            SpatialRelation relation, Double distance,
+            ILayer targetLayer ) {
+
+        SpatialJoinGeomCommand cmd = (SpatialJoinGeomCommand) getCommand();
+        cmd.setParameters(
+                firstLayer, featuresInFirstLayer,
+                secondLayer, featuresInSecondLayer,
+                relation, distance,
+                targetLayer);
+    }
+
+    /**
+     * Sets spatial join command's parameters
+     *
+     * @param firstLayer
+     * @param featuresInFirstLayer
+     * @param secondLayer
+     * @param featuresInSecondLayer
+     * @param relation
+     * @param distance
+     * @param targetType
+     */
+    public void setParameters( 
+            ILayer firstLayer, FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInFirstLayer,
+            ILayer secondLayer, FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInSecondLayer,
+            SpatialRelation relation, Double distance,
+            SimpleFeatureType targetType ) {
+
+        SpatialJoinGeomCommand cmd = (SpatialJoinGeomCommand) getCommand();
+        cmd.setParameters(
+                firstLayer, featuresInFirstLayer,
+                secondLayer, featuresInSecondLayer,
+                relation, distance,
+                targetType);
+    }
 
 }
@@ -123,6 +123,25 @@ public class Messages extends NLS {
     public static String CreateNewLayerDialog_must_set_the_geometry;
     public static String CreateNewLayerDialog_specific_attributes;
     public static String CreateNewLayerDialog_title;
+    public static String DissolveCommand_description;
+    public static String DissolveCommand_failed_validating_geometry_compatibility;
+    public static String DissolveCommand_must_select_dissolve_property;
+    public static String DissolveCommand_must_select_source_layer;
+    public static String DissolveCommand_must_select_target_layer;
+    public static String DissolveCommand_parameters_ok;
+    public static String DissolveCommand_source_and_target_must_be_differents;
+    public static String DissolveCommand_there_is_not_features_to_dissolve;
+    public static String DissolveComposite_dissolve_property;
+    public static String DissolveComposite_layer;
+    public static String DissolveComposite_operation_name;
+    public static String DissolveComposite_result_property;
+    public static String DissolveComposite_source_property;
+    public static String DissolveComposite_statistic;
+    public static String DissolveProcess_canceled;
+    public static String DissolveProcess_dissolve_fail;
+    public static String DissolveProcess_dissolving;
+    public static String DissolveProcess_failed_creating_temporal_store;
+    public static String DissolveProcess_successful;
     public static String FeatureTypeEditor_newFeatureTypeName;
     public static String IntersectCommand_description;
 
@@ -159,6 +178,7 @@ public class Messages extends NLS {
     public static String IntersectComposite_selected_features;
     public static String IntersectComposite_source;
     public static String IntersectComposite_target_layer;
+    public static String IntersectProcess_canceled;
     public static String IntersectProcess_failed_creating_temporal_store;
     public static String IntersectProcess_intersectin_with;
     public static String IntersectProcess_intersection_fail;
@@ -171,12 +191,40 @@ public class Messages extends NLS {
     public static String ResultLayerComposite__duplicated_layer_name;
     public static String ResultLayerComposite_button_new_layer;
     public static String ResultLayerComposite_target_label;
+    public static String ResultSink_failed_adding_features;
     public static String SOComposite_operation;
     public static String SOComposite_perform;
+    public static String SOProcessScheduler_process_failed;
+    public static String SOProcessScheduler_process_throughput;
+    public static String SpatialJoinGeomCommand_description;
+    public static String SpatialJoinGeomCommand_distance_must_be_positive;
+    public static String SpatialJoinGeomCommand_first_and_second_must_be_differents;
+    public static String SpatialJoinGeomCommand_first_second_and_target_must_be_differents;
+    public static String SpatialJoinGeomCommand_must_select_relation;
+    public static String SpatialJoinGeomCommand_must_select_second_layer;
+    public static String SpatialJoinGeomCommand_must_select_target_layer;
+    public static String SpatialJoinGeomCommand_must_select_the_first_layer;
+    public static String SpatialJoinGeomCommand_parameters_ok;
+    public static String SpatialJoinGeomCommand_there_is_not_features_in_first_layer;
+    public static String SpatialJoinGeomCommand_there_is_not_features_in_second_layer;
+    public static String SpatialJoinGeomComposite_contains;
+    public static String SpatialJoinGeomComposite_distance;
+    public static String SpatialJoinGeomComposite_dwithin;
+    public static String SpatialJoinGeomComposite_intersects;
+    public static String SpatialJoinGeomComposite_operation_name;
+    public static String SpatialJoinGeomComposite_relation;
+    public static String SpatialJoinGeomComposite_within;
+    public static String SpatialJoinProcess_canceled;
+    public static String SpatialJoinProcess_failed_creating_temporal_store;
+    public static String SpatialJoinProcess_join_fail;
+    public static String SpatialJoinProcess_joining;
+    public static String SpatialJoinProcess_successful;
     public static String SpatialOperationProcessManager_;
     public static String SpatialOperationProcessManager_buffer_process;
     public static String SpatialOperationProcessManager_clip_process;
+    public static String SpatialOperationProcessManager_dissolve_process;
     public static String SpatialOperationProcessManager_intersect_process;
+    public static String SpatialOperationProcessManager_spatial_join_process;
     
     public static String GeometryCompatibilityValidator_expected_geometry_type;
     
@@ -42,6 +42,7 @@ import com.vividsolutions.jts.geom.Polygon;
 import es.axios.udig.spatialoperations.internal.i18n.Messages;
 import es.axios.udig.spatialoperations.internal.parameters.IBufferParameters;
 import es.axios.udig.spatialoperations.internal.parameters.ParametersFactory;
+import es.axios.udig.spatialoperations.internal.preferences.Preferences;
 import es.axios.udig.spatialoperations.internal.processmanager.SOProcessException;
 import es.axios.udig.spatialoperations.internal.processmanager.SOProcessManager;
 import es.axios.udig.spatialoperations.ui.view.Message;
@@ -325,7 +326,7 @@ public final class BufferCommand extends SOAbstractCommand {
         } 
         
         try {
-            SOProcessManager.bufferOperation(params);
+            SOProcessManager.bufferOperation(params, Preferences.bufferParallelism());
             
         } catch (SOProcessException e) {
             throw new SOCommandException(e.getMessage());
@@ -0,0 +1,309 @@
+/* Spatial Operations & Editing Tools for uDig
+ * 
+ * Axios Engineering under a funding contract with: 
+ * 		Diputación Foral de Gipuzkoa, Ordenación Territorial 
+ *
+ * 		http://b5m.gipuzkoa.net
+ *      http://www.axios.es 
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT). 
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ * 
+ * You can redistribute it and/or modify it under the terms of the 
+ * GNU Lesser General Public License as published by the Free Software 
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.spatialoperations.internal.modelconnection;
+
+import java.util.List;
+
+import net.refractions.udig.project.ILayer;
+
+import org.geotools.feature.FeatureCollection;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+import es.axios.udig.spatialoperations.internal.i18n.Messages;
+import es.axios.udig.spatialoperations.internal.parameters.DissolveAggregate;
+import es.axios.udig.spatialoperations.internal.parameters.IDisolveParameters;
+import es.axios.udig.spatialoperations.internal.parameters.ParametersFactory;
+import es.axios.udig.spatialoperations.internal.processmanager.SOProcessException;
+import es.axios.udig.spatialoperations.internal.processmanager.SOProcessManager;
+import es.axios.udig.spatialoperations.ui.view.Message;
+import es.axios.udig.ui.commons.util.GeometryUtil;
+
+/**
+ * Dissolve Command
+ * <p>
+ * This class is responsible to check the parameters and execute the dissolve process.
+ * </p>
+ * @author Mauricio Pazos (www.axios.es)
+ * @author Gabriel Roldan (www.axios.es)
+ * @since 1.1.0
+ */
+public final class DissolveCommand extends SOAbstractCommand {
+
+    private static final Message INITIAL_MESSAGE = new Message(Messages.DissolveCommand_description,
+                                                               Message.Type.IMPORTANT_INFO);
+    // collaborators
+    private GeometryCompatibilityValidator geomValidator = new GeometryCompatibilityValidator();
+
+    // inputs parameters
+    private ILayer                                              sourceLayer           = null;
+    private FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInSourceLayer = null;
+    private List<String>                                        dissolveProperties    = null;
+    private List<DissolveAggregate>                             aggregates            = null;
+    private ILayer                                              targetLayer           = null;
+    private SimpleFeatureType                                   targetFeatureType     = null;
+
+    public DissolveCommand() {
+        super(INITIAL_MESSAGE);
+    }
+
+    /**
+     * Sets the parameters to execute the operation
+     *
+     * @param sourceLayer
+     * @param featuresInSourceLayer
+     * @param dissolveProperties properties used to group the features
+     * @param aggregates aggregates computed for each group
+     * @param targetLayer
+     */
+    public void setParameters( 
+            ILayer sourceLayer, FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInSourceLayer,
+            List<String> dissolveProperties, List<DissolveAggregate> aggregates,
+            ILayer targetLayer ) {
+
+        setSource(sourceLayer, featuresInSourceLayer, dissolveProperties, aggregates);
+
+        this.targetLayer = targetLayer;
+        this.targetFeatureType = null;
+    }
+
+    /**
+     * Sets the parameters to execute the operation
+     *
+     * @param sourceLayer
+     * @param featuresInSourceLayer
+     * @param dissolveProperties properties used to group the features
+     * @param aggregates aggregates computed for each group
+     * @param targetFeatureType type of the new layer
+     */
+    public void setParameters( 
+            ILayer sourceLayer, FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInSourceLayer,
+            List<String> dissolveProperties, List<DissolveAggregate> aggregates,
+            SimpleFeatureType targetFeatureType ) {
+
+        setSource(sourceLayer, featuresInSourceLayer, dissolveProperties, aggregates);
+
+        this.targetLayer = null;
+        this.targetFeatureType = targetFeatureType;
+    }
+
+    private void setSource( 
+            ILayer sourceLayer, FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInSourceLayer,
+            List<String> dissolveProperties, List<DissolveAggregate> aggregates ) {
+
+        this.sourceLayer = sourceLayer;
+        this.featuresInSourceLayer = featuresInSourceLayer;
+        this.dissolveProperties = dissolveProperties;
+        this.aggregates = aggregates;
+    }
+
+    /**
+     * Evaluates not null inputs, that source and target layer are differents and the
+     * compatibility of the target geometry with the dissolved geometries.
+     * 
+     * @return true if all parameters are ok
+     */
+    @Override
+    public boolean evalPrecondition() {
+
+        this.canExecute = true;
+
+        if (hasNullParameters()) {
+
+            this.canExecute = false;
+
+        } else if (!checkInterLayerPredicate()) {
+
+            this.canExecute = false;
+
+        } else if (!checkNoEmptyLayer()) {
+
+            this.canExecute = false;
+
+        } else if (!checkTargetCompatibility()) {
+
+            this.canExecute = false;
+        }
+        // if can, set the ok message
+        if (this.canExecute) {
+            this.message = new Message(Messages.DissolveCommand_parameters_ok, 
+                                       Message.Type.INFORMATION);
+        }
+        return this.canExecute;
+    }
+
+    /**
+     * Checks if there are some null parameter and sets a human message. 
+     * 
+     * @return false if found any null parameter, true in other case.
+     */
+    private boolean hasNullParameters() {
+
+        this.message = Message.NULL;
+
+        if (this.sourceLayer == null) {
+
+            this.message = new Message(Messages.DissolveCommand_must_select_source_layer,
+                                       Message.Type.INFORMATION);
+            return true;
+        }
+        if ((this.dissolveProperties == null) || this.dissolveProperties.isEmpty()) {
+
+            this.message = new Message(Messages.DissolveCommand_must_select_dissolve_property,
+                                       Message.Type.INFORMATION);
+            return true;
+        }
+        if ((this.targetLayer == null) && (this.targetFeatureType == null)) {
+
+            this.message = new Message(Messages.DissolveCommand_must_select_target_layer,
+                                       Message.Type.INFORMATION);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The source and target layer can not be equals
+     *
+     * @return true if the layers are differents
+     */
+    private boolean checkInterLayerPredicate() {
+
+        this.message = Message.NULL;
+
+        if (this.sourceLayer.equals(this.targetLayer)) {
+
+            this.message = new Message(Messages.DissolveCommand_source_and_target_must_be_differents,
+                                       Message.Type.ERROR);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The source layer must have one or more features
+     *
+     * @return true if the source layer has features.
+     */
+    private boolean checkNoEmptyLayer() {
+
+        this.message = Message.NULL;
+
+        if (this.featuresInSourceLayer.size() == 0) {
+
+            this.message = new Message(Messages.DissolveCommand_there_is_not_features_to_dissolve,
+                                       Message.Type.ERROR);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The union of simple geometries may be a collection, then the target must accept the
+     * collection of the source's geometry.
+     * 
+     * @return true if the geometry of target is compatible with the dissolved geometries
+     */
+    private boolean checkTargetCompatibility() {
+
+        this.message = Message.NULL;
+
+        Class sourceGeometry = this.sourceLayer.getSchema().getDefaultGeometry().getType().getBinding();
+        Class expectedGeometry = sourceGeometry;
+        if (Point.class.equals(sourceGeometry) || LineString.class.equals(sourceGeometry)
+                || Polygon.class.equals(sourceGeometry)) {
+            expectedGeometry = GeometryUtil.getCompatibleCollection(sourceGeometry);
+        }
+
+        SimpleFeatureType targetType = (this.targetLayer != null)
+                ? this.targetLayer.getSchema()
+                : this.targetFeatureType;
+        Class targetGeometry = targetType.getDefaultGeometry().getType().getBinding();
+
+        this.geomValidator.setExpected(expectedGeometry);
+        this.geomValidator.setTarget(targetGeometry);
+
+        try {
+            if (!this.geomValidator.validate()) {
+
+                this.message = this.geomValidator.getMessage();
+
+                return false;
+            }
+        } catch (Exception e) {
+            this.message = new Message(Messages.DissolveCommand_failed_validating_geometry_compatibility,
+                                       Message.Type.FAIL);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Executes the dissolve operation.
+     */
+    @Override
+    public void execute() throws SOCommandException {
+
+        if (!this.canExecute) {
+            throw new SOCommandException("the precondition is false."); //$NON-NLS-1$
+        }
+
+        // Creates the required parameters to create new layer or use an existent layer.
+        IDisolveParameters params = null;
+        if (this.targetLayer != null) {
+            params = ParametersFactory.createDissolveParameters(this.sourceLayer,
+                                                                this.featuresInSourceLayer,
+                                                                this.dissolveProperties,
+                                                                this.aggregates,
+                                                                this.targetLayer);
+        } else {
+            params = ParametersFactory.createDissolveParameters(this.sourceLayer,
+                                                                this.featuresInSourceLayer,
+                                                                this.dissolveProperties,
+                                                                this.aggregates,
+                                                                this.targetFeatureType);
+        }
+        try {
+            SOProcessManager.dissolveOperation(params);
+        } catch (SOProcessException e) {
+            throw new SOCommandException(e.getMessage());
+        }
+
+        reset();
+    }
+
+    @Override
+    public void initParameters() {
+
+        sourceLayer           = null;
+        featuresInSourceLayer = null;
+        dissolveProperties    = null;
+        aggregates            = null;
+        targetLayer           = null;
+        targetFeatureType     = null;
+    }
+
+}
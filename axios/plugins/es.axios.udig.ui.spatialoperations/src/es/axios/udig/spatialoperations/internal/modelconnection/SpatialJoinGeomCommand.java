@@ -20,6 +20,21 @@
  */
 package es.axios.udig.spatialoperations.internal.modelconnection;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import net.refractions.udig.project.ILayer;
+
+import org.geotools.feature.FeatureCollection;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import es.axios.udig.spatialoperations.internal.i18n.Messages;
+import es.axios.udig.spatialoperations.internal.parameters.ISpatialJoinGeomParameters;
+import es.axios.udig.spatialoperations.internal.parameters.ParametersFactory;
+import es.axios.udig.spatialoperations.internal.parameters.SpatialRelation;
+import es.axios.udig.spatialoperations.internal.processmanager.SOProcessException;
+import es.axios.udig.spatialoperations.internal.processmanager.SOProcessManager;
 import es.axios.udig.spatialoperations.ui.view.Message;
 
 /**
@@ -34,9 +49,19 @@ import es.axios.udig.spatialoperations.ui.view.Message;
  */
 public final class SpatialJoinGeomCommand extends SOAbstractCommand {
 
-    private static final Message INITIAL_MESSAGE       = new Message("Generates a new layer with the features of First and Second layer which fulfil with the spatial relation.",
+    private static final Message INITIAL_MESSAGE       = new Message(Messages.SpatialJoinGeomCommand_description,
                                                                      Message.Type.IMPORTANT_INFO);
 
+    // inputs parameters
+    private ILayer                                              firstLayer            = null;
+    private FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInFirstLayer  = null;
+    private ILayer                                              secondLayer           = null;
+    private FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInSecondLayer = null;
+    private SpatialRelation                                     relation              = null;
+    private Double                                              distance              = null;
+    private ILayer                                              targetLayer           = null;
+    private SimpleFeatureType                                   targetFeatureType     = null;
+
     /**
      * @param initialMessage
      */
@@ -44,15 +69,261 @@ public final class SpatialJoinGeomCommand extends SOAbstractCommand {
         super(INITIAL_MESSAGE);
     }
 
+    /**
+     * Sets the parameters to execute the operation
+     *
+     * @param firstLayer
+     * @param featuresInFirstLayer
+     * @param secondLayer
+     * @param featuresInSecondLayer
+     * @param relation
+     * @param distance required by {@link SpatialRelation#DWITHIN}
+     * @param targetLayer
+     */
+    public void setParameters( 
+            ILayer firstLayer, FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInFirstLayer, 
+            ILayer secondLayer, FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInSecondLayer,
+            SpatialRelation relation, Double distance,
+            ILayer targetLayer ) {
+
+        setSource(firstLayer, featuresInFirstLayer, secondLayer, featuresInSecondLayer, relation, distance);
+
+        this.targetLayer = targetLayer;
+        this.targetFeatureType = null;
+    }
+
+    /**
+     * Sets the parameters to execute the operation
+     *
+     * @param firstLayer
+     * @param featuresInFirstLayer
+     * @param secondLayer
+     * @param featuresInSecondLayer
+     * @param relation
+     * @param distance required by {@link SpatialRelation#DWITHIN}
+     * @param targetFeatureType type of the new layer
+     */
+    public void setParameters( 
+            ILayer firstLayer, FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInFirstLayer, 
+            ILayer secondLayer, FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInSecondLayer,
+            SpatialRelation relation, Double distance,
+            SimpleFeatureType targetFeatureType ) {
+
+        setSource(firstLayer, featuresInFirstLayer, secondLayer, featuresInSecondLayer, relation, distance);
+
+        this.targetLayer = null;
+        this.targetFeatureType = targetFeatureType;
+    }
+
+    private void setSource( 
+            ILayer firstLayer, FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInFirstLayer, 
+            ILayer secondLayer, FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInSecondLayer,
+            SpatialRelation relation, Double distance ) {
+
+        this.firstLayer = firstLayer;
+        this.featuresInFirstLayer = featuresInFirstLayer;
+
+        this.secondLayer = secondLayer;
+        this.featuresInSecondLayer = featuresInSecondLayer;
+
+        this.relation = relation;
+        this.distance = distance;
+    }
+
+    /**
+     * Evaluates not null inputs, the distance required by dwithin and that the layers are
+     * differents.
+     * 
+     * @return true if all parameters are ok
+     */
+    @Override
+    public boolean evalPrecondition() {
+
+        this.canExecute = true;
+
+        if (hasNullParameters()) {
+
+            this.canExecute = false;
+
+        } else if (!checkDistance()) {
+
+            this.canExecute = false;
+
+        } else if (!checkInterLayerPredicate()) {
+
+            this.canExecute = false;
+
+        } else if (!checkNoEmptyLayers()) {
+
+            this.canExecute = false;
+        }
+        // if can, set the ok message
+        if (this.canExecute) {
+            this.message = new Message(Messages.SpatialJoinGeomCommand_parameters_ok, 
+                                       Message.Type.INFORMATION);
+        }
+        return this.canExecute;
+    }
+
+    /**
+     * Checks if there are some null parameter and sets a human message. 
+     * 
+     * @return false if found any null parameter, true in other case.
+     */
+    private boolean hasNullParameters() {
+
+        this.message = Message.NULL;
+
+        if (this.firstLayer == null) {
+
+            this.message = new Message(Messages.SpatialJoinGeomCommand_must_select_the_first_layer,
+                                       Message.Type.INFORMATION);
+            return true;
+        }
+        if (this.secondLayer == null) {
+
+            this.message = new Message(Messages.SpatialJoinGeomCommand_must_select_second_layer,
+                                       Message.Type.INFORMATION);
+            return true;
+        }
+        if (this.relation == null) {
+
+            this.message = new Message(Messages.SpatialJoinGeomCommand_must_select_relation,
+                                       Message.Type.INFORMATION);
+            return true;
+        }
+        if ((this.targetLayer == null) && (this.targetFeatureType == null)) {
+
+            this.message = new Message(Messages.SpatialJoinGeomCommand_must_select_target_layer,
+                                       Message.Type.INFORMATION);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The dwithin relation requires a distance zero or positive
+     *
+     * @return true if the distance is valid or it is not required
+     */
+    private boolean checkDistance() {
+
+        this.message = Message.NULL;
+
+        if (this.relation != SpatialRelation.DWITHIN) {
+            return true;
+        }
+        if ((this.distance == null) || (this.distance.doubleValue() < 0)) {
+
+            this.message = new Message(Messages.SpatialJoinGeomCommand_distance_must_be_positive,
+                                       Message.Type.ERROR);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The layers can not be equals
+     *
+     * @return true if the layers are differents
+     */
+    private boolean checkInterLayerPredicate() {
+
+        this.message = Message.NULL;
+
+        List<ILayer> layerList = new ArrayList<ILayer>(2);
+
+        layerList.add(this.firstLayer);
+        if (layerList.contains(this.secondLayer)) {
+
+            this.message = new Message(Messages.SpatialJoinGeomCommand_first_and_second_must_be_differents,
+                                       Message.Type.ERROR);
+            return false;
+        }
+        layerList.add(this.secondLayer);
+
+        if (layerList.contains(this.targetLayer)) {
+
+            this.message = new Message(Messages.SpatialJoinGeomCommand_first_second_and_target_must_be_differents,
+                                       Message.Type.ERROR);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * first and second layer must have one or more features
+     *
+     * @return true if first and second layer have features.
+     */
+    private boolean checkNoEmptyLayers() {
+
+        this.message = Message.NULL;
+
+        if (this.featuresInFirstLayer.size() == 0) {
+
+            this.message = new Message(Messages.SpatialJoinGeomCommand_there_is_not_features_in_first_layer,
+                                       Message.Type.ERROR);
+            return false;
+        }
+        if (this.featuresInSecondLayer.size() == 0) {
+
+            this.message = new Message(Messages.SpatialJoinGeomCommand_there_is_not_features_in_second_layer,
+                                       Message.Type.ERROR);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Executes the spatial join operation.
+     */
     @Override
     public void execute() throws SOCommandException {
 
+        if (!this.canExecute) {
+            throw new SOCommandException("the precondition is false."); //$NON-NLS-1$
+        }
+
+        // Creates the required parameters to create new layer or use an existent layer.
+        ISpatialJoinGeomParameters params = null;
+        if (this.targetLayer != null) {
+            params = ParametersFactory.createSpatialJoinParameters(this.firstLayer,
+                                                                   this.featuresInFirstLayer,
+                                                                   this.secondLayer,
+                                                                   this.featuresInSecondLayer,
+                                                                   this.relation,
+                                                                   this.distance,
+                                                                   this.targetLayer);
+        } else {
+            params = ParametersFactory.createSpatialJoinParameters(this.firstLayer,
+                                                                   this.featuresInFirstLayer,
+                                                                   this.secondLayer,
+                                                                   this.featuresInSecondLayer,
+                                                                   this.relation,
+                                                                   this.distance,
+                                                                   this.targetFeatureType);
+        }
+        try {
+            SOProcessManager.spatialJoinOperation(params);
+        } catch (SOProcessException e) {
+            throw new SOCommandException(e.getMessage());
+        }
+
+        reset();
     }
 
     @Override
     public void initParameters() {
-        
-        //TODO
+
+        firstLayer            = null;
+        featuresInFirstLayer  = null;
+        secondLayer           = null;
+        featuresInSecondLayer = null;
+        relation              = null;
+        distance              = null;
+        targetLayer           = null;
+        targetFeatureType     = null;
     }
 
 }
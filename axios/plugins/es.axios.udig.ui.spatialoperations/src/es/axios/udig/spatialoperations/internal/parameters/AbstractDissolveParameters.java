@@ -0,0 +1,100 @@
+/* Spatial Operations & Editing Tools for uDig
+ * 
+ * Axios Engineering under a funding contract with: 
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial 
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es 
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT). 
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ * 
+ * You can redistribute it and/or modify it under the terms of the 
+ * GNU Lesser General Public License as published by the Free Software 
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.spatialoperations.internal.parameters;
+
+import java.util.Collections;
+import java.util.List;
+
+import net.refractions.udig.project.ILayer;
+
+import org.geotools.feature.FeatureCollection;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Common parameters for dissolve operation
+ * <p>
+ *
+ * </p>
+ * @author Mauricio Pazos (www.axios.es)
+ * @author Gabriel Roldan (www.axios.es)
+ * @since 1.1.0
+ */
+class AbstractDissolveParameters implements IDisolveParameters {
+
+    private ILayer                                              sourceLayer          = null;
+    private FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInSourceLayer = null;
+    private List<String>                                        dissolveProperties   = null;
+    private List<DissolveAggregate>                             aggregates           = null;
+
+    /**
+     * Initialization of common parameters
+     *
+     * @param sourceLayer
+     * @param featuresInSourceLayer
+     * @param dissolveProperties
+     * @param aggregates
+     */
+    public AbstractDissolveParameters( final ILayer sourceLayer,
+                                       final FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInSourceLayer,
+                                       final List<String> dissolveProperties,
+                                       final List<DissolveAggregate> aggregates ) {
+
+        assert sourceLayer != null;
+        assert featuresInSourceLayer != null;
+        assert dissolveProperties != null;
+        assert aggregates != null;
+
+        this.sourceLayer = sourceLayer;
+        this.featuresInSourceLayer = featuresInSourceLayer;
+        this.dissolveProperties = Collections.unmodifiableList(dissolveProperties);
+        this.aggregates = Collections.unmodifiableList(aggregates);
+    }
+
+    /**
+     * @return Returns the source layer.
+     */
+    public ILayer getSourceLayer() {
+        return sourceLayer;
+    }
+
+    /**
+     * @return Returns the features to dissolve.
+     */
+    public FeatureCollection<SimpleFeatureType, SimpleFeature> getFeaturesInSourceLayer() {
+        return featuresInSourceLayer;
+    }
+
+    /**
+     * @return Returns the dissolve properties.
+     */
+    public List<String> getDissolveProperties() {
+        return dissolveProperties;
+    }
+
+    /**
+     * @return Returns the aggregates.
+     */
+    public List<DissolveAggregate> getAggregates() {
+        return aggregates;
+    }
+
+}
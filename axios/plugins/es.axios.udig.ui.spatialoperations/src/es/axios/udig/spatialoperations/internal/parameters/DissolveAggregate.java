@@ -0,0 +1,85 @@
+/* Spatial Operations & Editing Tools for uDig
+ * 
+ * Axios Engineering under a funding contract with: 
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial 
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es 
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT). 
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ * 
+ * You can redistribute it and/or modify it under the terms of the 
+ * GNU Lesser General Public License as published by the Free Software 
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.spatialoperations.internal.parameters;
+
+/**
+ * Aggregate computed by the dissolve operation for each group of features
+ * <p>
+ * The value of the aggregate is computed with the values of the source property in the
+ * features of the group and it is set in the target property of the dissolved feature.
+ * {@link Function#COUNT} does not require source property.
+ * </p>
+ * @author Mauricio Pazos (www.axios.es)
+ * @author Gabriel Roldan (www.axios.es)
+ * @since 1.1.0
+ */
+public final class DissolveAggregate {
+
+    public enum Function {
+        COUNT, SUM, MIN, MAX
+    }
+
+    private final Function function;
+    private final String   sourceProperty;
+    private final String   targetProperty;
+
+    /**
+     * @param function
+     * @param sourceProperty property of the source features, null for COUNT
+     * @param targetProperty property of the dissolved feature
+     */
+    public DissolveAggregate( final Function function, final String sourceProperty, final String targetProperty ) {
+
+        assert function != null;
+        assert (function == Function.COUNT) || (sourceProperty != null);
+        assert targetProperty != null;
+
+        this.function = function;
+        this.sourceProperty = sourceProperty;
+        this.targetProperty = targetProperty;
+    }
+
+    /**
+     * @return Returns the function.
+     */
+    public Function getFunction() {
+        return function;
+    }
+
+    /**
+     * @return Returns the source property.
+     */
+    public String getSourceProperty() {
+        return sourceProperty;
+    }
+
+    /**
+     * @return Returns the target property.
+     */
+    public String getTargetProperty() {
+        return targetProperty;
+    }
+
+    @Override
+    public String toString() {
+        return function + "(" + sourceProperty + ") as " + targetProperty; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+}
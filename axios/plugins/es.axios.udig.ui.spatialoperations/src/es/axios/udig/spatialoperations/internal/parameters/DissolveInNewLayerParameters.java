@@ -0,0 +1,65 @@
+/* Spatial Operations & Editing Tools for uDig
+ * 
+ * Axios Engineering under a funding contract with: 
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial 
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es 
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT). 
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ * 
+ * You can redistribute it and/or modify it under the terms of the 
+ * GNU Lesser General Public License as published by the Free Software 
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.spatialoperations.internal.parameters;
+
+import java.util.List;
+
+import net.refractions.udig.project.ILayer;
+
+import org.geotools.feature.FeatureCollection;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Parameters for Dissolve Operation
+ * <p>
+ * Used this object to create a new layer with the dissolve
+ * </p>
+ * @author Mauricio Pazos (www.axios.es)
+ * @author Gabriel Roldan (www.axios.es)
+ * @since 1.1.0
+ */
+final class DissolveInNewLayerParameters extends AbstractDissolveParameters
+    implements
+        IDissolveInNewLayerParameters {
+
+    private SimpleFeatureType targetFeatureType = null;
+
+    public DissolveInNewLayerParameters(
+            final ILayer sourceLayer, final FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInSourceLayer,
+            final List<String> dissolveProperties, final List<DissolveAggregate> aggregates,
+            final SimpleFeatureType targetFeatureType ) {
+
+        super(sourceLayer, featuresInSourceLayer, dissolveProperties, aggregates);
+
+        assert targetFeatureType != null;
+
+        this.targetFeatureType = targetFeatureType;
+    }
+
+    /**
+     * @return Returns the target feature type.
+     */
+    public SimpleFeatureType getTargetFeatureType() {
+        return targetFeatureType;
+    }
+
+}
@@ -20,10 +20,19 @@
  */
 package es.axios.udig.spatialoperations.internal.parameters;
 
+import java.util.List;
+
+import net.refractions.udig.project.ILayer;
+
+import org.geotools.feature.FeatureCollection;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
 /**
- * TODO Purpose of 
+ * Parameters for Dissolve Operation
  * <p>
- *
+ * The features of source layer with the same values in the dissolve properties are merged in
+ * one feature.
  * </p>
  * @author Mauricio Pazos (www.axios.es)
  * @author Gabriel Roldan (www.axios.es)
@@ -31,4 +40,24 @@ package es.axios.udig.spatialoperations.internal.parameters;
  */
 public interface IDisolveParameters {
 
+    /**
+     * @return Returns the source layer.
+     */
+    public ILayer getSourceLayer();
+
+    /**
+     * @return Returns the features to dissolve.
+     */
+    public FeatureCollection<SimpleFeatureType, SimpleFeature> getFeaturesInSourceLayer();
+
+    /**
+     * @return Returns the names of the properties used to group the features.
+     */
+    public List<String> getDissolveProperties();
+
+    /**
+     * @return Returns the aggregates computed for each group.
+     */
+    public List<DissolveAggregate> getAggregates();
+
 }
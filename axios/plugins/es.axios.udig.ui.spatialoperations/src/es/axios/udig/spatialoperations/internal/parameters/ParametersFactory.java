@@ -14,6 +14,8 @@
  */
 package es.axios.udig.spatialoperations.internal.parameters;
 
+import java.util.List;
+
 import javax.measure.unit.Unit;
 
 import net.refractions.udig.project.ILayer;
@@ -206,4 +208,114 @@ public final class ParametersFactory {
     }
 
 
+    /**
+     * New instance of spatial join parameters to leave the result in an existent layer
+     *
+     * @param firstLayer
+     * @param featuresInFirstLayer
+     * @param secondLayer
+     * @param featuresInSecondLayer
+     * @param relation
+     * @param distance required by {@link SpatialRelation#DWITHIN}
+     * @param targetLayer
+     * @return ISpatialJoinGeomInExistentLayerParameters
+     */
+    public static ISpatialJoinGeomInExistentLayerParameters createSpatialJoinParameters(
+            final ILayer firstLayer, 
+            final FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInFirstLayer, 
+            final ILayer secondLayer, 
+            final FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInSecondLayer,
+            final SpatialRelation relation,
+            final Double distance,
+            final ILayer targetLayer ) {
+
+        ISpatialJoinGeomInExistentLayerParameters params = new SpatialJoinGeomInExistentLayerParameters(
+                firstLayer, featuresInFirstLayer,
+                secondLayer, featuresInSecondLayer,
+                relation, distance,
+                targetLayer);
+
+        return params;
+    }
+
+    /**
+     * New instance of spatial join parameters to leave the result in a new layer
+     *
+     * @param firstLayer
+     * @param featuresInFirstLayer
+     * @param secondLayer
+     * @param featuresInSecondLayer
+     * @param relation
+     * @param distance required by {@link SpatialRelation#DWITHIN}
+     * @param targetFeatureType
+     * @return ISpatialJoinGeomInNewLayerParameters
+     */
+    public static ISpatialJoinGeomInNewLayerParameters createSpatialJoinParameters(
+            final ILayer firstLayer, 
+            final FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInFirstLayer, 
+            final ILayer secondLayer, 
+            final FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInSecondLayer,
+            final SpatialRelation relation,
+            final Double distance,
+            final SimpleFeatureType targetFeatureType ) {
+
+        ISpatialJoinGeomInNewLayerParameters params = new SpatialJoinGeomInNewLayerParameters(
+                firstLayer, featuresInFirstLayer,
+                secondLayer, featuresInSecondLayer,
+                relation, distance,
+                targetFeatureType);
+
+        return params;
+    }
+
+    /**
+     * New instance of dissolve parameters to leave the result in an existent layer
+     *
+     * @param sourceLayer
+     * @param featuresInSourceLayer
+     * @param dissolveProperties properties used to group the features
+     * @param aggregates aggregates computed for each group
+     * @param targetLayer
+     * @return IDissolveInExistentLayerParameters
+     */
+    public static IDissolveInExistentLayerParameters createDissolveParameters(
+            final ILayer sourceLayer, 
+            final FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInSourceLayer,
+            final List<String> dissolveProperties,
+            final List<DissolveAggregate> aggregates,
+            final ILayer targetLayer ) {
+
+        IDissolveInExistentLayerParameters params = new DissolveInExistentLayerParameters(
+                sourceLayer, featuresInSourceLayer,
+                dissolveProperties, aggregates,
+                targetLayer);
+
+        return params;
+    }
+
+    /**
+     * New instance of dissolve parameters to leave the result in a new layer
+     *
+     * @param sourceLayer
+     * @param featuresInSourceLayer
+     * @param dissolveProperties properties used to group the features
+     * @param aggregates aggregates computed for each group
+     * @param targetFeatureType
+     * @return IDissolveInNewLayerParameters
+     */
+    public static IDissolveInNewLayerParameters createDissolveParameters(
+            final ILayer sourceLayer, 
+            final FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInSourceLayer,
+            final List<String> dissolveProperties,
+            final List<DissolveAggregate> aggregates,
+            final SimpleFeatureType targetFeatureType ) {
+
+        IDissolveInNewLayerParameters params = new DissolveInNewLayerParameters(
+                sourceLayer, featuresInSourceLayer,
+                dissolveProperties, aggregates,
+                targetFeatureType);
+
+        return params;
+    }
+
 }
@@ -16,4 +16,10 @@ public interface PreferenceConstants {
     String SELECTION_FALLBACK_TO_WHOLE_LAYER = "SELECTION_FALLBACK_TO_WHOLE_LAYER"; //$NON-NLS-1$
     String BUFFER_QUADRANT_SEGMENTS = "BUFFER_QUADRANT_SEGMENTS"; //$NON-NLS-1$
     String BUFFER_MERGE_GEOMETRIES = "BUFFER_MERGE_GEOMETRIES"; //$NON-NLS-1$
+    /** number of threads used to compute the buffers */
+    String BUFFER_PARALLELISM = "BUFFER_PARALLELISM"; //$NON-NLS-1$
+    /** maximum number of spatial operations running at the same time */
+    String PROCESS_PARALLELISM = "PROCESS_PARALLELISM"; //$NON-NLS-1$
+    /** number of result features added to the target store by each call */
+    String PROCESS_WRITE_BATCH_SIZE = "PROCESS_WRITE_BATCH_SIZE"; //$NON-NLS-1$
 }
@@ -62,6 +62,13 @@ public class Preferences {
         return getBoolean(PreferenceConstants.BUFFER_MERGE_GEOMETRIES);
     }
 
+    /**
+     * @return the number of threads used to compute the buffers of a buffer operation
+     */
+    public static int bufferParallelism() {
+        return getInt(PreferenceConstants.BUFFER_PARALLELISM);
+    }
+
     /**
      * @return wether to use the whole layer if no selection is set
      */
@@ -69,6 +76,20 @@ public class Preferences {
         return getBoolean(PreferenceConstants.SELECTION_FALLBACK_TO_WHOLE_LAYER);
     }
 
+    /**
+     * @return the maximum number of spatial operations running at the same time
+     */
+    public static int processParallelism() {
+        return getInt(PreferenceConstants.PROCESS_PARALLELISM);
+    }
+
+    /**
+     * @return the number of result features added to the target store by each call
+     */
+    public static int processWriteBatchSize() {
+        return getInt(PreferenceConstants.PROCESS_WRITE_BATCH_SIZE);
+    }
+
     private static int getInt( final String preferenceName ) {
         IPreferenceStore store = Preferences.getPreferenceStore();
         int value = store.getInt(preferenceName);
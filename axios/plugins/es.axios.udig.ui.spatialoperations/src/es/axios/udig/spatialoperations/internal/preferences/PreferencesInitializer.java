@@ -28,7 +28,11 @@ public class PreferencesInitializer extends AbstractPreferenceInitializer {
         store.setDefault(PreferenceConstants.BUFFER_USE_UNITS_FROM,
                 PreferenceConstants.BUFFER_UNITS_LAYER);
         store.setDefault(PreferenceConstants.BUFFER_QUADRANT_SEGMENTS, 8);
+        store.setDefault(PreferenceConstants.BUFFER_PARALLELISM, Runtime.getRuntime()
+                .availableProcessors());
         store.setDefault(PreferenceConstants.SELECTION_FALLBACK_TO_WHOLE_LAYER, true);
+        store.setDefault(PreferenceConstants.PROCESS_PARALLELISM, 2);
+        store.setDefault(PreferenceConstants.PROCESS_WRITE_BATCH_SIZE, 1000);
     }
 
 }
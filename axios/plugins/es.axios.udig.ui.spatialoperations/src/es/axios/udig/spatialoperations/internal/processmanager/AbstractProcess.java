@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import net.refractions.udig.catalog.ICatalog;
@@ -42,6 +43,7 @@ import org.opengis.feature.type.GeometryDescriptor;
 import com.vividsolutions.jts.geom.Geometry;
 
 import es.axios.udig.spatialoperations.internal.i18n.Messages;
+import es.axios.udig.spatialoperations.internal.preferences.Preferences;
 import es.axios.udig.ui.commons.mediator.AppGISMediator;
 import es.axios.udig.ui.commons.util.GeometryUtil;
 
@@ -51,6 +53,10 @@ public abstract class AbstractProcess implements ISOProcess {
     
     private IProgressMonitor   monitor   = null;
 
+    private final AtomicLong   processed = new AtomicLong();
+
+    private ResultSink         resultSink = null;
+
 
    /**
     * initialize the process
@@ -80,6 +86,55 @@ public abstract class AbstractProcess implements ISOProcess {
  
 
 
+    /**
+     * Adds the features to the count of processed features
+     *
+     * @param count number of source features processed
+     */
+    protected final void featuresProcessed( final int count ) {
+        this.processed.addAndGet(count);
+    }
+
+    public final long getProcessedFeatureCount() {
+        return this.processed.get();
+    }
+
+    /**
+     * Opens the sink used to add the result features to the target store, the batch size is
+     * taken from the preferences.
+     *
+     * @param store the target store
+     * @return the sink
+     */
+    protected final ResultSink openResultSink( final FeatureStore<SimpleFeatureType, SimpleFeature> store ) {
+
+        assert this.resultSink == null;
+
+        this.resultSink = new ResultSink(store, Preferences.processWriteBatchSize());
+
+        return this.resultSink;
+    }
+
+    /**
+     * @return the sink opened by {@link #openResultSink(FeatureStore)}
+     */
+    protected final ResultSink getResultSink() {
+        assert this.resultSink != null;
+        return this.resultSink;
+    }
+
+    /**
+     * Writes the pending result features, it must be called when the process ends successfully
+     *
+     * @throws SOProcessException
+     */
+    protected final void closeResultSink() throws SOProcessException {
+
+        if (this.resultSink != null) {
+            this.resultSink.close();
+        }
+    }
+
     /**
      * log the exception and throw to caller
      * @param exception
@@ -206,6 +261,10 @@ public abstract class AbstractProcess implements ISOProcess {
         assert map != null;
         assert targetLayer != null;
         
+        // discards the result features if the process has failed
+        if (this.resultSink != null) {
+            this.resultSink.abort();
+        }
         // FIXME Hack to solve the target layer refresh
         // Note: we need confirm the transaction before refresh, the following sentences are a
         // possible solution
@@ -16,6 +16,14 @@ package es.axios.udig.spatialoperations.internal.processmanager;
 
 import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.measure.converter.UnitConverter;
 import javax.measure.unit.Unit;
@@ -29,6 +37,7 @@ import net.refractions.udig.project.internal.Map;
 import net.refractions.udig.project.render.IViewportModel;
 
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.FeatureStore;
 import org.geotools.feature.FeatureCollection;
@@ -50,6 +59,7 @@ import es.axios.udig.spatialoperations.internal.parameters.IBufferInExistentLaye
 import es.axios.udig.spatialoperations.internal.parameters.IBufferInNewLayerParameters;
 import es.axios.udig.spatialoperations.internal.parameters.IBufferParameters;
 import es.axios.udig.ui.commons.mediator.AppGISMediator;
+import es.axios.udig.ui.commons.util.CascadedUnion;
 import es.axios.udig.ui.commons.util.GeoToolsUtils;
 import es.axios.udig.ui.commons.util.GeometryUtil;
 import es.axios.udig.ui.commons.util.LayerUtil;
@@ -74,6 +84,12 @@ import es.axios.udig.ui.commons.util.MapUtil;
  * <code>BufferOp</code> in order to allow the operation to be cancelled while inside the buffer
  * computation.
  * </p>
+ * <p>
+ * If the parallelism is greater than one the buffers are computed on a pool of worker threads
+ * and, when the geometries have to be merged, the cascaded union runs in parallel too. The new
+ * features are created and stored on the process thread in the order of the selection, so
+ * the result is the same than the serial computation.
+ * </p>
  * 
  * @author Gabriel Roldan (www.axios.es)
  * @author Mauricio Pazos (www.axios.es)
@@ -107,6 +123,8 @@ final class BufferProcess extends AbstractProcess {
 
     private IMap                             map                        = null;
 
+    /** number of threads used to compute the buffers, 1 computes them on the process thread */
+    private int                              parallelism                = 1;
     
 
 
@@ -126,6 +144,22 @@ final class BufferProcess extends AbstractProcess {
 
     }
     
+    /**
+     * Sets the number of threads used to compute the buffers.
+     * 
+     * @param parallelism the number of worker threads, 1 or less computes the buffers 
+     *        on the process thread
+     */
+    public void setParallelism( final int parallelism ) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * @return the number of threads used to compute the buffers
+     */
+    public int getParallelism() {
+        return this.parallelism;
+    }
 
     /**
      * Initializes the buffer process with the common parameters
@@ -221,10 +255,17 @@ final class BufferProcess extends AbstractProcess {
             IBufferParameters params = (this.paramsBufferInExistntLayer != null)
                     ? this.paramsBufferInExistntLayer
                     : this.paramsBufferInNewLayer;
-            performBuffer(params, this.selectedFeatures);
+            openResultSink(this.targetStore);
+            if (this.parallelism > 1) {
+                performBufferInParallel(params, this.selectedFeatures);
+            } else {
+                performBuffer(params, this.selectedFeatures);
+            }
 
             checkCancelation();
 
+            closeResultSink();
+
             monitor.subTask(mainSteps[2]);
             
 
@@ -292,7 +333,7 @@ final class BufferProcess extends AbstractProcess {
         
         SimpleFeature sourceFeature = null;
         // the one to use if params.isMergeGeometry() == true
-        Geometry mergedGeometry = null;
+        CascadedUnion mergedGeometry = new CascadedUnion();
         
         FeatureIterator<SimpleFeature> iterator = null;
 
@@ -325,19 +366,16 @@ final class BufferProcess extends AbstractProcess {
                 checkCancelation();
 
                 if (params.isMergeGeometries()) {
-                    if (mergedGeometry == null) {
-                        mergedGeometry = geometry;
-                    } else {
-                        mergedGeometry = mergedGeometry.union(geometry);
-                    }
+                    mergedGeometry.add(geometry);
                 } else {
                     createAndStoreBufferedFeature(sourceFeature, geometry, this.targetStore);
                 }
+                featuresProcessed(1);
                 getMonitor().worked(1);
             }
             checkCancelation();
             if (params.isMergeGeometries()) {
-                createAndStoreBufferedFeature(null, mergedGeometry, this.targetStore);
+                createAndStoreBufferedFeature(null, mergedGeometry.getResult(), this.targetStore);
             }
 
             getMonitor().subTask(Messages.BufferProcess_subtastCommittingTransaction);
@@ -362,6 +400,158 @@ final class BufferProcess extends AbstractProcess {
         }
     }
 
+    /**
+     * Makes the same work than {@link #performBuffer(IBufferParameters, FeatureCollection)}
+     * computing the buffers on a pool of {@link #getParallelism()} threads.
+     * <p>
+     * The features are stored on this thread in the selection's order. If the geometries
+     * must be merged, the subtrees of the cascaded union are unioned in parallel too.
+     * </p>
+     * 
+     * @param params buffer parameters
+     * @param selection source layer's selected features in its native CRS
+     * @throws SOProcessException
+     * @throws InterruptedException if the user cancelled the operation
+     */
+    private void performBufferInParallel( final IBufferParameters params, 
+                                          final FeatureCollection<SimpleFeatureType, SimpleFeature> selection ) 
+            throws SOProcessException, InterruptedException{
+
+        assert selection != null;
+
+        final int featureCount = selection.size();
+
+        final CoordinateReferenceSystem sourceCrs = LayerUtil.getCrs(this.sourceLayer);
+
+        final CoordinateReferenceSystem mapCrs = MapUtil.getCRS(this.sourceLayer.getMap());
+
+        final CoordinateReferenceSystem targetCrs = this.targetStore.getSchema().getDefaultGeometry()
+                .getCRS();
+
+        final Unit sourceUnits = GeoToolsUtils.getDefaultCRSUnit(mapCrs);
+        final Unit targetUnits = params.getUnitsOfMeasure();
+        final int quadSegments = params.getQuadrantSegments().intValue();
+
+        // the width is converted here since the pixel units require the viewport 
+        final double bufferWidth = getBufferWidth(params.getWidth().doubleValue(), sourceUnits, targetUnits);
+
+        // the workers only need to know if the process was canceled
+        final IProgressMonitor workerMonitor = new NullProgressMonitor(){
+            @Override
+            public boolean isCanceled() {
+                return getMonitor().isCanceled();
+            }
+        };
+
+        CascadedUnion mergedGeometry = new CascadedUnion();
+        mergedGeometry.setParallelism(this.parallelism);
+        LinkedList<SimpleFeature> pendingFeatures = new LinkedList<SimpleFeature>();
+        LinkedList<Future<Geometry>> pendingBuffers = new LinkedList<Future<Geometry>>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(this.parallelism);
+        FeatureIterator<SimpleFeature> iterator = null;
+        try {
+            int processingCount = 0;
+
+            iterator = selection.features();
+            while( iterator.hasNext() || !pendingBuffers.isEmpty() ) {
+
+                checkCancelation();
+
+                // keeps two features by thread in flight
+                while( iterator.hasNext() && pendingBuffers.size() < 2 * this.parallelism ) {
+
+                    final SimpleFeature feature = iterator.next();
+                    pendingFeatures.add(feature);
+                    pendingBuffers.add(executor.submit(new Callable<Geometry>(){
+                        public Geometry call() throws Exception {
+
+                            Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                            geometry = GeoToolsUtils.reproject(geometry, sourceCrs, mapCrs);
+
+                            BufferOp bufOp = new BufferOp(geometry);
+                            bufOp.setQuadrantSegments(quadSegments);
+                            geometry = bufOp.getResultGeometry(bufferWidth, new JTSProgressMonitor(workerMonitor));
+
+                            return GeoToolsUtils.reproject(geometry, mapCrs, targetCrs);
+                        }
+                    }));
+                }
+
+                processingCount++;
+                getMonitor().subTask(MessageFormat.format(
+                        Messages.BufferProcess_subTask_BufferingFeatureN, 
+                        processingCount, featureCount));
+
+                SimpleFeature sourceFeature = pendingFeatures.removeFirst();
+                Geometry geometry = waitForBuffer(pendingBuffers.removeFirst(), sourceFeature);
+
+                if (params.isMergeGeometries()) {
+                    mergedGeometry.add(geometry);
+                } else {
+                    createAndStoreBufferedFeature(sourceFeature, geometry, this.targetStore);
+                }
+                featuresProcessed(1);
+                getMonitor().worked(1);
+            }
+            checkCancelation();
+            if (params.isMergeGeometries()) {
+                createAndStoreBufferedFeature(null, mergedGeometry.getResult(), this.targetStore);
+            }
+
+            getMonitor().subTask(Messages.BufferProcess_subtastCommittingTransaction);
+
+        } finally {
+
+            executor.shutdownNow();
+
+            if(iterator != null) iterator.close();
+
+            getMonitor().done();
+        }
+    }
+
+    /**
+     * Waits for the buffer of the feature, polling the monitor to notice the cancelation.
+     * 
+     * @param future
+     * @param sourceFeature
+     * @return the buffered geometry
+     * @throws SOProcessException if the buffer computation failed
+     * @throws InterruptedException if the user cancelled the operation
+     */
+    private Geometry waitForBuffer( final Future<Geometry> future, final SimpleFeature sourceFeature )
+        throws SOProcessException, InterruptedException {
+
+        while( true ) {
+
+            checkCancelation();
+            try {
+                return future.get(250, TimeUnit.MILLISECONDS);
+
+            } catch (TimeoutException e) {
+                // keeps waiting
+            } catch (ExecutionException e) {
+
+                final Throwable cause = e.getCause();
+                if (cause instanceof InterruptedException) {
+                    throw (InterruptedException) cause;
+                } else if (cause instanceof OperationNotFoundException) {
+                    String message = MessageFormat.format(Messages.BufferProcess_failed_transforming, 
+                                                          sourceFeature.getID(),
+                                                          cause.getMessage());
+                    throw new SOProcessException(message, cause);
+                } else if (cause instanceof TransformException) {
+                    String message = MessageFormat.format( Messages.BufferProcess_failed_transforming_feature_to_crs,
+                                                           sourceFeature.getID(), 
+                                                           cause.getMessage());
+                    throw new SOProcessException(message, cause);
+                }
+                throw new SOProcessException(cause.getMessage(), cause);
+            }
+        }
+    }
+
     /**
      * @param sourceFeature feature containing source attributes to match over <code>target</code>,
      *        or <code>null</code>
@@ -386,8 +576,8 @@ final class BufferProcess extends AbstractProcess {
         checkCancelation();
 
         try {
-            target.addFeatures(DataUtilities.collection(new SimpleFeature[]{newFeature}));
-        } catch (IOException e) {
+            getResultSink().add(newFeature);
+        } catch (SOProcessException e) {
             final String msg = Messages.BufferProcess_adding_feature_to_store;
             throw new SOProcessException(msg, e);
         }
@@ -0,0 +1,201 @@
+/* Spatial Operations & Editing Tools for uDig
+ *
+ * Axios Engineering under a funding contract with:
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT).
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ *
+ * You can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.spatialoperations.internal.processmanager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.geometry.jts.GeometryCoordinateSequenceTransformer;
+import org.geotools.referencing.CRS;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.OperationNotFoundException;
+import org.opengis.referencing.operation.TransformException;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+import es.axios.udig.ui.commons.util.GeoToolsUtils;
+
+/**
+ * Spatial index over the parts of the clipping geometries.
+ * <p>
+ * Each part of each clipping geometry is reprojected to the map CRS, prepared and packed into
+ * an STRtree when the index is built. A geometry to clip is only tested against the parts whose
+ * envelopes overlap its envelope, in the order of the clipping features, and its fragments are
+ * kept in memory between one part and the next.
+ * </p>
+ * <p>
+ * The rules applied to each fragment are:
+ * <ul>
+ * <li>if the clipping part contains it, the fragment is removed</li>
+ * <li>if the clipping part divides it, each piece of the difference is a new fragment</li>
+ * <li>if they intersect, the fragment is replaced by the difference, unless the fragment
+ * contains the clipping part, since holes are not produced</li>
+ * <li>in other case the fragment is not modified</li>
+ * </ul>
+ * The difference is computed once for each fragment that intersects the clipping part.
+ * </p>
+ *
+ * @author Mauricio Pazos (www.axios.es)
+ * @since 1.1.0
+ */
+final class ClipIndex {
+
+    /** the prepared clipping parts on map crs, in the clipping collection's order */
+    private final List<PreparedGeometry> parts = new ArrayList<PreparedGeometry>();
+    private final STRtree                tree  = new STRtree();
+
+    /**
+     * Reprojects the parts of the clipping geometries to the map crs and builds the index
+     *
+     * @param clippingFeatures features used to clip
+     * @param clippingCrs crs of the clipping features
+     * @param mapCrs crs where the clip is computed
+     * @param monitor worked once by feature
+     * @throws OperationNotFoundException
+     * @throws TransformException
+     * @throws InterruptedException if the monitor is canceled
+     */
+    public ClipIndex( final FeatureCollection<SimpleFeatureType, SimpleFeature> clippingFeatures,
+                      final CoordinateReferenceSystem clippingCrs,
+                      final CoordinateReferenceSystem mapCrs,
+                      final IProgressMonitor monitor )
+        throws OperationNotFoundException, TransformException, InterruptedException {
+
+        assert clippingFeatures != null;
+        assert clippingCrs != null;
+        assert mapCrs != null;
+
+        final boolean sameCrs = CRS.equalsIgnoreMetadata(clippingCrs, mapCrs);
+        GeometryCoordinateSequenceTransformer transformer = null;
+
+        FeatureIterator<SimpleFeature> iter = clippingFeatures.features();
+        try {
+            while( iter.hasNext() ) {
+
+                if (monitor.isCanceled()) {
+                    throw new InterruptedException();
+                }
+                SimpleFeature feature = iter.next();
+                Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                if (geometry == null) {
+                    monitor.worked(1);
+                    continue;
+                }
+                if (!sameCrs) {
+                    if (transformer == null) {
+                        transformer = GeoToolsUtils.getTransformer(geometry.getFactory(), clippingCrs, mapCrs);
+                    }
+                    geometry = transformer.transform(geometry);
+                }
+                for( int i = 0; i < geometry.getNumGeometries(); i++ ) {
+
+                    Geometry part = geometry.getGeometryN(i);
+                    if (part.isEmpty()) {
+                        continue;
+                    }
+                    Integer position = Integer.valueOf(this.parts.size());
+                    this.parts.add(PreparedGeometryFactory.prepare(part));
+                    this.tree.insert(part.getEnvelopeInternal(), position);
+                }
+                monitor.worked(1);
+            }
+        } finally {
+            clippingFeatures.close(iter);
+        }
+        this.tree.build();
+    }
+
+    /**
+     * Clips the geometry with the indexed clipping parts
+     *
+     * @param geometryOnMap geometry to clip, on map crs
+     * @return the fragments that remain after the clip, on map crs, an empty list if the
+     *         geometry was removed or <code>null</code> if no clipping part modified the
+     *         geometry
+     */
+    @SuppressWarnings("unchecked")
+    public List<Geometry> clip( final Geometry geometryOnMap ) {
+
+        assert geometryOnMap != null;
+
+        List<Integer> candidates = this.tree.query(geometryOnMap.getEnvelopeInternal());
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        Collections.sort(candidates);
+
+        List<Geometry> fragments = new ArrayList<Geometry>(geometryOnMap.getNumGeometries());
+        for( int i = 0; i < geometryOnMap.getNumGeometries(); i++ ) {
+            fragments.add(geometryOnMap.getGeometryN(i));
+        }
+        boolean modified = false;
+        for( Integer position : candidates ) {
+
+            PreparedGeometry part = this.parts.get(position);
+            Envelope partEnvelope = part.getGeometry().getEnvelopeInternal();
+
+            List<Geometry> result = new ArrayList<Geometry>(fragments.size());
+            for( Geometry fragment : fragments ) {
+
+                if (!partEnvelope.intersects(fragment.getEnvelopeInternal())
+                        || !part.intersects(fragment)) {
+
+                    result.add(fragment);
+
+                } else if (part.contains(fragment)) {
+
+                    modified = true;
+
+                } else {
+                    Geometry difference = fragment.difference(part.getGeometry());
+
+                    if (difference.getNumGeometries() == 1 && fragment.contains(part.getGeometry())) {
+                        // the difference would be a hole
+                        result.add(fragment);
+                        continue;
+                    }
+                    for( int i = 0; i < difference.getNumGeometries(); i++ ) {
+                        Geometry piece = difference.getGeometryN(i);
+                        if (!piece.isEmpty()) {
+                            result.add(piece);
+                        }
+                    }
+                    modified = true;
+                }
+            }
+            fragments = result;
+            if (fragments.isEmpty()) {
+                break;
+            }
+        }
+        return modified ? fragments : null;
+    }
+}
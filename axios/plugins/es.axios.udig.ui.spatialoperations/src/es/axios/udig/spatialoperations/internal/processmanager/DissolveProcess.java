@@ -0,0 +1,697 @@
+/* uDig-Spatial Operations plugins
+ * http://b5m.gipuzkoa.net
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation;
+ * version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.spatialoperations.internal.processmanager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+import net.refractions.udig.catalog.IGeoResource;
+import net.refractions.udig.project.ILayer;
+import net.refractions.udig.project.IMap;
+import net.refractions.udig.project.internal.Map;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.FeatureStore;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.util.Converters;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKBWriter;
+
+import es.axios.udig.spatialoperations.internal.i18n.Messages;
+import es.axios.udig.spatialoperations.internal.parameters.DissolveAggregate;
+import es.axios.udig.spatialoperations.internal.parameters.IDisolveParameters;
+import es.axios.udig.spatialoperations.internal.parameters.IDissolveInExistentLayerParameters;
+import es.axios.udig.spatialoperations.internal.parameters.IDissolveInNewLayerParameters;
+import es.axios.udig.ui.commons.mediator.AppGISMediator;
+import es.axios.udig.ui.commons.util.CascadedUnion;
+import es.axios.udig.ui.commons.util.EstimatedProgressMonitor;
+import es.axios.udig.ui.commons.util.FeatureCountEstimator;
+import es.axios.udig.ui.commons.util.GeoToolsUtils;
+import es.axios.udig.ui.commons.util.LayerUtil;
+
+/**
+ * Dissolves the features of the source layer by the values of the dissolve properties
+ * <p>
+ * The features with the same values in the dissolve properties form a group. For each group
+ * a feature is created in the target layer with the union of the group's geometries, the
+ * values of the dissolve properties and the aggregates required.
+ * </p>
+ * <p>
+ * The source layer is read once. The aggregates are computed while the features are read
+ * and the geometries are kept by group until they hold more than
+ * {@link #setMaxCoordinatesInMemory(int)} coordinates; then all of them are spilled to
+ * temporal files as WKB, each group always going to the same file. When the layer has been
+ * read, the groups are unioned file by file, so only the geometries of the groups in one file
+ * are in memory at the same time. The groups are unioned in parallel with
+ * {@link CascadedUnion} and the features are added to the target store in batches, see
+ * {@link ResultSink}.
+ * </p>
+ *
+ * @author Mauricio Pazos (www.axios.es)
+ * @author Gabriel Roldan (www.axios.es)
+ * @since 1.1.0
+ */
+final class DissolveProcess extends AbstractProcess {
+
+    private static final Logger                                 LOGGER                = Logger
+                                                                                              .getLogger(DissolveProcess.class
+                                                                                                                              .getName());
+
+    /** number of temporal files used to spill the geometries */
+    private static final int                                    SPILL_FILES           = 32;
+
+    public static final int                                     DEFAULT_MAX_COORDINATES = 2000000;
+
+    private IDissolveInExistentLayerParameters                  paramsInExistentLayer = null;
+    private IDissolveInNewLayerParameters                       paramsInNewLayer      = null;
+
+    private ILayer                                              sourceLayer           = null;
+    private IMap                                                map                   = null;
+    private ILayer                                              targetLayer           = null;
+    private FeatureStore<SimpleFeatureType, SimpleFeature>      targetStore           = null;
+    private IGeoResource                                        targetGeoResource     = null;
+    private FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInSourceLayer = null;
+    private List<String>                                        dissolveProperties    = null;
+    private List<DissolveAggregate>                             aggregates            = null;
+
+    private int                                                 parallelism           = 1;
+    private int                                                 maxCoordinates        = DEFAULT_MAX_COORDINATES;
+
+    /** the groups, in the order they were found */
+    private final List<Group>                                   groups                = new ArrayList<Group>();
+
+    /** the geometries in memory by group position */
+    private final java.util.Map<Integer, List<Geometry>>        pending               = new HashMap<Integer, List<Geometry>>();
+    private int                                                 pendingCoordinates    = 0;
+
+    /** factory of the source geometries, used to read the spilled ones */
+    private GeometryFactory                                     geometryFactory       = null;
+
+    private File[]                                              spillFiles            = null;
+    private DataOutputStream[]                                  spillOutputs          = null;
+
+    /**
+     * New instance of dissolve process
+     *
+     * @param params parameters required to leave the dissolve into an existent or a new layer
+     */
+    public DissolveProcess( final IDisolveParameters params ) {
+
+        if (params instanceof IDissolveInExistentLayerParameters) {
+            this.paramsInExistentLayer = (IDissolveInExistentLayerParameters) params;
+        } else if (params instanceof IDissolveInNewLayerParameters) {
+            this.paramsInNewLayer = (IDissolveInNewLayerParameters) params;
+        } else {
+            assert false; // illegal parameter
+        }
+    }
+
+    /**
+     * @param parallelism number of threads used to union the groups
+     */
+    public void setParallelism( final int parallelism ) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * @return the number of threads used to union the groups
+     */
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * @param maxCoordinates the number of coordinates kept in memory before the geometries are
+     *        spilled to disk
+     */
+    public void setMaxCoordinatesInMemory( final int maxCoordinates ) {
+        this.maxCoordinates = Math.max(1, maxCoordinates);
+    }
+
+    /**
+     * Initializes the common parameters
+     *
+     * @param params
+     */
+    protected void init( final IDisolveParameters params ) {
+
+        this.sourceLayer = params.getSourceLayer();
+        assert this.sourceLayer != null;
+
+        this.map = this.sourceLayer.getMap();
+        assert this.map != null;
+
+        this.featuresInSourceLayer = params.getFeaturesInSourceLayer();
+        assert this.featuresInSourceLayer != null;
+
+        this.dissolveProperties = params.getDissolveProperties();
+        assert this.dissolveProperties != null;
+
+        this.aggregates = params.getAggregates();
+        assert this.aggregates != null;
+    }
+
+    /**
+     * Initializes the process taking into account if the required target is an existent layer
+     * or a new layer
+     *
+     * @param monitor
+     */
+    @Override
+    protected void init( final IProgressMonitor monitor ) throws SOProcessException {
+
+        try {
+            super.init(monitor);
+
+            if (this.paramsInExistentLayer != null) {
+
+                init(this.paramsInExistentLayer);
+
+                this.targetLayer = this.paramsInExistentLayer.getTargetLayer();
+
+                this.targetStore = getFeatureStore(this.targetLayer);
+
+            } else if (this.paramsInNewLayer != null) {
+
+                init(this.paramsInNewLayer);
+
+                // create new layer (store and resource) with the feature type required
+                SimpleFeatureType type = this.paramsInNewLayer.getTargetFeatureType();
+
+                this.targetGeoResource = AppGISMediator.createTempGeoResource(type);
+                assert this.targetGeoResource != null;
+
+                this.targetStore = this.targetGeoResource.resolve(FeatureStore.class, monitor);
+
+                this.targetLayer = addLayerToMap(this.map, this.targetGeoResource);
+            }
+            assert this.targetLayer != null;
+            assert this.targetStore != null;
+
+        } catch (IOException e) {
+
+            final String msg = MessageFormat.format(
+                                                    Messages.DissolveProcess_failed_creating_temporal_store,
+                                                    e.getMessage());
+            LOGGER.severe(msg);
+
+            throw new SOProcessException(msg);
+        }
+    }
+
+    /**
+     * Dissolve strategy
+     * <p>
+     * Groups the features and computes the aggregates while the source layer is read, then
+     * unions the geometries of each group and writes the dissolved features.
+     * </p>
+     *
+     * @throws SOProcessException
+     * @throws InterruptedException if the monitor is canceled
+     */
+    @Override
+    public final void run( IProgressMonitor monitor ) throws SOProcessException, InterruptedException {
+
+        boolean completed = false;
+        try {
+            init(monitor);
+
+            final EstimatedProgressMonitor progress = new EstimatedProgressMonitor(monitor);
+            setMonitor(progress);
+
+            final FeatureCountEstimator.Estimate sourceCount = FeatureCountEstimator.estimate(this.featuresInSourceLayer);
+
+            final String msg = MessageFormat.format(Messages.DissolveProcess_dissolving,
+                                                    this.sourceLayer.getName());
+            progress.beginTask(msg, computeCount(sourceCount.getCount()));
+
+            readGroups();
+
+            // the source layer was read, then its estimated count is replaced by the exact one
+            if (!sourceCount.isExact()) {
+                progress.setTotalWork(computeCount(progress.getWorkDone()));
+            }
+
+            final CoordinateReferenceSystem sourceCrs = LayerUtil.getCrs(this.sourceLayer);
+            final ResultSink sink = openResultSink(this.targetStore);
+
+            if (this.spillFiles == null) {
+
+                dissolve(this.pending, sourceCrs);
+
+            } else {
+                spill();
+                closeSpillOutputs();
+
+                for( int i = 0; i < SPILL_FILES; i++ ) {
+                    dissolve(readSpillFile(this.spillFiles[i]), sourceCrs);
+                }
+            }
+            // the groups without geometries have the aggregates only
+            for( Group group : this.groups ) {
+                if (!group.hasGeometry) {
+                    sink.add(createFeature(group, null, sourceCrs));
+                }
+            }
+            closeResultSink();
+            completed = true;
+
+        } catch (InterruptedException e) {
+
+            monitor.subTask(Messages.DissolveProcess_canceled);
+            throw e;
+
+        } catch (OperationCanceledException e) {
+
+            monitor.subTask(Messages.DissolveProcess_canceled);
+            throw new InterruptedException();
+
+        } catch (Exception e) {
+
+            final String exMessage = (e.getMessage() != null) ? e.getMessage() : ""; //$NON-NLS-1$
+            final String emsg = MessageFormat.format(Messages.DissolveProcess_dissolve_fail, exMessage);
+            monitor.subTask(emsg);
+
+            throwException(new SOProcessException(emsg));
+
+        } finally {
+
+            deleteSpillFiles();
+
+            endProcess((Map) this.map, this.targetLayer);
+
+            if (completed) {
+                monitor.subTask(Messages.DissolveProcess_successful);
+            }
+            monitor.done();
+        }
+    }
+
+    /**
+     * One tick to read each feature and one to union it.
+     */
+    private static int computeCount( final int sourceCount ) {
+
+        long count = 2L * (long) sourceCount;
+
+        return (count > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) count;
+    }
+
+    /**
+     * Reads the source features assigning each one to its group
+     *
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    private void readGroups() throws InterruptedException, IOException {
+
+        final java.util.Map<List<Object>, Group> groupByKey = new HashMap<List<Object>, Group>();
+
+        FeatureIterator<SimpleFeature> iter = this.featuresInSourceLayer.features();
+        try {
+            while( iter.hasNext() ) {
+
+                checkCancelation();
+
+                SimpleFeature feature = iter.next();
+
+                Object[] values = new Object[this.dissolveProperties.size()];
+                for( int i = 0; i < values.length; i++ ) {
+                    values[i] = feature.getAttribute(this.dissolveProperties.get(i));
+                }
+                List<Object> key = Arrays.asList(values);
+
+                Group group = groupByKey.get(key);
+                if (group == null) {
+                    group = new Group(this.groups.size(), values, this.aggregates.size());
+                    groupByKey.put(key, group);
+                    this.groups.add(group);
+                }
+                group.aggregate(feature, this.aggregates);
+
+                Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                if (geometry != null) {
+                    group.hasGeometry = true;
+
+                    if (this.geometryFactory == null) {
+                        this.geometryFactory = geometry.getFactory();
+                    }
+
+                    Integer position = Integer.valueOf(group.position);
+                    List<Geometry> geometries = this.pending.get(position);
+                    if (geometries == null) {
+                        geometries = new ArrayList<Geometry>();
+                        this.pending.put(position, geometries);
+                    }
+                    geometries.add(geometry);
+
+                    this.pendingCoordinates += geometry.getNumPoints();
+                    if (this.pendingCoordinates > this.maxCoordinates) {
+                        spill();
+                    }
+                }
+                featuresProcessed(1);
+                getMonitor().worked(1);
+            }
+        } finally {
+            this.featuresInSourceLayer.close(iter);
+        }
+    }
+
+    /**
+     * Writes the geometries in memory to the spill files and clears them
+     *
+     * @throws IOException
+     */
+    private void spill() throws IOException {
+
+        if (this.spillFiles == null) {
+            this.spillFiles = new File[SPILL_FILES];
+            this.spillOutputs = new DataOutputStream[SPILL_FILES];
+            for( int i = 0; i < SPILL_FILES; i++ ) {
+                this.spillFiles[i] = File.createTempFile("dissolve", ".wkb"); //$NON-NLS-1$ //$NON-NLS-2$
+                this.spillOutputs[i] = new DataOutputStream(new BufferedOutputStream(
+                                                                                     new FileOutputStream(this.spillFiles[i])));
+            }
+        }
+        // the z is kept, as the geometries in memory keep it
+        WKBWriter writer = new WKBWriter(3);
+        for( java.util.Map.Entry<Integer, List<Geometry>> entry : this.pending.entrySet() ) {
+
+            final int position = entry.getKey().intValue();
+            DataOutputStream out = this.spillOutputs[position % SPILL_FILES];
+            for( Geometry geometry : entry.getValue() ) {
+                byte[] wkb = writer.write(geometry);
+                out.writeInt(position);
+                out.writeInt(wkb.length);
+                out.write(wkb);
+            }
+        }
+        this.pending.clear();
+        this.pendingCoordinates = 0;
+    }
+
+    /**
+     * @param file
+     * @return the geometries of the spill file by group position
+     * @throws IOException
+     * @throws ParseException
+     */
+    private java.util.Map<Integer, List<Geometry>> readSpillFile( final File file )
+        throws IOException, ParseException, InterruptedException {
+
+        java.util.Map<Integer, List<Geometry>> geometriesByGroup = new HashMap<Integer, List<Geometry>>();
+
+        // WKB does not hold the precision model nor the SRID, they are taken from the source factory
+        WKBReader reader = new WKBReader(this.geometryFactory);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            while( true ) {
+                int position;
+                try {
+                    position = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] wkb = new byte[in.readInt()];
+                in.readFully(wkb);
+
+                Integer key = Integer.valueOf(position);
+                List<Geometry> geometries = geometriesByGroup.get(key);
+                if (geometries == null) {
+                    geometries = new ArrayList<Geometry>();
+                    geometriesByGroup.put(key, geometries);
+                }
+                geometries.add(reader.read(wkb));
+
+                checkCancelation();
+            }
+        } finally {
+            in.close();
+        }
+        return geometriesByGroup;
+    }
+
+    private void closeSpillOutputs() throws IOException {
+
+        if (this.spillOutputs == null) {
+            return;
+        }
+        for( int i = 0; i < this.spillOutputs.length; i++ ) {
+            if (this.spillOutputs[i] != null) {
+                this.spillOutputs[i].close();
+                this.spillOutputs[i] = null;
+            }
+        }
+    }
+
+    private void deleteSpillFiles() {
+
+        try {
+            closeSpillOutputs();
+        } catch (IOException e) {
+            LOGGER.warning(e.getMessage());
+        }
+        if (this.spillFiles == null) {
+            return;
+        }
+        for( File file : this.spillFiles ) {
+            if (file != null && !file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Unions the geometries of each group in parallel and adds the dissolved features to the
+     * result sink in the order of the groups
+     *
+     * @param geometriesByGroup
+     * @param sourceCrs
+     * @throws Exception
+     */
+    private void dissolve( final java.util.Map<Integer, List<Geometry>> geometriesByGroup,
+                           final CoordinateReferenceSystem sourceCrs ) throws Exception {
+
+        if (geometriesByGroup.isEmpty()) {
+            return;
+        }
+        // the threads not used by the groups are used by the union of each group
+        final int unionParallelism = Math.max(1, this.parallelism / geometriesByGroup.size());
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.parallelism,
+                                                                         geometriesByGroup.size()));
+        try {
+            TreeMap<Integer, Future<Geometry>> unions = new TreeMap<Integer, Future<Geometry>>();
+            for( java.util.Map.Entry<Integer, List<Geometry>> entry : geometriesByGroup.entrySet() ) {
+
+                final List<Geometry> geometries = entry.getValue();
+                unions.put(entry.getKey(), executor.submit(new Callable<Geometry>(){
+                    public Geometry call() {
+                        CascadedUnion union = new CascadedUnion();
+                        union.setParallelism(unionParallelism);
+                        for( Geometry geometry : geometries ) {
+                            union.add(geometry);
+                        }
+                        return union.getResult();
+                    }
+                }));
+            }
+            for( java.util.Map.Entry<Integer, Future<Geometry>> entry : unions.entrySet() ) {
+
+                Geometry union = waitForUnion(entry.getValue());
+
+                Group group = this.groups.get(entry.getKey().intValue());
+                getResultSink().add(createFeature(group, union, sourceCrs));
+
+                getMonitor().worked(geometriesByGroup.get(entry.getKey()).size());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Geometry waitForUnion( final Future<Geometry> future ) throws InterruptedException, SOProcessException {
+
+        while( true ) {
+            checkCancelation();
+            try {
+                return future.get(250, TimeUnit.MILLISECONDS);
+
+            } catch (TimeoutException e) {
+                // keeps waiting
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                throw new SOProcessException(cause.getMessage(), cause);
+            }
+        }
+    }
+
+    /**
+     * Creates the dissolved feature of the group
+     *
+     * @param group
+     * @param union the union of the group's geometries on source crs, or null
+     * @param sourceCrs
+     * @return the new feature
+     * @throws Exception
+     */
+    private SimpleFeature createFeature( final Group group, final Geometry union,
+                                         final CoordinateReferenceSystem sourceCrs ) throws Exception {
+
+        final SimpleFeatureType targetType = this.targetStore.getSchema();
+
+        SimpleFeature newFeature = DataUtilities.template(targetType);
+
+        for( int i = 0; i < this.dissolveProperties.size(); i++ ) {
+            setAttribute(newFeature, this.dissolveProperties.get(i), group.values[i]);
+        }
+        for( int i = 0; i < this.aggregates.size(); i++ ) {
+            setAttribute(newFeature, this.aggregates.get(i).getTargetProperty(), group.getAggregate(i,
+                                                                                                    this.aggregates.get(i)));
+        }
+        if (union != null) {
+            Geometry geometry = GeoToolsUtils.reproject(union, sourceCrs, targetType.getDefaultGeometry().getCRS());
+            newFeature.setDefaultGeometry(adjustGeometryAttribute(geometry, newFeature));
+        }
+        return newFeature;
+    }
+
+    /**
+     * Sets the value converted to the binding of the attribute, if the target has it
+     */
+    private static void setAttribute( final SimpleFeature feature, final String name, final Object value ) {
+
+        AttributeDescriptor descriptor = feature.getFeatureType().getAttribute(name);
+        if (descriptor == null || value == null) {
+            return;
+        }
+        feature.setAttribute(name, Converters.convert(value, descriptor.getType().getBinding()));
+    }
+
+    /**
+     * Features with the same values in the dissolve properties and their aggregates
+     */
+    private static final class Group {
+
+        final int      position;
+        final Object[] values;
+        boolean        hasGeometry = false;
+
+        private long   count       = 0;
+        private final double[]     sums;
+        /** true if a value was added to the sum, which is null otherwise */
+        private final boolean[]    summed;
+        private final Comparable[] minimums;
+        private final Comparable[] maximums;
+
+        Group( final int position, final Object[] values, final int aggregateCount ) {
+            this.position = position;
+            this.values = values;
+            this.sums = new double[aggregateCount];
+            this.summed = new boolean[aggregateCount];
+            this.minimums = new Comparable[aggregateCount];
+            this.maximums = new Comparable[aggregateCount];
+        }
+
+        @SuppressWarnings("unchecked")
+        void aggregate( final SimpleFeature feature, final List<DissolveAggregate> aggregates ) {
+
+            this.count++;
+            for( int i = 0; i < aggregates.size(); i++ ) {
+
+                DissolveAggregate aggregate = aggregates.get(i);
+                if (aggregate.getFunction() == DissolveAggregate.Function.COUNT) {
+                    continue;
+                }
+                Object value = feature.getAttribute(aggregate.getSourceProperty());
+                if (value == null) {
+                    continue;
+                }
+                switch( aggregate.getFunction() ) {
+                case SUM:
+                    if (value instanceof Number) {
+                        this.sums[i] += ((Number) value).doubleValue();
+                        this.summed[i] = true;
+                    }
+                    break;
+                case MIN:
+                    if (value instanceof Comparable
+                            && (this.minimums[i] == null || this.minimums[i].compareTo(value) > 0)) {
+                        this.minimums[i] = (Comparable) value;
+                    }
+                    break;
+                case MAX:
+                    if (value instanceof Comparable
+                            && (this.maximums[i] == null || this.maximums[i].compareTo(value) < 0)) {
+                        this.maximums[i] = (Comparable) value;
+                    }
+                    break;
+                default:
+                    assert false; // impossible case
+                }
+            }
+        }
+
+        Object getAggregate( final int i, final DissolveAggregate aggregate ) {
+
+            switch( aggregate.getFunction() ) {
+            case COUNT:
+                return Long.valueOf(this.count);
+            case SUM:
+                return this.summed[i] ? Double.valueOf(this.sums[i]) : null;
+            case MIN:
+                return this.minimums[i];
+            case MAX:
+                return this.maximums[i];
+            default:
+                assert false; // impossible case
+                return null;
+            }
+        }
+    }
+}
@@ -33,5 +33,9 @@ import org.eclipse.jface.operation.IRunnableWithProgress;
  */
 interface ISOProcess extends IRunnableWithProgress{
 
+    /**
+     * @return the number of source features processed since the process was started
+     */
+    long getProcessedFeatureCount();
 
 }
\ No newline at end of file
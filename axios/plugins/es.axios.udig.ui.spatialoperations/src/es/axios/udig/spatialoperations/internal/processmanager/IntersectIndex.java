@@ -0,0 +1,163 @@
+/* Spatial Operations & Editing Tools for uDig
+ *
+ * Axios Engineering under a funding contract with:
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT).
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ *
+ * You can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.spatialoperations.internal.processmanager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.geometry.jts.GeometryCoordinateSequenceTransformer;
+import org.geotools.referencing.CRS;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.OperationNotFoundException;
+import org.opengis.referencing.operation.TransformException;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+import es.axios.udig.ui.commons.util.GeoToolsUtils;
+
+/**
+ * Spatial index over the geometries of the layer used to intersect.
+ * <p>
+ * The geometries are reprojected to the map CRS only once, when the index is built,
+ * and packed into an STRtree by their envelopes. For each geometry of the first
+ * layer only the geometries whose envelopes overlap its envelope are visited, and
+ * the base geometry is prepared so that the intersects test that discards the
+ * remaining pairs is cheap. The intersection itself is only computed for the pairs
+ * that do intersect.
+ * </p>
+ * <p>
+ * The intersections are returned in the order of the features in the indexed
+ * collection, that is, the same order the old nested traversal produced them.
+ * </p>
+ *
+ * @author Mauricio Pazos (www.axios.es)
+ * @since 1.1.0
+ */
+final class IntersectIndex {
+
+    /** the geometries on map crs, in the collection's order */
+    private final List<Geometry> geometries = new ArrayList<Geometry>();
+    private final STRtree        tree       = new STRtree();
+
+    /**
+     * Reprojects the geometries of the features to the map crs and builds the index
+     *
+     * @param features features of the layer used to intersect
+     * @param featuresCrs crs of the features
+     * @param mapCrs crs where the intersections are computed
+     * @param monitor worked once by feature
+     * @throws OperationNotFoundException
+     * @throws TransformException
+     * @throws InterruptedException if the monitor is canceled
+     */
+    public IntersectIndex( final FeatureCollection<SimpleFeatureType, SimpleFeature> features,
+                           final CoordinateReferenceSystem featuresCrs,
+                           final CoordinateReferenceSystem mapCrs,
+                           final IProgressMonitor monitor )
+        throws OperationNotFoundException, TransformException, InterruptedException {
+
+        assert features != null;
+        assert featuresCrs != null;
+        assert mapCrs != null;
+
+        final boolean sameCrs = CRS.equalsIgnoreMetadata(featuresCrs, mapCrs);
+        GeometryCoordinateSequenceTransformer transformer = null;
+
+        FeatureIterator<SimpleFeature> iter = features.features();
+        try {
+            while( iter.hasNext() ) {
+
+                if (monitor.isCanceled()) {
+                    throw new InterruptedException();
+                }
+                SimpleFeature feature = iter.next();
+                Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                if (geometry == null) {
+                    monitor.worked(1);
+                    continue;
+                }
+                if (!sameCrs) {
+                    // the transform is looked up once, not once by feature
+                    if (transformer == null) {
+                        transformer = GeoToolsUtils.getTransformer(geometry.getFactory(), featuresCrs, mapCrs);
+                    }
+                    geometry = transformer.transform(geometry);
+                }
+                Integer position = Integer.valueOf(this.geometries.size());
+                this.geometries.add(geometry);
+                this.tree.insert(geometry.getEnvelopeInternal(), position);
+
+                monitor.worked(1);
+            }
+        } finally {
+            features.close(iter);
+        }
+        this.tree.build();
+    }
+
+    /**
+     * @return the number of indexed geometries
+     */
+    public int size() {
+        return this.geometries.size();
+    }
+
+    /**
+     * Computes the intersections of the base geometry with the indexed geometries
+     *
+     * @param baseGeometry geometry on map crs
+     * @return the non empty intersections, on map crs, in the order of the indexed
+     *         features
+     */
+    @SuppressWarnings("unchecked")
+    public List<Geometry> intersections( final Geometry baseGeometry ) {
+
+        assert baseGeometry != null;
+
+        List<Integer> candidates = this.tree.query(baseGeometry.getEnvelopeInternal());
+        if (candidates.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Collections.sort(candidates);
+
+        PreparedGeometry preparedBase = PreparedGeometryFactory.prepare(baseGeometry);
+
+        List<Geometry> result = new ArrayList<Geometry>(candidates.size());
+        for( Integer position : candidates ) {
+
+            Geometry geometry = this.geometries.get(position);
+            if (preparedBase.intersects(geometry)) {
+
+                result.add(baseGeometry.intersection(geometry));
+            }
+        }
+        return result;
+    }
+}
@@ -16,6 +16,8 @@ package es.axios.udig.spatialoperations.internal.processmanager;
 
 import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Logger;
 
 import net.refractions.udig.catalog.IGeoResource;
@@ -39,6 +41,8 @@ import es.axios.udig.spatialoperations.internal.parameters.IIntersectInExistentL
 import es.axios.udig.spatialoperations.internal.parameters.IIntersectInNewLayerParameters;
 import es.axios.udig.spatialoperations.internal.parameters.IIntersectParameters;
 import es.axios.udig.ui.commons.mediator.AppGISMediator;
+import es.axios.udig.ui.commons.util.EstimatedProgressMonitor;
+import es.axios.udig.ui.commons.util.FeatureCountEstimator;
 import es.axios.udig.ui.commons.util.GeoToolsUtils;
 import es.axios.udig.ui.commons.util.LayerUtil;
 import es.axios.udig.ui.commons.util.MapUtil;
@@ -167,33 +171,54 @@ final class IntersectProcess extends AbstractProcess {
     /**
      * Intersect strategy
      * <p>
-     * Traverses the first layer doing the intersection of each feature in first layer with each
-     * feature in second layer.
+     * Builds a spatial index with the features of second layer, reprojected to the map crs,
+     * then traverses the first layer doing the intersection of each feature in first layer
+     * with the features in second layer that intersect it.
      * </p>
      * 
      * @throws SOProcessException
+     * @throws InterruptedException if the monitor is canceled
      */
     @Override
-    public final void run( IProgressMonitor monitor ) throws SOProcessException {
+    public final void run( IProgressMonitor monitor ) throws SOProcessException, InterruptedException {
         
         FeatureIterator<SimpleFeature> iter = null;
         try {
             init(monitor);
 
-            // Traverses the first layer doing the intersection of each feature in first layer 
-            // with each feature in second layer.
-    
             // gets the crs of map
             final CoordinateReferenceSystem firstLayerCrs = LayerUtil.getCrs(this.firstLayer);
+            final CoordinateReferenceSystem secondLayerCrs = LayerUtil.getCrs(this.secondLayer);
             final CoordinateReferenceSystem mapCrs = MapUtil.getCRS(this.map);
 
-            final int ticks =computeCount(this.featuresInFirstLayer, this.featuresInSecondLayer);         
+            final EstimatedProgressMonitor progress = new EstimatedProgressMonitor(monitor);
+            setMonitor(progress);
+
+            final FeatureCountEstimator.Estimate firstCount = LayerUtil.estimateCountOfSelectedFeatures(this.firstLayer);
+            final FeatureCountEstimator.Estimate secondCount = LayerUtil.estimateCountOfSelectedFeatures(this.secondLayer);
+
+            final int ticks =computeCount(firstCount.getCount(), secondCount.getCount());         
             final String msg = MessageFormat.format(
                                     Messages.IntersectProcess_intersectin_with,
                                     this.firstLayer.getName(), this.secondLayer.getName());
-            monitor.beginTask(msg, ticks);
-
+            progress.beginTask(msg, ticks);
+
+            // the second layer is reprojected and indexed once 
+            IntersectIndex index = new IntersectIndex(
+                                            this.featuresInSecondLayer,
+                                            secondLayerCrs,
+                                            mapCrs,
+                                            progress);
+            checkCancelation();
+
+            // the second layer was read, then its estimated count is replaced by the exact one
+            if (!secondCount.isExact()) {
+                progress.setTotalWork(computeCount(firstCount.getCount(), progress.getWorkDone()));
+            }
 
+            // Traverses the first layer doing the intersection of each feature in first layer 
+            // with the features in second layer.
+            openResultSink(this.targetStore);
             iter = featuresInFirstLayer.features();
             while( iter.hasNext() ) {
 
@@ -204,14 +229,21 @@ final class IntersectProcess extends AbstractProcess {
                 Geometry featureGeometry = (Geometry) featureInFirstLayer.getDefaultGeometry();
                 
                 createIntersectionFeaturesUsingGeomety(
-                                      this.featuresInSecondLayer, 
+                                      index, 
                                       featureGeometry,
                                       firstLayerCrs, 
                                       this.targetStore, 
                                       mapCrs);
-                monitor.worked(1);
+                featuresProcessed(1);
+                progress.worked(1);
             }
+            closeResultSink();
             
+        } catch (InterruptedException e) {
+
+            monitor.subTask(Messages.IntersectProcess_canceled);
+            throw e;
+
         } catch (Exception e) {
         
             final String exMessage = (e.getMessage()!= null)? e.getMessage():""; //$NON-NLS-1$
@@ -233,83 +265,74 @@ final class IntersectProcess extends AbstractProcess {
         }
     }
     
-    private int computeCount(FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInFirst, FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInSecond) {
-        int count;
-        try{
-            count = featuresInFirst.size() * featuresInSecond.size();
-        }catch(ArithmeticException e ){
-            
-            count = Integer.MAX_VALUE;
-        }
-        return count;
+    /**
+     * One tick to index each feature of second layer and one to intersect 
+     * each feature of first layer.
+     */
+    private static int computeCount(final int featuresInFirst, final int featuresInSecond) {
+
+        long count = (long)featuresInFirst + (long)featuresInSecond;
+        
+        return (count > Integer.MAX_VALUE)? Integer.MAX_VALUE : (int)count;
     }
     
 
     /**
      * Creates new features using the intersection between the baseGeometry 
-     * and the geometries of featuresInSecondLayer.
+     * and the geometries of the indexed second layer.
      *
-     * @param featuresInSecondLayer features used to intersect
+     * @param index                 index of the features used to intersect
      * @param baseGeometry          geometry used to interscect the features on second layer
-     * @param targetFeatureType     feature type used to create the new intersection features
+     * @param baseGeomCrs           crs of the base geometry
+     * @param store                 store where the new intersection features are added
+     * @param mapCrs                crs of the index
      * 
-     * @return list of new intersection features
      * @throws SOProcessException 
      */
     private final void createIntersectionFeaturesUsingGeomety( 
-            final FeatureCollection<SimpleFeatureType, SimpleFeature>         featuresInSecondLayer, 
+            final IntersectIndex            index, 
             final Geometry                  baseGeometry, final CoordinateReferenceSystem baseGeomCrs,
             final FeatureStore<SimpleFeatureType, SimpleFeature>              store,
-            final CoordinateReferenceSystem mapCrs) throws SOProcessException {
+            final CoordinateReferenceSystem mapCrs) throws SOProcessException, InterruptedException {
 
-        assert featuresInSecondLayer != null;
+        assert index != null;
         assert baseGeometry != null;
         assert store != null;
         
-        // gets the crs of each layer and map to make the intersect geometries
-        final CoordinateReferenceSystem secondLayerCrs = LayerUtil.getCrs(this.secondLayer);
-        
         final SimpleFeatureType featureType = this.targetStore.getSchema();
         final CoordinateReferenceSystem targetLayerCrs = featureType.getDefaultGeometry()
                                                                         .getCRS();
-
-        IProgressMonitor monitor = getMonitor();
-        
-        FeatureIterator<SimpleFeature> iter = null;
         try {
 
             // project the base geometry to map
             Geometry baseGeomOnMapCrs = GeoToolsUtils.reproject(baseGeometry, baseGeomCrs, mapCrs);
             
-            // First does the graphic operations and creates a command 
-            // for each feature intersected finally executes all command.
-            iter = featuresInSecondLayer.features();
-            while( iter.hasNext() ) {
+            // makes the intersections on map crs with the candidates retrieved from index
+            List<Geometry> intersections = index.intersections(baseGeomOnMapCrs);
+            if(intersections.isEmpty()){
+                return;
+            }
+            List<SimpleFeature> newFeatures = new ArrayList<SimpleFeature>(intersections.size());
+            for( Geometry intersectionOnMapCrs : intersections ) {
 
                 checkCancelation();
 
-                SimpleFeature featureInSecondLayer = iter.next();
-
-                Geometry featureGeometry = (Geometry) featureInSecondLayer.getDefaultGeometry();
-                Geometry featureGeomOnMapCrs = GeoToolsUtils.reproject(featureGeometry, secondLayerCrs, mapCrs);
-
-                if (baseGeomOnMapCrs.intersects(featureGeomOnMapCrs)) {
-
-                    // makes the intersection on map crs 
-                    Geometry intersectionOnMapCrs = baseGeomOnMapCrs.intersection(featureGeomOnMapCrs);
-                    
-                    Geometry intersectionGeometry = GeoToolsUtils.reproject(intersectionOnMapCrs, mapCrs, targetLayerCrs);
-                    
-                    // adds the feature in the store associate to layer                    
-                    SimpleFeature newFeature = DataUtilities.template(featureType);
+                Geometry intersectionGeometry = GeoToolsUtils.reproject(intersectionOnMapCrs, mapCrs, targetLayerCrs);
+                
+                SimpleFeature newFeature = DataUtilities.template(featureType);
 
-                    Geometry finalIntersection = adjustGeometryAttribute(intersectionGeometry, newFeature);
-                    newFeature.setDefaultGeometry(finalIntersection);
-                    
-                    store.addFeatures(DataUtilities.collection(new SimpleFeature[]{newFeature}));
-                }
-                monitor.worked(1);
+                Geometry finalIntersection = adjustGeometryAttribute(intersectionGeometry, newFeature);
+                newFeature.setDefaultGeometry(finalIntersection);
+                
+                newFeatures.add(newFeature);
             }
+            // adds the features in the store associate to layer                    
+            for( SimpleFeature newFeature : newFeatures ) {
+                getResultSink().add(newFeature);
+            }
+
+        } catch (InterruptedException e) {
+            throw e;
 
         } catch (Exception e) {
             
@@ -319,10 +342,6 @@ final class IntersectProcess extends AbstractProcess {
             
             throwException( new SOProcessException(emsg) );
             
-        } finally {
-            if (iter != null) {
-                featuresInSecondLayer.close(iter);
-            }
         }
     }
 
@@ -0,0 +1,353 @@
+/* Spatial Operations & Editing Tools for uDig
+ *
+ * Axios Engineering under a funding contract with:
+ *      Diputación Foral de Gipuzkoa, Ordenación Territorial
+ *
+ *      http://b5m.gipuzkoa.net
+ *      http://www.axios.es
+ *
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial (DFG-OT).
+ * DFG-OT agrees to licence under Lesser General Public License (LGPL).
+ *
+ * You can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software
+ * Foundation; version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.spatialoperations.internal.processmanager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+import es.axios.udig.spatialoperations.internal.parameters.SpatialRelation;
+
+/**
+ * Spatial join of a stream of geometries against a set of geometries partitioned by a grid.
+ * <p>
+ * The second set is indexed once by {@link #build()}: a regular grid covers its envelope,
+ * sized to have about <code>partitionSize</code> geometries by cell, each geometry is assigned
+ * to every cell its envelope overlaps and the geometries of each cell are indexed in an
+ * STRtree. Only the geometries of the second set are kept. The geometries of the first set
+ * are then joined in batches by {@link #join}, so the caller only needs to hold one batch of
+ * them: each one is prepared and tested against the candidates of the cells its envelope
+ * overlaps (expanded by the distance for {@link SpatialRelation#DWITHIN}). A pair found in more
+ * than one cell is only reported by the cell that contains the lower left corner of the
+ * intersection of both envelopes.
+ * </p>
+ * <p>
+ * A batch is split in as many consecutive slices as threads, joined on a pool of threads, and
+ * the pairs are delivered to the {@link PairHandler} on the caller thread sorted by the
+ * positions of the geometries.
+ * </p>
+ *
+ * @author Mauricio Pazos (www.axios.es)
+ * @author Gabriel Roldan (www.axios.es)
+ * @since 1.1.0
+ */
+final class PartitionedSpatialJoin {
+
+    public static final int DEFAULT_PARTITION_SIZE = 1024;
+
+    /**
+     * Receives the pairs of geometries which fulfil the relation
+     */
+    interface PairHandler {
+        /**
+         * @param first position of the geometry in the first set
+         * @param second position of the geometry in the second set
+         * @throws SOProcessException
+         */
+        void join( int first, int second ) throws SOProcessException;
+    }
+
+    private final List<Geometry> secondGeometries;
+    private final SpatialRelation relation;
+    private final double          distance;
+
+    private int                   parallelism   = 1;
+    private int                   partitionSize = DEFAULT_PARTITION_SIZE;
+
+    // the grid, null until it is built
+    private Envelope              extent;
+    private int                   cellsByAxis;
+    private double                cellWidth;
+    private double                cellHeight;
+    private STRtree[]             cells;
+
+    /**
+     * @param secondGeometries geometries of the second set, on the same crs than the first
+     * @param relation relation evaluated from the first geometry to the second geometry
+     * @param distance distance used by {@link SpatialRelation#DWITHIN}
+     */
+    public PartitionedSpatialJoin( final List<Geometry> secondGeometries,
+                                   final SpatialRelation relation,
+                                   final double distance ) {
+
+        assert secondGeometries != null;
+        assert relation != null;
+
+        this.secondGeometries = secondGeometries;
+        this.relation = relation;
+        this.distance = (relation == SpatialRelation.DWITHIN) ? distance : 0;
+    }
+
+    /**
+     * @param parallelism number of threads used to join each batch
+     */
+    public void setParallelism( final int parallelism ) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * @param partitionSize the expected number of geometries of the second set by cell
+     */
+    public void setPartitionSize( final int partitionSize ) {
+        this.partitionSize = Math.max(1, partitionSize);
+    }
+
+    /**
+     * Builds the grid, assigns the geometries of the second set to the cells and indexes
+     * them. The second set must not change after this.
+     */
+    public void build() {
+
+        final int count = this.secondGeometries.size();
+        this.cellsByAxis = Math.max(1, (int) Math.ceil(Math.sqrt((double) count / this.partitionSize)));
+        this.cells = new STRtree[this.cellsByAxis * this.cellsByAxis];
+        this.extent = new Envelope();
+        for( Geometry geometry : this.secondGeometries ) {
+            this.extent.expandToInclude(geometry.getEnvelopeInternal());
+        }
+        this.cellWidth = this.extent.getWidth() / this.cellsByAxis;
+        this.cellHeight = this.extent.getHeight() / this.cellsByAxis;
+
+        for( int i = 0; i < count; i++ ) {
+            final Envelope envelope = this.secondGeometries.get(i).getEnvelopeInternal();
+
+            for( int row = row(envelope.getMinY()); row <= row(envelope.getMaxY()); row++ ) {
+                for( int col = column(envelope.getMinX()); col <= column(envelope.getMaxX()); col++ ) {
+                    final int cell = row * this.cellsByAxis + col;
+                    if (this.cells[cell] == null) {
+                        this.cells[cell] = new STRtree();
+                    }
+                    this.cells[cell].insert(envelope, Integer.valueOf(i));
+                }
+            }
+        }
+        // the trees are built here, so they are only read by the threads of the join
+        for( STRtree tree : this.cells ) {
+            if (tree != null) {
+                tree.build();
+            }
+        }
+    }
+
+    /**
+     * Joins a batch of geometries of the first set with the second set, building the index of
+     * the second set if it was not built.
+     *
+     * @param firstGeometries the batch
+     * @param firstOffset position in the first set of the first geometry of the batch
+     * @param monitor only used to check the cancelation
+     * @param handler receives the pairs on the caller thread
+     * @throws InterruptedException if the monitor is canceled
+     * @throws SOProcessException if the join fails or the handler throws it
+     */
+    public void join( final List<Geometry> firstGeometries, final int firstOffset,
+                      final IProgressMonitor monitor, final PairHandler handler )
+        throws InterruptedException, SOProcessException {
+
+        if (this.cells == null) {
+            build();
+        }
+        if (firstGeometries.isEmpty() || this.secondGeometries.isEmpty()) {
+            return;
+        }
+        final int slices = Math.min(this.parallelism, firstGeometries.size());
+        final int sliceSize = (firstGeometries.size() + slices - 1) / slices;
+
+        List<int[]> results = new ArrayList<int[]>(slices);
+        if (slices == 1) {
+            results.add(joinSlice(firstGeometries, firstOffset));
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(slices);
+            try {
+                List<Future<int[]>> pending = new ArrayList<Future<int[]>>(slices);
+                for( int from = 0; from < firstGeometries.size(); from += sliceSize ) {
+
+                    final List<Geometry> slice = firstGeometries.subList(from, Math.min(from + sliceSize,
+                                                                                        firstGeometries.size()));
+                    final int sliceOffset = firstOffset + from;
+                    pending.add(executor.submit(new Callable<int[]>(){
+                        public int[] call() {
+                            return joinSlice(slice, sliceOffset);
+                        }
+                    }));
+                }
+                for( Future<int[]> future : pending ) {
+                    results.add(waitFor(future, monitor));
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        for( int[] pairs : results ) {
+            for( int i = 0; i < pairs.length; i += 2 ) {
+                handler.join(pairs[i], pairs[i + 1]);
+            }
+        }
+    }
+
+    private int[] waitFor( final Future<int[]> future, final IProgressMonitor monitor )
+        throws InterruptedException, SOProcessException {
+
+        while( true ) {
+            if (monitor.isCanceled()) {
+                throw new InterruptedException();
+            }
+            try {
+                return future.get(250, TimeUnit.MILLISECONDS);
+
+            } catch (TimeoutException e) {
+                // keeps waiting
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                throw new SOProcessException(cause.getMessage(), cause);
+            }
+        }
+    }
+
+    private int column( final double x ) {
+        if (this.cellWidth <= 0) {
+            return 0;
+        }
+        int col = (int) ((x - this.extent.getMinX()) / this.cellWidth);
+        return Math.max(0, Math.min(this.cellsByAxis - 1, col));
+    }
+
+    private int row( final double y ) {
+        if (this.cellHeight <= 0) {
+            return 0;
+        }
+        int row = (int) ((y - this.extent.getMinY()) / this.cellHeight);
+        return Math.max(0, Math.min(this.cellsByAxis - 1, row));
+    }
+
+    /**
+     * @return the envelope of the geometry expanded by the distance
+     */
+    private Envelope expanded( final Geometry geometry ) {
+
+        Envelope envelope = geometry.getEnvelopeInternal();
+        if (this.distance > 0) {
+            envelope = new Envelope(envelope);
+            envelope.expandBy(this.distance);
+        }
+        return envelope;
+    }
+
+    /**
+     * Joins the geometries of the slice with the geometries of the cells they overlap
+     *
+     * @param slice consecutive geometries of the first set
+     * @param offset position in the first set of the first geometry of the slice
+     * @return the pairs as consecutive positions (first, second), sorted
+     */
+    @SuppressWarnings("unchecked")
+    private int[] joinSlice( final List<Geometry> slice, final int offset ) {
+
+        long[] pairs = new long[16];
+        int pairCount = 0;
+        for( int i = 0; i < slice.size(); i++ ) {
+
+            final Geometry firstGeometry = slice.get(i);
+            final Envelope firstEnvelope = expanded(firstGeometry);
+            if (!firstEnvelope.intersects(this.extent)) {
+                continue;
+            }
+            PreparedGeometry prepared = null;
+            for( int row = row(firstEnvelope.getMinY()); row <= row(firstEnvelope.getMaxY()); row++ ) {
+                for( int col = column(firstEnvelope.getMinX()); col <= column(firstEnvelope.getMaxX()); col++ ) {
+
+                    final int cell = row * this.cellsByAxis + col;
+                    if (this.cells[cell] == null) {
+                        continue;
+                    }
+                    List<Integer> candidates = this.cells[cell].query(firstEnvelope);
+                    for( Integer second : candidates ) {
+
+                        Geometry secondGeometry = this.secondGeometries.get(second);
+                        Envelope secondEnvelope = secondGeometry.getEnvelopeInternal();
+
+                        // the pair is reported by the cell of the reference point only
+                        double refX = Math.max(firstEnvelope.getMinX(), secondEnvelope.getMinX());
+                        double refY = Math.max(firstEnvelope.getMinY(), secondEnvelope.getMinY());
+                        if (row(refY) * this.cellsByAxis + column(refX) != cell) {
+                            continue;
+                        }
+                        if (prepared == null && this.relation != SpatialRelation.DWITHIN) {
+                            prepared = PreparedGeometryFactory.prepare(firstGeometry);
+                        }
+                        if (evaluate(prepared, firstGeometry, secondGeometry)) {
+                            if (pairCount == pairs.length) {
+                                pairs = copyOf(pairs, pairCount * 2);
+                            }
+                            pairs[pairCount++] = ((long) (offset + i) << 32) | second.intValue();
+                        }
+                    }
+                }
+            }
+        }
+        Arrays.sort(pairs, 0, pairCount);
+
+        int[] result = new int[pairCount * 2];
+        for( int i = 0; i < pairCount; i++ ) {
+            result[2 * i] = (int) (pairs[i] >>> 32);
+            result[2 * i + 1] = (int) pairs[i];
+        }
+        return result;
+    }
+
+    private boolean evaluate( final PreparedGeometry prepared, final Geometry first, final Geometry second ) {
+
+        switch( this.relation ) {
+        case INTERSECTS:
+            return prepared.intersects(second);
+        case CONTAINS:
+            return prepared.contains(second);
+        case WITHIN:
+            return prepared.within(second);
+        case DWITHIN:
+            return first.isWithinDistance(second, this.distance);
+        default:
+            assert false; // impossible case
+            return false;
+        }
+    }
+
+    private static long[] copyOf( final long[] array, final int length ) {
+        long[] copy = new long[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+}
@@ -0,0 +1,319 @@
+/* uDig-Spatial Operations plugins
+ * http://b5m.gipuzkoa.net
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation;
+ * version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.spatialoperations.internal.processmanager;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.DefaultTransaction;
+import org.geotools.data.FeatureStore;
+import org.geotools.data.Transaction;
+import org.geotools.factory.CommonFactoryFinder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.identity.FeatureId;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+import es.axios.udig.spatialoperations.internal.i18n.Messages;
+
+/**
+ * Buffers the features produced by a process and adds them to the target store in batches.
+ * <p>
+ * A batch is added with one call to {@link FeatureStore#addFeatures} when it holds
+ * {@link #getBatchSize()} features. All the batches are written in the same transaction: if
+ * the store is in auto commit mode the sink uses its own transaction, committed by
+ * {@link #close()} and rolled back by {@link #abort()}; otherwise the store's transaction is
+ * used and it is committed by the owner of the store, see {@link AbstractProcess#endProcess}.
+ * In that case the sink keeps the ids of the features it has added and {@link #abort()}
+ * removes them, so the owner does not commit the batches written before a failure.
+ * </p>
+ * <p>
+ * The sink keeps the number of batches, features and bytes written and the time spent
+ * writing them, to tune the batch size for each kind of store. The bytes are estimated from
+ * the coordinates and the attribute values.
+ * </p>
+ *
+ * @author Mauricio Pazos (www.axios.es)
+ * @author Gabriel Roldan (www.axios.es)
+ * @since 1.1.0
+ */
+final class ResultSink {
+
+    private static final Logger                                  LOGGER           = Logger.getLogger(ResultSink.class.getName());
+
+    private final FeatureStore<SimpleFeatureType, SimpleFeature> store;
+    private final int                                            batchSize;
+    private final List<SimpleFeature>                            batch;
+
+    /** the transaction created by the sink, null if it uses the store's transaction */
+    private Transaction                                          transaction      = null;
+    /** ids of the features added in the store's transaction, removed if the sink is aborted */
+    private final Set<String>                                    addedFids        = new HashSet<String>();
+    private boolean                                              closed           = false;
+
+    private long                                                 batches          = 0;
+    private long                                                 features         = 0;
+    private long                                                 bytes            = 0;
+    private long                                                 writeMillis      = 0;
+
+    /**
+     * @param store the target store
+     * @param batchSize number of features added by each call to the store
+     */
+    ResultSink( final FeatureStore<SimpleFeatureType, SimpleFeature> store, final int batchSize ) {
+
+        assert store != null;
+
+        this.store = store;
+        this.batchSize = Math.max(1, batchSize);
+        this.batch = new ArrayList<SimpleFeature>(this.batchSize);
+
+        if (store.getTransaction() == Transaction.AUTO_COMMIT) {
+            Transaction newTransaction = new DefaultTransaction();
+            try {
+                store.setTransaction(newTransaction);
+                this.transaction = newTransaction;
+
+            } catch (RuntimeException e) {
+                // the store does not allow to change its transaction, then each batch is
+                // committed by the store
+                LOGGER.warning(e.getMessage());
+                closeTransaction(newTransaction);
+            }
+        }
+    }
+
+    /**
+     * @return the number of features added by each call to the store
+     */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * Adds the feature to the current batch, the batch is written if it is full
+     *
+     * @param feature
+     * @throws SOProcessException if the batch can not be added to the store
+     */
+    public void add( final SimpleFeature feature ) throws SOProcessException {
+
+        assert !this.closed;
+
+        this.batch.add(feature);
+        if (this.batch.size() >= this.batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Adds the features of the current batch to the store
+     *
+     * @throws SOProcessException if the batch can not be added to the store
+     */
+    public void flush() throws SOProcessException {
+
+        if (this.batch.isEmpty()) {
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        try {
+            Set<String> fids = this.store.addFeatures(DataUtilities.collection(this.batch.toArray(new SimpleFeature[this.batch.size()])));
+            if (this.transaction == null) {
+                this.addedFids.addAll(fids);
+            }
+
+        } catch (IOException e) {
+            final String msg = MessageFormat.format(Messages.ResultSink_failed_adding_features, e.getMessage());
+            throw new SOProcessException(msg, e);
+        }
+        this.writeMillis += System.currentTimeMillis() - start;
+        this.batches++;
+        this.features += this.batch.size();
+        for( SimpleFeature feature : this.batch ) {
+            this.bytes += estimateBytes(feature);
+        }
+        this.batch.clear();
+    }
+
+    /**
+     * Writes the pending features and commits the transaction of the sink, if it has one
+     *
+     * @throws SOProcessException if the features can not be added or committed
+     */
+    public void close() throws SOProcessException {
+
+        if (this.closed) {
+            return;
+        }
+        flush();
+        if (this.transaction != null) {
+            final long start = System.currentTimeMillis();
+            try {
+                this.transaction.commit();
+
+            } catch (IOException e) {
+                final String msg = MessageFormat.format(Messages.ResultSink_failed_adding_features, e.getMessage());
+                throw new SOProcessException(msg, e);
+            } finally {
+                this.writeMillis += System.currentTimeMillis() - start;
+                release();
+            }
+        }
+        this.closed = true;
+        this.addedFids.clear();
+
+        LOGGER.info(toString());
+    }
+
+    /**
+     * Discards the pending features and rolls back the transaction of the sink, if it has one,
+     * or removes the features added in the store's transaction. It does nothing if the sink
+     * was closed.
+     */
+    public void abort() {
+
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.batch.clear();
+        if (this.transaction == null) {
+            removeAdded();
+        } else {
+            try {
+                this.transaction.rollback();
+            } catch (IOException e) {
+                LOGGER.severe(e.getMessage());
+            } finally {
+                release();
+            }
+        }
+    }
+
+    /**
+     * @return the number of calls to {@link FeatureStore#addFeatures}
+     */
+    public long getBatchCount() {
+        return this.batches;
+    }
+
+    /**
+     * @return the number of features written
+     */
+    public long getFeatureCount() {
+        return this.features;
+    }
+
+    /**
+     * @return the estimated number of bytes written
+     */
+    public long getByteCount() {
+        return this.bytes;
+    }
+
+    /**
+     * @return the milliseconds spent adding the features and committing the transaction
+     */
+    public long getWriteMillis() {
+        return this.writeMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ResultSink[" + this.store.getSchema().getTypeName() //$NON-NLS-1$
+               + ": batchSize=" + this.batchSize //$NON-NLS-1$
+               + ", batches=" + this.batches //$NON-NLS-1$
+               + ", features=" + this.features //$NON-NLS-1$
+               + ", bytes=" + this.bytes //$NON-NLS-1$
+               + ", ms=" + this.writeMillis + "]"; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * Removes from the store the features added by the sink in the store's transaction
+     */
+    private void removeAdded() {
+
+        if (this.addedFids.isEmpty()) {
+            return;
+        }
+        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+        Set<FeatureId> ids = new HashSet<FeatureId>(this.addedFids.size());
+        for( String fid : this.addedFids ) {
+            ids.add(ff.featureId(fid));
+        }
+        Filter filter = ff.id(ids);
+        try {
+            this.store.removeFeatures(filter);
+
+        } catch (IOException e) {
+            LOGGER.severe(e.getMessage());
+        } finally {
+            this.addedFids.clear();
+        }
+    }
+
+    /**
+     * Returns the store to auto commit mode and closes the transaction of the sink
+     */
+    private void release() {
+
+        try {
+            this.store.setTransaction(Transaction.AUTO_COMMIT);
+        } finally {
+            closeTransaction(this.transaction);
+            this.transaction = null;
+        }
+    }
+
+    private static void closeTransaction( final Transaction transaction ) {
+        try {
+            transaction.close();
+        } catch (IOException e) {
+            LOGGER.severe(e.getMessage());
+        }
+    }
+
+    /**
+     * Estimates the bytes of the feature: 16 bytes by coordinate, 2 by character and 8 by any
+     * other value.
+     */
+    private static long estimateBytes( final SimpleFeature feature ) {
+
+        long size = 0;
+        for( Object value : feature.getAttributes() ) {
+            if (value == null) {
+                continue;
+            }
+            if (value instanceof Geometry) {
+                size += 16L * ((Geometry) value).getNumPoints();
+            } else if (value instanceof CharSequence) {
+                size += 2L * ((CharSequence) value).length();
+            } else {
+                size += 8;
+            }
+        }
+        return size;
+    }
+}
@@ -14,22 +14,30 @@
  */
 package es.axios.udig.spatialoperations.internal.processmanager;
 
+import net.refractions.udig.catalog.IGeoResource;
+import net.refractions.udig.project.ILayer;
+
 import es.axios.udig.spatialoperations.internal.i18n.Messages;
+import es.axios.udig.spatialoperations.internal.parameters.IBufferInExistentLayerParameters;
 import es.axios.udig.spatialoperations.internal.parameters.IBufferParameters;
+import es.axios.udig.spatialoperations.internal.parameters.IClipInExistentLayerParameters;
 import es.axios.udig.spatialoperations.internal.parameters.IClipParameters;
+import es.axios.udig.spatialoperations.internal.parameters.IDisolveParameters;
+import es.axios.udig.spatialoperations.internal.parameters.IDissolveInExistentLayerParameters;
+import es.axios.udig.spatialoperations.internal.parameters.IIntersectInExistentLayerParameters;
 import es.axios.udig.spatialoperations.internal.parameters.IIntersectParameters;
-import es.axios.udig.ui.commons.util.DialogUtil;
+import es.axios.udig.spatialoperations.internal.parameters.ISpatialJoinGeomInExistentLayerParameters;
+import es.axios.udig.spatialoperations.internal.parameters.ISpatialJoinGeomParameters;
+import es.axios.udig.spatialoperations.internal.preferences.Preferences;
 
 /**
  * Facade for spatial operation processes.
  * <p>
  * This class implement the methods to execute the spatial operations.
- * 
+ * The processes run as background jobs, see {@link SOProcessScheduler}, so the user can
+ * inspect their status (running, finished, progress) in the progress view and is informed
+ * if a process fails.
  * </p>
- * TODO The process fail exception require to be improved. 
- * Now, if the precess fail the user is not informed.
- * Thinking that this processes are asynchSronous an special 
- * mechanism will be required like an ProcessMonitor with its view (or panel in process). Then the user could inspect the status (running, finished, progress ) of all process.  
  * 
  * 
  * @author Mauricio Pazos (www.axios.es)
@@ -38,6 +46,7 @@ import es.axios.udig.ui.commons.util.DialogUtil;
  */
 public final class SOProcessManager {
     
+    private static final SOProcessScheduler SCHEDULER = new SOProcessScheduler(1);
     
     /**
      * Runs the buffer process 
@@ -47,9 +56,25 @@ public final class SOProcessManager {
      */
     static public void bufferOperation( final IBufferParameters params ) throws SOProcessException{
         
-        final ISOProcess process = new BufferProcess(params);
+        bufferOperation(params, 1);
+    }
+    
+    /**
+     * Runs the buffer process computing the buffers with the number of threads indicated
+     * 
+     * @param params implementation of IBufferParameters
+     * @param parallelism number of threads used to compute the buffers
+     * @throws SOProcessException 
+     */
+    static public void bufferOperation( final IBufferParameters params, final int parallelism ) throws SOProcessException{
+        
+        final BufferProcess process = new BufferProcess(params);
+        process.setParallelism(parallelism);
+
+        ILayer target = (params instanceof IBufferInExistentLayerParameters)
+                ? ((IBufferInExistentLayerParameters) params).getTargetLayer() : null;
 
-        run(Messages.SpatialOperationProcessManager_buffer_process, process );
+        run(Messages.SpatialOperationProcessManager_buffer_process, process, target);
     }
     
     
@@ -63,7 +88,10 @@ public final class SOProcessManager {
 
         final ISOProcess process = new IntersectProcess(params);
 
-        run(Messages.SpatialOperationProcessManager_intersect_process, process);
+        ILayer target = (params instanceof IIntersectInExistentLayerParameters)
+                ? ((IIntersectInExistentLayerParameters) params).getTargetLayer() : null;
+
+        run(Messages.SpatialOperationProcessManager_intersect_process, process, target);
     
     }
 
@@ -78,7 +106,81 @@ public final class SOProcessManager {
         
         final ISOProcess process = new ClipProcess(params);
 
-        run(Messages.SpatialOperationProcessManager_clip_process, process);
+        ILayer target = (params instanceof IClipInExistentLayerParameters)
+                ? ((IClipInExistentLayerParameters) params).getTargetLayer() : null;
+
+        run(Messages.SpatialOperationProcessManager_clip_process, process, target);
+    }
+
+
+    /**
+     * Runs the spatial join process using a thread by available processor
+     *
+     * @param params implementation of ISpatialJoinGeomParameters
+     * @throws SOProcessException 
+     */
+    static public void spatialJoinOperation( final ISpatialJoinGeomParameters params ) throws SOProcessException {
+        
+        spatialJoinOperation(params, Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * Runs the spatial join process joining the partitions with the number of threads indicated
+     *
+     * @param params implementation of ISpatialJoinGeomParameters
+     * @param parallelism number of threads used to join the partitions
+     * @throws SOProcessException 
+     */
+    static public void spatialJoinOperation( final ISpatialJoinGeomParameters params, final int parallelism ) throws SOProcessException {
+        
+        final SpatialJoinProcess process = new SpatialJoinProcess(params);
+        process.setParallelism(parallelism);
+
+        ILayer target = (params instanceof ISpatialJoinGeomInExistentLayerParameters)
+                ? ((ISpatialJoinGeomInExistentLayerParameters) params).getTargetLayer() : null;
+
+        run(Messages.SpatialOperationProcessManager_spatial_join_process, process, target);
+    }
+
+
+    /**
+     * Runs the dissolve process using a thread by available processor
+     *
+     * @param params implementation of IDisolveParameters
+     * @throws SOProcessException 
+     */
+    static public void dissolveOperation( final IDisolveParameters params ) throws SOProcessException {
+        
+        dissolveOperation(params, Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * Runs the dissolve process doing the union of the groups with the number of threads indicated
+     *
+     * @param params implementation of IDisolveParameters
+     * @param parallelism number of threads used to union the groups
+     * @throws SOProcessException 
+     */
+    static public void dissolveOperation( final IDisolveParameters params, final int parallelism ) throws SOProcessException {
+        
+        final DissolveProcess process = new DissolveProcess(params);
+        process.setParallelism(parallelism);
+
+        ILayer target = (params instanceof IDissolveInExistentLayerParameters)
+                ? ((IDissolveInExistentLayerParameters) params).getTargetLayer() : null;
+
+        run(Messages.SpatialOperationProcessManager_dissolve_process, process, target);
+    }
+
+
+    /**
+     * Waits until the scheduled processes have finished
+     *
+     * @throws InterruptedException
+     */
+    static public void waitForProcesses() throws InterruptedException {
+
+        SCHEDULER.join();
     }
 
 
@@ -87,12 +189,16 @@ public final class SOProcessManager {
      *
      * @param processName
      * @param process
+     * @param targetLayer existent layer written by the process, null if the process creates a
+     *        new layer; the processes on the same target run one by one
      * @throws SOProcessException 
      */
-    static private void run( final String processName, final ISOProcess process) throws SOProcessException {
+    static private void run( final String processName, final ISOProcess process, final ILayer targetLayer ) throws SOProcessException {
 
-        DialogUtil.runInProgressDialog(processName, true, process, true, true);
-        
+        final IGeoResource target = (targetLayer != null) ? targetLayer.getGeoResource() : null;
+
+        SCHEDULER.setParallelism(Preferences.processParallelism());
+        SCHEDULER.schedule(processName, process, target);
     }
    
 }
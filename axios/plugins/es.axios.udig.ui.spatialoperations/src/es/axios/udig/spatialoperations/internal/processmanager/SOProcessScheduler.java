@@ -0,0 +1,292 @@
+/* uDig-Spatial Operations plugins
+ * http://b5m.gipuzkoa.net
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation;
+ * version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.spatialoperations.internal.processmanager;
+
+import java.lang.reflect.InvocationTargetException;
+import java.text.MessageFormat;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import net.refractions.udig.catalog.IGeoResource;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
+
+import es.axios.udig.spatialoperations.Activator;
+import es.axios.udig.spatialoperations.internal.i18n.Messages;
+
+/**
+ * Runs the spatial operation processes as background jobs.
+ * <p>
+ * The processes are queued and started in order, with no more than {@link #getParallelism()}
+ * processes running at the same time. The user can keep working while they run and can see
+ * them in the progress view. When a job ends its throughput, in source features by second, is
+ * logged and reported in the job's result.
+ * </p>
+ * <p>
+ * Only the processes which write the same target resource are run one by one: a pending
+ * process is not started while other process on its target is running, and each job has a
+ * {@link TargetRule} so it does not run at the same time as other jobs on its target either.
+ * The processes which create a new layer do not conflict with any other. Processes on the
+ * same map share its edit transaction, which each one commits when it finishes, see
+ * {@link AbstractProcess#endProcess}; a failed process removes the features it has added to
+ * that transaction, see {@link ResultSink#abort()}, so the commit of other process does not
+ * keep them.
+ * </p>
+ * <p>
+ * A failed process ends its job with an error status holding the failure, which is shown to
+ * the user and logged.
+ * </p>
+ *
+ * @author Mauricio Pazos (www.axios.es)
+ * @author Gabriel Roldan (www.axios.es)
+ * @since 1.1.0
+ */
+final class SOProcessScheduler {
+
+    private static final Logger            LOGGER      = Logger.getLogger(SOProcessScheduler.class.getName());
+
+    /** family of the spatial operation jobs */
+    public static final Object             FAMILY      = SOProcessScheduler.class;
+
+    private final LinkedList<ProcessJob>   pending     = new LinkedList<ProcessJob>();
+
+    private int                            running     = 0;
+
+    /** targets of the running processes */
+    private final Set<IGeoResource>        runningTargets = new HashSet<IGeoResource>();
+
+    private int                            parallelism = 1;
+
+    /**
+     * @param parallelism maximum number of processes running at the same time
+     */
+    public SOProcessScheduler( final int parallelism ) {
+        setParallelism(parallelism);
+    }
+
+    /**
+     * Changes the maximum number of processes running at the same time. If it is increased the
+     * pending processes are started, if it is decreased the running processes end their work.
+     *
+     * @param parallelism maximum number of processes running at the same time
+     */
+    public synchronized void setParallelism( final int parallelism ) {
+        this.parallelism = Math.max(1, parallelism);
+        startPending();
+    }
+
+    /**
+     * @return the maximum number of processes running at the same time
+     */
+    public synchronized int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * @return the number of processes waiting to start
+     */
+    public synchronized int getPendingCount() {
+        return this.pending.size();
+    }
+
+    /**
+     * Queues the process. It is started when there are fewer running processes than the
+     * parallelism allowed and no other process on its target is running.
+     *
+     * @param processName name shown in the progress view
+     * @param process
+     * @param target resource written by the process, null if the process creates a new layer
+     */
+    public synchronized void schedule( final String processName, final ISOProcess process,
+                                       final IGeoResource target ) {
+
+        assert processName != null;
+        assert process != null;
+
+        this.pending.addLast(new ProcessJob(processName, process, target));
+        startPending();
+    }
+
+    /**
+     * Waits until the queued and the running processes have finished
+     *
+     * @throws InterruptedException
+     */
+    public void join() throws InterruptedException {
+
+        while( true ) {
+            synchronized (this) {
+                if (this.running == 0 && this.pending.isEmpty()) {
+                    return;
+                }
+            }
+            Job.getJobManager().join(FAMILY, null);
+        }
+    }
+
+    /**
+     * Starts, in order, the pending jobs allowed by the parallelism whose target is not
+     * written by a running job
+     */
+    private void startPending() {
+
+        assert Thread.holdsLock(this);
+
+        Iterator<ProcessJob> iter = this.pending.iterator();
+        while( this.running < this.parallelism && iter.hasNext() ) {
+
+            ProcessJob job = iter.next();
+            if (job.target != null && this.runningTargets.contains(job.target)) {
+                continue;
+            }
+            iter.remove();
+            this.running++;
+            if (job.target != null) {
+                this.runningTargets.add(job.target);
+            }
+            job.schedule();
+        }
+    }
+
+    /**
+     * Called when a job ends, even if it was cancelled before running, it lets the next
+     * pending job start
+     */
+    private synchronized void jobDone( final ProcessJob job ) {
+
+        this.running--;
+        if (job.target != null) {
+            this.runningTargets.remove(job.target);
+        }
+        startPending();
+    }
+
+    /**
+     * Rule of the jobs which write a target resource, the jobs on the same target conflict
+     */
+    static final class TargetRule implements ISchedulingRule {
+
+        private final IGeoResource target;
+
+        TargetRule( final IGeoResource target ) {
+            this.target = target;
+        }
+
+        public boolean contains( ISchedulingRule rule ) {
+            return rule == this;
+        }
+
+        public boolean isConflicting( ISchedulingRule rule ) {
+            return (rule instanceof TargetRule) && ((TargetRule) rule).target.equals(this.target);
+        }
+    }
+
+    /**
+     * Runs one process measuring its throughput
+     */
+    private final class ProcessJob extends Job {
+
+        private final ISOProcess process;
+
+        private final IGeoResource target;
+
+        ProcessJob( final String name, final ISOProcess process, final IGeoResource target ) {
+            super(name);
+            this.process = process;
+            this.target = target;
+
+            setUser(true);
+            if (target != null) {
+                setRule(new TargetRule(target));
+            }
+            addJobChangeListener(new JobChangeAdapter(){
+                @Override
+                public void done( IJobChangeEvent event ) {
+                    jobDone(ProcessJob.this);
+                }
+            });
+        }
+
+        @Override
+        public boolean belongsTo( Object family ) {
+            return FAMILY == family;
+        }
+
+        @Override
+        protected IStatus run( final IProgressMonitor monitor ) {
+
+            final long start = System.currentTimeMillis();
+            try {
+                this.process.run(monitor);
+
+                final String msg = throughputMessage(System.currentTimeMillis() - start);
+                LOGGER.info(msg);
+
+                return new Status(IStatus.OK, Activator.PLUGIN_ID, msg);
+
+            } catch (InterruptedException e) {
+
+                return Status.CANCEL_STATUS;
+
+            } catch (InvocationTargetException e) {
+
+                // the processes report the cancelation as a failure
+                if (monitor.isCanceled()) {
+                    return Status.CANCEL_STATUS;
+                }
+                return failed(e.getMessage(), e.getCause());
+
+            } catch (RuntimeException e) {
+
+                return failed(e.getMessage(), e);
+            }
+        }
+
+        /**
+         * @return the error status of the job, the failure is logged
+         */
+        private IStatus failed( final String cause, final Throwable exception ) {
+
+            final String msg = MessageFormat.format(Messages.SOProcessScheduler_process_failed,
+                                                    getName(), cause);
+            LOGGER.severe(msg);
+
+            return new Status(IStatus.ERROR, Activator.PLUGIN_ID, msg, exception);
+        }
+
+        /**
+         * @param elapsed milliseconds
+         * @return the message with the number of features and the features by second
+         */
+        private String throughputMessage( final long elapsed ) {
+
+            final long count = this.process.getProcessedFeatureCount();
+            final double seconds = Math.max(1, elapsed) / 1000.0;
+            final long featuresBySecond = Math.round(count / seconds);
+
+            return MessageFormat.format(Messages.SOProcessScheduler_process_throughput, getName(),
+                                        count, seconds, featuresBySecond);
+        }
+    }
+}
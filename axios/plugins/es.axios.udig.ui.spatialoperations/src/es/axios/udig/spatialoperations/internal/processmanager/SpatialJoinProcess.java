@@ -0,0 +1,478 @@
+/* uDig-Spatial Operations plugins
+ * http://b5m.gipuzkoa.net
+ * (C) 2006, Diputación Foral de Gipuzkoa, Ordenación Territorial.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation;
+ * version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package es.axios.udig.spatialoperations.internal.processmanager;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Logger;
+
+import net.refractions.udig.catalog.IGeoResource;
+import net.refractions.udig.project.ILayer;
+import net.refractions.udig.project.IMap;
+import net.refractions.udig.project.internal.Map;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.FeatureStore;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.filter.FidFilter;
+import org.geotools.filter.FilterFactory;
+import org.geotools.filter.FilterFactoryFinder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+import es.axios.udig.spatialoperations.internal.i18n.Messages;
+import es.axios.udig.spatialoperations.internal.parameters.ISpatialJoinGeomInExistentLayerParameters;
+import es.axios.udig.spatialoperations.internal.parameters.ISpatialJoinGeomInNewLayerParameters;
+import es.axios.udig.spatialoperations.internal.parameters.ISpatialJoinGeomParameters;
+import es.axios.udig.spatialoperations.internal.parameters.SpatialRelation;
+import es.axios.udig.ui.commons.mediator.AppGISMediator;
+import es.axios.udig.ui.commons.util.EstimatedProgressMonitor;
+import es.axios.udig.ui.commons.util.FeatureCountEstimator;
+import es.axios.udig.ui.commons.util.GeoToolsUtils;
+import es.axios.udig.ui.commons.util.LayerUtil;
+import es.axios.udig.ui.commons.util.MapUtil;
+
+/**
+ * Makes the spatial join of two layers on the target layer
+ * <p>
+ * A new feature is created for each pair of features, one of first layer and one of second
+ * layer, which fulfil the spatial relation. The new feature has the geometry of the feature in
+ * first layer and the attributes of both features which match with the target's attributes,
+ * the first layer's ones having priority.
+ * </p>
+ * <p>
+ * The geometries of both layers are reprojected to the map crs and joined by
+ * {@link PartitionedSpatialJoin}. Only the fids and geometries of the second layer are kept,
+ * indexed by partitions, and the first layer is streamed against them in batches of
+ * {@link #BATCH_SIZE} features; the features of the second layer joined with a batch are read
+ * with one fid query. The new features are added to the target store in batches, see
+ * {@link ResultSink}, while the join progresses.
+ * </p>
+ *
+ * @author Mauricio Pazos (www.axios.es)
+ * @author Gabriel Roldan (www.axios.es)
+ * @since 1.1.0
+ */
+final class SpatialJoinProcess extends AbstractProcess {
+
+    private static final Logger                                 LOGGER                 = Logger
+                                                                                               .getLogger(SpatialJoinProcess.class
+                                                                                                                                  .getName());
+
+    private static final FilterFactory                          FILTER_FACTORY         = FilterFactoryFinder
+                                                                                               .createFilterFactory();
+
+    /** features of the first layer joined at once */
+    static final int                                            BATCH_SIZE             = 1000;
+
+    private ISpatialJoinGeomInExistentLayerParameters           paramsInExistentLayer  = null;
+    private ISpatialJoinGeomInNewLayerParameters                paramsInNewLayer       = null;
+
+    private ILayer                                              firstLayer             = null;
+    private IMap                                                map                    = null;
+    private ILayer                                              secondLayer            = null;
+    private ILayer                                              targetLayer            = null;
+    private FeatureStore<SimpleFeatureType, SimpleFeature>      targetStore            = null;
+    private IGeoResource                                        targetGeoResource      = null;
+    private FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInFirstLayer   = null;
+    private FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInSecondLayer  = null;
+    private SpatialRelation                                     relation               = null;
+    private double                                              distance               = 0;
+
+    private int                                                 parallelism            = 1;
+
+    /**
+     * New instance of spatial join process
+     *
+     * @param params parameters required to leave the join into an existent or a new layer
+     */
+    public SpatialJoinProcess( final ISpatialJoinGeomParameters params ) {
+
+        if (params instanceof ISpatialJoinGeomInExistentLayerParameters) {
+            this.paramsInExistentLayer = (ISpatialJoinGeomInExistentLayerParameters) params;
+        } else if (params instanceof ISpatialJoinGeomInNewLayerParameters) {
+            this.paramsInNewLayer = (ISpatialJoinGeomInNewLayerParameters) params;
+        } else {
+            assert false; // illegal parameter
+        }
+    }
+
+    /**
+     * @param parallelism number of threads used to join the partitions
+     */
+    public void setParallelism( final int parallelism ) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * @return the number of threads used to join the partitions
+     */
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * Initializes the common parameters
+     *
+     * @param params
+     */
+    protected void init( final ISpatialJoinGeomParameters params ) {
+
+        this.firstLayer = params.getFirstLayer();
+        assert this.firstLayer != null;
+
+        this.secondLayer = params.getSecondLayer();
+        assert this.secondLayer != null;
+
+        this.map = this.firstLayer.getMap();
+        assert this.map != null;
+
+        this.featuresInFirstLayer = params.getFeaturesInFirstLayer();
+        assert this.featuresInFirstLayer != null;
+
+        this.featuresInSecondLayer = params.getFeaturesInSecondLayer();
+        assert this.featuresInSecondLayer != null;
+
+        this.relation = params.getSpatialRelation();
+        assert this.relation != null;
+
+        if (this.relation == SpatialRelation.DWITHIN) {
+            this.distance = params.getDistance().doubleValue();
+        }
+    }
+
+    /**
+     * Initializes the process taking into account if the required target is an existent layer
+     * or a new layer
+     *
+     * @param monitor
+     */
+    @Override
+    protected void init( final IProgressMonitor monitor ) throws SOProcessException {
+
+        try {
+            super.init(monitor);
+
+            if (this.paramsInExistentLayer != null) {
+
+                init(this.paramsInExistentLayer);
+
+                this.targetLayer = this.paramsInExistentLayer.getTargetLayer();
+
+                this.targetStore = getFeatureStore(this.targetLayer);
+
+            } else if (this.paramsInNewLayer != null) {
+
+                init(this.paramsInNewLayer);
+
+                // create new layer (store and resource) with the feature type required
+                SimpleFeatureType type = this.paramsInNewLayer.getTargetFeatureType();
+
+                this.targetGeoResource = AppGISMediator.createTempGeoResource(type);
+                assert this.targetGeoResource != null;
+
+                this.targetStore = this.targetGeoResource.resolve(FeatureStore.class, monitor);
+
+                this.targetLayer = addLayerToMap(this.map, this.targetGeoResource);
+            }
+            assert this.targetLayer != null;
+            assert this.targetStore != null;
+
+        } catch (IOException e) {
+
+            final String msg = MessageFormat.format(
+                                                    Messages.SpatialJoinProcess_failed_creating_temporal_store,
+                                                    e.getMessage());
+            LOGGER.severe(msg);
+
+            throw new SOProcessException(msg);
+        }
+    }
+
+    /**
+     * Spatial join strategy
+     * <p>
+     * Reads the fids and geometries of the second layer on map crs and indexes them, then
+     * joins the features of the first layer by batches and writes the new features while the
+     * pairs are found.
+     * </p>
+     *
+     * @throws SOProcessException
+     * @throws InterruptedException if the monitor is canceled
+     */
+    @Override
+    public final void run( IProgressMonitor monitor ) throws SOProcessException, InterruptedException {
+
+        FeatureIterator<SimpleFeature> iter = null;
+        boolean completed = false;
+        try {
+            init(monitor);
+
+            final CoordinateReferenceSystem firstLayerCrs = LayerUtil.getCrs(this.firstLayer);
+            final CoordinateReferenceSystem secondLayerCrs = LayerUtil.getCrs(this.secondLayer);
+            final CoordinateReferenceSystem mapCrs = MapUtil.getCRS(this.map);
+
+            final EstimatedProgressMonitor progress = new EstimatedProgressMonitor(monitor);
+            setMonitor(progress);
+
+            final FeatureCountEstimator.Estimate firstCount = LayerUtil.estimateCountOfSelectedFeatures(this.firstLayer);
+            final FeatureCountEstimator.Estimate secondCount = LayerUtil.estimateCountOfSelectedFeatures(this.secondLayer);
+
+            final String msg = MessageFormat.format(Messages.SpatialJoinProcess_joining,
+                                                    this.firstLayer.getName(),
+                                                    this.secondLayer.getName());
+            progress.beginTask(msg, computeCount(firstCount.getCount(), secondCount.getCount()));
+
+            // the second layer is indexed by partitions keeping only its fids and geometries
+            final List<String> secondFids = new ArrayList<String>();
+            final List<Geometry> secondGeometries = new ArrayList<Geometry>();
+            readSecondLayer(secondLayerCrs, mapCrs, secondFids, secondGeometries);
+
+            PartitionedSpatialJoin join = new PartitionedSpatialJoin(secondGeometries,
+                                                                     this.relation,
+                                                                     this.distance);
+            join.setParallelism(this.parallelism);
+            join.build();
+            checkCancelation();
+
+            // the second layer was read, then its estimated count is replaced by the exact one
+            if (!secondCount.isExact()) {
+                progress.setTotalWork(computeCount(firstCount.getCount(), progress.getWorkDone()));
+            }
+
+            final ResultSink sink = openResultSink(this.targetStore);
+            final FeatureSource<SimpleFeatureType, SimpleFeature> secondSource = this.secondLayer
+                    .getResource(FeatureSource.class, monitor);
+            final SimpleFeatureType targetType = this.targetStore.getSchema();
+
+            final List<SimpleFeature> batch = new ArrayList<SimpleFeature>(BATCH_SIZE);
+            final List<Geometry> batchGeometries = new ArrayList<Geometry>(BATCH_SIZE);
+
+            iter = this.featuresInFirstLayer.features();
+            while( iter.hasNext() ) {
+
+                checkCancelation();
+
+                SimpleFeature feature = iter.next();
+                Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                if (geometry != null) {
+                    batch.add(feature);
+                    batchGeometries.add(geometry);
+                }
+                if (batch.size() == BATCH_SIZE) {
+                    joinBatch(join, batch, batchGeometries, firstLayerCrs, mapCrs, secondFids,
+                              secondSource, targetType, sink);
+                }
+                featuresProcessed(1);
+                progress.worked(1);
+            }
+            joinBatch(join, batch, batchGeometries, firstLayerCrs, mapCrs, secondFids, secondSource,
+                      targetType, sink);
+            closeResultSink();
+            completed = true;
+
+        } catch (InterruptedException e) {
+
+            monitor.subTask(Messages.SpatialJoinProcess_canceled);
+            throw e;
+
+        } catch (OperationCanceledException e) {
+
+            monitor.subTask(Messages.SpatialJoinProcess_canceled);
+            throw new InterruptedException();
+
+        } catch (Exception e) {
+
+            final String exMessage = (e.getMessage() != null) ? e.getMessage() : ""; //$NON-NLS-1$
+            final String emsg = MessageFormat.format(Messages.SpatialJoinProcess_join_fail, exMessage);
+            monitor.subTask(emsg);
+
+            throwException(new SOProcessException(emsg, e));
+
+        } finally {
+
+            if (iter != null) {
+                this.featuresInFirstLayer.close(iter);
+            }
+            endProcess((Map) this.map, this.targetLayer);
+
+            if (completed) {
+                monitor.subTask(Messages.SpatialJoinProcess_successful);
+            }
+            monitor.done();
+        }
+    }
+
+    /**
+     * One tick to read each feature of first and second layer.
+     */
+    private static int computeCount( final int featuresInFirst, final int featuresInSecond ) {
+
+        long count = (long) featuresInFirst + (long) featuresInSecond;
+
+        return (count > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) count;
+    }
+
+    /**
+     * Reads the fids and the geometries, reprojected to map crs, of the features in second
+     * layer. The geometries are reprojected by batches. The features without geometry are
+     * skipped.
+     *
+     * @param featuresCrs
+     * @param mapCrs
+     * @param fidList the fids of the features read
+     * @param geometryList the geometries of the features read, on map crs
+     * @throws Exception
+     */
+    private void readSecondLayer( final CoordinateReferenceSystem featuresCrs,
+                                  final CoordinateReferenceSystem mapCrs,
+                                  final List<String> fidList,
+                                  final List<Geometry> geometryList ) throws Exception {
+
+        final List<Geometry> batch = new ArrayList<Geometry>(BATCH_SIZE);
+
+        FeatureIterator<SimpleFeature> iter = this.featuresInSecondLayer.features();
+        try {
+            while( iter.hasNext() ) {
+
+                checkCancelation();
+
+                SimpleFeature feature = iter.next();
+                Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                if (geometry != null) {
+                    fidList.add(feature.getID());
+                    batch.add(geometry);
+                }
+                if (batch.size() == BATCH_SIZE) {
+                    geometryList.addAll(GeoToolsUtils.reproject(batch, featuresCrs, mapCrs));
+                    batch.clear();
+                }
+                featuresProcessed(1);
+                getMonitor().worked(1);
+            }
+            geometryList.addAll(GeoToolsUtils.reproject(batch, featuresCrs, mapCrs));
+        } finally {
+            this.featuresInSecondLayer.close(iter);
+        }
+    }
+
+    /**
+     * Joins the batch of features of the first layer and adds the new features to the sink.
+     * The features of the second layer which are joined are read with one fid query. The
+     * batch is cleared.
+     *
+     * @param join
+     * @param batch features of the first layer
+     * @param batchGeometries their geometries, on first layer crs
+     * @param firstLayerCrs
+     * @param mapCrs
+     * @param secondFids fids of the second layer, by position
+     * @param secondSource the source of the second layer
+     * @param targetType
+     * @param sink
+     * @throws Exception
+     */
+    private void joinBatch( final PartitionedSpatialJoin join,
+                            final List<SimpleFeature> batch,
+                            final List<Geometry> batchGeometries,
+                            final CoordinateReferenceSystem firstLayerCrs,
+                            final CoordinateReferenceSystem mapCrs,
+                            final List<String> secondFids,
+                            final FeatureSource<SimpleFeatureType, SimpleFeature> secondSource,
+                            final SimpleFeatureType targetType,
+                            final ResultSink sink ) throws Exception {
+
+        if (batch.isEmpty()) {
+            return;
+        }
+        final List<int[]> pairs = new ArrayList<int[]>();
+        final List<Geometry> geometries = GeoToolsUtils.reproject(batchGeometries, firstLayerCrs, mapCrs);
+        join.join(geometries, 0, getMonitor(), new PartitionedSpatialJoin.PairHandler(){
+
+            public void join( int first, int second ) {
+                pairs.add(new int[]{first, second});
+            }
+        });
+        if (!pairs.isEmpty()) {
+            final FidFilter filter = FILTER_FACTORY.createFidFilter();
+            for( int[] pair : pairs ) {
+                filter.addFid(secondFids.get(pair[1]));
+            }
+            final java.util.Map<String, SimpleFeature> secondFeatures = new HashMap<String, SimpleFeature>();
+            final FeatureCollection<SimpleFeatureType, SimpleFeature> joined = secondSource.getFeatures(filter);
+            FeatureIterator<SimpleFeature> iter = joined.features();
+            try {
+                while( iter.hasNext() ) {
+                    SimpleFeature feature = iter.next();
+                    secondFeatures.put(feature.getID(), feature);
+                }
+            } finally {
+                joined.close(iter);
+            }
+            for( int[] pair : pairs ) {
+                SimpleFeature secondFeature = secondFeatures.get(secondFids.get(pair[1]));
+                if (secondFeature != null) {
+                    sink.add(createFeature(targetType, batch.get(pair[0]), firstLayerCrs, secondFeature));
+                }
+            }
+        }
+        batch.clear();
+        batchGeometries.clear();
+    }
+
+    /**
+     * Creates the feature that joins the features of first and second layer
+     *
+     * @param targetType
+     * @param firstFeature
+     * @param firstLayerCrs
+     * @param secondFeature
+     * @return a new feature with the first feature's geometry
+     * @throws SOProcessException
+     */
+    private SimpleFeature createFeature( final SimpleFeatureType targetType,
+                                         final SimpleFeature firstFeature,
+                                         final CoordinateReferenceSystem firstLayerCrs,
+                                         final SimpleFeature secondFeature ) throws SOProcessException {
+
+        try {
+            SimpleFeature newFeature = DataUtilities.template(targetType);
+
+            GeoToolsUtils.match(secondFeature, newFeature);
+            GeoToolsUtils.match(firstFeature, newFeature);
+
+            Geometry geometry = (Geometry) firstFeature.getDefaultGeometry();
+            Geometry targetGeometry = GeoToolsUtils.reproject(geometry, firstLayerCrs,
+                                                              targetType.getDefaultGeometry().getCRS());
+
+            newFeature.setDefaultGeometry(adjustGeometryAttribute(targetGeometry, newFeature));
+
+            return newFeature;
+
+        } catch (Exception e) {
+            throw new SOProcessException(e.getMessage(), e);
+        }
+    }
+}
@@ -20,172 +20,588 @@
  */
 package es.axios.udig.spatialoperations.internal.ui.parameters.dissolve;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.refractions.udig.project.ILayer;
+import net.refractions.udig.project.ui.tool.IToolContext;
+
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.CCombo;
 import org.eclipse.swt.custom.CLabel;
-import org.eclipse.swt.graphics.Point;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Group;
-import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Table;
 import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.swt.widgets.TableItem;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.filter.Filter;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import es.axios.udig.spatialoperations.internal.control.DissolveController;
+import es.axios.udig.spatialoperations.internal.i18n.Messages;
+import es.axios.udig.spatialoperations.internal.parameters.DissolveAggregate;
+import es.axios.udig.spatialoperations.internal.ui.common.ResultLayerComposite;
+import es.axios.udig.spatialoperations.internal.ui.common.SpecifiedLayerListener;
+import es.axios.udig.spatialoperations.internal.ui.parameters.AggregatedPresenter;
+import es.axios.udig.spatialoperations.ui.view.Message;
+import es.axios.udig.ui.commons.util.GeoToolsUtils;
 
 /**
- * TODO Purpose of 
+ * Dissolve Composite
  * <p>
- *
+ * This composite present the widgets required to get the dissolve parameters: the source
+ * layer, the dissolve property, the aggregates computed for each group and the target layer.
+ * </p>
+ * <p>
+ * The aggregates table offers COUNT and, for each attribute of the source layer other than the
+ * dissolve property, SUM (numeric attributes only), MIN and MAX; the checked rows are the
+ * aggregates of the operation.
  * </p>
  * @author Mauricio Pazos (www.axios.es)
  * @author Gabriel Roldan (www.axios.es)
  * @since 1.1.0
  */
-public class DissolveComposite extends Composite {
-
-    private Group group = null;
-    private CLabel cLabel = null;
-    private CCombo cCombo = null;
-    private CLabel cLabel1 = null;
-    private CCombo cCombo1 = null;
-    private Composite composite = null;
-    private Table table = null;
-    private Group group1;
-    private CLabel cLabel7;
-    private CCombo cCombo3;
-    private CLabel cLabel8;
-    private CLabel cLabel9;
+public final class DissolveComposite extends AggregatedPresenter {
+
+    private static final int     GRID_DATA_1_WIDTH_HINT     = 125;
+    private static final int     GRID_DATA_2_WIDTH_HINT     = 150;
+    private static final int     GRID_DATA_3_WIDTH_HINT     = 170;
+    private static final int     GRID_DATA_4_WIDTH_HINT     = 150;
+    private static final int     COLUMN_WIDTH               = 150;
+    private static final int     TABLE_HEIGHT_HINT          = 100;
+
+    // widgets
+    private Group                groupSourceInputs          = null;
+    private Group                groupTargetInputs          = null;
+    private ResultLayerComposite resultComposite            = null;
+    private CLabel               cLabelLayer                = null;
+    private CLabel               cLabelSelected             = null;
+    private CLabel               cLabelFeaturesInSource     = null;
+    private CLabel               cLabelDissolveProperty     = null;
+    private CCombo               comboSourceLayer           = null;
+    private CCombo               comboDissolveProperty      = null;
+    private Table                tableAggregates            = null;
+
+    // data
+    private ILayer               currentSourceLayer         = null;
+    private String               currentDissolveProperty    = null;
+
+    private FeatureCollection<SimpleFeatureType, SimpleFeature> featuresInSourceLayer = null;
+
+
     public DissolveComposite( Composite parent, int style ) {
         super(parent, style);
-        initialize();
+        super.initialize();
     }
 
-    private void initialize() {
-        GridLayout gridLayout1 = new GridLayout();
-        gridLayout1.numColumns = 1;
-        createGroup();
-        createResultGroup();
-        this.setLayout(gridLayout1);
-        setSize(new Point(541, 202));
+    @Override
+    public String getOperationName() {
+        return Messages.DissolveComposite_operation_name;
     }
 
-    /**
-     *
-     */
-    private void createResultGroup() {
-        GridData gridData10 = new GridData();
-        gridData10.widthHint = 100;
-        GridData gridData7 = new GridData();
-        gridData7.widthHint = 160;
-        GridData gridData6 = new GridData();
-        gridData6.horizontalAlignment = GridData.FILL;
-        gridData6.grabExcessHorizontalSpace = true;
-        gridData6.verticalAlignment = GridData.CENTER;
-        GridData gridData5 = new GridData();
-        gridData5.horizontalSpan = 2;
-        gridData5.verticalAlignment = GridData.CENTER;
-        gridData5.widthHint = 120;
-        gridData5.horizontalAlignment = GridData.END;
-        GridLayout gridLayout1 = new GridLayout();
-        gridLayout1.numColumns = 5;
-        GridData gridData1 = new GridData();
-        gridData1.horizontalAlignment = GridData.FILL;
-        gridData1.grabExcessHorizontalSpace = true;
-        gridData1.verticalAlignment = GridData.CENTER;
-
-        group1 = new Group(this, SWT.NONE);
-        group1.setText("Result");
-        group1.setLayout(gridLayout1);
-        group1.setLayoutData(gridData1);
-        cLabel7 = new CLabel(group1, SWT.NONE);
-        cLabel7.setText("Layer");
-        cLabel7.setLayoutData(gridData5);
-        cCombo3 = new CCombo(group1, SWT.BORDER);
-        cCombo3.setLayoutData(gridData6);
-        cLabel8 = new CLabel(group1, SWT.NONE);
-        cLabel8.setText("Geometry");
-        cLabel8.setLayoutData(gridData7);
-        cLabel9 = new CLabel(group1, SWT.NONE);
-        cLabel9.setText(" ");
-        cLabel9.setLayoutData(gridData10);
-        
-    
+    @Override
+    public String getToolTipText() {
+        return Messages.DissolveCommand_description;
+    }
+
+    @Override
+    protected void createContents() {
+
+        GridLayout gridLayout = new GridLayout();
+        setLayout(gridLayout);
+
+        createGroupSourceInputs();
+        createGroupTargetInputs();
     }
 
     /**
-     * This method initializes group	
-     *
+     * This method initializes group for source inputs
      */
-    private void createGroup() {
-        GridData gridData2 = new GridData();
-        gridData2.horizontalAlignment = GridData.FILL;
-        gridData2.grabExcessHorizontalSpace = true;
-        gridData2.verticalAlignment = GridData.CENTER;
-        GridData gridData1 = new GridData();
-        gridData1.horizontalAlignment = GridData.FILL;
-        gridData1.grabExcessHorizontalSpace = true;
-        gridData1.verticalAlignment = GridData.CENTER;
+    private void createGroupSourceInputs() {
+
         GridLayout gridLayout = new GridLayout();
-        gridLayout.numColumns = 5;
+        gridLayout.numColumns = 4;
+
         GridData gridData = new GridData();
         gridData.horizontalAlignment = GridData.FILL;
         gridData.grabExcessHorizontalSpace = true;
-        gridData.verticalSpan = 2;
+        gridData.grabExcessVerticalSpace = false;
         gridData.verticalAlignment = GridData.CENTER;
-        group = new Group(this, SWT.NONE);
-        group.setText("Source");
-        group.setLayout(gridLayout);
-        group.setLayoutData(gridData);
-        cLabel = new CLabel(group, SWT.NONE);
-        cLabel.setText("Layer");
-        cCombo = new CCombo(group, SWT.BORDER);
-        cCombo.setLayoutData(gridData1);
-        cLabel1 = new CLabel(group, SWT.NONE);
-        cLabel1.setText("Dissolve property");
-        cCombo1 = new CCombo(group, SWT.BORDER);
-        cCombo1.setLayoutData(gridData2);
-        Label filler = new Label(group, SWT.NONE);
-        createComposite();
-    }
-
-    /**
-     * This method initializes composite	
+
+        groupSourceInputs = new Group(this, SWT.NONE);
+        groupSourceInputs.setText(Messages.IntersectComposite_source);
+        groupSourceInputs.setLayout(gridLayout);
+        groupSourceInputs.setLayoutData(gridData);
+
+        // source layer
+        cLabelLayer = new CLabel(groupSourceInputs, SWT.NONE);
+        cLabelLayer.setText(Messages.DissolveComposite_layer);
+        cLabelLayer.setLayoutData(createCellGridData(GRID_DATA_1_WIDTH_HINT));
+
+        comboSourceLayer = new CCombo(groupSourceInputs, SWT.BORDER | SWT.READ_ONLY);
+        comboSourceLayer.setLayoutData(createCellGridData(GRID_DATA_2_WIDTH_HINT));
+        comboSourceLayer.addSelectionListener(new SelectionAdapter(){
+            @Override
+            public void widgetSelected( @SuppressWarnings("unused")
+                                        SelectionEvent e ) {
+                
+                selectedSourceLayerActions();
+            }
+        });
+
+        cLabelSelected = new CLabel(groupSourceInputs, SWT.NONE);
+        cLabelSelected.setText(Messages.IntersectComposite_selected_features);
+        cLabelSelected.setLayoutData(createCellGridData(GRID_DATA_3_WIDTH_HINT));
+
+        cLabelFeaturesInSource = new CLabel(groupSourceInputs, SWT.BORDER);
+        cLabelFeaturesInSource.setText(""); //$NON-NLS-1$
+        cLabelFeaturesInSource.setLayoutData(createCellGridData(GRID_DATA_4_WIDTH_HINT));
+
+        // dissolve property
+        cLabelDissolveProperty = new CLabel(groupSourceInputs, SWT.NONE);
+        cLabelDissolveProperty.setText(Messages.DissolveComposite_dissolve_property);
+        cLabelDissolveProperty.setLayoutData(createCellGridData(GRID_DATA_1_WIDTH_HINT));
+
+        comboDissolveProperty = new CCombo(groupSourceInputs, SWT.BORDER | SWT.READ_ONLY);
+        comboDissolveProperty.setLayoutData(createCellGridData(GRID_DATA_2_WIDTH_HINT));
+        comboDissolveProperty.addSelectionListener(new SelectionAdapter(){
+            @Override
+            public void widgetSelected( @SuppressWarnings("unused")
+                                        SelectionEvent e ) {
+                
+                selectedDissolvePropertyActions();
+            }
+        });
+
+        GridData fillerGridData = new GridData();
+        fillerGridData.horizontalSpan = 2;
+        new CLabel(groupSourceInputs, SWT.NONE).setLayoutData(fillerGridData);
+
+        // aggregates
+        GridData tableGridData = new GridData();
+        tableGridData.horizontalAlignment = GridData.FILL;
+        tableGridData.grabExcessHorizontalSpace = true;
+        tableGridData.horizontalSpan = 4;
+        tableGridData.heightHint = TABLE_HEIGHT_HINT;
+
+        tableAggregates = new Table(groupSourceInputs, SWT.BORDER | SWT.CHECK | SWT.FULL_SELECTION);
+        tableAggregates.setHeaderVisible(true);
+        tableAggregates.setLinesVisible(true);
+        tableAggregates.setLayoutData(tableGridData);
+        tableAggregates.addSelectionListener(new SelectionAdapter(){
+            @Override
+            public void widgetSelected( SelectionEvent e ) {
+                
+                if (e.detail == SWT.CHECK) {
+                    validate();
+                }
+            }
+        });
+
+        TableColumn columnSource = new TableColumn(tableAggregates, SWT.NONE);
+        columnSource.setWidth(COLUMN_WIDTH);
+        columnSource.setText(Messages.DissolveComposite_source_property);
+
+        TableColumn columnStatistic = new TableColumn(tableAggregates, SWT.NONE);
+        columnStatistic.setWidth(COLUMN_WIDTH);
+        columnStatistic.setText(Messages.DissolveComposite_statistic);
+
+        TableColumn columnResult = new TableColumn(tableAggregates, SWT.NONE);
+        columnResult.setWidth(COLUMN_WIDTH);
+        columnResult.setText(Messages.DissolveComposite_result_property);
+    }
+
+    private static GridData createCellGridData( final int widthHint ) {
+
+        GridData gridData = new GridData();
+        gridData.horizontalAlignment = GridData.BEGINNING;
+        gridData.grabExcessHorizontalSpace = false;
+        gridData.grabExcessVerticalSpace = true;
+        gridData.verticalAlignment = GridData.CENTER;
+        gridData.widthHint = widthHint;
+
+        return gridData;
+    }
+
+    /**
+     * Target layer widgets
      *
      */
-    private void createComposite() {
-        GridData gridData4 = new GridData();
-        gridData4.horizontalAlignment = GridData.FILL;
-        gridData4.grabExcessHorizontalSpace = true;
-        gridData4.verticalSpan = 2;
-        gridData4.verticalAlignment = GridData.CENTER;
-        GridLayout gridLayout2 = new GridLayout();
-        gridLayout2.numColumns = 1;
-        gridLayout2.makeColumnsEqualWidth = true;
-        GridData gridData3 = new GridData();
-        gridData3.horizontalAlignment = GridData.FILL;
-        gridData3.grabExcessHorizontalSpace = true;
-        gridData3.horizontalSpan = 5;
-        gridData3.verticalAlignment = GridData.CENTER;
-        composite = new Composite(group, SWT.NONE);
-        composite.setLayoutData(gridData3);
-        composite.setLayout(gridLayout2);
-        table = new Table(composite, SWT.NONE);
-        table.setHeaderVisible(true);
-        table.setLayoutData(gridData4);
-        table.setLinesVisible(true);
-        TableColumn tableColumn = new TableColumn(table, SWT.NONE);
-        tableColumn.setWidth(60);
-        tableColumn.setText("Source property");
-        TableColumn tableColumn1 = new TableColumn(table, SWT.NONE);
-        tableColumn1.setWidth(60);
-        tableColumn1.setText("Statistic");
-        TableColumn tableColumn2 = new TableColumn(table, SWT.NONE);
-        tableColumn2.setWidth(60);
-        tableColumn2.setText("Result property name");
-
-    
+    private void createGroupTargetInputs() {
+
+        GridData gridData = new GridData();
+        gridData.horizontalAlignment = GridData.FILL;
+        gridData.grabExcessHorizontalSpace = true;
+        gridData.grabExcessVerticalSpace = false;
+        gridData.verticalAlignment = GridData.BEGINNING;
+
+        groupTargetInputs = new Group(this, SWT.NONE);
+        groupTargetInputs.setText(Messages.IntersectComposite_result);
+        groupTargetInputs.setLayout(new GridLayout());
+        groupTargetInputs.setLayoutData(gridData);
+
+        this.resultComposite = new ResultLayerComposite(groupTargetInputs, SWT.NONE);
+
+        GridData resultCompositeGridData = new GridData();
+        resultCompositeGridData.horizontalAlignment = GridData.FILL;
+        resultCompositeGridData.grabExcessHorizontalSpace = true;
+        resultCompositeGridData.grabExcessVerticalSpace = true;
+        resultCompositeGridData.verticalAlignment = GridData.FILL;
+        
+        this.resultComposite.setLayoutData(resultCompositeGridData);
+        
+        this.resultComposite.addSpecifiedLayerListener(new SpecifiedLayerListener(){
+
+
+            public void layerSelected( @SuppressWarnings("unused")
+                                       ILayer selectedLayer ) {
+                
+                validate();
+            }
+
+
+            public void newFeatureTypeIsRequired( @SuppressWarnings("unused")
+                                                  String layerName ) {
+                validate();
+            }});
+        
+        this.addPresenter(this.resultComposite);
+    }
+
+    /**
+     * Populates the layer combobox
+     */
+    @Override
+    protected void populate() {
+        
+        loadComboWithLayerList(this.comboSourceLayer);
         
-    
+        selectDefaultLayer();
+        
+        // validat is required to set the initial values in the associated command
+        validate();
+    }
+
+    /**
+     * Sets the selected layer in map has default for source layer.
+     */
+    private void selectDefaultLayer() {
+
+        // gets the selected layer from map in the current context
+        IToolContext context = getContext();
+        if (context == null)
+            return;
+
+        ILayer selectedLayerInMap = context.getSelectedLayer();
+        if (selectedLayerInMap == null)
+            return;
+
+        changeSelectedLayer(selectedLayerInMap, this.comboSourceLayer);
+
+        setSourceLayer(selectedLayerInMap);
+    }
+
+    /**
+     * Sets the selected source layer and its features has current. 
+     */
+    private void selectedSourceLayerActions() {
+        
+        ILayer selectedLayer = getSelecedLayer(this.comboSourceLayer);
+        if (selectedLayer == null)
+            return;
+
+        setSourceLayer(selectedLayer);
+
+        validate();
+    }
+
+    /**
+     * Sets the layer and its features as current and loads its properties
+     * 
+     * @param layer
+     */
+    private void setSourceLayer( final ILayer layer ) {
+
+        final boolean changed = !layer.equals(this.currentSourceLayer);
+
+        this.currentSourceLayer = layer;
+
+        this.featuresInSourceLayer = presentSelectedFeaturesSum(this.currentSourceLayer,
+                                                                this.currentSourceLayer.getFilter(),
+                                                                this.cLabelFeaturesInSource);
+        if (changed) {
+            this.currentDissolveProperty = null;
+            loadComboWithProperties();
+            loadTableWithAggregates();
+        }
+    }
+
+    /**
+     * Sets the selected dissolve property as current, the aggregates are offered for the
+     * other properties
+     */
+    private void selectedDissolvePropertyActions() {
+
+        final int index = this.comboDissolveProperty.getSelectionIndex();
+        this.currentDissolveProperty = (index == -1) ? null : this.comboDissolveProperty.getItem(index);
+
+        loadTableWithAggregates();
+
+        validate();
+    }
+
+    /**
+     * Loads the no geometric properties of the source layer
+     */
+    private void loadComboWithProperties() {
+
+        this.comboDissolveProperty.removeAll();
+
+        if (this.currentSourceLayer == null) {
+            return;
+        }
+        final SimpleFeatureType schema = this.currentSourceLayer.getSchema();
+        for( AttributeDescriptor attribute : schema.getAttributes() ) {
+
+            if (attribute == schema.getDefaultGeometry()) {
+                continue;
+            }
+            this.comboDissolveProperty.add(attribute.getLocalName());
+        }
+    }
+
+    /**
+     * Loads the aggregates which can be computed on the source layer, COUNT and the statistics
+     * of the properties other than the dissolve property
+     */
+    private void loadTableWithAggregates() {
+
+        this.tableAggregates.removeAll();
+
+        if (this.currentSourceLayer == null) {
+            return;
+        }
+        addAggregateItem(new DissolveAggregate(DissolveAggregate.Function.COUNT, null, "count")); //$NON-NLS-1$
+
+        final SimpleFeatureType schema = this.currentSourceLayer.getSchema();
+        for( AttributeDescriptor attribute : schema.getAttributes() ) {
+
+            final String name = attribute.getLocalName();
+            if (attribute == schema.getDefaultGeometry() || name.equals(this.currentDissolveProperty)) {
+                continue;
+            }
+            final Class< ? > binding = attribute.getType().getBinding();
+            if (Number.class.isAssignableFrom(binding)) {
+                addAggregateItem(createAggregate(DissolveAggregate.Function.SUM, name));
+            }
+            if (Comparable.class.isAssignableFrom(binding)) {
+                addAggregateItem(createAggregate(DissolveAggregate.Function.MIN, name));
+                addAggregateItem(createAggregate(DissolveAggregate.Function.MAX, name));
+            }
+        }
+    }
+
+    /**
+     * @return the aggregate whose target property is named with the function and the source
+     */
+    private static DissolveAggregate createAggregate( final DissolveAggregate.Function function,
+                                                      final String sourceProperty ) {
+
+        final String targetProperty = function.name().toLowerCase() + "_" + sourceProperty; //$NON-NLS-1$
+
+        return new DissolveAggregate(function, sourceProperty, targetProperty);
+    }
+
+    private void addAggregateItem( final DissolveAggregate aggregate ) {
+
+        TableItem item = new TableItem(this.tableAggregates, SWT.NONE);
+        String source = aggregate.getSourceProperty();
+        item.setText(new String[]{(source == null) ? "" : source, //$NON-NLS-1$
+                aggregate.getFunction().name(), aggregate.getTargetProperty()});
+        item.setData(aggregate);
+    }
+
+    /**
+     * @return the aggregates of the checked rows
+     */
+    private List<DissolveAggregate> getCheckedAggregates() {
+
+        List<DissolveAggregate> aggregates = new ArrayList<DissolveAggregate>();
+        for( TableItem item : this.tableAggregates.getItems() ) {
+            if (item.getChecked()) {
+                aggregates.add((DissolveAggregate) item.getData());
+            }
+        }
+        return aggregates;
+    }
+
+    @Override
+    public void setEnabled( boolean enabled ) {
+        groupSourceInputs.setEnabled(enabled);
+        groupTargetInputs.setEnabled(enabled);
+        resultComposite.setEnabled(enabled);
+        comboSourceLayer.setEnabled(enabled);
+        comboDissolveProperty.setEnabled(enabled);
+        tableAggregates.setEnabled(enabled);
+    }
+
+    /**
+     * Validate parameters, if they are ok enable operation
+     */
+    private void validate() {
+
+        // Sets the parameters values in controller to do the validation
+        DissolveController ctrl = (DissolveController) getController();
+        if (!ctrl.isRunning()) {
+            return;
+        }
+
+        final List<String> dissolveProperties = (this.currentDissolveProperty == null)
+                ? Collections.<String> emptyList()
+                : Collections.singletonList(this.currentDissolveProperty);
+        final List<DissolveAggregate> aggregates = getCheckedAggregates();
+
+        if (this.resultComposite.isLayerSelected()) {
+
+            ILayer targetLayer = this.resultComposite.getCurrentTargetLayer();
+
+            ctrl.setParameters(this.currentSourceLayer, this.featuresInSourceLayer,
+                               dissolveProperties, aggregates,
+                               targetLayer);
+        } else {
+            final String layerName = this.resultComposite.getNewLayerName();
+            final SimpleFeatureType featureType = buildFeatureType(layerName, aggregates);
+
+            ctrl.setParameters(this.currentSourceLayer, this.featuresInSourceLayer,
+                               dissolveProperties, aggregates,
+                               featureType);
+        }
+
+        ctrl.validate();
+    }
+
+    /**
+     * The target has the geometry, in the map crs, the dissolve property and a property for
+     * each aggregate: COUNT is Long, SUM is Double and MIN and MAX have the type of the source
+     * property.
+     * 
+     * @return the target feature type, null if the source layer or the dissolve property are
+     *         not selected
+     */
+    private SimpleFeatureType buildFeatureType( final String layerName,
+                                                final List<DissolveAggregate> aggregates ) {
+
+        if (this.currentSourceLayer == null || this.currentDissolveProperty == null) {
+            return null;
+        }
+        final CoordinateReferenceSystem crs = getCurrentMapCrs();
+        assert crs != null;
+        SimpleFeatureType newFeatureType = null;
+        try {
+            final SimpleFeatureType schema = this.currentSourceLayer.getSchema();
+
+            SimpleFeatureTypeBuilder typeBuilder = GeoToolsUtils.createDefaultFeatureType(layerName, crs);
+            typeBuilder.add(schema.getAttribute(this.currentDissolveProperty));
+
+            for( DissolveAggregate aggregate : aggregates ) {
+
+                Class< ? > binding;
+                switch( aggregate.getFunction() ) {
+                case COUNT:
+                    binding = Long.class;
+                    break;
+                case SUM:
+                    binding = Double.class;
+                    break;
+                default:
+                    binding = schema.getAttribute(aggregate.getSourceProperty()).getType().getBinding();
+                }
+                typeBuilder.add(aggregate.getTargetProperty(), binding);
+            }
+            newFeatureType = typeBuilder.buildFeatureType();
+            
+        } catch (IllegalArgumentException e) {
+            Message message = new Message(Messages.IntersectComposite_can_not_create_targetFeatureType,
+                                       Message.Type.ERROR);
+            
+            this.getController().setMessage(message);
+        }
+        return newFeatureType;
+    }
+
+    /**
+     * Reinitialize parameter values
+     */
+    @Override
+    protected void clearInputs() {
+        
+        // initializes data
+        this.currentSourceLayer = null;
+        this.currentDissolveProperty = null;
+        this.featuresInSourceLayer = null;
+
+        // initializes widgets
+        this.comboSourceLayer.removeAll();
+        this.comboDissolveProperty.removeAll();
+        this.tableAggregates.removeAll();
+
+        this.cLabelFeaturesInSource.setText(""); //$NON-NLS-1$
+    }
+
+    /**
+     * Maintains the consistence between the presented layers and features 
+     * in map model and this view
+     */
+    @Override
+    protected final void changedLayerListActions() {
+
+        // change the list of layers
+        this.comboSourceLayer.removeAll();
+
+        populate();
+
+        // update the selection 
+        changeSelectedLayer(this.currentSourceLayer, this.comboSourceLayer);
+        selectedSourceLayerActions();
+    }
+
+    @Override
+    protected void addedLayerActions( ILayer layer ) {
+        super.addedLayerActions(layer);
+        
+        changedLayerListActions();
+    }
+
+    @Override
+    protected void removedLayerActions( ILayer layer ) {
+        super.removedLayerActions(layer);
+
+        changedLayerListActions();
+    }
+
+    /**
+     * Changes the count of features selected of the source layer
+     */
+    @Override
+    protected void changedFilterSelectionActions( final ILayer layer, final Filter newFilter ) {
+
+        if (layer.equals(this.currentSourceLayer)) {
+
+            this.featuresInSourceLayer = presentSelectedFeaturesSum(this.currentSourceLayer,
+                                                                    newFilter,
+                                                                    this.cLabelFeaturesInSource);
+        } 
+        validate();
     }
 
 }  //  @jve:decl-index=0:visual-constraint="10,10"
@@ -20,22 +20,41 @@
  */
 package es.axios.udig.spatialoperations.internal.ui.parameters.spatialjoingeom;
 
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import net.refractions.udig.project.ILayer;
+import net.refractions.udig.project.ui.tool.IToolContext;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.CCombo;
 import org.eclipse.swt.custom.CLabel;
+import org.eclipse.swt.events.ModifyEvent;
+import org.eclipse.swt.events.ModifyListener;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Group;
-import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Text;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.filter.Filter;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import es.axios.udig.spatialoperations.internal.control.SpatialJoinGeomController;
 import es.axios.udig.spatialoperations.internal.i18n.Messages;
+import es.axios.udig.spatialoperations.internal.parameters.SpatialRelation;
 import es.axios.udig.spatialoperations.internal.ui.common.ResultLayerComposite;
 import es.axios.udig.spatialoperations.internal.ui.common.SpecifiedLayerListener;
 import es.axios.udig.spatialoperations.internal.ui.parameters.AggregatedPresenter;
+import es.axios.udig.spatialoperations.ui.view.Message;
+import es.axios.udig.ui.commons.util.GeoToolsUtils;
 
 /**
  * Spatial Join Geom Composite 
@@ -49,99 +68,177 @@ import es.axios.udig.spatialoperations.internal.ui.parameters.AggregatedPresente
  */
 public final class SpatialJoinGeomComposite extends AggregatedPresenter {
 
-    private CLabel               cLabel            = null;
-    private CLabel               cLabel1           = null;
-    private CLabel               cLabel2           = null;
-    private CLabel               cLabel3           = null;
-    private CLabel               cLabel4           = null;
-    private CLabel               cLabel5           = null;
-    private CLabel               cLabel6           = null;
-
-    private Group                groupSourceInputs = null;
-    private CCombo               cComboFirstLayer  = null;
-    private CCombo               cComboRelations   = null;
-    private CCombo               cComboSecondLayer = null;
-    private Group                groupTargetInputs;
-    private ResultLayerComposite resultComposite;
-
-    // Spatial filter names
-    private final String[]       filterNames       = new String[]{
-            "intersect", "overlaps",
-            "contains", "covers", "is-cover-by", 
-            "crosses", "disjoint", "equals", "overlap",
-            "within", "is-within-distance"         };
-    
-    
+    private static final int     GRID_DATA_1_WIDTH_HINT      = 125;
+    private static final int     GRID_DATA_2_WIDTH_HINT      = 150;
+    private static final int     GRID_DATA_3_WIDTH_HINT      = 170;
+    private static final int     GRID_DATA_4_WIDTH_HINT      = 150;
+
+    /** relations presented in the relation combo, in the same order */
+    private static final SpatialRelation[] RELATIONS         = new SpatialRelation[]{
+            SpatialRelation.INTERSECTS, SpatialRelation.CONTAINS, SpatialRelation.WITHIN,
+            SpatialRelation.DWITHIN                         };
+
+    // widgets
+    private Group                groupSourceInputs           = null;
+    private Group                groupTargetInputs           = null;
+    private ResultLayerComposite resultComposite             = null;
+    private CLabel               cLabel                      = null;
+    private CLabel               cLabel1                     = null;
+    private CLabel               cLabelFeaturesInFirstLayer  = null;
+    private CLabel               cLabel3                     = null;
+    private CLabel               cLabel4                     = null;
+    private CLabel               cLabelFeaturesInSecondLayer = null;
+    private CLabel               cLabelRelation              = null;
+    private CLabel               cLabelDistance              = null;
+    private CCombo               comboFirstLayer             = null;
+    private CCombo               comboSecondLayer            = null;
+    private CCombo               comboRelation               = null;
+    private Text                 textDistance                = null;
+
+    // data
+    private ILayer               currentFirstLayer           = null;
+    private ILayer               currentSecondLayer          = null;
+    private SpatialRelation      currentRelation             = null;
+    private Double               currentDistance             = null;
+
+    private FeatureCollection<SimpleFeatureType, SimpleFeature>    featuresInFirstLayer        = null;
+    private FeatureCollection<SimpleFeatureType, SimpleFeature>    featuresInSecondLayer       = null;
+
+
     public SpatialJoinGeomComposite( Composite parent, int style ) {
         super(parent, style);
         super.initialize();
     }
 
+    @Override
+    public String getOperationName(){
+        return Messages.SpatialJoinGeomComposite_operation_name;
+    }
+
+    @Override
+    public String getToolTipText() {
+        return Messages.SpatialJoinGeomCommand_description;
+    }
+
     @Override
     protected void createContents() {
 
         GridLayout gridLayout = new GridLayout();
         setLayout(gridLayout);
 
-        createSourceInput();
+        createGroupSourceInputs();
         createGroupTargetInputs();
     }
 
     /**
-     * This method initializes groupSourceInputs	
-     *
+     * This method initializes group for source inputs
      */
-    private void createSourceInput() {
-        GridData gridData9 = new GridData();
-        gridData9.widthHint = 100;
-        GridData gridData8 = new GridData();
-        gridData8.widthHint = 100;
-        GridData gridData4 = new GridData();
-        gridData4.horizontalAlignment = GridData.FILL;
-        gridData4.grabExcessHorizontalSpace = true;
-        gridData4.verticalAlignment = GridData.CENTER;
-        GridData gridData3 = new GridData();
-        gridData3.grabExcessHorizontalSpace = true;
-        gridData3.verticalAlignment = GridData.CENTER;
-        gridData3.horizontalAlignment = GridData.FILL;
-        GridData gridData2 = new GridData();
-        gridData2.grabExcessHorizontalSpace = true;
-        gridData2.verticalAlignment = GridData.CENTER;
-        gridData2.horizontalAlignment = GridData.FILL;
+    private void createGroupSourceInputs() {
+
         GridLayout gridLayout = new GridLayout();
         gridLayout.numColumns = 4;
+
         GridData gridData = new GridData();
         gridData.horizontalAlignment = GridData.FILL;
         gridData.grabExcessHorizontalSpace = true;
+        gridData.grabExcessVerticalSpace = false;
         gridData.verticalAlignment = GridData.CENTER;
+
         groupSourceInputs = new Group(this, SWT.NONE);
-        groupSourceInputs.setText("Source");
+        groupSourceInputs.setText(Messages.IntersectComposite_source);
         groupSourceInputs.setLayout(gridLayout);
         groupSourceInputs.setLayoutData(gridData);
+
+        // first layer
         cLabel = new CLabel(groupSourceInputs, SWT.NONE);
-        cLabel.setText("First Layer");
-        cComboFirstLayer = new CCombo(groupSourceInputs, SWT.NONE);
-        cComboFirstLayer.setLayoutData(gridData2);
+        cLabel.setText(Messages.IntersectComposite_first_layer);
+        cLabel.setLayoutData(createCellGridData(GRID_DATA_1_WIDTH_HINT));
+
+        comboFirstLayer = new CCombo(groupSourceInputs, SWT.BORDER | SWT.READ_ONLY);
+        comboFirstLayer.setLayoutData(createCellGridData(GRID_DATA_2_WIDTH_HINT));
+        comboFirstLayer.addSelectionListener(new SelectionAdapter(){
+            @Override
+            public void widgetSelected( @SuppressWarnings("unused")
+                                        SelectionEvent e ) {
+                
+                selectedFirstLayerActions();
+            }
+        });
+
         cLabel1 = new CLabel(groupSourceInputs, SWT.NONE);
-        cLabel1.setText("Selected Features");
-        cLabel2 = new CLabel(groupSourceInputs, SWT.BORDER);
-        cLabel2.setText("0");
-        cLabel2.setLayoutData(gridData8);
+        cLabel1.setText(Messages.IntersectComposite_selected_features);
+        cLabel1.setLayoutData(createCellGridData(GRID_DATA_3_WIDTH_HINT));
+
+        cLabelFeaturesInFirstLayer = new CLabel(groupSourceInputs, SWT.BORDER);
+        cLabelFeaturesInFirstLayer.setText(""); //$NON-NLS-1$
+        cLabelFeaturesInFirstLayer.setLayoutData(createCellGridData(GRID_DATA_4_WIDTH_HINT));
+
+        // relation and distance
+        cLabelRelation = new CLabel(groupSourceInputs, SWT.NONE);
+        cLabelRelation.setText(Messages.SpatialJoinGeomComposite_relation);
+        cLabelRelation.setLayoutData(createCellGridData(GRID_DATA_1_WIDTH_HINT));
+
+        comboRelation = new CCombo(groupSourceInputs, SWT.BORDER | SWT.READ_ONLY);
+        comboRelation.setLayoutData(createCellGridData(GRID_DATA_2_WIDTH_HINT));
+        comboRelation.addSelectionListener(new SelectionAdapter(){
+            @Override
+            public void widgetSelected( @SuppressWarnings("unused")
+                                        SelectionEvent e ) {
+                
+                selectedRelationActions();
+            }
+        });
+
+        cLabelDistance = new CLabel(groupSourceInputs, SWT.NONE);
+        cLabelDistance.setText(Messages.SpatialJoinGeomComposite_distance);
+        cLabelDistance.setLayoutData(createCellGridData(GRID_DATA_3_WIDTH_HINT));
+
+        textDistance = new Text(groupSourceInputs, SWT.BORDER | SWT.RIGHT);
+        textDistance.setLayoutData(createCellGridData(GRID_DATA_4_WIDTH_HINT));
+        textDistance.setEnabled(false);
+        textDistance.addModifyListener(new ModifyListener(){
+            public void modifyText( @SuppressWarnings("unused")
+                                    ModifyEvent e ) {
+                
+                modifiedDistanceActions();
+            }
+        });
+
+        // second layer
         cLabel3 = new CLabel(groupSourceInputs, SWT.NONE);
-        cLabel3.setText("Relation");
-        cComboRelations = new CCombo(groupSourceInputs, SWT.NONE);
-        cComboRelations.setLayoutData(gridData3);
-        Label filler = new Label(groupSourceInputs, SWT.NONE);
-        Label filler1 = new Label(groupSourceInputs, SWT.NONE);
+        cLabel3.setText(Messages.IntersectComposite_second_layer);
+        cLabel3.setLayoutData(createCellGridData(GRID_DATA_1_WIDTH_HINT));
+
+        comboSecondLayer = new CCombo(groupSourceInputs, SWT.BORDER | SWT.READ_ONLY);
+        comboSecondLayer.setLayoutData(createCellGridData(GRID_DATA_2_WIDTH_HINT));
+        comboSecondLayer.addSelectionListener(new SelectionAdapter(){
+            @Override
+            public void widgetSelected( @SuppressWarnings("unused")
+                                        SelectionEvent e ) {
+                
+                selectedSecondLayerActions();
+            }
+        });
+
         cLabel4 = new CLabel(groupSourceInputs, SWT.NONE);
-        cLabel4.setText("Second Layer");
-        cComboSecondLayer = new CCombo(groupSourceInputs, SWT.NONE);
-        cComboSecondLayer.setLayoutData(gridData4);
-        cLabel5 = new CLabel(groupSourceInputs, SWT.NONE);
-        cLabel5.setText("Selected Features");
-        cLabel6 = new CLabel(groupSourceInputs, SWT.BORDER);
-        cLabel6.setText("0");
-        cLabel6.setLayoutData(gridData9);
+        cLabel4.setText(Messages.IntersectComposite_selected_features);
+        cLabel4.setLayoutData(createCellGridData(GRID_DATA_3_WIDTH_HINT));
+
+        cLabelFeaturesInSecondLayer = new CLabel(groupSourceInputs, SWT.BORDER);
+        cLabelFeaturesInSecondLayer.setText(""); //$NON-NLS-1$
+        cLabelFeaturesInSecondLayer.setLayoutData(createCellGridData(GRID_DATA_4_WIDTH_HINT));
+    }
+
+    private static GridData createCellGridData( final int widthHint ) {
+
+        GridData gridData = new GridData();
+        gridData.horizontalAlignment = GridData.BEGINNING;
+        gridData.grabExcessHorizontalSpace = false;
+        gridData.grabExcessVerticalSpace = true;
+        gridData.verticalAlignment = GridData.CENTER;
+        gridData.widthHint = widthHint;
+
+        return gridData;
     }
 
     /**
@@ -190,63 +287,332 @@ public final class SpatialJoinGeomComposite extends AggregatedPresenter {
         
     }
 
+    /**
+     * Populates the layer and relation comboboxs
+     */
     @Override
     protected void populate() {
         
+        loadComboWithLayerList(this.comboFirstLayer);
+        loadComboWithLayerList(this.comboSecondLayer);
         
-        loadComboWithLayerList(this.cComboFirstLayer);
-        loadComboWithLayerList(this.cComboSecondLayer);
-        
-        if(cComboRelations.getItemCount() == 0){
+        if (this.comboRelation.getItemCount() == 0) {
             // only load the relations the first time
-
-            for( int i = 0; i < filterNames.length; i++ ) {
-                cComboRelations.add(filterNames[i]);
+            for( SpatialRelation relation : RELATIONS ) {
+                this.comboRelation.add(getRelationName(relation));
             }
         }
         selectDefaultLayer();
         
         // validat is required to set the initial values in the associated command
         validate();
-        
     }
 
-    @Override
-    public String getOperationName(){
-        // default 
-        return "Spatial Join Geometries"; //$NON-NLS-1$
-    };
+    /**
+     * @param relation
+     * @return the name presented for the relation
+     */
+    private static String getRelationName( final SpatialRelation relation ) {
 
+        switch( relation ) {
+        case INTERSECTS:
+            return Messages.SpatialJoinGeomComposite_intersects;
+        case CONTAINS:
+            return Messages.SpatialJoinGeomComposite_contains;
+        case WITHIN:
+            return Messages.SpatialJoinGeomComposite_within;
+        case DWITHIN:
+            return Messages.SpatialJoinGeomComposite_dwithin;
+        default:
+            throw new IllegalArgumentException(String.valueOf(relation));
+        }
+    }
 
     /**
-     *
+     * Sets the selected layer in map has default for first layer.
      */
     private void selectDefaultLayer() {
+
+        // gets the selected layer from map in the current context
+        IToolContext context = getContext();
+        if (context == null)
+            return;
+
+        ILayer selectedLayerInMap = context.getSelectedLayer();
+        if (selectedLayerInMap == null)
+            return;
+
+        this.currentFirstLayer = selectedLayerInMap;
+
+        this.featuresInFirstLayer = presentSelectedFeaturesSum(this.currentFirstLayer, this.currentFirstLayer.getFilter(),
+                                                               this.cLabelFeaturesInFirstLayer);
+
+        changeSelectedLayer(this.currentFirstLayer, this.comboFirstLayer);
     }
 
     /**
-     *
-     * @param layerName
+     * Sets the selected First layer and its features has current. 
      */
-    protected void requiredFeatureTypeActions( String layerName ) {
+    private void selectedFirstLayerActions() {
+        
+        ILayer selectedLayer = getSelecedLayer(this.comboFirstLayer);
+        if (selectedLayer == null)
+            return;
+
+        this.currentFirstLayer = selectedLayer;
+
+        this.featuresInFirstLayer = presentSelectedFeaturesSum(this.currentFirstLayer, this.currentFirstLayer.getFilter(),
+                                                               this.cLabelFeaturesInFirstLayer);
+
+        validate();
     }
 
     /**
-     *
+     * Sets the selected Second layer and its features has current. 
+     */
+    private void selectedSecondLayerActions() {
+        
+        ILayer selectedLayer = getSelecedLayer(this.comboSecondLayer);
+        if (selectedLayer == null)
+            return;
+
+        this.currentSecondLayer = selectedLayer;
+
+        this.featuresInSecondLayer = presentSelectedFeaturesSum(this.currentSecondLayer,
+                                                                this.currentSecondLayer.getFilter(),
+                                                                this.cLabelFeaturesInSecondLayer);
+
+        validate();
+    }
+
+    /**
+     * Sets the selected relation as current, the distance is only enabled for
+     * {@link SpatialRelation#DWITHIN}
+     */
+    private void selectedRelationActions() {
+
+        final int index = this.comboRelation.getSelectionIndex();
+        this.currentRelation = (index == -1) ? null : RELATIONS[index];
+
+        this.textDistance.setEnabled(this.currentRelation == SpatialRelation.DWITHIN);
+
+        validate();
+    }
+
+    /**
+     * Sets the distance as current, it is null if the text is not a number
+     */
+    private void modifiedDistanceActions() {
+
+        final String text = this.textDistance.getText().trim();
+        try {
+            this.currentDistance = (text.length() == 0) ? null : Double.valueOf(text);
+
+        } catch (NumberFormatException e) {
+            this.currentDistance = null;
+        }
+        validate();
+    }
+
+    /**
+     * Create the a new feature type with the specified layer name
+     * @param layerName 
+     */
+    private void requiredFeatureTypeActions( @SuppressWarnings("unused")
+                                             final String layerName ) {
+        validate();
+    }
+
+    /**
+     * Sets the current layer and validate inputs
+     * 
      * @param selectedLayer
      */
-    protected void selectedTargetLayerActions( ILayer selectedLayer ) {
+    private void selectedTargetLayerActions( @SuppressWarnings("unused")
+                                             final ILayer selectedLayer ) {
+        validate();
+    }
+
+    @Override
+    public void setEnabled( boolean enabled ) {
+        groupSourceInputs.setEnabled(enabled);
+        groupTargetInputs.setEnabled(enabled);
+        resultComposite.setEnabled(enabled);
+        comboFirstLayer.setEnabled(enabled);
+        comboSecondLayer.setEnabled(enabled);
+        comboRelation.setEnabled(enabled);
+        textDistance.setEnabled(enabled && this.currentRelation == SpatialRelation.DWITHIN);
     }
 
     /**
-     *
+     * Validate parameters, if they are ok enable operation
      */
     private void validate() {
-        
+
+        // Sets the parameters values in controller to do the validation
         SpatialJoinGeomController ctrl = (SpatialJoinGeomController) getController();
-        // TODO sets parameters
+        if (!ctrl.isRunning()) {
+            return;
+        }
+
+        if (this.resultComposite.isLayerSelected()) {
+
+            ILayer targetLayer = this.resultComposite.getCurrentTargetLayer();
+
+            ctrl.setParameters(this.currentFirstLayer, this.featuresInFirstLayer,
+                               this.currentSecondLayer, this.featuresInSecondLayer,
+                               this.currentRelation, this.currentDistance,
+                               targetLayer);
+        } else {
+            final String layerName = this.resultComposite.getNewLayerName();
+            final SimpleFeatureType featureType = buildFeatureType(layerName);
+
+            ctrl.setParameters(this.currentFirstLayer, this.featuresInFirstLayer,
+                               this.currentSecondLayer, this.featuresInSecondLayer,
+                               this.currentRelation, this.currentDistance,
+                               featureType);
+        }
 
         ctrl.validate();
     }
-    
+
+    /**
+     * The target has the geometry, in the map crs, and the attributes of first layer, and the
+     * attributes of second layer whose names are not in first layer.
+     * 
+     * @return the target feature type, null if the layers are not selected
+     */
+    private SimpleFeatureType buildFeatureType( final String layerName ) {
+
+        if (this.currentFirstLayer == null || this.currentSecondLayer == null) {
+            return null;
+        }
+        final CoordinateReferenceSystem crs = getCurrentMapCrs();
+        assert crs != null;
+        SimpleFeatureType newFeatureType = null;
+        try {
+            SimpleFeatureType geometryType = GeoToolsUtils.createDefaultFeatureType(layerName, crs)
+                                                          .buildFeatureType();
+            Set<String> names = new HashSet<String>();
+            for( AttributeDescriptor attribute : geometryType.getAttributes() ) {
+                names.add(attribute.getLocalName());
+            }
+            SimpleFeatureTypeBuilder typeBuilder = GeoToolsUtils.createDefaultFeatureType(layerName, crs);
+            addAttributes(typeBuilder, names, this.currentFirstLayer.getSchema());
+            addAttributes(typeBuilder, names, this.currentSecondLayer.getSchema());
+
+            newFeatureType = typeBuilder.buildFeatureType();
+            
+        } catch (IllegalArgumentException e) {
+            Message message = new Message(Messages.IntersectComposite_can_not_create_targetFeatureType,
+                                       Message.Type.ERROR);
+            
+            this.getController().setMessage(message);
+        }
+        return newFeatureType;
+    }
+
+    /**
+     * Adds the no geometric attributes of the source whose names were not added
+     * 
+     * @param typeBuilder
+     * @param names names of the attributes in the builder, the added ones are included
+     * @param source
+     */
+    private static void addAttributes( final SimpleFeatureTypeBuilder typeBuilder,
+                                       final Set<String> names,
+                                       final SimpleFeatureType source ) {
+
+        List<AttributeDescriptor> attributes = source.getAttributes();
+        for( AttributeDescriptor attribute : attributes ) {
+
+            if (attribute == source.getDefaultGeometry()) {
+                continue;
+            }
+            final String name = attribute.getLocalName();
+            if (names.add(name)) {
+                typeBuilder.add(attribute);
+            }
+        }
+    }
+
+    /**
+     * Reinitialize parameter values
+     */
+    @Override
+    protected void clearInputs() {
+        
+        // initializes data
+        this.currentFirstLayer = null;
+        this.currentSecondLayer = null;
+        this.currentRelation = null;
+        this.currentDistance = null;
+
+        // initializes widgets
+        this.comboFirstLayer.removeAll();
+        this.comboSecondLayer.removeAll();
+        this.comboRelation.clearSelection();
+        this.textDistance.setText(""); //$NON-NLS-1$
+        this.textDistance.setEnabled(false);
+
+        this.cLabelFeaturesInFirstLayer.setText(""); //$NON-NLS-1$
+        this.cLabelFeaturesInSecondLayer.setText(""); //$NON-NLS-1$
+    }
+
+    /**
+     * Maintains the consistence between the presented layers and features 
+     * in map model and this view
+     */
+    @Override
+    protected final void changedLayerListActions() {
+
+        // change the list of layers
+        this.comboFirstLayer.removeAll();
+        this.comboSecondLayer.removeAll();
+
+        populate();
+
+        // update the selection 
+        changeSelectedLayer(this.currentFirstLayer, this.comboFirstLayer);
+        selectedFirstLayerActions();
+
+        changeSelectedLayer(this.currentSecondLayer, this.comboSecondLayer);
+        selectedSecondLayerActions();
+    }
+
+    @Override
+    protected void addedLayerActions( ILayer layer ) {
+        super.addedLayerActions(layer);
+        
+        changedLayerListActions();
+    }
+
+    @Override
+    protected void removedLayerActions( ILayer layer ) {
+        super.removedLayerActions(layer);
+
+        changedLayerListActions();
+    }
+
+    /**
+     * Changes the count of features selected of the selected layer
+     */
+    @Override
+    protected void changedFilterSelectionActions( final ILayer layer, final Filter newFilter ) {
+
+        if (layer.equals(this.currentFirstLayer)) {
+
+            this.featuresInFirstLayer = presentSelectedFeaturesSum(this.currentFirstLayer,
+                                                                   newFilter,
+                                                                   this.cLabelFeaturesInFirstLayer);
+        } 
+        if (layer.equals(this.currentSecondLayer)) {
+
+            this.featuresInSecondLayer = presentSelectedFeaturesSum(this.currentSecondLayer,
+                                                                    newFilter,
+                                                                    this.cLabelFeaturesInSecondLayer);
+        } 
+        validate();
+    }
+
 }  //  @jve:decl-index=0:visual-constraint="10,10"
@@ -46,15 +46,21 @@ import org.eclipse.swt.widgets.Display;
 import es.axios.udig.spatialoperations.internal.control.BufferController;
 import es.axios.udig.spatialoperations.internal.control.ClipController;
 import es.axios.udig.spatialoperations.internal.control.ISOController;
+import es.axios.udig.spatialoperations.internal.control.DissolveController;
 import es.axios.udig.spatialoperations.internal.control.IntersectController;
+import es.axios.udig.spatialoperations.internal.control.SpatialJoinGeomController;
 import es.axios.udig.spatialoperations.internal.i18n.Messages;
 import es.axios.udig.spatialoperations.internal.modelconnection.BufferCommand;
 import es.axios.udig.spatialoperations.internal.modelconnection.ClipCommand;
+import es.axios.udig.spatialoperations.internal.modelconnection.DissolveCommand;
 import es.axios.udig.spatialoperations.internal.modelconnection.IntersectCommand;
+import es.axios.udig.spatialoperations.internal.modelconnection.SpatialJoinGeomCommand;
 import es.axios.udig.spatialoperations.internal.ui.parameters.ISOParamsPresenter;
 import es.axios.udig.spatialoperations.internal.ui.parameters.buffer.BufferComposite;
 import es.axios.udig.spatialoperations.internal.ui.parameters.clip.ClipComposite;
+import es.axios.udig.spatialoperations.internal.ui.parameters.dissolve.DissolveComposite;
 import es.axios.udig.spatialoperations.internal.ui.parameters.intersect.IntersectComposite;
+import es.axios.udig.spatialoperations.internal.ui.parameters.spatialjoingeom.SpatialJoinGeomComposite;
 
 /**
  * Generic frame continer for operation presentation.
@@ -383,15 +389,24 @@ final class SOComposite  extends Composite implements ISOPresenter{
         addOperationOptions(intersectParamsPresenter);
         
         // create spatial join geometries operation
-// TODO working was comment for 0.1.0
-//        ISOParamsPresenter sjgParamsPresenter = new SpatialJoinGeomComposite(paramsContainer, SWT.NONE);
-//        
-//        ISOController sjgController = new  SpatialJoinGeomController();
-//        sjgController.setSpatialOperationPresenter(this);
-//        sjgController.addParamsPresenter(sjgParamsPresenter);
-//        sjgController.setCommand(new SpatialJoinGeomCommand());
-//        
-//        addOperationOptions(sjgParamsPresenter);
+        ISOParamsPresenter sjgParamsPresenter = new SpatialJoinGeomComposite(paramsContainer, SWT.NONE);
+        
+        ISOController sjgController = new SpatialJoinGeomController();
+        sjgController.setSpatialOperationPresenter(this);
+        sjgController.addParamsPresenter(sjgParamsPresenter);
+        sjgController.setCommand(new SpatialJoinGeomCommand());
+        
+        addOperationOptions(sjgParamsPresenter);
+        
+        // create dissolve operation
+        ISOParamsPresenter dissolveParamsPresenter = new DissolveComposite(paramsContainer, SWT.NONE);
+        
+        ISOController dissolveController = new DissolveController();
+        dissolveController.setSpatialOperationPresenter(this);
+        dissolveController.addParamsPresenter(dissolveParamsPresenter);
+        dissolveController.setCommand(new DissolveCommand());
+        
+        addOperationOptions(dissolveParamsPresenter);
         
         // sets selection event
         this.comboOperations.clearSelection();
@@ -0,0 +1,370 @@
+package net.refractions.linecleaner.cleansing.test;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+import net.refractions.linecleaner.GeometryUtil;
+import net.refractions.linecleaner.SimilarityMetric;
+import net.refractions.linecleaner.cleansing.AbstractProcessor;
+import net.refractions.linecleaner.cleansing.CleansingPipeline;
+import net.refractions.linecleaner.cleansing.CyclesProcessor;
+import net.refractions.linecleaner.cleansing.DouglasPeuckerProcessor;
+import net.refractions.linecleaner.cleansing.EndNodesProcessor;
+import net.refractions.linecleaner.cleansing.MinimumLengthProcessor;
+import net.refractions.linecleaner.cleansing.NodeInsertionProcessor;
+import net.refractions.linecleaner.cleansing.PauseMonitor;
+import net.refractions.linecleaner.cleansing.PerformCleansingAction;
+import net.refractions.linecleaner.cleansing.PseudoNodeProcessor;
+import net.refractions.linecleaner.cleansing.SimilarLinesProcessor;
+import net.refractions.udig.project.internal.EditManager;
+import net.refractions.udig.project.internal.Layer;
+import net.refractions.udig.project.internal.Map;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.emf.common.util.ECollections;
+import org.geotools.data.FeatureStore;
+
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * <p>
+ * Benchmarks the similarity metric, linestring subdivision, each processor and the
+ * whole of PerformCleansingAction against a network from RoadNetworkGenerator,
+ * so that changes to the cleansing engine can be measured and compared.
+ * </p>
+ * <p>
+ * Every benchmark is run for a number of warmup iterations, which aren't
+ * counted, and then timed over a number of measurement iterations.  Anything
+ * that modifies the store gets a fresh copy of the generated network for each
+ * iteration, and making the copy isn't timed.  Results are printed one line per
+ * benchmark, as comma separated name, iterations, mean, min and max milliseconds.
+ * </p>
+ * <p>
+ * Usage: CleansingBenchmark [size [noise [duplicateRate [iterations]]]]
+ * </p>
+ */
+public class CleansingBenchmark {
+
+	/**
+	 * The code being timed.
+	 */
+	public interface Operation {
+		public void run() throws Exception;
+	}
+
+	/**
+	 * Prepares a fresh Operation for each iteration; preparing isn't timed.
+	 */
+	public interface Setup {
+		public Operation prepare() throws Exception;
+	}
+
+	private int warmupIterations = 2;
+	private int measurementIterations = 5;
+	private PrintStream out = System.out;
+
+	private RoadNetworkGenerator generator;
+	private File directory;
+	private FeatureStore network;
+	private int copies = 0;
+
+	// cleansing parameters, as used by CleansingTest
+	private double minimumLength = 10;
+	private double minimumCycleLength = -1;
+	private double nodeDistanceTolerance = 25;
+	private double areaTolerance = 2500;
+	private double douglasPeuckerTolerance = 5;
+	private double samplingDistance = 10;
+	private double verySimilarTolerance = 5;
+	private double similarTolerance = 10;
+
+	public CleansingBenchmark(RoadNetworkGenerator generator) {
+		this.generator = generator;
+	}
+
+	public void setWarmupIterations(int warmupIterations) {
+		this.warmupIterations = warmupIterations;
+	}
+
+	public void setMeasurementIterations(int measurementIterations) {
+		this.measurementIterations = Math.max(1, measurementIterations);
+	}
+
+	public void setOutput(PrintStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Time setup's operations.
+	 * @param name
+	 * @param setup
+	 * @return Mean milliseconds per measured iteration.
+	 * @throws Exception
+	 */
+	public double measure(String name, Setup setup) throws Exception {
+		for (int i = 0; i < warmupIterations; i++) {
+			setup.prepare().run();
+		}
+		double total = 0;
+		double min = Double.POSITIVE_INFINITY;
+		double max = 0;
+		for (int i = 0; i < measurementIterations; i++) {
+			Operation operation = setup.prepare();
+			System.gc();
+			long start = System.nanoTime();
+			operation.run();
+			double elapsed = (System.nanoTime() - start) / 1000000.0;
+			total += elapsed;
+			min = Math.min(min, elapsed);
+			max = Math.max(max, elapsed);
+		}
+		double mean = total / measurementIterations;
+		out.println(name + "," + measurementIterations + "," + mean + "," + min + "," + max);
+		return mean;
+	}
+
+	/**
+	 * Run all the benchmarks.
+	 * @throws Exception
+	 */
+	public void runAll() throws Exception {
+		directory = File.createTempFile("benchmark", "");
+		directory.delete();
+		directory.mkdirs();
+		network = generator.createStore(new File(directory, "network.shp"));
+
+		out.println("benchmark,iterations,mean ms,min ms,max ms");
+		measureMetric();
+		measureSubdivide();
+		measureProcessors();
+		measureCleansing();
+	}
+
+	private void measureMetric() throws Exception {
+		final List<LineString> lines = generator.generate();
+		final SimilarityMetric metric = new SimilarityMetric();
+		measure("SimilarityMetric.similarityF", new Setup() {
+			public Operation prepare() {
+				return new Operation() {
+					public void run() {
+						for (int i = 1; i < lines.size(); i++) {
+							metric.similarityF(lines.get(i-1), lines.get(i), samplingDistance);
+						}
+					}
+				};
+			}
+		});
+	}
+
+	private void measureSubdivide() throws Exception {
+		final List<LineString> lines = generator.generate();
+		measure("GeometryUtil.subdivide", new Setup() {
+			public Operation prepare() {
+				return new Operation() {
+					public void run() {
+						for (LineString line : lines) {
+							GeometryUtil.subdivide(line, samplingDistance);
+						}
+					}
+				};
+			}
+		});
+		measure("GeometryUtil.subdivide(OrdinateFunction)", new Setup() {
+			public Operation prepare() {
+				return new Operation() {
+					public void run() {
+						for (LineString line : lines) {
+							GeometryUtil.subdivide(line, samplingDistance, new GeometryUtil.OrdinateFunction() {
+								public boolean run(double x, double y) {
+									return true;
+								}
+							});
+						}
+					}
+				};
+			}
+		});
+	}
+
+	/**
+	 * Creates a processor to run against a fresh copy of the network.
+	 */
+	private interface ProcessorFactory {
+		public AbstractProcessor create(FeatureStore store) throws Exception;
+	}
+
+	private void measureProcessor(String name, final ProcessorFactory factory) throws Exception {
+		measure(name, new Setup() {
+			public Operation prepare() throws Exception {
+				final AbstractProcessor processor = factory.create(copyNetwork());
+				return new Operation() {
+					public void run() throws Exception {
+						processor.run(null, new PauseMonitor());
+					}
+				};
+			}
+		});
+	}
+
+	private void measureProcessors() throws Exception {
+		final int processors = Runtime.getRuntime().availableProcessors();
+		measureProcessor("MinimumLengthProcessor", new ProcessorFactory() {
+			public AbstractProcessor create(FeatureStore store) {
+				return new MinimumLengthProcessor(null, store, minimumLength);
+			}
+		});
+		measureProcessor("MinimumLengthProcessor(parallel)", new ProcessorFactory() {
+			public AbstractProcessor create(FeatureStore store) {
+				MinimumLengthProcessor processor = new MinimumLengthProcessor(null, store, minimumLength);
+				processor.setParallelism(processors);
+				return processor;
+			}
+		});
+		measureProcessor("PseudoNodeProcessor", new ProcessorFactory() {
+			public AbstractProcessor create(FeatureStore store) {
+				return new PseudoNodeProcessor(null, store, nodeDistanceTolerance);
+			}
+		});
+		measureProcessor("DouglasPeuckerProcessor", new ProcessorFactory() {
+			public AbstractProcessor create(FeatureStore store) {
+				return new DouglasPeuckerProcessor(null, store, douglasPeuckerTolerance);
+			}
+		});
+		measureProcessor("DouglasPeuckerProcessor(parallel)", new ProcessorFactory() {
+			public AbstractProcessor create(FeatureStore store) {
+				DouglasPeuckerProcessor processor = new DouglasPeuckerProcessor(null, store, douglasPeuckerTolerance);
+				processor.setParallelism(processors);
+				return processor;
+			}
+		});
+		measureProcessor("CyclesProcessor", new ProcessorFactory() {
+			public AbstractProcessor create(FeatureStore store) {
+				return new CyclesProcessor(null, store, minimumCycleLength);
+			}
+		});
+		measureProcessor("NodeInsertionProcessor", new ProcessorFactory() {
+			public AbstractProcessor create(FeatureStore store) {
+				return new NodeInsertionProcessor(null, store, nodeDistanceTolerance);
+			}
+		});
+		measureProcessor("EndNodesProcessor", new ProcessorFactory() {
+			public AbstractProcessor create(FeatureStore store) {
+				return new EndNodesProcessor(null, store, nodeDistanceTolerance, areaTolerance);
+			}
+		});
+		measureProcessor("SimilarLinesProcessor", new ProcessorFactory() {
+			public AbstractProcessor create(FeatureStore store) throws Exception {
+				return new SimilarLinesProcessor(null, store, samplingDistance, verySimilarTolerance, similarTolerance);
+			}
+		});
+		measureProcessor("CleansingPipeline", new ProcessorFactory() {
+			public AbstractProcessor create(FeatureStore store) {
+				return new CleansingPipeline(null, store, minimumLength, minimumCycleLength,
+						nodeDistanceTolerance, areaTolerance, douglasPeuckerTolerance);
+			}
+		});
+	}
+
+	private void measureCleansing() throws Exception {
+		measureAction("PerformCleansingAction", false, 1);
+		measureAction("PerformCleansingAction(parallel)", false, Runtime.getRuntime().availableProcessors());
+		measureAction("PerformCleansingAction(pipeline)", true, 1);
+	}
+
+	private void measureAction(String name, final boolean pipelineMode, final int parallelism) throws Exception {
+		measure(name, new Setup() {
+			public Operation prepare() throws Exception {
+				FeatureStore store = copyNetwork();
+				final PerformCleansingAction action = new PerformCleansingAction(stubLayer(store),
+						new PauseMonitor(), store, minimumLength, minimumCycleLength, nodeDistanceTolerance,
+						areaTolerance, douglasPeuckerTolerance);
+				action.setPipelineMode(pipelineMode);
+				action.setParallelism(parallelism);
+				return new Operation() {
+					public void run() throws Exception {
+						action.run(new NullProgressMonitor());
+					}
+				};
+			}
+		});
+	}
+
+	/**
+	 * PerformCleansingAction commits through the map of its layer, so it is given a
+	 * stand-in layer whose map has no layers and whose edit manager commits the
+	 * store's transaction.
+	 */
+	private static Layer stubLayer(final FeatureStore store) {
+		final EditManager editManager = (EditManager) stub(EditManager.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("commitTransaction")) {
+					store.getTransaction().commit();
+				}
+				return null;
+			}
+		});
+		final Map map = (Map) stub(Map.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getEditManagerInternal")) {
+					return editManager;
+				}
+				if (method.getName().equals("getLayersInternal")) {
+					return ECollections.EMPTY_ELIST;
+				}
+				return null;
+			}
+		});
+		return (Layer) stub(Layer.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getMapInternal")) {
+					return map;
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * @return A proxy of type that answers the Object methods by identity and
+	 * passes the rest to handler.
+	 */
+	private static Object stub(final Class type, final InvocationHandler handler) {
+		return Proxy.newProxyInstance(CleansingBenchmark.class.getClassLoader(), new Class[] { type },
+				new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("equals") && method.getParameterTypes().length == 1) {
+					return Boolean.valueOf(proxy == args[0]);
+				}
+				if (method.getName().equals("hashCode") && method.getParameterTypes().length == 0) {
+					return new Integer(System.identityHashCode(proxy));
+				}
+				if (method.getName().equals("toString") && method.getParameterTypes().length == 0) {
+					return "stub " + type.getName();
+				}
+				return handler.invoke(proxy, method, args);
+			}
+		});
+	}
+
+	private FeatureStore copyNetwork() throws Exception {
+		File file = new File(directory, "copy" + (copies++) + ".shp");
+		return RoadNetworkGenerator.copy(network, file);
+	}
+
+	public static void main(String[] args) throws Exception {
+		RoadNetworkGenerator generator = new RoadNetworkGenerator();
+		int iterations = 5;
+		if (args.length > 0) generator.setSize(Integer.parseInt(args[0]));
+		if (args.length > 1) generator.setNoise(Double.parseDouble(args[1]));
+		if (args.length > 2) generator.setDuplicateRate(Double.parseDouble(args[2]));
+		if (args.length > 3) iterations = Integer.parseInt(args[3]);
+
+		CleansingBenchmark benchmark = new CleansingBenchmark(generator);
+		benchmark.setMeasurementIterations(iterations);
+		benchmark.runAll();
+	}
+}
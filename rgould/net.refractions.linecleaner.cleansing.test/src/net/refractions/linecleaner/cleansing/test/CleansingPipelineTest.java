@@ -0,0 +1,97 @@
+package net.refractions.linecleaner.cleansing.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.refractions.linecleaner.FeatureUtil;
+import net.refractions.linecleaner.cleansing.AbstractProcessor;
+import net.refractions.linecleaner.cleansing.CleansingPipeline;
+import net.refractions.linecleaner.cleansing.CyclesProcessor;
+import net.refractions.linecleaner.cleansing.DouglasPeuckerProcessor;
+import net.refractions.linecleaner.cleansing.EndNodesProcessor;
+import net.refractions.linecleaner.cleansing.MinimumLengthProcessor;
+import net.refractions.linecleaner.cleansing.NodeInsertionProcessor;
+import net.refractions.linecleaner.cleansing.PauseMonitor;
+import net.refractions.linecleaner.cleansing.PseudoNodeProcessor;
+
+import org.geotools.data.FeatureStore;
+import org.geotools.feature.FeatureIterator;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+public class CleansingPipelineTest extends ProcessorTestCase {
+
+	private static final double MINIMUM_LENGTH = 10;
+	private static final double MINIMUM_CYCLE_LENGTH = -1;
+	private static final double NODE_DISTANCE_TOLERANCE = 25;
+	private static final double AREA_TOLERANCE = 2500;
+	private static final double DOUGLAS_PEUCKER_TOLERANCE = 5;
+
+	@Override
+	protected String getFilename() {
+		return "400features.shp";
+	}
+
+	/**
+	 * The pipeline must leave the same lines as running the processors one after
+	 * another, in the order used by PerformCleansingAction.
+	 */
+	public void testPipelineMatchesProcessors() throws Exception {
+		FeatureStore pipelineStore = copySource("pipeline");
+		CleansingPipeline pipeline = new CleansingPipeline(null, pipelineStore, MINIMUM_LENGTH,
+				MINIMUM_CYCLE_LENGTH, NODE_DISTANCE_TOLERANCE, AREA_TOLERANCE, DOUGLAS_PEUCKER_TOLERANCE);
+		pipeline.run(null, new PauseMonitor());
+
+		assertEquals(10, pipeline.getStageTimings().size());
+		assertTrue(pipeline.getStageTimings().containsKey("Write"));
+
+		FeatureStore processorStore = copySource("processors");
+		AbstractProcessor[] processors = new AbstractProcessor[] {
+				new MinimumLengthProcessor(null, processorStore, MINIMUM_LENGTH),
+				new PseudoNodeProcessor(null, processorStore, NODE_DISTANCE_TOLERANCE),
+				new DouglasPeuckerProcessor(null, processorStore, DOUGLAS_PEUCKER_TOLERANCE),
+				new CyclesProcessor(null, processorStore, MINIMUM_CYCLE_LENGTH),
+				new NodeInsertionProcessor(null, processorStore, NODE_DISTANCE_TOLERANCE),
+				new EndNodesProcessor(null, processorStore, NODE_DISTANCE_TOLERANCE, AREA_TOLERANCE),
+				new PseudoNodeProcessor(null, processorStore),
+				new CyclesProcessor(null, processorStore, MINIMUM_CYCLE_LENGTH)
+		};
+		for (AbstractProcessor processor : processors) {
+			processor.run(null, new PauseMonitor());
+		}
+
+		List<String> expected = getNormalizedGeometries(processorStore);
+		List<String> actual = getNormalizedGeometries(pipelineStore);
+		assertFalse(actual.isEmpty());
+		assertEquals(expected.size(), actual.size());
+		assertEquals(expected, actual);
+	}
+
+	private FeatureStore copySource(String prefix) throws Exception {
+		File file = File.createTempFile(prefix, ".shp");
+		file.deleteOnExit();
+		return FeatureUtil.copyFeatureStore((FeatureStore) source, file.toURL());
+	}
+
+	/**
+	 * The feature ids of the lines created by node insertion depend on the store, so
+	 * the lines are compared by their normalized geometry.
+	 */
+	private static List<String> getNormalizedGeometries(FeatureStore store) throws Exception {
+		List<String> geometries = new ArrayList<String>();
+		FeatureIterator i = store.getFeatures().features();
+		try {
+			while (i.hasNext()) {
+				Geometry geometry = (Geometry) i.next().getDefaultGeometry().clone();
+				geometry.normalize();
+				geometries.add(geometry.toText());
+			}
+		} finally {
+			i.close();
+		}
+		Collections.sort(geometries);
+		return geometries;
+	}
+}
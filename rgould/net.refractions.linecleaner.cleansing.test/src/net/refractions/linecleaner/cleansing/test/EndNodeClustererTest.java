@@ -0,0 +1,55 @@
+package net.refractions.linecleaner.cleansing.test;
+
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.refractions.linecleaner.cleansing.EndNodeClusterer;
+import net.refractions.linecleaner.cleansing.NodeCollection;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+public class EndNodeClustererTest extends TestCase {
+
+	public void testCollections() throws Exception {
+		EndNodeClusterer clusterer = new EndNodeClusterer(3);
+		// a chain of nodes 2 apart, joined through feature 3
+		clusterer.add("f1", new Coordinate(0, 0), new Coordinate(100, 0));
+		clusterer.add("f2", new Coordinate(2, 0), new Coordinate(200, 0));
+		clusterer.add("f3", new Coordinate(50, 50), new Coordinate(4, 0));
+		// same location as f1's start, so not a neighbour of it
+		clusterer.add("f4", new Coordinate(0, 0), new Coordinate(300, 300));
+		// closed feature, near f1's end
+		clusterer.add("f5", new Coordinate(101, 1), new Coordinate(101, 1));
+		// too far from anything
+		clusterer.add("f6", new Coordinate(500, 500), new Coordinate(510, 500));
+
+		List<NodeCollection> collections = clusterer.cluster(new GeometryFactory(), null);
+		assertEquals(2, collections.size());
+
+		NodeCollection first = collections.get(0);
+		assertEquals(4, first.size());
+		assertNode(first, 0, "f1", 0, 0);
+		assertNode(first, 1, "f2", 2, 0);
+		assertNode(first, 2, "f3", 4, 0);
+		assertNode(first, 3, "f4", 0, 0);
+
+		NodeCollection second = collections.get(1);
+		assertEquals(2, second.size());
+		assertNode(second, 0, "f1", 100, 0);
+		assertNode(second, 1, "f5", 101, 1);
+	}
+
+	private void assertNode(NodeCollection collection, int index, String fid, double x, double y) {
+		Iterator<Point> iter = collection.iterator();
+		for (int i = 0; i < index; i++) {
+			iter.next();
+		}
+		Point point = iter.next();
+		assertEquals(fid, point.getUserData());
+		assertEquals(x, point.getX(), 0.0);
+		assertEquals(y, point.getY(), 0.0);
+	}
+}
@@ -0,0 +1,76 @@
+package net.refractions.linecleaner.cleansing.test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import net.refractions.linecleaner.cleansing.IntSetIndex;
+import net.refractions.linecleaner.cleansing.LongDoubleMap;
+
+public class LongDoubleMapTest extends TestCase {
+
+	public void testAgainstHashMap() throws Exception {
+		Random random = new Random(3);
+		LongDoubleMap map = new LongDoubleMap();
+		Map<Long, Double> expected = new HashMap<Long, Double>();
+
+		for (int i = 0; i < 200000; i++) {
+			long key = random.nextInt(5000);
+			switch (random.nextInt(3)) {
+			case 0:
+				double value = random.nextDouble();
+				map.put(key, value);
+				expected.put(key, value);
+				break;
+			case 1:
+				assertEquals(expected.remove(key) != null, map.remove(key));
+				break;
+			default:
+				Double e = expected.get(key);
+				double actual = map.get(key, Double.NaN);
+				if (e == null) {
+					assertTrue(Double.isNaN(actual));
+				} else {
+					assertEquals(e.doubleValue(), actual, 0.0);
+				}
+			}
+			assertEquals(expected.size(), map.size());
+		}
+
+		map.retainAll(new LongDoubleMap.KeyFilter() {
+			public boolean accept(long key) {
+				return key % 7 != 0;
+			}
+		});
+		for (Iterator<Long> i = expected.keySet().iterator(); i.hasNext();) {
+			if (i.next() % 7 == 0) {
+				i.remove();
+			}
+		}
+		assertEquals(expected.size(), map.size());
+		for (Map.Entry<Long, Double> e : expected.entrySet()) {
+			assertEquals(e.getValue().doubleValue(), map.get(e.getKey(), Double.NaN), 0.0);
+		}
+	}
+
+	public void testIntSetIndex() throws Exception {
+		IntSetIndex index = new IntSetIndex();
+		assertTrue(index.add(3, 4));
+		assertTrue(index.add(3, 5));
+		assertFalse(index.add(3, 4));
+		assertTrue(index.add(40, 1));
+		index.remove(3, 4);
+
+		assertEquals(1, index.get(3).length);
+		assertEquals(5, index.get(3)[0]);
+		assertTrue(index.contains(40, 1));
+
+		index.removeKey(40);
+		int[] keys = index.keys();
+		assertEquals(1, keys.length);
+		assertEquals(3, keys[0]);
+		assertEquals(0, index.get(40).length);
+	}
+}
@@ -0,0 +1,199 @@
+package net.refractions.linecleaner.cleansing.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.refractions.linecleaner.FeatureUtil;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.FeatureStore;
+import org.geotools.data.shapefile.indexed.IndexedShapefileDataStore;
+import org.geotools.feature.AttributeType;
+import org.geotools.feature.AttributeTypeFactory;
+import org.geotools.feature.Feature;
+import org.geotools.feature.FeatureType;
+import org.geotools.feature.FeatureTypeFactory;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+
+/**
+ * <p>
+ * Generates a synthetic road network with the kinds of problems the cleansing
+ * processors fix, for benchmarking them.
+ * </p>
+ * <p>
+ * The roads follow the edges of a square grid of intersections spacing apart,
+ * each with a few intermediate vertices.  Every vertex, the road ends included,
+ * is moved by up to noise in x and y, so ends which should meet don't quite.
+ * A fraction of the roads are split in two at an intermediate vertex (pseudo
+ * nodes), and duplicateRate of them are digitized a second time with their own
+ * noise (similar lines).  Some very short roads and small closed
+ * loops are added as well.  The same seed always gives the same network.
+ * </p>
+ */
+public class RoadNetworkGenerator {
+	private int size = 1000;
+	private double spacing = 100;
+	private int verticesPerRoad = 8;
+	private double noise = 2;
+	private double duplicateRate = 0.1;
+	private double splitRate = 0.2;
+	private double shortRate = 0.02;
+	private double cycleRate = 0.01;
+	private long seed = 1;
+
+	private GeometryFactory factory = new GeometryFactory();
+
+	/**
+	 * @param size Number of grid roads, before splitting and duplication.
+	 */
+	public void setSize(int size) {
+		this.size = size;
+	}
+
+	/**
+	 * @param noise Maximum distance vertices and road ends are moved.
+	 */
+	public void setNoise(double noise) {
+		this.noise = noise;
+	}
+
+	/**
+	 * @param duplicateRate Fraction of roads that are digitized twice.
+	 */
+	public void setDuplicateRate(double duplicateRate) {
+		this.duplicateRate = duplicateRate;
+	}
+
+	public void setSplitRate(double splitRate) {
+		this.splitRate = splitRate;
+	}
+
+	public void setSpacing(double spacing) {
+		this.spacing = spacing;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * @return The lines of the network.
+	 */
+	public List<LineString> generate() {
+		Random random = new Random(seed);
+		List<LineString> lines = new ArrayList<LineString>();
+
+		// half the roads run east-west and half north-south
+		int columns = Math.max(1, (int) Math.ceil(Math.sqrt(size / 2.0)));
+		int count = 0;
+		for (int row = 0; row <= columns && count < size; row++) {
+			for (int col = 0; col < columns && count < size; col++) {
+				addRoad(lines, random, new Coordinate(col * spacing, row * spacing),
+						new Coordinate((col+1) * spacing, row * spacing));
+				count++;
+				if (count < size) {
+					addRoad(lines, random, new Coordinate(row * spacing, col * spacing),
+							new Coordinate(row * spacing, (col+1) * spacing));
+					count++;
+				}
+			}
+		}
+
+		int extras = lines.size();
+		for (int i = 0; i < extras; i++) {
+			Coordinate anchor = lines.get(i).getCoordinateN(0);
+			if (random.nextDouble() < shortRate) {
+				lines.add(factory.createLineString(new Coordinate[] {
+						new Coordinate(anchor.x, anchor.y),
+						new Coordinate(anchor.x + spacing / 50, anchor.y + spacing / 50) }));
+			}
+			if (random.nextDouble() < cycleRate) {
+				double r = spacing / 20;
+				lines.add(factory.createLineString(new Coordinate[] {
+						new Coordinate(anchor.x, anchor.y),
+						new Coordinate(anchor.x + r, anchor.y + r),
+						new Coordinate(anchor.x - r, anchor.y + r),
+						new Coordinate(anchor.x, anchor.y) }));
+			}
+		}
+		return lines;
+	}
+
+	private void addRoad(List<LineString> lines, Random random, Coordinate from, Coordinate to) {
+		Coordinate[] road = digitize(random, from, to);
+		if (random.nextDouble() < splitRate && road.length > 2) {
+			int at = 1 + random.nextInt(road.length - 2);
+			lines.add(factory.createLineString(copy(road, 0, at + 1)));
+			lines.add(factory.createLineString(copy(road, at, road.length)));
+		} else {
+			lines.add(factory.createLineString(road));
+		}
+		if (random.nextDouble() < duplicateRate) {
+			lines.add(factory.createLineString(digitize(random, from, to)));
+		}
+	}
+
+	private Coordinate[] digitize(Random random, Coordinate from, Coordinate to) {
+		Coordinate[] road = new Coordinate[verticesPerRoad];
+		for (int i = 0; i < verticesPerRoad; i++) {
+			double t = (double) i / (verticesPerRoad - 1);
+			road[i] = new Coordinate(from.x + t * (to.x - from.x) + jitter(random),
+					from.y + t * (to.y - from.y) + jitter(random));
+		}
+		return road;
+	}
+
+	private double jitter(Random random) {
+		return (2 * random.nextDouble() - 1) * noise;
+	}
+
+	private static Coordinate[] copy(Coordinate[] coordinates, int start, int end) {
+		Coordinate[] result = new Coordinate[end - start];
+		for (int i = start; i < end; i++) {
+			result[i - start] = new Coordinate(coordinates[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Write the network to a new shapefile, as MultiLineStrings.
+	 * @param file
+	 * @return The FeatureStore of the shapefile.
+	 * @throws Exception
+	 */
+	public FeatureStore createStore(File file) throws Exception {
+		AttributeType geom = AttributeTypeFactory.newAttributeType("the_geom", MultiLineString.class);
+		AttributeType id = AttributeTypeFactory.newAttributeType("roadid", Integer.class);
+		FeatureType type = FeatureTypeFactory.newFeatureType(new AttributeType[] { geom, id }, "roads");
+
+		List<LineString> lines = generate();
+		List<Feature> features = new ArrayList<Feature>(lines.size());
+		for (int i = 0; i < lines.size(); i++) {
+			MultiLineString mls = factory.createMultiLineString(new LineString[] { lines.get(i) });
+			features.add(type.create(new Object[] { mls, new Integer(i) }));
+		}
+
+		IndexedShapefileDataStore ds = FeatureUtil.makeShapefileDataStore(file.toURL(), true);
+		ds.createSchema(type);
+		FeatureStore store = (FeatureStore) ds.getFeatureSource();
+		store.addFeatures(DataUtilities.reader(features));
+		return store;
+	}
+
+	/**
+	 * @param store
+	 * @param file
+	 * @return A fresh copy of store in a new shapefile, for a processor to modify.
+	 * @throws IOException
+	 */
+	public static FeatureStore copy(FeatureStore store, File file) throws IOException {
+		return FeatureUtil.copyFeatureStore(store, file.toURL());
+	}
+}
@@ -3,11 +3,14 @@ package net.refractions.linecleaner.cleansing;
 import java.io.File;
 import java.io.IOException;
 
+import net.refractions.linecleaner.LoggingSystem;
+import net.refractions.udig.project.ILayer;
 import net.refractions.udig.project.internal.Map;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.geotools.data.FeatureStore;
+import org.geotools.data.Query;
 import org.geotools.data.shapefile.ShapefileDataStore;
 import org.geotools.data.shapefile.ShapefileDataStoreFactory;
 import org.geotools.feature.FeatureCollection;
@@ -20,6 +23,10 @@ public abstract class AbstractProcessor {
 	protected Map map;
 	private String name;
 	
+	/** Buffered writes to featureStore; only set while running */
+	protected FeatureWriteBuffer writes;
+	private int writeBatchSize = FeatureWriteBuffer.DEFAULT_CHUNK_SIZE;
+	
 	
 	public AbstractProcessor(Map map, FeatureStore featureStore) {
 		count++;
@@ -34,6 +41,18 @@ public abstract class AbstractProcessor {
 	protected String getName() {
 		return name;
 	}
+	
+	/**
+	 * @param writeBatchSize Number of modifications and deletions buffered before
+	 * they are written to the FeatureStore.
+	 */
+	public void setWriteBatchSize(int writeBatchSize) {
+		this.writeBatchSize = writeBatchSize;
+	}
+	
+	public int getWriteBatchSize() {
+		return writeBatchSize;
+	}
 
 	public void run() throws IOException {
 		run(validateMonitor(null), null);
@@ -42,9 +61,18 @@ public abstract class AbstractProcessor {
 	public void run(IProgressMonitor monitor, PauseMonitor pauseMonitor) throws IOException {
 		try {
 			pauseMonitor.addListener(this);
+			writes = new FeatureWriteBuffer(featureStore, writeBatchSize, findLayer());
 			preRun();
 			runInternal(validateMonitor(monitor), pauseMonitor);
+			writes.flush();
 		} finally {
+			// only left over if the run failed; they may be half of a change, so
+			// they aren't written
+			if (writes != null && writes.size() > 0) {
+				LoggingSystem.getInstance().getLogger().warning(getName() + " discarded "
+						+ writes.size() + " buffered writes");
+			}
+			writes = null;
 			pauseMonitor.removeListener(this);
 		}
 	}
@@ -66,6 +94,45 @@ public abstract class AbstractProcessor {
 		}
 	}
 	
+	/**
+	 * @return The layer of map whose FeatureStore is on the same DataStore and type
+	 * as featureStore, or null if there is none.
+	 */
+	protected ILayer findLayer() {
+		if (map == null) {
+			return null;
+		}
+		String typeName = featureStore.getSchema().getTypeName();
+		for (Object item : map.getLayersInternal()) {
+			ILayer layer = (ILayer) item;
+			if (!layer.hasResource(FeatureStore.class)) {
+				continue;
+			}
+			try {
+				FeatureStore store = layer.getResource(FeatureStore.class, null);
+				if (store.getDataStore() == featureStore.getDataStore()
+						&& typeName.equals(store.getSchema().getTypeName())) {
+					return layer;
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Creates a MemoryFeatureIterator over featureStore that flushes this processor's
+	 * buffered writes before each commit.
+	 * @param query
+	 * @return
+	 * @throws IOException
+	 */
+	protected MemoryFeatureIterator createIterator(Query query) throws IOException {
+		return new MemoryFeatureIterator(featureStore, map, query,
+				MemoryFeatureIterator.DEFAULT_BATCH_SIZE, writes);
+	}
+	
 	private IProgressMonitor validateMonitor(IProgressMonitor monitor) {
 		if (monitor == null)
 			return new NullProgressMonitor();
@@ -0,0 +1,750 @@
+package net.refractions.linecleaner.cleansing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.refractions.linecleaner.FeatureUtil;
+import net.refractions.linecleaner.GeometryUtil;
+import net.refractions.linecleaner.LoggingSystem;
+import net.refractions.udig.project.internal.Map;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.SubProgressMonitor;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.DefaultQuery;
+import org.geotools.data.FeatureStore;
+import org.geotools.data.Query;
+import org.geotools.feature.Feature;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.feature.IllegalAttributeException;
+import org.geotools.filter.FidFilter;
+import org.geotools.filter.FilterFactoryFinder;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.index.quadtree.Quadtree;
+import com.vividsolutions.jts.operation.linemerge.LineMerger;
+import com.vividsolutions.jts.simplify.DouglasPeuckerLineSimplifier;
+
+/**
+ * <p>
+ * Runs the data preparation stages of PerformCleansingAction in a single pass: the
+ * features are read into memory once, every stage runs against an in-memory planar
+ * graph of the lines, and the result is written back to the FeatureStore at the
+ * end, through a single FeatureWriteBuffer flush, so the store is neither queried
+ * nor committed between stages.
+ * </p>
+ * <p>
+ * Only the fid and default geometry of each feature are loaded, so the heap needed
+ * is roughly that of the geometries of the whole dataset.  The lines split off by
+ * node insertion get the other attributes of the feature they were split from when
+ * they are written, with one query for all of those features.
+ * </p>
+ * <p>
+ * The graph keeps the lines in store order, with the lines split off by node
+ * insertion appended in the order the store would add them, and a Quadtree over
+ * the line envelopes answers the BBOX, intersects and DWithin queries that the
+ * processors send to the store.  Each stage visits the lines and makes its
+ * decisions in the same order as the corresponding processor.
+ * </p>
+ * <p>
+ * Progress is reported with the stage TICKS of PerformCleansingAction, plus
+ * LOAD_TICKS and WRITE_TICKS for reading and writing the store, and the time
+ * taken by each stage is kept in getStageTimings().  If the pipeline is canceled
+ * nothing is written to the store.
+ * </p>
+ */
+public class CleansingPipeline extends AbstractProcessor {
+	public static final int LOAD_TICKS = 10;
+	public static final int WRITE_TICKS = 10;
+	public static final int TOTAL_TICKS = LOAD_TICKS + PerformCleansingAction.TOTAL_TICKS + WRITE_TICKS;
+
+	private double minimumLength;
+	private double minimumCycleLength;
+	private double nodeDistanceTolerance;
+	private double areaTolerance;
+	private double douglasPeuckerTolerance;
+
+	private List<Line> lines = new ArrayList<Line>();
+	private Quadtree index = new Quadtree();
+	private LinkedHashMap<String, Long> stageTimings = new LinkedHashMap<String, Long>();
+
+	LoggingSystem loggingSystem = LoggingSystem.getInstance();
+
+	public CleansingPipeline(Map map, FeatureStore featureStore, double minimumLength, double minimumCycleLength,
+			double nodeDistanceTolerance, double areaTolerance, double douglasPeuckerTolerance) {
+		super(map, featureStore);
+		this.minimumLength = minimumLength;
+		this.minimumCycleLength = minimumCycleLength;
+		this.nodeDistanceTolerance = nodeDistanceTolerance;
+		this.areaTolerance = areaTolerance;
+		this.douglasPeuckerTolerance = douglasPeuckerTolerance;
+	}
+
+	/**
+	 * @return Milliseconds taken by each stage that has run, by stage name, in the
+	 * order they ran.
+	 */
+	public java.util.Map<String, Long> getStageTimings() {
+		return Collections.unmodifiableMap(stageTimings);
+	}
+
+	protected void runInternal(IProgressMonitor monitor, PauseMonitor pauseMonitor) throws IOException {
+		if (monitor == null) monitor = new NullProgressMonitor();
+
+		monitor.beginTask("", TOTAL_TICKS);
+		lines.clear();
+		index = new Quadtree();
+		stageTimings.clear();
+
+		long start = System.currentTimeMillis();
+		load(subMonitor(monitor, LOAD_TICKS), pauseMonitor);
+		if (!finishStage(monitor, "Load", start)) {
+			return;
+		}
+
+		start = System.currentTimeMillis();
+		removeShortLines(subMonitor(monitor, PerformCleansingAction.MIN_LENGTH_TICKS), pauseMonitor);
+		if (!finishStage(monitor, "ZeroLength", start)) {
+			return;
+		}
+
+		start = System.currentTimeMillis();
+		removePseudoNodes(subMonitor(monitor, PerformCleansingAction.PSEUDO_NODES_TICKS), pauseMonitor,
+				nodeDistanceTolerance);
+		if (!finishStage(monitor, "PseudoNodes", start)) {
+			return;
+		}
+
+		start = System.currentTimeMillis();
+		simplify(subMonitor(monitor, PerformCleansingAction.DOUGLAS_PEUCKER_TICKS), pauseMonitor);
+		if (!finishStage(monitor, "DouglasPeucker", start)) {
+			return;
+		}
+
+		start = System.currentTimeMillis();
+		removeCycles(subMonitor(monitor, PerformCleansingAction.CYCLES_TICKS), pauseMonitor);
+		if (!finishStage(monitor, "Cycles1", start)) {
+			return;
+		}
+
+		start = System.currentTimeMillis();
+		insertNodes(subMonitor(monitor, PerformCleansingAction.NODE_INSERTION_TICKS), pauseMonitor);
+		if (!finishStage(monitor, "NodeInsertion", start)) {
+			return;
+		}
+
+		start = System.currentTimeMillis();
+		collapseEndNodes(subMonitor(monitor, PerformCleansingAction.END_NODES_TICKS), pauseMonitor);
+		if (!finishStage(monitor, "EndNodes", start)) {
+			return;
+		}
+
+		start = System.currentTimeMillis();
+		removePseudoNodes(subMonitor(monitor, PerformCleansingAction.PSEUDO_NODES_2_TICKS), pauseMonitor, 0.0);
+		if (!finishStage(monitor, "PseudoNodes2", start)) {
+			return;
+		}
+
+		start = System.currentTimeMillis();
+		removeCycles(subMonitor(monitor, PerformCleansingAction.CYCLES_2_TICKS), pauseMonitor);
+		if (!finishStage(monitor, "Cycles2", start)) {
+			return;
+		}
+
+		start = System.currentTimeMillis();
+		write(subMonitor(monitor, WRITE_TICKS), pauseMonitor);
+		finishStage(monitor, "Write", start);
+
+		monitor.done();
+	}
+
+	private IProgressMonitor subMonitor(IProgressMonitor monitor, int ticks) {
+		return new SubProgressMonitor(monitor, ticks, SubProgressMonitor.PREPEND_MAIN_LABEL_TO_SUBTASK);
+	}
+
+	/**
+	 * Record the time taken by a stage and show it on the monitor.
+	 * @return false if the pipeline has been canceled.
+	 */
+	private boolean finishStage(IProgressMonitor monitor, String stage, long start) {
+		long elapsed = System.currentTimeMillis() - start;
+		stageTimings.put(stage, elapsed);
+		monitor.subTask(stage + " done in " + elapsed / 1000.00 + " seconds");
+		return !monitor.isCanceled();
+	}
+
+	private void load(IProgressMonitor monitor, PauseMonitor pauseMonitor) throws IOException {
+		monitor.beginTask("", featureStore.getCount(Query.ALL));
+		monitor.subTask("Loading features");
+
+		FeatureIterator i = featureStore.getFeatures(MemoryFeatureIterator.createDefaultQuery(featureStore)).features();
+		try {
+			while (i.hasNext()) {
+				Feature feature = i.next();
+				addLine(feature, feature.getDefaultGeometry(), feature.getID(), false);
+
+				monitor.worked(1);
+				if (monitor.isCanceled()) {
+					break;
+				}
+				pauseIfNecessary(pauseMonitor);
+			}
+		} finally {
+			i.close();
+			monitor.done();
+		}
+	}
+
+	/**
+	 * Delete every line with a length of at most minimumLength, as
+	 * MinimumLengthProcessor does.
+	 */
+	private void removeShortLines(IProgressMonitor monitor, PauseMonitor pauseMonitor) {
+		loggingSystem.setCurrentAction(LoggingSystem.MINIMUM_LENGTH);
+		loggingSystem.begin();
+
+		int count = lines.size();
+		monitor.beginTask("", count);
+		monitor.subTask("Removing small features");
+		for (int i = 0; i < count; i++) {
+			monitor.worked(1);
+			if (monitor.isCanceled()) {
+				break;
+			}
+			pauseIfNecessary(pauseMonitor);
+
+			Line line = lines.get(i);
+			if (!line.removed && line.geometry.getLength() <= minimumLength) {
+				removeLine(line);
+			}
+		}
+		monitor.done();
+		loggingSystem.finish();
+	}
+
+	/**
+	 * Merge the two lines meeting at each end node of each line, as
+	 * PseudoNodeProcessor does.
+	 * @param tolerance Lines within this distance of an end node meet there; if 0
+	 * they have to intersect it.
+	 */
+	private void removePseudoNodes(IProgressMonitor monitor, PauseMonitor pauseMonitor, double tolerance) {
+		loggingSystem.setCurrentAction(LoggingSystem.PSEUDO_NODES);
+		loggingSystem.begin();
+
+		int count = lines.size();
+		monitor.beginTask("", count);
+		monitor.subTask("Removing pseudo nodes");
+		for (int i = 0; i < count; i++) {
+			monitor.worked(1);
+			if (monitor.isCanceled()) {
+				break;
+			}
+			pauseIfNecessary(pauseMonitor);
+
+			Line line = lines.get(i);
+			if (line.removed) {
+				continue;
+			}
+			Geometry geometry = line.geometry;
+			GeometryFactory gf = geometry.getFactory();
+			Coordinate[] coordinates = geometry.getCoordinates();
+			Point startPoint = gf.createPoint(coordinates[0]);
+			Point endPoint = gf.createPoint(coordinates[coordinates.length-1]);
+
+			mergeAt(startPoint, tolerance);
+			mergeAt(endPoint, tolerance);
+		}
+		monitor.done();
+		loggingSystem.finish();
+	}
+
+	private void mergeAt(Point node, double tolerance) {
+		Envelope bounds = new Envelope(node.getCoordinate());
+		bounds.expandBy(tolerance);
+
+		// only merge when exactly two lines meet at the node
+		List<Line> connected = new ArrayList<Line>(2);
+		for (Line candidate : query(bounds)) {
+			boolean meets;
+			if (tolerance == 0.0) {
+				meets = candidate.geometry.intersects(node);
+			} else {
+				meets = candidate.geometry.isWithinDistance(node, tolerance);
+			}
+			if (meets) {
+				connected.add(candidate);
+				if (connected.size() > 2) {
+					return;
+				}
+			}
+		}
+		if (connected.size() != 2) {
+			return;
+		}
+		Line first = connected.get(0);
+		Line second = connected.get(1);
+
+		// there's no point in merging zero-length lines.
+		if (first.geometry.getLength() == 0 || second.geometry.getLength() == 0) {
+			return;
+		}
+
+		LineMerger merger = new LineMerger();
+		merger.add(first.geometry);
+		merger.add(second.geometry);
+
+		Collection merged = merger.getMergedLineStrings();
+		if (merged.size() != 1) {
+			loggingSystem.warning("Lines did not merge properly! Lines might not share end-nodes. "
+					+ LoggingSystem.featureToString(first.feature) + " and "
+					+ LoggingSystem.featureToString(second.feature));
+			return;
+		}
+
+		LineString result = (LineString) merged.iterator().next();
+
+		// don't allow self-intersecting lines
+		if (!result.isSimple()) {
+			return;
+		}
+
+		GeometryFactory factory = new GeometryFactory();
+		setGeometry(first, factory.createMultiLineString(new LineString[] { result }));
+		loggingSystem.modify(first.feature, "Merged features '" + first.feature.getID() + "' and '"
+				+ second.feature.getID() + "'.");
+		removeLine(second);
+		loggingSystem.delete(second.feature);
+	}
+
+	/**
+	 * Douglas-Peucker vertex removal on every line, as DouglasPeuckerProcessor does.
+	 */
+	private void simplify(IProgressMonitor monitor, PauseMonitor pauseMonitor) {
+		loggingSystem.setCurrentAction(LoggingSystem.DOUGLAS_PEUCKER);
+		loggingSystem.begin();
+
+		int count = lines.size();
+		monitor.beginTask("", count);
+		monitor.subTask("Performing Douglas-Peucker vertex removal");
+		GeometryFactory factory = new GeometryFactory();
+		for (int i = 0; i < count; i++) {
+			monitor.worked(1);
+			if (monitor.isCanceled()) {
+				break;
+			}
+			pauseIfNecessary(pauseMonitor);
+
+			Line line = lines.get(i);
+			if (line.removed) {
+				continue;
+			}
+			Coordinate[] points = line.geometry.getCoordinates();
+			Coordinate[] simplified = DouglasPeuckerLineSimplifier.simplify(points, douglasPeuckerTolerance);
+
+			// the processor always rewrites the geometry, but only a change needs writing back
+			boolean singleLine = line.geometry instanceof MultiLineString && line.geometry.getNumGeometries() == 1;
+			if (simplified.length != points.length || !singleLine) {
+				setGeometry(line, factory.createMultiLineString(
+						new LineString[] { factory.createLineString(simplified) }));
+			}
+		}
+		monitor.done();
+		loggingSystem.finish();
+	}
+
+	/**
+	 * Delete closed lines shorter than minimumCycleLength, as CyclesProcessor does.
+	 */
+	private void removeCycles(IProgressMonitor monitor, PauseMonitor pauseMonitor) {
+		loggingSystem.setCurrentAction(LoggingSystem.CYCLES);
+		loggingSystem.begin();
+
+		int count = lines.size();
+		int removed = 0;
+		monitor.beginTask("", count);
+		monitor.subTask("Checking for cycles");
+		for (int i = 0; i < count; i++) {
+			monitor.worked(1);
+			if (monitor.isCanceled()) {
+				break;
+			}
+			pauseIfNecessary(pauseMonitor);
+
+			Line line = lines.get(i);
+			if (line.removed) {
+				continue;
+			}
+			Coordinate[] coordinates = line.geometry.getCoordinates();
+			if (coordinates[0].equals2D(coordinates[coordinates.length-1])) {
+				double length = line.geometry.getLength();
+				if (minimumCycleLength > 0 && length >= minimumCycleLength) {
+					loggingSystem.info("Found a cycle with length " + length + ", fid: "
+							+ LoggingSystem.featureToString(line.feature) + ". Not removing it.");
+				} else {
+					loggingSystem.delete(line.feature);
+					removeLine(line);
+					removed++;
+				}
+			}
+		}
+		monitor.done();
+		loggingSystem.finish(removed);
+	}
+
+	/**
+	 * Add a node to each line at its closest point to every nearby end node, and
+	 * split it at those nodes, as NodeInsertionProcessor does.
+	 */
+	private void insertNodes(IProgressMonitor monitor, PauseMonitor pauseMonitor) throws IOException {
+		loggingSystem.setCurrentAction(LoggingSystem.NODE_INSERTION);
+		loggingSystem.begin();
+
+		monitor.beginTask("Node Insertion: ", 2);
+		java.util.Map<Line, Set<Coordinate>> newNodes = new HashMap<Line, Set<Coordinate>>();
+		int count = lines.size();
+
+		IProgressMonitor calculate = subMonitor(monitor, 1);
+		calculate.beginTask("", 2 * count);
+		calculate.subTask("Calculating Nodes");
+		for (int i = 0; i < count; i++) {
+			Line line = lines.get(i);
+			if (line.removed) {
+				calculate.worked(2);
+				continue;
+			}
+			Geometry geometry = line.geometry;
+			Coordinate[] coordinates = geometry.getCoordinates();
+			GeometryFactory gf = geometry.getFactory();
+
+			nodeClosestPoints(gf.createPoint(coordinates[0]), line, newNodes);
+			calculate.worked(1);
+			if (calculate.isCanceled()) {
+				break;
+			}
+			pauseIfNecessary(pauseMonitor);
+
+			nodeClosestPoints(gf.createPoint(coordinates[coordinates.length-1]), line, newNodes);
+			calculate.worked(1);
+			if (calculate.isCanceled()) {
+				break;
+			}
+			pauseIfNecessary(pauseMonitor);
+		}
+		calculate.done();
+		if (monitor.isCanceled()) {
+			monitor.done();
+			return;
+		}
+
+		IProgressMonitor split = subMonitor(monitor, 1);
+		split.beginTask("", newNodes.size());
+		split.subTask("Inserting Nodes");
+		try {
+			for (int i = 0; i < count; i++) {
+				Line line = lines.get(i);
+				Set<Coordinate> nodes = newNodes.get(line);
+				if (nodes == null) {
+					continue;
+				}
+				LineString ls = GeometryUtil.extractLine(line.geometry);
+				Iterator<LineString> pieces = GeometryUtil.subdivide(ls, nodes).iterator();
+
+				// the first piece replaces the line, and the rest are added after
+				// it.  Pieces share their end Coordinates, so each gets a copy.
+				setGeometry(line, GeometryUtil.wrapInMultiLineString((LineString) pieces.next().clone()));
+				while (pieces.hasNext()) {
+					MultiLineString piece = GeometryUtil.wrapInMultiLineString((LineString) pieces.next().clone());
+					Feature copy = FeatureUtil.copy(line.feature);
+					copy.setDefaultGeometry(piece);
+					addLine(copy, piece, line.sourceFid, true);
+				}
+
+				split.worked(1);
+				if (split.isCanceled()) {
+					break;
+				}
+				pauseIfNecessary(pauseMonitor);
+			}
+		} catch (IllegalAttributeException e) {
+			throw (IOException) new IOException().initCause(e);
+		} finally {
+			split.done();
+			monitor.done();
+		}
+		loggingSystem.finish();
+	}
+
+	private void nodeClosestPoints(Point node, Line line, java.util.Map<Line, Set<Coordinate>> newNodes) {
+		Envelope bounds = new Envelope(node.getCoordinate());
+		bounds.expandBy(nodeDistanceTolerance);
+		for (Line candidate : query(bounds)) {
+			if (candidate == line) {
+				continue;
+			}
+			Coordinate closestPoint = GeometryUtil.getClosestPoint(node.getCoordinate(), candidate.geometry);
+			if (closestPoint.distance(node.getCoordinate()) < nodeDistanceTolerance
+					&& GeometryUtil.extractLine(candidate.geometry) != null) {
+				Set<Coordinate> nodes = newNodes.get(candidate);
+				if (nodes == null) {
+					nodes = new HashSet<Coordinate>();
+					newNodes.put(candidate, nodes);
+				}
+				nodes.add(closestPoint);
+			}
+		}
+	}
+
+	/**
+	 * Move each group of nearby end nodes to its average point, as
+	 * EndNodesProcessor does.
+	 */
+	private void collapseEndNodes(IProgressMonitor monitor, PauseMonitor pauseMonitor) {
+		loggingSystem.setCurrentAction(LoggingSystem.END_NODES);
+		loggingSystem.begin();
+
+		monitor.beginTask("End Nodes: ", 3);
+		int count = lines.size();
+
+		IProgressMonitor setup = subMonitor(monitor, 1);
+		setup.beginTask("", count);
+		setup.subTask("Setup");
+		EndNodeClusterer clusterer = new EndNodeClusterer(nodeDistanceTolerance);
+		GeometryFactory factory = null;
+		for (int i = 0; i < count; i++) {
+			setup.worked(1);
+			if (setup.isCanceled()) {
+				break;
+			}
+			pauseIfNecessary(pauseMonitor);
+
+			Line line = lines.get(i);
+			if (line.removed) {
+				continue;
+			}
+			if (factory == null) {
+				factory = line.geometry.getFactory();
+			}
+			Coordinate[] coordinates = line.geometry.getCoordinates();
+			// the clusterer keeps the position of the line as its "fid"
+			clusterer.add(Integer.toString(line.position), coordinates[0], coordinates[coordinates.length-1]);
+		}
+		setup.done();
+		if (monitor.isCanceled()) {
+			monitor.done();
+			return;
+		}
+		if (factory == null) {
+			factory = new GeometryFactory();
+		}
+		List<NodeCollection> collections = clusterer.cluster(factory, subMonitor(monitor, 1));
+
+		IProgressMonitor process = subMonitor(monitor, 1);
+		process.beginTask("", collections.size());
+		process.subTask("Processing");
+		Set<Line> moved = new LinkedHashSet<Line>();
+		int flagged = 0;
+		for (NodeCollection collection : collections) {
+			Envelope bbox = collection.getEnvelope();
+			double area = bbox.getHeight() * bbox.getWidth();
+			if (areaTolerance > 0 && area > areaTolerance) {
+				loggingSystem.info("Node Collection has a total area (" + area + ") greater than "
+						+ areaTolerance + ". Collection: " + collection);
+				collection.setFlagged(true);
+				flagged++;
+			} else {
+				repositionNodes(collection, collection.calculateAveragePoint(), moved);
+			}
+
+			process.worked(1);
+			if (process.isCanceled()) {
+				break;
+			}
+			pauseIfNecessary(pauseMonitor);
+		}
+		// the end nodes were moved in place; bring the index up to date
+		for (Line line : moved) {
+			setGeometry(line, line.geometry);
+		}
+		process.done();
+		monitor.done();
+		loggingSystem.finish(flagged);
+	}
+
+	private void repositionNodes(NodeCollection collection, Point averagePoint, Set<Line> moved) {
+		Iterator<Point> iter = collection.iterator();
+		while (iter.hasNext()) {
+			Point point = iter.next();
+			Line line = lines.get(Integer.parseInt((String) point.getUserData()));
+
+			// copy the geometry the first time it is moved, since pieces split off
+			// by node insertion, or the merged lines, may share Coordinates
+			if (moved.add(line)) {
+				line.geometry = (Geometry) line.geometry.clone();
+			}
+			Geometry geometry = line.geometry;
+			Coordinate[] coords = geometry.getCoordinates();
+			if (coords[0].equals2D(point.getCoordinate())) {
+				coords[0].setCoordinate(averagePoint.getCoordinate());
+			} else {
+				coords[coords.length-1].setCoordinate(averagePoint.getCoordinate());
+			}
+			geometry.geometryChanged();
+		}
+	}
+
+	/**
+	 * Write the changed and removed lines back, with one removeFeatures call for the
+	 * removed lines and a single FeatureWriter pass over the changed ones, then add
+	 * the lines created by node insertion, with the attributes of the features they
+	 * were split from.  The layer is refreshed over the changes.
+	 */
+	private void write(IProgressMonitor monitor, PauseMonitor pauseMonitor) throws IOException {
+		monitor.beginTask("", lines.size());
+		monitor.subTask("Writing results");
+
+		// read before the removals are written, as the feature a line was split
+		// from may have been removed since
+		java.util.Map<String, Feature> sources = loadSources();
+
+		// a single chunk, so the store is written in one pass
+		FeatureWriteBuffer buffer = new FeatureWriteBuffer(featureStore, Integer.MAX_VALUE, findLayer());
+		List<Feature> added = new ArrayList<Feature>();
+		try {
+			for (Line line : lines) {
+				if (line.created) {
+					if (!line.removed) {
+						Feature feature = FeatureUtil.copy(sources.get(line.sourceFid));
+						feature.setDefaultGeometry(line.geometry);
+						added.add(feature);
+					}
+				} else if (line.removed) {
+					buffer.remove(line.feature);
+				} else if (line.changed) {
+					buffer.modify(line.feature, line.geometry);
+				}
+				monitor.worked(1);
+				pauseIfNecessary(pauseMonitor);
+			}
+		} catch (IllegalAttributeException e) {
+			throw (IOException) new IOException().initCause(e);
+		}
+		buffer.flush();
+
+		if (!added.isEmpty()) {
+			featureStore.addFeatures(DataUtilities.reader(added));
+		}
+		monitor.done();
+	}
+
+	/**
+	 * @return The features, with all of their attributes, that the remaining
+	 * created lines were split from, by fid.
+	 */
+	private java.util.Map<String, Feature> loadSources() throws IOException {
+		java.util.Map<String, Feature> sources = new HashMap<String, Feature>();
+		FidFilter filter = FilterFactoryFinder.createFilterFactory().createFidFilter();
+		for (Line line : lines) {
+			if (line.created && !line.removed) {
+				filter.addFid(line.sourceFid);
+			}
+		}
+		if (filter.getFids().length == 0) {
+			return sources;
+		}
+		FeatureIterator i = featureStore.getFeatures(
+				new DefaultQuery(featureStore.getSchema().getTypeName(), filter)).features();
+		try {
+			while (i.hasNext()) {
+				Feature feature = i.next();
+				sources.put(feature.getID(), feature);
+			}
+		} finally {
+			i.close();
+		}
+		return sources;
+	}
+
+	private void addLine(Feature feature, Geometry geometry, String sourceFid, boolean created) {
+		Line line = new Line(lines.size(), feature, geometry, sourceFid, created);
+		lines.add(line);
+		index.insert(line.envelope, line);
+	}
+
+	private void setGeometry(Line line, Geometry geometry) {
+		index.remove(line.envelope, line);
+		line.geometry = geometry;
+		line.envelope = new Envelope(geometry.getEnvelopeInternal());
+		line.changed = true;
+		index.insert(line.envelope, line);
+	}
+
+	private void removeLine(Line line) {
+		index.remove(line.envelope, line);
+		line.removed = true;
+	}
+
+	/**
+	 * @return The lines whose envelopes intersect bounds, in store order.
+	 */
+	private List<Line> query(Envelope bounds) {
+		List<Line> result = new ArrayList<Line>();
+		for (Object o : index.query(bounds)) {
+			Line line = (Line) o;
+			if (!line.removed && line.envelope.intersects(bounds)) {
+				result.add(line);
+			}
+		}
+		Collections.sort(result, STORE_ORDER);
+		return result;
+	}
+
+	private static final Comparator<Line> STORE_ORDER = new Comparator<Line>() {
+		public int compare(Line a, Line b) {
+			return a.position < b.position ? -1 : (a.position == b.position ? 0 : 1);
+		}
+	};
+
+	/**
+	 * A line of the network: the feature it was read from (or split off from),
+	 * with only its geometry, and its current geometry.
+	 */
+	private static class Line {
+		final int position;
+		final Feature feature;
+		/** fid of the store feature the line was read or split from */
+		final String sourceFid;
+		final boolean created;
+		Geometry geometry;
+		/** envelope the line is indexed under */
+		Envelope envelope;
+		boolean changed = false;
+		boolean removed = false;
+
+		Line(int position, Feature feature, Geometry geometry, String sourceFid, boolean created) {
+			this.position = position;
+			this.feature = feature;
+			this.sourceFid = sourceFid;
+			this.geometry = geometry;
+			this.created = created;
+			this.envelope = new Envelope(geometry.getEnvelopeInternal());
+		}
+	}
+}
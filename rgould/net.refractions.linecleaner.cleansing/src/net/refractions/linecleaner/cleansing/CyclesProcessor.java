@@ -10,8 +10,6 @@ import org.eclipse.core.runtime.NullProgressMonitor;
 import org.geotools.data.FeatureStore;
 import org.geotools.data.Query;
 import org.geotools.feature.Feature;
-import org.geotools.filter.FidFilter;
-import org.geotools.filter.FilterFactoryFinder;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
@@ -46,7 +44,7 @@ public class CyclesProcessor extends AbstractProcessor {
 		monitor.beginTask("", begin);
 		monitor.subTask("Checking for cycles");
 		
-		MemoryFeatureIterator iter = MemoryFeatureIterator.createDefault(featureStore, map);
+		MemoryFeatureIterator iter = createIterator(MemoryFeatureIterator.createDefaultQuery(featureStore));
 		try {
 			while (iter.hasNext()) {
 				monitor.worked(1);
@@ -66,11 +64,11 @@ public class CyclesProcessor extends AbstractProcessor {
 								LoggingSystem.featureToString(feature)+". Not removing it.");
 					} else {
 						loggingSystem.delete(feature);
-						FidFilter fidFilter = FilterFactoryFinder.createFilterFactory().createFidFilter(feature.getID());
-						featureStore.removeFeatures(fidFilter);
+						writes.remove(feature);
 					}
 				}
 			}
+			writes.flush();
 		} finally {
 			iter.close();
 			monitor.done();
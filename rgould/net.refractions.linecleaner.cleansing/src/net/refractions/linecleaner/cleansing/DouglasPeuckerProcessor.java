@@ -7,14 +7,9 @@ import net.refractions.udig.project.internal.Map;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
-import org.geotools.data.DefaultQuery;
 import org.geotools.data.FeatureStore;
 import org.geotools.data.Query;
-import org.geotools.feature.AttributeType;
 import org.geotools.feature.Feature;
-import org.geotools.filter.FidFilter;
-import org.geotools.filter.Filter;
-import org.geotools.filter.FilterFactoryFinder;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
@@ -33,6 +28,7 @@ public class DouglasPeuckerProcessor extends AbstractProcessor {
 	public static final double DEFAULT_DISTANCE_TOLERANCE = 5;
 	
 	double distanceTolerance;
+	private int parallelism = 1;
 	LoggingSystem loggingSystem = LoggingSystem.getInstance();
 
 	
@@ -42,6 +38,18 @@ public class DouglasPeuckerProcessor extends AbstractProcessor {
 		
 	}
 	
+	/**
+	 * @param parallelism Number of threads to simplify geometries on.  With more than
+	 * one, the geometries are simplified on worker threads and written by this one.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+	
+	public int getParallelism() {
+		return parallelism;
+	}
+	
 	protected void runInternal(IProgressMonitor monitor, PauseMonitor pauseMonitor) throws IOException {
 		if (monitor == null) monitor = new NullProgressMonitor();
 		
@@ -52,48 +60,36 @@ public class DouglasPeuckerProcessor extends AbstractProcessor {
 		monitor.beginTask("", start);
 		monitor.subTask("Performing Douglas-Peucker vertex removal");
 		
-		MemoryFeatureIterator iter = new MemoryFeatureIterator(featureStore, map, 
-				new DefaultQuery(featureStore.getSchema().getTypeName(), Filter.NONE, 
-						new String[] { featureStore.getSchema().getDefaultGeometry().getName() }));
+		MemoryFeatureIterator iter = createIterator(MemoryFeatureIterator.createDefaultQuery(featureStore));
 		
 //		FeatureIterator iter = featureStore.getFeatures().features();
 		try {
-			while (iter.hasNext()) {
-				monitor.worked(1);
-				if (monitor.isCanceled()) {
-					break;
-				}
-				pauseIfNecessary(pauseMonitor);
-				
-				Feature feature = iter.next();
-	//			System.out.println("[[DPP]] begin processing feature " + feature.getID());
-				
-				Geometry geom = feature.getDefaultGeometry();
-				Coordinate[] points = geom.getCoordinates();
-				
-	//			System.out.println("BEFORE Geom: " + geom);
-				int before = points.length;
-	//			System.out.println("BEFORE Coord count: " + points.length);
-				points = DouglasPeuckerLineSimplifier.simplify(points, distanceTolerance);
-	//			System.out.println("AFTER Coord count: " + points.length);
-				int after = before - points.length;
-				if (after > 0) {
-//					loggingSystem.modify(feature, "Removed "+after+" coordinates.");
+			if (parallelism > 1) {
+				ParallelFeatureMapper<Geometry> mapper = new ParallelFeatureMapper<Geometry>(parallelism);
+				mapper.run(iter, new ParallelFeatureMapper.Function<Geometry>() {
+					public Geometry apply(Feature feature) {
+						return simplify(feature.getDefaultGeometry());
+					}
+				}, new ParallelFeatureMapper.Writer<Geometry>() {
+					public void write(Feature feature, Geometry geom) throws IOException {
+						writes.modify(feature, geom);
+					}
+				}, monitor, pauseMonitor);
+			} else {
+				while (iter.hasNext()) {
+					monitor.worked(1);
+					if (monitor.isCanceled()) {
+						break;
+					}
+					pauseIfNecessary(pauseMonitor);
+					
+					Feature feature = iter.next();
+		//			System.out.println("[[DPP]] begin processing feature " + feature.getID());
+					
+					writes.modify(feature, simplify(feature.getDefaultGeometry()));
 				}
-				
-				GeometryFactory factory = new GeometryFactory();
-				geom = factory.createMultiLineString(new LineString[] { factory.createLineString(points) });
-				
-	//			System.out.println("AFTER Geom: " + geom);
-				
-				String xpath = feature.getFeatureType().getDefaultGeometry().getName();
-	    					
-				AttributeType attributeType = feature.getFeatureType().getAttributeType(xpath);
-				String fid = feature.getID();
-				FidFilter fidFilter = FilterFactoryFinder.createFilterFactory().createFidFilter(fid);
-				this.featureStore.modifyFeatures(attributeType, geom, fidFilter);
-				
 			}
+			writes.flush();
 		} finally {
 			iter.close();
 			monitor.done();
@@ -102,5 +98,21 @@ public class DouglasPeuckerProcessor extends AbstractProcessor {
 		int finish = start - featureStore.getCount(Query.ALL);
 		loggingSystem.finish(finish);
 	}
+	
+	/**
+	 * @param geom
+	 * @return geom with vertices removed by Douglas-Peucker, as a single line MultiLineString.
+	 */
+	protected Geometry simplify(Geometry geom) {
+		Coordinate[] points = geom.getCoordinates();
+		
+//		System.out.println("BEFORE Geom: " + geom);
+//		System.out.println("BEFORE Coord count: " + points.length);
+		points = DouglasPeuckerLineSimplifier.simplify(points, distanceTolerance);
+//		System.out.println("AFTER Coord count: " + points.length);
+		
+		GeometryFactory factory = new GeometryFactory();
+		return factory.createMultiLineString(new LineString[] { factory.createLineString(points) });
+	}
 
 }
@@ -0,0 +1,331 @@
+package net.refractions.linecleaner.cleansing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * <p>
+ * Groups end nodes into NodeCollections entirely in memory.  Two end nodes are
+ * neighbours if they are at different locations no more than distanceTolerance
+ * apart, and a collection is a group of end nodes connected through neighbours.
+ * </p>
+ * <p>
+ * Neighbours are found with a grid hash whose cells are distanceTolerance wide,
+ * and collections are tracked with a union-find over int arrays, each collection
+ * keeping its end nodes in a linked list so that merging two collections is
+ * constant time.  End nodes are processed in the order they were added (start then
+ * end of each feature, in store order), merging collections in the same order as
+ * EndNodesProcessor did with a store query per end node, so the collections, and
+ * the order of the end nodes within them, are the same.
+ * </p>
+ * <p>
+ * See the file doc/end-nodes.txt for the algorithm that this is based on.
+ * </p>
+ */
+public class EndNodeClusterer {
+	private static final int NONE = -1;
+
+	private double distanceTolerance;
+
+	private List<String> fids = new ArrayList<String>();
+	private double[] xs = new double[32];
+	private double[] ys = new double[32];
+	private int size = 0;
+
+	// union-find over end nodes; parent is NONE for end nodes not in a collection
+	private int[] parent;
+	private int[] rank;
+	// per root: linked list of members, and creation order of the collection
+	private int[] head;
+	private int[] tail;
+	private int[] sequence;
+	private int[] next;
+	private int collectionsCreated = 0;
+
+	// grid hash: sorted distinct cell keys, and end nodes grouped by cell
+	private long[] cellKeys;
+	private int[] cellStart;
+	private int[] cellMembers;
+	private double minX;
+	private double minY;
+
+	public EndNodeClusterer(double distanceTolerance) {
+		this.distanceTolerance = distanceTolerance;
+	}
+
+	/**
+	 * Add the end nodes of a feature.
+	 * @param fid
+	 * @param start
+	 * @param end
+	 */
+	public void add(String fid, Coordinate start, Coordinate end) {
+		if (size + 2 > xs.length) {
+			xs = grow(xs);
+			ys = grow(ys);
+		}
+		fids.add(fid);
+		xs[size] = start.x;
+		ys[size] = start.y;
+		xs[size+1] = end.x;
+		ys[size+1] = end.y;
+		size += 2;
+	}
+
+	/**
+	 * @return Number of end nodes added, two per feature.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Group the end nodes into collections.
+	 * @param factory Used to create the end node Points.
+	 * @param monitor
+	 * @return The collections, in the order they were first created.  Each end node
+	 * Point has the fid of its feature as user data.
+	 */
+	public List<NodeCollection> cluster(GeometryFactory factory, IProgressMonitor monitor) {
+		if (monitor == null) monitor = new NullProgressMonitor();
+		monitor.beginTask("", size);
+
+		parent = new int[size];
+		Arrays.fill(parent, NONE);
+		rank = new int[size];
+		head = new int[size];
+		tail = new int[size];
+		sequence = new int[size];
+		next = new int[size];
+		Arrays.fill(next, NONE);
+		buildGrid();
+
+		int[] nearby = new int[16];
+		for (int a = 0; a < size; a++) {
+			if (monitor.isCanceled()) {
+				break;
+			}
+			monitor.worked(1);
+			if (isDuplicate(a)) {
+				continue; // same node as the start of a closed feature
+			}
+
+			int count = findNearbyNodes(a, nearby);
+			if (count > nearby.length) {
+				nearby = new int[count];
+				count = findNearbyNodes(a, nearby);
+			}
+			Arrays.sort(nearby, 0, count);
+
+			for (int k = 0; k < count; k++) {
+				int b = nearby[k];
+				if (isDuplicate(b)) {
+					continue; // its twin was just handled
+				}
+				int collectionA = parent[a] == NONE ? NONE : find(a);
+				int collectionB = parent[b] == NONE ? NONE : find(b);
+
+				if (collectionA != NONE && collectionB != NONE) {
+					if (collectionA != collectionB) {
+						merge(collectionA, collectionB);
+					}
+				} else if (collectionA != NONE) {
+					append(collectionA, b);
+				} else if (collectionB != NONE) {
+					append(collectionB, a);
+				} else {
+					int collection = create(a);
+					append(collection, b);
+				}
+			}
+		}
+		monitor.done();
+
+		return collect(factory);
+	}
+
+	// the end of a closed feature is the same node as its start
+	private boolean isDuplicate(int node) {
+		return node % 2 == 1 && xs[node] == xs[node-1] && ys[node] == ys[node-1];
+	}
+
+	private int create(int node) {
+		parent[node] = node;
+		head[node] = node;
+		tail[node] = node;
+		sequence[node] = collectionsCreated++;
+		return node;
+	}
+
+	private void append(int root, int node) {
+		parent[node] = root;
+		next[tail[root]] = node;
+		tail[root] = node;
+	}
+
+	/**
+	 * Merge collectionB into collectionA; B's end nodes go after A's and the merged
+	 * collection keeps A's place in the order.
+	 */
+	private void merge(int collectionA, int collectionB) {
+		next[tail[collectionA]] = head[collectionB];
+		int first = head[collectionA];
+		int last = tail[collectionB];
+		int order = sequence[collectionA];
+
+		int root;
+		if (rank[collectionA] < rank[collectionB]) {
+			parent[collectionA] = collectionB;
+			root = collectionB;
+		} else {
+			parent[collectionB] = collectionA;
+			if (rank[collectionA] == rank[collectionB]) {
+				rank[collectionA]++;
+			}
+			root = collectionA;
+		}
+		head[root] = first;
+		tail[root] = last;
+		sequence[root] = order;
+	}
+
+	private int find(int node) {
+		while (parent[node] != node) {
+			parent[node] = parent[parent[node]];
+			node = parent[node];
+		}
+		return node;
+	}
+
+	private List<NodeCollection> collect(GeometryFactory factory) {
+		NodeCollection[] ordered = new NodeCollection[collectionsCreated];
+		for (int node = 0; node < size; node++) {
+			if (parent[node] != node) {
+				continue;
+			}
+			NodeCollection collection = new NodeCollection();
+			for (int n = head[node]; n != NONE; n = next[n]) {
+				Point point = factory.createPoint(new Coordinate(xs[n], ys[n]));
+				point.setUserData(fids.get(n / 2));
+				collection.add(point);
+			}
+			ordered[sequence[node]] = collection;
+		}
+		List<NodeCollection> result = new ArrayList<NodeCollection>();
+		for (NodeCollection collection : ordered) {
+			if (collection != null) {
+				result.add(collection);
+			}
+		}
+		return result;
+	}
+
+	private void buildGrid() {
+		minX = Double.POSITIVE_INFINITY;
+		minY = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < size; i++) {
+			minX = Math.min(minX, xs[i]);
+			minY = Math.min(minY, ys[i]);
+		}
+
+		long[] keys = new long[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = cellKey(cell(xs[i], minX), cell(ys[i], minY));
+		}
+		long[] sorted = keys.clone();
+		Arrays.sort(sorted);
+		int distinct = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (i == 0 || sorted[i] != sorted[i-1]) {
+				sorted[distinct++] = sorted[i];
+			}
+		}
+		cellKeys = new long[distinct];
+		System.arraycopy(sorted, 0, cellKeys, 0, distinct);
+
+		// counting sort of the end nodes by cell, keeping them in order within a cell
+		int[] cellOf = new int[size];
+		cellStart = new int[distinct + 1];
+		for (int i = 0; i < size; i++) {
+			cellOf[i] = Arrays.binarySearch(cellKeys, keys[i]);
+			cellStart[cellOf[i] + 1]++;
+		}
+		for (int c = 0; c < distinct; c++) {
+			cellStart[c+1] += cellStart[c];
+		}
+		int[] fill = new int[distinct];
+		cellMembers = new int[size];
+		for (int i = 0; i < size; i++) {
+			int c = cellOf[i];
+			cellMembers[cellStart[c] + fill[c]++] = i;
+		}
+	}
+
+	/**
+	 * Find the end nodes at a different location from a and within
+	 * distanceTolerance of it.
+	 * @return Number of end nodes found.  If this is greater than result.length
+	 * the result is incomplete and should be retried with a larger array.
+	 */
+	private int findNearbyNodes(int a, int[] result) {
+		if (!(distanceTolerance > 0)) {
+			return 0;
+		}
+		double x = xs[a];
+		double y = ys[a];
+		int count = 0;
+		int minCol = cell(x - distanceTolerance, minX);
+		int maxCol = cell(x + distanceTolerance, minX);
+		int minRow = cell(y - distanceTolerance, minY);
+		int maxRow = cell(y + distanceTolerance, minY);
+		// longs, so a range ending at Integer.MAX_VALUE terminates
+		for (long col = minCol; col <= maxCol; col++) {
+			for (long row = minRow; row <= maxRow; row++) {
+				int c = Arrays.binarySearch(cellKeys, cellKey((int) col, (int) row));
+				if (c < 0) {
+					continue;
+				}
+				for (int m = cellStart[c]; m < cellStart[c+1]; m++) {
+					int b = cellMembers[m];
+					if (xs[b] == x && ys[b] == y) {
+						continue;
+					}
+					double dx = x - xs[b];
+					double dy = y - ys[b];
+					if (Math.sqrt(dx * dx + dy * dy) <= distanceTolerance) {
+						if (count < result.length) {
+							result[count] = b;
+						}
+						count++;
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	private int cell(double ordinate, double min) {
+		if (!(distanceTolerance > 0)) {
+			return 0;
+		}
+		return (int) Math.floor((ordinate - min) / distanceTolerance);
+	}
+
+	private static long cellKey(int col, int row) {
+		return ((long) col << 32) | (row & 0xffffffffL);
+	}
+
+	private static double[] grow(double[] array) {
+		double[] grown = new double[array.length * 2];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+}
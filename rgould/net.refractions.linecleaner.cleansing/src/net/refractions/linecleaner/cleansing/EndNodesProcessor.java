@@ -3,12 +3,10 @@ package net.refractions.linecleaner.cleansing;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 
-import net.refractions.linecleaner.GeometryUtil;
 import net.refractions.linecleaner.LoggingSystem;
 import net.refractions.udig.project.internal.Map;
 
@@ -25,11 +23,9 @@ import org.geotools.data.shapefile.ShapefileDataStoreFactory;
 import org.geotools.feature.AttributeType;
 import org.geotools.feature.AttributeTypeFactory;
 import org.geotools.feature.Feature;
-import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureIterator;
 import org.geotools.feature.FeatureType;
 import org.geotools.feature.FeatureTypeFactory;
-import org.geotools.feature.IllegalAttributeException;
 import org.geotools.filter.FidFilter;
 import org.geotools.filter.Filter;
 import org.geotools.filter.FilterFactoryFinder;
@@ -56,7 +52,6 @@ public class EndNodesProcessor extends AbstractProcessor {
 	
     private double distanceTolerance;
     private ArrayList<NodeCollection> nodeCollections;
-    private java.util.Map<Node, NodeCollection> collectionIndex;
 	private double areaTolerance;
 	private long startTime;
 	
@@ -78,7 +73,6 @@ public class EndNodesProcessor extends AbstractProcessor {
         this.distanceTolerance = distanceTolerance;
         this.areaTolerance = areaTolerance;
         this.nodeCollections = new ArrayList<NodeCollection>();
-        this.collectionIndex = new HashMap<Node, NodeCollection>();
         this.typename = featureStore.getSchema().getTypeName();
         this.defaultGeom = featureStore.getSchema().getDefaultGeometry().getName();
     }
@@ -208,33 +202,26 @@ public class EndNodesProcessor extends AbstractProcessor {
 		loggingSystem.fine("******************************");
 		loggingSystem.fine("Begin: Set up NodeCollections.");
 		
-		monitor.beginTask("", 2*featureStore.getCount(Query.FIDS));
+		int total = featureStore.getCount(Query.FIDS);
+		monitor.beginTask("", 2*total);
 		monitor.subTask("Setup");
 		
+		EndNodeClusterer clusterer = new EndNodeClusterer(this.distanceTolerance);
+		GeometryFactory factory = null;
+		
 		Query query = new DefaultQuery(this.typename, Filter.NONE, new String[] {this.defaultGeom});
-        MemoryFeatureIterator iter = new MemoryFeatureIterator(featureStore, map, query);
+        MemoryFeatureIterator iter = createIterator(query);
         try {
             int count = 0;
 	        while (iter.hasNext()) {
 	        	Feature feature = (Feature) iter.next();
 	        	Geometry geometry = feature.getDefaultGeometry();
-	        	
-	        	Coordinate start = geometry.getCoordinates()[0];
-	        	Coordinate end = geometry.getCoordinates()[geometry.getCoordinates().length-1];
-	        	
-	        	Point startPoint = geometry.getFactory().createPoint(start);
-	        	Point endPoint = geometry.getFactory().createPoint(end);
-	        	startPoint.setUserData(feature.getID());
-	        	endPoint.setUserData(feature.getID());
-	        	
-	        	processEndNode(startPoint);
-	        	
-	        	monitor.worked(1);
-	        	if (monitor.isCanceled()) {
-	        		break;
+	        	if (factory == null) {
+	        		factory = geometry.getFactory();
 	        	}
 	        	
-	        	processEndNode(endPoint);
+	        	Coordinate[] coordinates = geometry.getCoordinates();
+	        	clusterer.add(feature.getID(), coordinates[0], coordinates[coordinates.length-1]);
 	        	
 	        	monitor.worked(1);
 	        	if (monitor.isCanceled()) {
@@ -247,77 +234,22 @@ public class EndNodesProcessor extends AbstractProcessor {
 	        		loggingSystem.fine("[SetupNodeCollections]: Processing feature #"+count+". Time is at " + time + "ms.");
 	        	}
 	        	count++;
+	        	pauseIfNecessary(pauseMonitor);
 	        }
         } finally { 
         	iter.close();
+        }
+        if (monitor.isCanceled()) {
         	monitor.done();
+        	return;
         }
-        loggingSystem.fine("Finished setting up node collections. Total collections: " + getNodeCollections().size() );
-	}
-	
-	/**
-	 * Given an end-node (endNodeA), assign it to a NodeCollection for later
-	 * processing.
-	 * 
-	 * See the file doc/end-nodes.txt for the algorithm that this is based on.
-	 * 
-	 * @param endNodeA
-	 */
-	private void processEndNode(Point endNodeA) {
-		loggingSystem.finest("Begin processing endNode: " + endNodeToString(endNodeA));
-        Collection<Point> nearby = findNearbyNodes(distanceTolerance, endNodeA);
         
-        NodeCollection collectionA = findNodeCollection(endNodeA);
-        
-        Iterator nearbyIter = nearby.iterator();
-        while (nearbyIter.hasNext()) {
-            Point endNodeB = (Point) nearbyIter.next();
-            NodeCollection collectionB = findNodeCollection(endNodeB);
-            
-            if (collectionA != null && collectionB != null) {
-            	if (collectionA == collectionB) {
-            		continue;
-            	} else {
-            		loggingSystem.fine("Merging nodecollections: "+ endNodeToString(endNodeA) + " and " + endNodeToString(endNodeB));
-            		mergeCollections(collectionA, collectionB);
-            		continue;
-            	}
-            }
-            
-            if (collectionA != null) {
-            	loggingSystem.finest("Adding " + endNodeToString(endNodeB) + " to the collection of " + endNodeToString(endNodeA));
-            	addToCollection(collectionA, endNodeB);
-            } else {
-		        if (collectionB != null) {
-		        	loggingSystem.finest("Adding " + endNodeToString(endNodeA) + " to the collection of " + endNodeToString(endNodeB));
-		            addToCollection(collectionB, endNodeA);
-		            collectionA = collectionB; //This prevents us from having to do findNodeCollection(endNodeA) on every iteration. They ARE the same collections.
-		        } else {
-		        	loggingSystem.finest("Creating a new NodeCollection for " + endNodeToString(endNodeA) + " and " +endNodeToString(endNodeB));
-	                collectionA = createNewNodeCollection();
-	                addToCollection(collectionA, endNodeA);
-	                addToCollection(collectionA, endNodeB);
-		        }
-            }
+        if (factory == null) {
+        	factory = new GeometryFactory();
         }
-    }
-
-	private void mergeCollections(NodeCollection collectionA, NodeCollection collectionB) {
-		collectionA.merge(collectionB);
-		getNodeCollections().remove(collectionB);
-
-		// update the index
-		Iterator i = collectionB.iterator();
-		while (i.hasNext()) {
-			Point p = (Point) i.next();
-			Node n = new Node(p, (String) p.getUserData());
-			collectionIndex.put(n, collectionA);
-		}
-	}
-	
-	private void addToCollection(NodeCollection collectionA, Point endNodeB) {
-		collectionA.add(endNodeB);
-		collectionIndex.put(new Node(endNodeB, (String) endNodeB.getUserData()), collectionA);
+        this.nodeCollections.addAll(clusterer.cluster(factory, new SubProgressMonitor(monitor, total)));
+        monitor.done();
+        loggingSystem.fine("Finished setting up node collections. Total collections: " + getNodeCollections().size() );
 	}
     
 	/**
@@ -398,23 +330,18 @@ public class EndNodesProcessor extends AbstractProcessor {
      */
     private void repositionNodes(NodeCollection collectionC, Point averagePoint) throws IOException {
     	loggingSystem.fine("Reposition Nodes to "+averagePoint+" for NodeCollection: " + collectionC);
-    	    	
+    	
+    	java.util.Map<String, Feature> features = readFeatures(collectionC);
     	Iterator iter = collectionC.iterator();
     	while (iter.hasNext()) {
     		Point point = (Point) iter.next();
     		
     		String fid = (String) point.getUserData();
-    		FidFilter fidFilter = FilterFactoryFinder.createFilterFactory().createFidFilter(fid);
-    		
-    		Feature feature = null;
-    		
-    		Query query = new DefaultQuery(this.typename, fidFilter, new String[] {this.defaultGeom});
-            MemoryFeatureIterator iter2 = new MemoryFeatureIterator(featureStore, map, query);
-    		try {
-				feature = (Feature) iter2.next();
-    		} finally { 
-				iter2.close();
-    		} 
+    		// a feature with both ends in this collection comes back already modified
+    		Feature feature = writes.getModified(fid);
+    		if (feature == null) {
+    			feature = features.get(fid);
+    		}
 			
     		Geometry geometry = feature.getDefaultGeometry();
     		
@@ -427,27 +354,50 @@ public class EndNodesProcessor extends AbstractProcessor {
     		loggingSystem.finest("REPOSITIONING: BEFORE: " + geometry);
 
     		if (beginning) {
-    			geometry.getCoordinates()[0].setCoordinate(averagePoint.getCoordinate());
+    			coords[0].setCoordinate(averagePoint.getCoordinate());
     		} else {
-    			geometry.getCoordinates()[geometry.getCoordinates().length-1].setCoordinate(averagePoint.getCoordinate());
+    			coords[coords.length-1].setCoordinate(averagePoint.getCoordinate());
     		}
+    		geometry.geometryChanged();
     		
     		loggingSystem.finest("REPOSITIONING: AFTER: " + geometry);
     		
-    		
-    		String xpath = feature.getFeatureType().getDefaultGeometry().getName();
-    		
-    		try {
-				feature.setAttribute(xpath, geometry);
-			} catch (IllegalAttributeException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-			
-			AttributeType attributeType = feature.getFeatureType().getAttributeType(xpath);
-			this.featureStore.modifyFeatures(attributeType, geometry, fidFilter);
-			
+    		writes.modify(feature, geometry);
+    	}
+    }
+    
+    /**
+     * Read the features of the end nodes in collectionC that don't have buffered
+     * modifications, with a single query.
+     * @param collectionC
+     * @return The features by fid.
+     * @throws IOException
+     */
+    private java.util.Map<String, Feature> readFeatures(NodeCollection collectionC) throws IOException {
+    	FidFilter fidFilter = FilterFactoryFinder.createFilterFactory().createFidFilter();
+    	Iterator iter = collectionC.iterator();
+    	while (iter.hasNext()) {
+    		String fid = (String) ((Point) iter.next()).getUserData();
+    		if (writes.getModified(fid) == null) {
+    			fidFilter.addFid(fid);
+    		}
+    	}
+    	
+    	java.util.Map<String, Feature> features = new HashMap<String, Feature>();
+    	if (fidFilter.getFids().length == 0) {
+    		return features;
     	}
+    	Query query = new DefaultQuery(this.typename, fidFilter, new String[] {this.defaultGeom});
+    	FeatureIterator i = featureStore.getFeatures(query).features();
+    	try {
+    		while (i.hasNext()) {
+    			Feature feature = i.next();
+    			features.put(feature.getID(), feature);
+    		}
+    	} finally {
+    		i.close();
+    	}
+    	return features;
     }
 
     /**
@@ -466,125 +416,13 @@ public class EndNodesProcessor extends AbstractProcessor {
     	return area <= areaTolerance;
 	}
 
-	/**
-     * Searches all known NodeCollections for "endNode" and returns the
-     * containing NodeCollection, if it is found. Otherwise, it returns
-     * null.
-     *
-     * @param endNode
-     * @return
-     */
-    private NodeCollection findNodeCollection( Point endNode ) {
-    	Node n = new Node(endNode, (String) endNode.getUserData());
-    	NodeCollection nc = null;
-    	if (collectionIndex.containsKey(n)) {
-    		nc = collectionIndex.get(n);
-    	}
-    	return nc;
-    }
-
     public List<NodeCollection> getNodeCollections() {
         return nodeCollections;
     }
 
-    /**
-     * Creates a new NodeCollection and adds it to the local pool
-     *
-     * @return
-     */
-    private NodeCollection createNewNodeCollection() {
-        NodeCollection newNC = new NodeCollection();
-        getNodeCollections().add(newNC);
-        return newNC;
-    }
-    
-    /**
-     * Given a node (endNode), locate every other node that is within a 
-     * certain distance (toleranceDistance). Return each of those endNodes.
-     * 
-     * @param toleranceDistance
-     * @param endNode
-     * @return
-     */
-    private Collection<Point> findNearbyNodes( double toleranceDistance, Point endNode ) {    
-        ArrayList<Point> nearbyNodes = new ArrayList<Point>();
-        
-        FeatureCollection featureCollection = null;
-        String geomName = featureStore.getSchema().getDefaultGeometry().getName();
-        try {
-			featureCollection = this.featureStore.getFeatures(
-					new DefaultQuery(typename, getBBoxFilter(endNode), new String[] { geomName }));
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		FeatureIterator iter = featureCollection.features();
-		try {
-	        while (iter.hasNext()) {
-	        	Feature feature = (Feature) iter.next();
-	        	Geometry geometry = feature.getDefaultGeometry();
-	        	
-	        	Coordinate start = geometry.getCoordinates()[0];
-	        	Coordinate end = geometry.getCoordinates()[geometry.getCoordinates().length-1];
-	        	
-	        	Point startPoint = geometry.getFactory().createPoint(start);
-	        	Point endPoint = geometry.getFactory().createPoint(end);
-	        	startPoint.setUserData(feature.getID());
-	        	endPoint.setUserData(feature.getID());
-	        	
-	        	if (!endNode.equals(startPoint) && 
-	        			endNode.isWithinDistance(startPoint, toleranceDistance)) {
-	        		loggingSystem.finest(endNodeToString(endNode)+" is within distance of " + endNodeToString(startPoint));
-	        		nearbyNodes.add(startPoint);
-	        	}
-	        	if (!endNode.equals(endPoint) &&
-	        			endNode.isWithinDistance(endPoint, toleranceDistance)) {
-	        		loggingSystem.finest(endNodeToString(endNode)+" is within distance of " + endNodeToString(endPoint));
-	        		nearbyNodes.add(endPoint);
-	        	}
-	        }
-        } finally {
-        	featureCollection.close(iter);
-        }
-        
-        return nearbyNodes;
-    }
-
 	public static String endNodeToString(Point endNode) {
 		return "[FID: '"+endNode.getUserData()+"' Coord: ("
 		+endNode.getCoordinate().x+", "
 		+endNode.getCoordinate().y+")]";
 	}
-    
-    private Filter getBBoxFilter(Point endNode) {
-        return GeometryUtil.getBBoxFilter(this.featureStore, endNode, this.distanceTolerance);
-    }
-    
-    // simple struct combining Point and fid to hash NodeCollection against.
-    private class Node {
-    	public final Coordinate c;  // use Coordinate.  Point doesn't have hashCode()
-    	public final String fid;
-    	
-    	public Node(Point p, String fid) {
-    		this.c = p.getCoordinate();
-    		this.fid = fid;
-    	}
-    	
-    	@Override
-    	public boolean equals(Object obj) {
-    		boolean equals = false;
-    		
-    		if (obj instanceof Node) {
-    			Node q = (Node) obj;
-    			equals = c.equals(q.c) && fid.equals(q.fid); 
-    		}
-    		return equals;
-    	}
-    	
-    	@Override
-    	public int hashCode() {
-    		// TODO this is a valid hash, but is it a good one?
-    		return c.hashCode() + fid.hashCode(); 
-    	}
-    }
 }
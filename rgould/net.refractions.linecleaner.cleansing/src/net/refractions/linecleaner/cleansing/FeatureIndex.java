@@ -0,0 +1,221 @@
+/* uDig - User Friendly Desktop Internet GIS client
+ * http://udig.refractions.net
+ * (C) 2004, Refractions Research Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation;
+ * version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package net.refractions.linecleaner.cleansing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.refractions.linecleaner.FeatureUtil;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.geotools.data.DefaultQuery;
+import org.geotools.data.FeatureStore;
+import org.geotools.data.Query;
+import org.geotools.feature.Feature;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.filter.Filter;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * <p>
+ * An in-memory snapshot of the fids and geometries of a FeatureStore, packed into
+ * an STRtree so that nearby candidates can be found without sending a BBOX query
+ * to the store for every feature.
+ * </p>
+ * <p>
+ * Features are numbered in the order the store returns them.  Queries hand back
+ * candidates in that same order so that processors sieving against the index make
+ * the same decisions they would make against the store.  An STRtree can't be
+ * modified once built, so removed features are only marked as such and skipped
+ * by subsequent queries.
+ * </p>
+ * @author myronwu
+ */
+public class FeatureIndex {
+    private List<Feature> features = new ArrayList<Feature>();
+    private Map<String, Integer> fidIndex = new HashMap<String, Integer>();
+    private BitSet removed = new BitSet();
+    private STRtree tree = new STRtree();
+
+    /**
+     * Load the fids and geometries of every feature in store.  If the store carries
+     * a merge source attribute it is loaded as well so that precedence rules can be
+     * evaluated against the index.
+     * @param store
+     * @param monitor
+     * @throws IOException
+     */
+    public FeatureIndex(FeatureStore store, IProgressMonitor monitor) throws IOException {
+        if (monitor == null) monitor = new NullProgressMonitor();
+
+        String typename = store.getSchema().getTypeName();
+        String geomName = store.getSchema().getDefaultGeometry().getName();
+        String[] properties;
+        if (FeatureUtil.hasMergeSourceAttribute(store)) {
+            properties = new String[] {geomName, FeatureUtil.MERGE_SOURCE_NAME};
+        } else {
+            properties = new String[] {geomName};
+        }
+
+        monitor.beginTask("", store.getCount(Query.FIDS));
+        monitor.subTask("Indexing features");
+        FeatureIterator i = store.getFeatures(
+                new DefaultQuery(typename, Filter.NONE, properties)).features();
+        try {
+            while (i.hasNext()) {
+                add(i.next());
+                monitor.worked(1);
+            }
+        } finally {
+            i.close();
+            monitor.done();
+        }
+        this.tree.build();
+    }
+
+    private void add(Feature f) {
+        Integer index = new Integer(this.features.size());
+        this.features.add(f);
+        this.fidIndex.put(f.getID(), index);
+        this.tree.insert(f.getDefaultGeometry().getEnvelopeInternal(), index);
+    }
+
+    /**
+     * @return Number of features loaded into the index, including removed ones.
+     */
+    public int size() {
+        return this.features.size();
+    }
+
+    /**
+     * @param index
+     * @return The feature at position index, or null if it has been removed.
+     */
+    public Feature get(int index) {
+        if (this.removed.get(index)) {
+            return null;
+        }
+        return this.features.get(index);
+    }
+
+    /**
+     * @param fid
+     * @return Position of the feature identified by fid, or -1 if it is unknown.
+     */
+    public int indexOf(String fid) {
+        Integer index = this.fidIndex.get(fid);
+        if (index == null) {
+            return -1;
+        }
+        return index.intValue();
+    }
+
+    /**
+     * @param index
+     * @return Envelope of the feature at position index, removed or not.
+     */
+    public Envelope getEnvelope(int index) {
+        return this.features.get(index).getDefaultGeometry().getEnvelopeInternal();
+    }
+
+    /**
+     * @return Envelope enclosing every feature loaded into the index.
+     */
+    public Envelope getBounds() {
+        Envelope bounds = new Envelope();
+        for (Feature f: this.features) {
+            bounds.expandToInclude(f.getDefaultGeometry().getEnvelopeInternal());
+        }
+        return bounds;
+    }
+
+    /**
+     * @param fid
+     * @return The feature identified by fid, or null if it is unknown or removed.
+     */
+    public Feature getFeature(String fid) {
+        Integer index = this.fidIndex.get(fid);
+        if (index == null) {
+            return null;
+        }
+        return get(index.intValue());
+    }
+
+    /**
+     * Mark f as removed so that it is no longer returned by the index.
+     * @param f
+     */
+    public void remove(Feature f) {
+        Integer index = this.fidIndex.get(f.getID());
+        if (index != null) {
+            this.removed.set(index.intValue());
+        }
+    }
+
+    /**
+     * The in-memory counterpart of FeatureUtil.nearbyFeatureFids: all features
+     * whose envelopes intersect f's bounds, excluding f itself.
+     * @param f
+     * @return Features near f, in store order.
+     */
+    public List<Feature> nearbyFeatures(Feature f) {
+        int[] hits = candidates(f);
+        List<Feature> nearby = new ArrayList<Feature>(hits.length);
+        for (int j = 0; j < hits.length; j++) {
+            nearby.add(this.features.get(hits[j]));
+        }
+        return nearby;
+    }
+
+    /**
+     * @param index
+     * @return Positions of the features near the feature at position index, in
+     * ascending order.
+     */
+    public int[] candidates(int index) {
+        return candidates(this.features.get(index));
+    }
+
+    @SuppressWarnings("unchecked")
+    private int[] candidates(Feature f) {
+        Envelope bounds = f.getDefaultGeometry().getEnvelopeInternal();
+        List<Integer> hits = this.tree.query(bounds);
+        Collections.sort(hits);
+
+        String fid = f.getID();
+        int[] result = new int[hits.size()];
+        int count = 0;
+        for (Integer hit: hits) {
+            Feature g = get(hit.intValue());
+            if (g != null && !g.getID().equals(fid)) {
+                result[count++] = hit.intValue();
+            }
+        }
+        if (count == result.length) {
+            return result;
+        }
+        int[] trimmed = new int[count];
+        System.arraycopy(result, 0, trimmed, 0, count);
+        return trimmed;
+    }
+}
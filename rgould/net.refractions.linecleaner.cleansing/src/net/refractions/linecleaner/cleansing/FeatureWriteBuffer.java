@@ -0,0 +1,248 @@
+package net.refractions.linecleaner.cleansing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.refractions.udig.project.ILayer;
+
+import org.geotools.data.FeatureStore;
+import org.geotools.data.FeatureWriter;
+import org.geotools.data.Query;
+import org.geotools.feature.Feature;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.feature.IllegalAttributeException;
+import org.geotools.filter.FidFilter;
+import org.geotools.filter.FilterFactoryFinder;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * <p>
+ * Buffers geometry modifications and deletions made by a processor and writes
+ * them to the FeatureStore in chunks, instead of issuing a modifyFeatures or
+ * removeFeatures with a single fid filter for every feature touched.
+ * </p>
+ * <p>
+ * Deletions are flushed with one removeFeatures call and a fid filter for the whole
+ * chunk.  Since every modified feature gets a different geometry, modifications
+ * are flushed in a single FeatureWriter pass over the chunk's fids, on the store's
+ * transaction.  That writer comes from the DataStore, so the layer's FeatureStore
+ * doesn't see the modifications: if the buffer is given the layer, it is refreshed
+ * over the bounds of the old and new geometries after each pass.
+ * </p>
+ * <p>
+ * Until a flush, the store doesn't see the buffered changes.  Processors that read
+ * back features they may have changed should use getFeatures or getModified, and
+ * anything that reads the store directly or commits it (such as a MemoryFeatureIterator
+ * at a checkpoint) should flush first.
+ * </p>
+ */
+public class FeatureWriteBuffer {
+	public static final int DEFAULT_CHUNK_SIZE = 500;
+
+	private FeatureStore store;
+	private int chunkSize;
+	private ILayer layer;
+	/** bounds of the old and new geometries of the buffered modifications */
+	private Envelope modifiedBounds = new Envelope();
+
+	private LinkedHashMap<String, Feature> modified = new LinkedHashMap<String, Feature>();
+	private Set<String> removed = new LinkedHashSet<String>();
+	private int flushes = 0;
+
+	/**
+	 * @param store
+	 * @param chunkSize Number of buffered changes that triggers a flush.
+	 * @param layer The layer whose FeatureStore is store, refreshed after the
+	 * modifications are written.  May be null.
+	 */
+	public FeatureWriteBuffer(FeatureStore store, int chunkSize, ILayer layer) {
+		this.store = store;
+		this.chunkSize = Math.max(1, chunkSize);
+		this.layer = layer;
+	}
+
+	public FeatureWriteBuffer(FeatureStore store, int chunkSize) {
+		this(store, chunkSize, null);
+	}
+
+	public FeatureWriteBuffer(FeatureStore store) {
+		this(store, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Set the default geometry of feature to geometry, and buffer the change.
+	 * Modifying a feature that has been removed does nothing.
+	 * @param feature
+	 * @param geometry
+	 * @throws IOException
+	 */
+	public void modify(Feature feature, Geometry geometry) throws IOException {
+		String fid = feature.getID();
+		if (removed.contains(fid)) {
+			return;
+		}
+		String xpath = feature.getFeatureType().getDefaultGeometry().getName();
+		if (feature.getDefaultGeometry() != null) {
+			modifiedBounds.expandToInclude(feature.getDefaultGeometry().getEnvelopeInternal());
+		}
+		modifiedBounds.expandToInclude(geometry.getEnvelopeInternal());
+		try {
+			feature.setAttribute(xpath, geometry);
+		} catch (IllegalAttributeException e) {
+			throw (IOException) new IOException().initCause(e);
+		}
+		modified.put(fid, feature);
+		flushIfFull();
+	}
+
+	/**
+	 * Buffer the removal of feature, discarding any buffered modification of it.
+	 * @param feature
+	 * @throws IOException
+	 */
+	public void remove(Feature feature) throws IOException {
+		modified.remove(feature.getID());
+		removed.add(feature.getID());
+		flushIfFull();
+	}
+
+	/**
+	 * @param fid
+	 * @return The buffered modified feature with the given fid, or null if it
+	 * hasn't been modified since the last flush.
+	 */
+	public Feature getModified(String fid) {
+		return modified.get(fid);
+	}
+
+	/**
+	 * @param fid
+	 * @return Has the feature been removed since the last flush?
+	 */
+	public boolean isRemoved(String fid) {
+		return removed.contains(fid);
+	}
+
+	/**
+	 * Run query against the store as if the buffered changes had been written:
+	 * removed features are left out, and modified features are tested against the
+	 * query's filter with their new geometry.
+	 * @param query
+	 * @param bounds Envelope that any feature matching the query must intersect,
+	 * used to skip buffered features cheaply.  May be null.
+	 * @return The matching features, in store order, followed by any modified
+	 * features that only match with their new geometry.
+	 * @throws IOException
+	 */
+	public List<Feature> getFeatures(Query query, Envelope bounds) throws IOException {
+		List<Feature> result = new ArrayList<Feature>();
+		Set<String> seen = new HashSet<String>();
+		FeatureIterator i = store.getFeatures(query).features();
+		try {
+			while (i.hasNext()) {
+				Feature f = i.next();
+				String fid = f.getID();
+				if (removed.contains(fid)) {
+					continue;
+				}
+				seen.add(fid);
+				Feature pending = modified.get(fid);
+				if (pending == null) {
+					result.add(f);
+				} else if (query.getFilter().contains(pending)) {
+					result.add(pending);
+				}
+			}
+		} finally {
+			i.close();
+		}
+		for (Feature pending : modified.values()) {
+			if (seen.contains(pending.getID())) {
+				continue;
+			}
+			if (bounds != null && !bounds.intersects(pending.getDefaultGeometry().getEnvelopeInternal())) {
+				continue;
+			}
+			if (query.getFilter().contains(pending)) {
+				result.add(pending);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return Number of buffered changes.
+	 */
+	public int size() {
+		return modified.size() + removed.size();
+	}
+
+	/**
+	 * @return Number of chunks written so far.
+	 */
+	public int getFlushCount() {
+		return flushes;
+	}
+
+	private void flushIfFull() throws IOException {
+		if (size() >= chunkSize) {
+			flush();
+		}
+	}
+
+	/**
+	 * Write all buffered changes to the store.
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		if (!removed.isEmpty()) {
+			store.removeFeatures(fidFilter(removed));
+			removed.clear();
+			flushes++;
+		}
+		if (!modified.isEmpty()) {
+			writeModifications();
+			modified.clear();
+			flushes++;
+		}
+	}
+
+	private void writeModifications() throws IOException {
+		String typeName = store.getSchema().getTypeName();
+		String xpath = store.getSchema().getDefaultGeometry().getName();
+		FeatureWriter writer = store.getDataStore().getFeatureWriter(typeName,
+				fidFilter(modified.keySet()), store.getTransaction());
+		try {
+			while (writer.hasNext()) {
+				Feature live = writer.next();
+				Feature pending = modified.get(live.getID());
+				if (pending != null) {
+					live.setAttribute(xpath, pending.getDefaultGeometry());
+					writer.write();
+				}
+			}
+		} catch (IllegalAttributeException e) {
+			throw (IOException) new IOException().initCause(e);
+		} finally {
+			writer.close();
+		}
+		if (layer != null) {
+			layer.refresh(modifiedBounds);
+		}
+		modifiedBounds = new Envelope();
+	}
+
+	private static FidFilter fidFilter(Collection<String> fids) {
+		FidFilter filter = FilterFactoryFinder.createFilterFactory().createFidFilter();
+		filter.addAllFids(fids);
+		return filter;
+	}
+}
@@ -0,0 +1,68 @@
+/* uDig - User Friendly Desktop Internet GIS client
+ * http://udig.refractions.net
+ * (C) 2004, Refractions Research Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation;
+ * version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package net.refractions.linecleaner.cleansing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Interns fids as dense int ids (0, 1, 2, ...) in the order they are first seen,
+ * so that per-feature bookkeeping can be kept in primitive arrays and maps
+ * instead of maps keyed by String.
+ * </p>
+ * @author myronwu
+ */
+public class FidTable {
+    private Map<String, Integer> ids = new HashMap<String, Integer>();
+    private List<String> fids = new ArrayList<String>();
+
+    /**
+     * @param fid
+     * @return The id of fid, assigning a new one if fid hasn't been seen before.
+     */
+    public int intern(String fid) {
+        Integer id = this.ids.get(fid);
+        if (id == null) {
+            id = new Integer(this.fids.size());
+            this.ids.put(fid, id);
+            this.fids.add(fid);
+        }
+        return id.intValue();
+    }
+
+    /**
+     * @param fid
+     * @return The id of fid, or -1 if it hasn't been interned.
+     */
+    public int id(String fid) {
+        Integer id = this.ids.get(fid);
+        return id == null ? -1 : id.intValue();
+    }
+
+    /**
+     * @param id
+     * @return The fid with the given id.
+     */
+    public String fid(int id) {
+        return this.fids.get(id);
+    }
+
+    public int size() {
+        return this.fids.size();
+    }
+}
@@ -0,0 +1,169 @@
+/* uDig - User Friendly Desktop Internet GIS client
+ * http://udig.refractions.net
+ * (C) 2004, Refractions Research Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation;
+ * version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package net.refractions.linecleaner.cleansing;
+
+import java.util.BitSet;
+
+/**
+ * <p>
+ * Maps small non-negative int keys (such as ids handed out by a FidTable) to sets
+ * of ints.  Keys index straight into an array and each set is an unsorted int
+ * array, so no Integer, HashSet or map entry objects are created.
+ * </p>
+ * <p>
+ * The sets are expected to be small (the features near a given feature), so
+ * membership tests are linear scans.
+ * </p>
+ * @author myronwu
+ */
+public class IntSetIndex {
+    private static final int[] EMPTY = new int[0];
+
+    private int[][] sets = new int[16][];
+    private int[] sizes = new int[16];
+    private BitSet keys = new BitSet();
+
+    /**
+     * Add value to the set for key, creating the set if necessary.
+     * @param key
+     * @param value
+     * @return Was value not already in the set?
+     */
+    public boolean add(int key, int value) {
+        ensureKey(key);
+        this.keys.set(key);
+        int[] set = this.sets[key];
+        int size = this.sizes[key];
+        if (set == null) {
+            set = new int[2];
+            this.sets[key] = set;
+        } else if (indexOf(set, size, value) >= 0) {
+            return false;
+        } else if (size == set.length) {
+            int[] grown = new int[size * 2];
+            System.arraycopy(set, 0, grown, 0, size);
+            set = grown;
+            this.sets[key] = set;
+        }
+        set[size] = value;
+        this.sizes[key] = size + 1;
+        return true;
+    }
+
+    /**
+     * Remove value from the set for key.  The (possibly empty) set is kept.
+     * @param key
+     * @param value
+     */
+    public void remove(int key, int value) {
+        if (key >= this.sets.length || this.sets[key] == null) {
+            return;
+        }
+        int[] set = this.sets[key];
+        int size = this.sizes[key];
+        int i = indexOf(set, size, value);
+        if (i >= 0) {
+            set[i] = set[size - 1];
+            this.sizes[key] = size - 1;
+        }
+    }
+
+    /**
+     * Remove key and its set entirely.
+     * @param key
+     */
+    public void removeKey(int key) {
+        if (key < this.sets.length) {
+            this.sets[key] = null;
+            this.sizes[key] = 0;
+        }
+        this.keys.clear(key);
+    }
+
+    public boolean containsKey(int key) {
+        return this.keys.get(key);
+    }
+
+    public boolean contains(int key, int value) {
+        if (key >= this.sets.length || this.sets[key] == null) {
+            return false;
+        }
+        return indexOf(this.sets[key], this.sizes[key], value) >= 0;
+    }
+
+    /**
+     * @param key
+     * @return A copy of the set for key, in no particular order.  Empty if there
+     * is no such key.
+     */
+    public int[] get(int key) {
+        if (key >= this.sets.length || this.sets[key] == null) {
+            return EMPTY;
+        }
+        int[] copy = new int[this.sizes[key]];
+        System.arraycopy(this.sets[key], 0, copy, 0, copy.length);
+        return copy;
+    }
+
+    /**
+     * @return All keys, in ascending order.
+     */
+    public int[] keys() {
+        int[] result = new int[this.keys.cardinality()];
+        int n = 0;
+        for (int key = this.keys.nextSetBit(0); key >= 0; key = this.keys.nextSetBit(key + 1)) {
+            result[n++] = key;
+        }
+        return result;
+    }
+
+    /**
+     * @return Approximate number of bytes held by the index.
+     */
+    public long memoryUsage() {
+        long bytes = 4L * this.sizes.length + 8L * this.sets.length;
+        for (int i = 0; i < this.sets.length; i++) {
+            if (this.sets[i] != null) {
+                bytes += 16 + 4L * this.sets[i].length;
+            }
+        }
+        return bytes;
+    }
+
+    private void ensureKey(int key) {
+        if (key < this.sets.length) {
+            return;
+        }
+        int capacity = this.sets.length;
+        while (capacity <= key) {
+            capacity <<= 1;
+        }
+        int[][] sets = new int[capacity][];
+        int[] sizes = new int[capacity];
+        System.arraycopy(this.sets, 0, sets, 0, this.sets.length);
+        System.arraycopy(this.sizes, 0, sizes, 0, this.sizes.length);
+        this.sets = sets;
+        this.sizes = sizes;
+    }
+
+    private static int indexOf(int[] set, int size, int value) {
+        for (int i = 0; i < size; i++) {
+            if (set[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,234 @@
+/* uDig - User Friendly Desktop Internet GIS client
+ * http://udig.refractions.net
+ * (C) 2004, Refractions Research Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation;
+ * version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package net.refractions.linecleaner.cleansing;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A hash map from primitive longs to primitive doubles.  Keys and values are kept
+ * in two parallel arrays (open addressing, linear probing) so that no Long,
+ * Double or map entry objects are created per mapping; a mapping costs 16 bytes
+ * plus the free space of the table.
+ * </p>
+ * <p>
+ * Long.MIN_VALUE is reserved to mark free slots and can't be used as a key.
+ * </p>
+ * @author myronwu
+ */
+public class LongDoubleMap {
+    private static final long FREE = Long.MIN_VALUE;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private long[] keys;
+    private double[] values;
+    private int size = 0;
+    private int threshold;
+
+    /**
+     * Filter used by retainAll.
+     */
+    public interface KeyFilter {
+        /**
+         * @param key
+         * @return Should the mapping for key be kept?
+         */
+        public boolean accept(long key);
+    }
+
+    public LongDoubleMap() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize Number of mappings to size the table for.
+     */
+    public LongDoubleMap(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.values = new double[capacity];
+        Arrays.fill(this.keys, FREE);
+        this.threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean containsKey(long key) {
+        return this.keys[slot(key)] != FREE;
+    }
+
+    /**
+     * @param key
+     * @param missing Value returned if there is no mapping for key.
+     * @return The value mapped to key, or missing.
+     */
+    public double get(long key, double missing) {
+        int slot = slot(key);
+        if (this.keys[slot] == FREE) {
+            return missing;
+        }
+        return this.values[slot];
+    }
+
+    /**
+     * Map key to value, replacing any previous mapping.
+     * @param key
+     * @param value
+     */
+    public void put(long key, double value) {
+        if (key == FREE) {
+            throw new IllegalArgumentException("Key " + key + " is reserved"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        int slot = slot(key);
+        if (this.keys[slot] == FREE) {
+            this.keys[slot] = key;
+            this.size++;
+        }
+        this.values[slot] = value;
+        if (this.size > this.threshold) {
+            rehash(this.keys.length << 1);
+        }
+    }
+
+    /**
+     * Remove the mapping for key, if any.
+     * @param key
+     * @return Was there a mapping for key?
+     */
+    public boolean remove(long key) {
+        int slot = slot(key);
+        if (this.keys[slot] == FREE) {
+            return false;
+        }
+        // backward shift the rest of the probe sequence so no tombstones are needed
+        int mask = this.keys.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (this.keys[next] != FREE) {
+            int home = hash(this.keys[next]) & mask;
+            // move the entry at next into the hole unless its home lies cyclically
+            // within (hole, next]
+            boolean stays = hole <= next
+                    ? (hole < home && home <= next)
+                    : (hole < home || home <= next);
+            if (!stays) {
+                this.keys[hole] = this.keys[next];
+                this.values[hole] = this.values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        this.keys[hole] = FREE;
+        this.size--;
+        return true;
+    }
+
+    /**
+     * Remove every mapping whose key is not accepted by filter, and shrink the
+     * table to fit the mappings that remain.
+     * @param filter
+     */
+    public void retainAll(KeyFilter filter) {
+        long[] oldKeys = this.keys;
+        double[] oldValues = this.values;
+        int kept = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                if (filter.accept(oldKeys[i])) {
+                    kept++;
+                } else {
+                    oldKeys[i] = FREE;
+                }
+            }
+        }
+        allocate(tableSizeFor(kept));
+        this.size = 0;
+        reinsert(oldKeys, oldValues);
+    }
+
+    /**
+     * Copy every mapping of other into this map.
+     * @param other
+     */
+    public void putAll(LongDoubleMap other) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] != FREE) {
+                put(other.keys[i], other.values[i]);
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(this.keys, FREE);
+        this.size = 0;
+    }
+
+    /**
+     * @return Approximate number of bytes held by the table arrays.
+     */
+    public long memoryUsage() {
+        return 16L * this.keys.length;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = this.keys;
+        double[] oldValues = this.values;
+        allocate(capacity);
+        this.size = 0;
+        reinsert(oldKeys, oldValues);
+    }
+
+    private void reinsert(long[] oldKeys, double[] oldValues) {
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                int slot = slot(oldKeys[i]);
+                this.keys[slot] = oldKeys[i];
+                this.values[slot] = oldValues[i];
+                this.size++;
+            }
+        }
+    }
+
+    // slot holding key, or the free slot where it would go
+    private int slot(long key) {
+        int mask = this.keys.length - 1;
+        int slot = hash(key) & mask;
+        while (this.keys[slot] != FREE && this.keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(long key) {
+        // mix the bits, keys are often two packed small ints
+        key ^= (key >>> 33);
+        key *= 0xff51afd7ed558ccdL;
+        key ^= (key >>> 33);
+        return (int) key;
+    }
+}
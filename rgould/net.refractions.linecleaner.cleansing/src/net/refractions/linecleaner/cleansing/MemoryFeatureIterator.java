@@ -2,8 +2,6 @@ package net.refractions.linecleaner.cleansing;
 
 import java.io.IOException;
 import java.util.NoSuchElementException;
-import java.util.Set;
-import java.util.TreeSet;
 
 import net.refractions.udig.project.internal.Map;
 
@@ -13,32 +11,56 @@ import org.geotools.data.FeatureStore;
 import org.geotools.data.Query;
 import org.geotools.feature.Feature;
 import org.geotools.feature.FeatureIterator;
-import org.geotools.filter.FidFilter;
 import org.geotools.filter.Filter;
-import org.geotools.filter.FilterFactoryFinder;
 
+/**
+ * <p>
+ * Iterates over the features matching a query with one reader, opened when the
+ * iterator is created and kept open for the whole traversal, committing the map
+ * transaction every batchSize features so that the changes made by the processor
+ * do not pile up in the transaction.
+ * </p>
+ * <p>
+ * The reader is never re-opened, so the store is scanned once and no filter of
+ * visited fids is built.  Features removed by the processor ahead of the cursor are
+ * not returned, and features it adds are returned if the store's reader reaches them.
+ * </p>
+ * <p>
+ * If the processor buffers its writes, pass its FeatureWriteBuffer so that it is
+ * flushed before each commit.
+ * </p>
+ */
 public class MemoryFeatureIterator {
-	// TODO: make the threshold proportional to the size of input and total heap memory
-	private static final long DEFAULT_LOW_MEMORY_THRESHOLD = 150000000; // 150MB
+	public static final int DEFAULT_BATCH_SIZE = 10000;
+
 	FeatureIterator delegate;
 	FeatureSource source;
 	Query query;
-	long minimum;
 	private Map map;
-	private Set<String> visitedFids;
-	
-	public MemoryFeatureIterator(FeatureSource source, Map map, Query query, long minimum) throws IOException {
+	private int batchSize;
+	private FeatureWriteBuffer writes;
+
+	/** features returned since the last commit */
+	private int sinceCheckpoint = 0;
+
+	public MemoryFeatureIterator(FeatureSource source, Map map, Query query, int batchSize,
+			FeatureWriteBuffer writes) throws IOException {
 		this.source = source;
 		this.map = map;
 		this.query = query;
-		this.minimum = minimum;
-		
+		this.batchSize = Math.max(1, batchSize);
+		this.writes = writes;
+
+		flushWrites();
 		this.delegate = source.getFeatures(query).features();
-		this.visitedFids = new TreeSet<String>();
 	}
-	
+
+	public MemoryFeatureIterator(FeatureSource source, Map map, Query query, int batchSize) throws IOException {
+		this(source, map, query, batchSize, null);
+	}
+
 	public MemoryFeatureIterator(FeatureSource source, Map map, Query query) throws IOException {
-		this(source, map, query, DEFAULT_LOW_MEMORY_THRESHOLD);
+		this(source, map, query, DEFAULT_BATCH_SIZE);
 	}
 
 	public void close() {
@@ -46,20 +68,8 @@ public class MemoryFeatureIterator {
 	}
 
 	public boolean hasNext() throws IOException {
-		if (isMemoryLow()) {
-			delegate.close();
-			map.getEditManagerInternal().commitTransaction();
-			System.gc();
-			System.runFinalization();
-			DefaultQuery newQuery = new DefaultQuery(query);
-			
-			FidFilter newFilter = FilterFactoryFinder.createFilterFactory().createFidFilter();
-			
-			newFilter.addAllFids(visitedFids);
-			
-			newQuery.setFilter(query.getFilter().and(newFilter.not()));
-			
-			delegate = source.getFeatures(newQuery).features();
+		if (sinceCheckpoint >= batchSize) {
+			checkpoint();
 		}
 		return delegate.hasNext();
 	}
@@ -69,25 +79,27 @@ public class MemoryFeatureIterator {
 			throw new NoSuchElementException();
 		}
 		Feature current = delegate.next();
-		visitedFids.add(current.getID());
+		sinceCheckpoint++;
 		return current;
 	}
-	
-	private boolean isMemoryLow() {
-		// freeMemory (on windows at least) is actually the amount of currently
-		// allocated heap memory - memory used.  Committing when this is low
-		// causes more commits than is needed.  UnmallocedMemory is when we
-		// hit the real upper bound of maximum memory available for the heap.
-		Runtime r = Runtime.getRuntime();
-		long unmallocedMemory = r.maxMemory() - r.totalMemory();
-		long freeMemory = r.freeMemory();
-		
-		if (unmallocedMemory <= minimum && freeMemory <= minimum) {
-			return true;
+
+	/**
+	 * Flush the buffered writes and commit the map transaction, the reader stays open.
+	 */
+	private void checkpoint() throws IOException {
+		flushWrites();
+		if (map != null) {
+			map.getEditManagerInternal().commitTransaction();
 		}
-		return false;
+		sinceCheckpoint = 0;
 	}
-	
+
+	private void flushWrites() throws IOException {
+		if (writes != null) {
+			writes.flush();
+		}
+	}
+
 	/**
 	 * Creates a new MemoryFeatureIterator with a query that uses Filter.NONE and only the geometry name.
 	 * @param store
@@ -96,8 +108,15 @@ public class MemoryFeatureIterator {
 	 * @throws IOException
 	 */
 	public static MemoryFeatureIterator createDefault(FeatureStore store, Map map) throws IOException {
-		return new MemoryFeatureIterator(store, map, 
-				new DefaultQuery(store.getSchema().getTypeName(), Filter.NONE, 
-						new String[] { store.getSchema().getDefaultGeometry().getName() }));
+		return new MemoryFeatureIterator(store, map, createDefaultQuery(store));
+	}
+
+	/**
+	 * @param store
+	 * @return A query for all features of store, with only the geometry.
+	 */
+	public static Query createDefaultQuery(FeatureStore store) {
+		return new DefaultQuery(store.getSchema().getTypeName(), Filter.NONE,
+				new String[] { store.getSchema().getDefaultGeometry().getName() });
 	}
 }
@@ -13,6 +13,7 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.geotools.data.FeatureStore;
 import org.geotools.data.Query;
+import org.geotools.feature.Feature;
 import org.geotools.filter.CompareFilter;
 import org.geotools.filter.FilterFactory;
 import org.geotools.filter.FilterFactoryFinder;
@@ -30,6 +31,7 @@ public class MinimumLengthProcessor extends AbstractProcessor {
 
 	public static final double DEFAULT_MINIMUM_LENGTH = 10;
 	private double minimumLength;
+	private int parallelism = 1;
 	LoggingSystem loggingSystem = LoggingSystem.getInstance();
 
 	/**
@@ -48,6 +50,19 @@ public class MinimumLengthProcessor extends AbstractProcessor {
 		this.minimumLength = minimumLength;
 	}
 	
+	/**
+	 * @param parallelism Number of threads to measure features on.  With more than
+	 * one, lengths are measured on worker threads and the short features are removed
+	 * by this one, instead of with a single length filter.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+	
+	public int getParallelism() {
+		return parallelism;
+	}
+	
 	protected void runInternal(IProgressMonitor monitor, PauseMonitor pauseMonitor) throws IOException {
 
 		if (monitor == null) monitor = new NullProgressMonitor();
@@ -58,6 +73,13 @@ public class MinimumLengthProcessor extends AbstractProcessor {
 		loggingSystem.setCurrentAction(LoggingSystem.MINIMUM_LENGTH);
 		loggingSystem.begin();
 		
+		if (parallelism > 1) {
+			removeInParallel(monitor, pauseMonitor);
+			loggingSystem.finish();
+			monitor.done();
+			return;
+		}
+		
 		FilterFactory factory = FilterFactoryFinder.createFilterFactory();
 		CompareFilter compareFilter;
 		try {
@@ -94,4 +116,24 @@ public class MinimumLengthProcessor extends AbstractProcessor {
 		loggingSystem.finish();
 		monitor.done();
 	}
+	
+	private void removeInParallel(IProgressMonitor monitor, PauseMonitor pauseMonitor) throws IOException {
+		MemoryFeatureIterator iter = createIterator(MemoryFeatureIterator.createDefaultQuery(featureStore));
+		try {
+			ParallelFeatureMapper<Boolean> mapper = new ParallelFeatureMapper<Boolean>(parallelism);
+			mapper.run(iter, new ParallelFeatureMapper.Function<Boolean>() {
+				public Boolean apply(Feature feature) {
+					// same test as the length filter
+					return feature.getDefaultGeometry().getLength() <= minimumLength ? Boolean.TRUE : null;
+				}
+			}, new ParallelFeatureMapper.Writer<Boolean>() {
+				public void write(Feature feature, Boolean tooShort) throws IOException {
+					writes.remove(feature);
+				}
+			}, monitor, pauseMonitor);
+			writes.flush();
+		} finally {
+			iter.close();
+		}
+	}
 }
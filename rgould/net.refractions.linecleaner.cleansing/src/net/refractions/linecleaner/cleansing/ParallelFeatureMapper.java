@@ -0,0 +1,173 @@
+package net.refractions.linecleaner.cleansing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.geotools.feature.Feature;
+
+/**
+ * <p>
+ * Applies a function to every feature of a MemoryFeatureIterator on a pool of
+ * worker threads, and hands the results to a single writer on the calling thread.
+ * </p>
+ * <p>
+ * The calling thread reads the features in batches and submits each batch to the
+ * pool, keeping at most two batches per thread in flight.  Results are written
+ * batch by batch in the order the features were read, so the writer sees the
+ * same sequence as a serial loop, and it is the only thread that touches the
+ * FeatureStore (the iterator commits and the processor's FeatureWriteBuffer
+ * flushes happen on it too).  The function must not modify the features.
+ * </p>
+ * <p>
+ * Pausing through the PauseMonitor stops the writer, and the workers stop once
+ * the batches in flight are done.  Canceling the monitor stops reading and
+ * abandons the batches in flight; what was written so far stays written, as
+ * with a serial loop that breaks out.
+ * </p>
+ */
+public class ParallelFeatureMapper<T> {
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	/**
+	 * Computes a result for a feature; runs on the worker threads.
+	 */
+	public interface Function<T> {
+		/**
+		 * @param feature
+		 * @return The result for feature, or null if there's nothing to write.
+		 */
+		public T apply(Feature feature);
+	}
+
+	/**
+	 * Writes the result for a feature; runs on the calling thread.
+	 */
+	public interface Writer<T> {
+		public void write(Feature feature, T result) throws IOException;
+	}
+
+	private int threads;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	/**
+	 * @param threads Number of worker threads.
+	 */
+	public ParallelFeatureMapper(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * Apply function to every feature of iter, and write the non null results.
+	 * Does not close iter.
+	 * @param iter
+	 * @param function
+	 * @param writer
+	 * @param monitor Worked once per feature written; it isn't begun or done here.
+	 * @param pauseMonitor
+	 * @throws IOException
+	 */
+	public void run(MemoryFeatureIterator iter, final Function<T> function, Writer<T> writer,
+			IProgressMonitor monitor, PauseMonitor pauseMonitor) throws IOException {
+		if (monitor == null) monitor = new NullProgressMonitor();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		LinkedList<List<Feature>> batches = new LinkedList<List<Feature>>();
+		LinkedList<Future<List<T>>> results = new LinkedList<Future<List<T>>>();
+		if (pauseMonitor != null) {
+			pauseMonitor.addListener(this);
+		}
+		try {
+			while (true) {
+				while (results.size() < 2 * threads && iter.hasNext()) {
+					final List<Feature> batch = new ArrayList<Feature>(batchSize);
+					while (batch.size() < batchSize && iter.hasNext()) {
+						batch.add(iter.next());
+					}
+					batches.add(batch);
+					results.add(executor.submit(new Callable<List<T>>() {
+						public List<T> call() {
+							List<T> result = new ArrayList<T>(batch.size());
+							for (Feature feature : batch) {
+								result.add(function.apply(feature));
+							}
+							return result;
+						}
+					}));
+				}
+				if (results.isEmpty()) {
+					break;
+				}
+
+				List<Feature> batch = batches.removeFirst();
+				List<T> result = waitFor(results.removeFirst(), monitor);
+				if (result == null) {
+					break;
+				}
+				for (int i = 0; i < batch.size(); i++) {
+					if (result.get(i) != null) {
+						writer.write(batch.get(i), result.get(i));
+					}
+					monitor.worked(1);
+				}
+				if (monitor.isCanceled()) {
+					break;
+				}
+				pauseIfNecessary(pauseMonitor);
+			}
+		} finally {
+			executor.shutdownNow();
+			if (pauseMonitor != null) {
+				pauseMonitor.removeListener(this);
+			}
+		}
+	}
+
+	// poll the future so that canceling the monitor is noticed while a batch runs
+	private List<T> waitFor(Future<List<T>> future, IProgressMonitor monitor) {
+		while (true) {
+			if (monitor.isCanceled()) {
+				return null;
+			}
+			try {
+				return future.get(250, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				// keep waiting
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			} catch (ExecutionException e) {
+				throw (RuntimeException) new RuntimeException( ).initCause( e.getCause() );
+			}
+		}
+	}
+
+	private void pauseIfNecessary(PauseMonitor pauseMonitor) {
+		if (pauseMonitor != null && pauseMonitor.isPaused()) {
+			synchronized (this) {
+				while (pauseMonitor.isPaused()) {
+					try {
+						// Wait for pauseMonitor to notify() us.
+						wait();
+					} catch (InterruptedException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}
+	}
+}
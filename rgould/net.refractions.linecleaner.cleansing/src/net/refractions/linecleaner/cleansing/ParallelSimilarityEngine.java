@@ -0,0 +1,285 @@
+/* uDig - User Friendly Desktop Internet GIS client
+ * http://udig.refractions.net
+ * (C) 2004, Refractions Research Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation;
+ * version 2.1 of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ */
+package net.refractions.linecleaner.cleansing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.refractions.linecleaner.SimilarityMetric;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.geotools.feature.Feature;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * <p>
+ * Computes the similarity metric, in both directions, for every pair of nearby
+ * features in a FeatureIndex using a pool of worker threads.
+ * </p>
+ * <p>
+ * The features are partitioned into a grid of spatial tiles by the centre of
+ * their envelopes, and each tile is handed to a worker as a unit so that the
+ * candidates it touches stay close together.  Candidates are taken from the
+ * shared (read-only) FeatureIndex rather than from a per-tile copy, so long
+ * features crossing several tiles still see all their neighbours.  Each unordered
+ * pair is computed once, by the tile owning the lower numbered feature.  Each
+ * worker fills a map of its own, which is merged into the result on the calling
+ * thread as the tile completes.
+ * </p>
+ * <p>
+ * Only the metric values are computed here.  The sieve still runs in a single
+ * thread, in store order, and reads these values instead of computing them, so
+ * it makes exactly the same decisions as a serial run.
+ * </p>
+ * @author myronwu
+ */
+public class ParallelSimilarityEngine {
+    /** Rough number of features handed to a worker at a time */
+    public static final int DEFAULT_FEATURES_PER_TILE = 1000;
+
+    private FeatureIndex index;
+    private double samplingDistance;
+    private int threads;
+    private int featuresPerTile = DEFAULT_FEATURES_PER_TILE;
+    private double cutoff = Double.POSITIVE_INFINITY;
+
+    private SimilarityMetric similarityMetric = new SimilarityMetric();
+    private LongDoubleMap similarities = new LongDoubleMap();
+    private volatile boolean canceled = false;
+
+    /**
+     * @param index Features to compare; must not be modified while computing.
+     * @param samplingDistance
+     * @param threads Number of worker threads.
+     */
+    public ParallelSimilarityEngine(FeatureIndex index, double samplingDistance, int threads) {
+        this.index = index;
+        this.samplingDistance = samplingDistance;
+        this.threads = Math.max(1, threads);
+    }
+
+    public void setFeaturesPerTile(int featuresPerTile) {
+        this.featuresPerTile = Math.max(1, featuresPerTile);
+    }
+
+    /**
+     * Similarities greater than cutoff are only computed as far as needed to show
+     * that they are greater than cutoff.  See SimilarityMetric.similarityF.
+     * @param cutoff
+     */
+    public void setCutoff(double cutoff) {
+        this.cutoff = cutoff;
+    }
+
+    /**
+     * Compute the similarity of every pair of nearby features.  Blocks until all
+     * tiles are done, the monitor is canceled, or a worker fails.
+     * @param monitor
+     * @param pauseMonitor
+     */
+    public void computeSimilarities(IProgressMonitor monitor, final PauseMonitor pauseMonitor) {
+        if (monitor == null) monitor = new NullProgressMonitor();
+        this.canceled = false;
+
+        List<int[]> tiles = buildTiles();
+        monitor.beginTask("", tiles.size());
+        monitor.subTask("Computing similarities");
+
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        if (pauseMonitor != null) {
+            pauseMonitor.addListener(this);
+        }
+        try {
+            List<Future<LongDoubleMap>> futures = new ArrayList<Future<LongDoubleMap>>(tiles.size());
+            for (final int[] tile: tiles) {
+                futures.add(executor.submit(new Callable<LongDoubleMap>() {
+                    public LongDoubleMap call() {
+                        return computeTile(tile, pauseMonitor);
+                    }
+                }));
+            }
+            for (Future<LongDoubleMap> future: futures) {
+                LongDoubleMap result = waitFor(future, monitor);
+                if (result == null) {
+                    break;
+                }
+                this.similarities.putAll(result);
+                monitor.worked(1);
+            }
+        } finally {
+            this.canceled = true;
+            synchronized (this) {
+                notifyAll();
+            }
+            executor.shutdownNow();
+            if (pauseMonitor != null) {
+                pauseMonitor.removeListener(this);
+            }
+            monitor.done();
+        }
+    }
+
+    // poll the future so that canceling the monitor is noticed while a tile runs
+    private LongDoubleMap waitFor(Future<LongDoubleMap> future, IProgressMonitor monitor) {
+        while (true) {
+            if (monitor.isCanceled()) {
+                return null;
+            }
+            try {
+                return future.get(250, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // keep waiting
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                throw (RuntimeException) new RuntimeException( ).initCause( e.getCause() );
+            }
+        }
+    }
+
+    /**
+     * @param f
+     * @param g
+     * @return The computed similarity of f to g, or NaN if it wasn't computed.
+     */
+    public double getSimilarity(Feature f, Feature g) {
+        int i = this.index.indexOf(f.getID());
+        int j = this.index.indexOf(g.getID());
+        if (i < 0 || j < 0) {
+            return Double.NaN;
+        }
+        return this.similarities.get(key(i, j), Double.NaN);
+    }
+
+    /**
+     * @return Number of directed similarities computed.
+     */
+    public int size() {
+        return this.similarities.size();
+    }
+
+    private LongDoubleMap computeTile(int[] tile, PauseMonitor pauseMonitor) {
+        LongDoubleMap result = new LongDoubleMap(4 * tile.length);
+        for (int k = 0; k < tile.length; k++) {
+            if (this.canceled) {
+                return result;
+            }
+            pauseIfNecessary(pauseMonitor);
+
+            int i = tile[k];
+            Feature f = this.index.get(i);
+            if (f == null) {
+                continue;
+            }
+            Geometry fgeom = f.getDefaultGeometry();
+            int[] candidates = this.index.candidates(i);
+            for (int c = 0; c < candidates.length; c++) {
+                int j = candidates[c];
+                if (j <= i) {
+                    continue; // computed by the owner of j
+                }
+                Geometry ggeom = this.index.get(j).getDefaultGeometry();
+                if (fgeom.equalsExact(ggeom)) {
+                    continue; // identical features never get as far as the metric
+                }
+                result.put(key(i, j), this.similarityMetric.similarityF(fgeom, ggeom,
+                        this.samplingDistance, this.cutoff));
+                result.put(key(j, i), this.similarityMetric.similarityF(ggeom, fgeom,
+                        this.samplingDistance, this.cutoff));
+            }
+        }
+        return result;
+    }
+
+    private void pauseIfNecessary(PauseMonitor pauseMonitor) {
+        if (pauseMonitor != null && pauseMonitor.isPaused()) {
+            synchronized (this) {
+                while (pauseMonitor.isPaused() && !this.canceled) {
+                    try {
+                        // pauseMonitor only notify()s one waiting thread, so the
+                        // other workers poll
+                        wait(250);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Partition the features into a grid of tiles, by the centre of their envelopes.
+     * @return Positions of the features in each non-empty tile.
+     */
+    protected List<int[]> buildTiles() {
+        int size = this.index.size();
+        Envelope bounds = this.index.getBounds();
+        int cells = (int) Math.ceil(Math.sqrt((double) size / this.featuresPerTile));
+        cells = Math.max(1, cells);
+
+        double width = bounds.getWidth() / cells;
+        double height = bounds.getHeight() / cells;
+        int[] counts = new int[cells * cells];
+        int[] cellOf = new int[size];
+        for (int i = 0; i < size; i++) {
+            Envelope env = this.index.getEnvelope(i);
+            int col = cell((env.getMinX() + env.getMaxX()) / 2, bounds.getMinX(), width, cells);
+            int row = cell((env.getMinY() + env.getMaxY()) / 2, bounds.getMinY(), height, cells);
+            cellOf[i] = row * cells + col;
+            counts[cellOf[i]]++;
+        }
+
+        int[][] members = new int[counts.length][];
+        for (int c = 0; c < counts.length; c++) {
+            members[c] = new int[counts[c]];
+            counts[c] = 0;
+        }
+        for (int i = 0; i < size; i++) {
+            int c = cellOf[i];
+            members[c][counts[c]++] = i;
+        }
+
+        List<int[]> tiles = new ArrayList<int[]>();
+        for (int c = 0; c < members.length; c++) {
+            if (members[c].length > 0) {
+                tiles.add(members[c]);
+            }
+        }
+        return tiles;
+    }
+
+    private static int cell(double ordinate, double min, double extent, int cells) {
+        if (extent <= 0) {
+            return 0;
+        }
+        int cell = (int) ((ordinate - min) / extent);
+        return Math.min(cells - 1, Math.max(0, cell));
+    }
+
+    private static long key(int i, int j) {
+        return ((long) i << 32) | (j & 0xffffffffL);
+    }
+}
@@ -1,5 +1,9 @@
 package net.refractions.linecleaner.cleansing;
 
+import java.util.logging.Logger;
+
+import net.refractions.linecleaner.LoggingSystem;
+
 import net.refractions.udig.project.internal.Layer;
 
 import org.eclipse.core.runtime.IProgressMonitor;
@@ -16,6 +20,8 @@ public class PerformCleansingAction {
     private double minimumCycleLength;
 	private Layer layer;
 	private PauseMonitor pauseMonitor;
+	private boolean pipelineMode = false;
+	private int parallelism = 1;
 	
 	// constants representing relative time taken by each processor.  total = 200
     public static final int MIN_LENGTH_TICKS = 1;
@@ -42,7 +48,40 @@ public class PerformCleansingAction {
         this.douglasPeuckerTolerance = douglasPeuckerTolerance;
     }
     
+    /**
+     * In pipeline mode the features are read into memory once, all the stages are
+     * run there by a CleansingPipeline, and the result is written back and committed
+     * once, instead of each processor making a pass over the FeatureStore and
+     * committing.  The geometries of the whole dataset are held in memory, so it
+     * is off by default; the line cleaning wizard has an option for it.
+     * 
+     * @param pipelineMode
+     */
+    public void setPipelineMode(boolean pipelineMode) {
+    	this.pipelineMode = pipelineMode;
+    }
+    
+    public boolean isPipelineMode() {
+    	return pipelineMode;
+    }
+    
+    /**
+     * @param parallelism Number of threads the minimum length and Douglas-Peucker
+     * stages run on.
+     */
+    public void setParallelism(int parallelism) {
+    	this.parallelism = Math.max(1, parallelism);
+    }
+    
+    public int getParallelism() {
+    	return parallelism;
+    }
+    
     public void run(IProgressMonitor monitor) throws Exception {        
+    	if (pipelineMode) {
+    		runPipeline(monitor);
+    		return;
+    	}
     	monitor.beginTask("Data Preparation: ", TOTAL_TICKS);
     	if (monitor.isCanceled()) {
     		return;
@@ -50,6 +89,7 @@ public class PerformCleansingAction {
 
         MinimumLengthProcessor mlp = new MinimumLengthProcessor(layer.getMapInternal(), featureStore, minimumLength);
         mlp.setName("ZeroLength");
+        mlp.setParallelism(parallelism);
         mlp.run(new SubProgressMonitor(monitor, MIN_LENGTH_TICKS, SubProgressMonitor.PREPEND_MAIN_LABEL_TO_SUBTASK),
         		pauseMonitor);
         mlp = null;
@@ -73,6 +113,7 @@ public class PerformCleansingAction {
     	System.gc();
     	DouglasPeuckerProcessor dpp = new DouglasPeuckerProcessor(layer.getMapInternal(), featureStore, this.douglasPeuckerTolerance);
     	dpp.setName("DouglasPeucker");
+    	dpp.setParallelism(parallelism);
     	dpp.run(new SubProgressMonitor(monitor, DOUGLAS_PEUCKER_TICKS, SubProgressMonitor.PREPEND_MAIN_LABEL_TO_SUBTASK), pauseMonitor);
     	dpp = null;
     	
@@ -145,4 +186,32 @@ public class PerformCleansingAction {
 
         monitor.done();
     }
+    
+    private void runPipeline(IProgressMonitor monitor) throws Exception {
+    	monitor.beginTask("Data Preparation: ", CleansingPipeline.TOTAL_TICKS);
+    	if (monitor.isCanceled()) {
+    		return;
+    	}
+    	
+    	System.gc();
+    	CleansingPipeline pipeline = new CleansingPipeline(layer.getMapInternal(), featureStore, minimumLength,
+    			minimumCycleLength, nodeDistanceTolerance, areaTolerance, douglasPeuckerTolerance);
+    	pipeline.setName("Pipeline");
+    	pipeline.run(new SubProgressMonitor(monitor, CleansingPipeline.TOTAL_TICKS, SubProgressMonitor.PREPEND_MAIN_LABEL_TO_SUBTASK),
+    			pauseMonitor);
+    	
+    	if (monitor.isCanceled()) {
+    		return;
+    	}
+    	
+    	Logger logger = LoggingSystem.getInstance().getLogger();
+    	for (java.util.Map.Entry<String, Long> timing : pipeline.getStageTimings().entrySet()) {
+    		logger.info(timing.getKey() + " done in: " + timing.getValue() / 1000.00 + " seconds");
+    	}
+    	pipeline = null;
+    	
+    	layer.getMapInternal().getEditManagerInternal().commitTransaction();
+    	
+    	monitor.done();
+    }
 }
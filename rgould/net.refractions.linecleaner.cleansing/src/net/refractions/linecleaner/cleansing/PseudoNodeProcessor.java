@@ -2,6 +2,7 @@ package net.refractions.linecleaner.cleansing;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.List;
 import java.util.logging.Level;
 
 import net.refractions.linecleaner.FeatureUtil;
@@ -14,17 +15,13 @@ import org.eclipse.core.runtime.NullProgressMonitor;
 import org.geotools.data.DefaultQuery;
 import org.geotools.data.FeatureStore;
 import org.geotools.data.Query;
-import org.geotools.feature.AttributeType;
 import org.geotools.feature.Feature;
-import org.geotools.feature.FeatureCollection;
-import org.geotools.feature.FeatureIterator;
 import org.geotools.feature.IllegalAttributeException;
-import org.geotools.filter.FidFilter;
 import org.geotools.filter.Filter;
-import org.geotools.filter.FilterFactoryFinder;
 import org.geotools.filter.IllegalFilterException;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
@@ -64,7 +61,7 @@ public class PseudoNodeProcessor extends AbstractProcessor {
 		monitor.beginTask("", featureStore.getCount(Query.ALL));
 		monitor.subTask("Removing pseudo nodes");
 		
-		MemoryFeatureIterator iter = MemoryFeatureIterator.createDefault(this.featureStore, map);
+		MemoryFeatureIterator iter = createIterator(MemoryFeatureIterator.createDefaultQuery(this.featureStore));
 		try {
 			while (iter.hasNext()) {
 				monitor.worked(1);
@@ -100,6 +97,7 @@ public class PseudoNodeProcessor extends AbstractProcessor {
 				}
 				
 			}
+			writes.flush();
 		} finally {
 			iter.close();
 			monitor.done();
@@ -109,17 +107,21 @@ public class PseudoNodeProcessor extends AbstractProcessor {
 		loggingSystem.finish();
 	}
 
-    protected FeatureCollection getConnectedFeatures(Point p)
+    /**
+     * Find the features touching p, as they would be with this processor's
+     * buffered writes applied.
+     */
+    protected List<Feature> getConnectedFeatures(Point p)
     throws IllegalFilterException, IOException {
         String typename = featureStore.getSchema().getTypeName();
         String geomName = featureStore.getSchema().getDefaultGeometry().getName();
+        Envelope bounds = new Envelope(p.getCoordinate());
         
         // if we're just doing straight pseudo-noding, use an intersection filter
         if (this.intersectionDistanceTolerance == 0.0) {
             Filter intersectsFilter = FeatureUtil.intersectsGeom(geomName, p);
-            FeatureCollection connectedFeatures = this.featureStore.getFeatures(
-                    new DefaultQuery(typename, intersectsFilter, new String[] { geomName }));
-            return connectedFeatures;
+            return writes.getFeatures(
+                    new DefaultQuery(typename, intersectsFilter, new String[] { geomName }), bounds);
         }
         
         // pseudo-noding with a certain tolerance on what's considered an intersection
@@ -127,27 +129,20 @@ public class PseudoNodeProcessor extends AbstractProcessor {
             GeometryUtil.getBBoxFilter(featureStore, p, this.intersectionDistanceTolerance);
         Filter distanceFilter =
             FeatureUtil.distanceToGeom(geomName, p, this.intersectionDistanceTolerance);
-        FeatureCollection connectedFeatures = this.featureStore.getFeatures(
-                new DefaultQuery(typename, bboxFilter.and(distanceFilter), new String[] {geomName}));
-        
-        return connectedFeatures;
+        bounds.expandBy(this.intersectionDistanceTolerance);
+        return writes.getFeatures(
+                new DefaultQuery(typename, bboxFilter.and(distanceFilter), new String[] {geomName}), bounds);
     }
     
 	private void processNode(Point node) throws IllegalFilterException, IOException, IllegalAttributeException {
-		FeatureCollection connectedFeatures = getConnectedFeatures(node);
+		List<Feature> connectedFeatures = getConnectedFeatures(node);
         
-        Feature first = null;
-        Feature second = null;
-        // We'll attempt to get two features off connectedFeatures, otherwise simply return.
-        // NOTE: we can't use connectedFeatures.size() == 2 here cause size() is borken.
-        FeatureIterator iter = connectedFeatures.features();
-        try {
-            if (iter.hasNext()) first = iter.next(); else return;
-            if (iter.hasNext()) second = iter.next(); else return;
-            if (iter.hasNext()) return;
-        } finally {
-            iter.close();
+        // only merge when exactly two features meet at the node
+        if (connectedFeatures.size() != 2) {
+            return;
         }
+        Feature first = connectedFeatures.get(0);
+        Feature second = connectedFeatures.get(1);
         
         if (first.getID().equals(second.getID())) {
 			loggingSystem.info("Found a feature that is a cycle. "+LoggingSystem.featureToString(first));
@@ -192,21 +187,10 @@ public class PseudoNodeProcessor extends AbstractProcessor {
 
 
 	private void modifyFeature(Feature feature, Geometry newGeometry) throws IllegalAttributeException, IOException {
-		String fid = feature.getID();
-		FidFilter fidFilter = FilterFactoryFinder.createFilterFactory().createFidFilter(fid);
-		
-		String xpath = feature.getFeatureType().getDefaultGeometry().getName();
-		
-		feature.setAttribute(xpath, newGeometry);
-		
-		AttributeType attributeType = feature.getFeatureType().getAttributeType(xpath);
-		featureStore.modifyFeatures(attributeType, newGeometry, fidFilter);
+		writes.modify(feature, newGeometry);
 	}
 	
 	private void deleteFeature(Feature feature) throws IOException {
-		String fid = feature.getID();
-		FidFilter fidFilter = FilterFactoryFinder.createFilterFactory().createFidFilter(fid);
-        
-		featureStore.removeFeatures(fidFilter);
+		writes.remove(feature);
 	}
 }
@@ -15,16 +15,17 @@
 package net.refractions.linecleaner.cleansing;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import net.refractions.linecleaner.FeatureUtil;
 import net.refractions.linecleaner.GeometryUtil;
@@ -75,9 +76,15 @@ public class SimilarLinesProcessor extends AbstractProcessor {
         new HashMap<String, SievedFeature>();
     
     SimilarityMetric similarityMetric = new SimilarityMetric();
+    FidTable fidTable = new FidTable();
     SimilarityCache similarityCache = new SimilarityCache();
     SimilarityIndex similarityIndex = new SimilarityIndex();
     
+    private boolean indexInMemory = false;
+    private FeatureIndex featureIndex = null;
+    private int parallelism = 1;
+    private ParallelSimilarityEngine similarityEngine = null;
+    
     /**
      * @param source
      * @param samplingDistance
@@ -111,6 +118,36 @@ public class SimilarLinesProcessor extends AbstractProcessor {
         this.featureStorePriorityList = featureStorePriorityList;
     }
 
+    /**
+     * When set, the fids and geometries of the store are loaded once into an
+     * in-memory spatial index and nearby candidates are found against it, rather than
+     * by querying the store for every feature.  Uses more memory, but avoids
+     * one BBOX query (and several fid queries) per feature.
+     * @param indexInMemory
+     */
+    public void setIndexInMemory(boolean indexInMemory) {
+        this.indexInMemory = indexInMemory;
+    }
+    
+    public boolean isIndexInMemory() {
+        return this.indexInMemory;
+    }
+    
+    /**
+     * When greater than one, the similarity metric for every pair of nearby
+     * features is computed up front on this many threads.  The features are then
+     * sieved in a single thread as usual, so the result is the same as a serial run.
+     * Implies setIndexInMemory(true).
+     * @param parallelism Number of threads to compute similarities on.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+    
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
     /**
      *
      * @throws IOException
@@ -131,6 +168,8 @@ public class SimilarLinesProcessor extends AbstractProcessor {
         
         cleanFeatures(new SubProgressMonitor(monitor, 87, SubProgressMonitor.PREPEND_MAIN_LABEL_TO_SUBTASK),
         		pauseMonitor);
+        this.loggingSystem.fine("Similarity cache: " + this.similarityCache.memoryUsage() 
+                + " bytes, similarity index: " + this.similarityIndex.memoryUsage() + " bytes");
         
         if (monitor.isCanceled()) {
         	return;
@@ -139,6 +178,9 @@ public class SimilarLinesProcessor extends AbstractProcessor {
         
         cleanFeaturesByAggregation(new SubProgressMonitor(monitor, 13, SubProgressMonitor.PREPEND_MAIN_LABEL_TO_SUBTASK),
         		pauseMonitor);
+        // the index is only needed while sieving; let it go before logging
+        this.featureIndex = null;
+        this.similarityEngine = null;
         
         if (monitor.isCanceled()) {
         	return;
@@ -159,6 +201,10 @@ public class SimilarLinesProcessor extends AbstractProcessor {
     }
 
     protected void cleanFeatures(IProgressMonitor monitor, PauseMonitor pauseMonitor) throws IOException {
+        if (this.indexInMemory || this.parallelism > 1) {
+            cleanFeaturesInMemory(monitor, pauseMonitor);
+            return;
+        }
         monitor.beginTask("", this.store.getCount(Query.FIDS));
         monitor.subTask("Cleaning Similar Features");
         
@@ -189,10 +235,67 @@ public class SimilarLinesProcessor extends AbstractProcessor {
         }
     }
     
+    /**
+     * Same as cleanFeatures, but visits features and their nearby candidates through
+     * a FeatureIndex built up front instead of through store queries.
+     * @param monitor
+     * @param pauseMonitor
+     * @throws IOException
+     */
+    protected void cleanFeaturesInMemory(IProgressMonitor monitor, PauseMonitor pauseMonitor)
+    throws IOException {
+        int total = this.store.getCount(Query.FIDS);
+        monitor.beginTask("", 3 * total);
+        this.featureIndex = new FeatureIndex(this.store, new SubProgressMonitor(monitor, total));
+        if (this.parallelism > 1) {
+            this.similarityEngine = new ParallelSimilarityEngine(this.featureIndex,
+                    this.samplingDistance, this.parallelism);
+            this.similarityEngine.setCutoff(similarityCutoff());
+            this.similarityEngine.computeSimilarities(new SubProgressMonitor(monitor, total),
+                    pauseMonitor);
+            if (monitor.isCanceled()) {
+                monitor.done();
+                return;
+            }
+        } else {
+            monitor.worked(total);
+        }
+        monitor.subTask("Cleaning Similar Features");
+        
+        FeaturePredicate removalPredicate;
+        if (this.featureStorePriorityList == null
+                || !FeatureUtil.hasMergeSourceAttribute(this.store)) {
+            removalPredicate = new LengthPredicate();
+        } else {
+            removalPredicate = new PrecedenceLengthPredicate();
+        }
+        
+        try {
+            int size = this.featureIndex.size();
+            for (int i = 0; i < size; i++) {
+                Feature f = this.featureIndex.get(i);
+                if (f != null) {
+                    sieve(f, this.featureIndex.nearbyFeatures(f), removalPredicate);
+                }
+                monitor.worked(1);
+                if (monitor.isCanceled()) {
+                    break;
+                }
+                pauseIfNecessary(pauseMonitor);
+            }
+        } finally {
+            monitor.done();
+        }
+    }
+    
     protected void cleanFeaturesByAggregation(IProgressMonitor monitor, PauseMonitor pauseMonitor)
     throws IOException {
-        List<String> keys = new LinkedList<String>(this.similarityIndex.getKeys());
-        final Map<String, Double> lengthIndex = this.similarityIndex.lengthIndex;
+        int[] ids = this.similarityIndex.getKeys();
+        List<Integer> keys = new ArrayList<Integer>(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            keys.add(ids[i]);
+        }
+        final SimilarityIndex index = this.similarityIndex;
         
         monitor.beginTask("", keys.size());
         monitor.subTask("Cleaning Similar Features By Aggregation");
@@ -200,10 +303,10 @@ public class SimilarLinesProcessor extends AbstractProcessor {
         // Sort the keys by length in descending order so that we sieve long features
         // first.  This ensures that in cycles of features involving linestrings shorter
         // than the tolerance, we pick the right combination of lines to merge together.
-        Collections.sort(keys, new Comparator<String>() {
-            public int compare(String s, String r) {
-            	double slength = lengthIndex.get(s);
-            	double rlength = lengthIndex.get(r);
+        Collections.sort(keys, new Comparator<Integer>() {
+            public int compare(Integer s, Integer r) {
+            	double slength = index.getLength(s);
+            	double rlength = index.getLength(r);
                 if (slength < rlength) {
                     return 1;
                 } else if (slength > rlength) {
@@ -214,8 +317,8 @@ public class SimilarLinesProcessor extends AbstractProcessor {
             }
         });
 
-        for (String ffid: keys) {
-            Feature f = getFeature(ffid);
+        for (Integer id: keys) {
+            Feature f = getFeature(this.fidTable.fid(id));
 
             Collection<Feature> similarFeatures = 
                 this.similarityIndex.getFeaturesSimilarTo(f);
@@ -238,6 +341,15 @@ public class SimilarLinesProcessor extends AbstractProcessor {
         monitor.done();
     }   
     
+    /**
+     * Similarities above both tolerances are only ever compared against the
+     * tolerances, so the metric can stop as soon as it gets past them.
+     * @return The largest similarity whose exact value matters.
+     */
+    private double similarityCutoff() {
+        return Math.max(this.verySimilarTolerance, this.similarTolerance);
+    }
+    
     /**
      * Compare f against a collection of linestrings, which should be a
      * collection of linestrings merged by LineMerger.  We delete f if it
@@ -251,10 +363,13 @@ public class SimilarLinesProcessor extends AbstractProcessor {
     throws IOException {
         Geometry fgeom = f.getDefaultGeometry();
         for (LineString line: lines) {
-            double similarity = 
-                similarityMetric.similarityF(fgeom, line, this.samplingDistance);
-            double reverseSimilarity = 
-                similarityMetric.similarityF(line, fgeom, this.samplingDistance);
+            double similarity = similarityMetric.similarityF(fgeom, line,
+                    this.samplingDistance, similarityCutoff());
+            if (similarity > similarityCutoff()) {
+                continue;
+            }
+            double reverseSimilarity = similarityMetric.similarityF(line, fgeom,
+                    this.samplingDistance, similarityCutoff());
             
             if (similarity < this.verySimilarTolerance 
                     && reverseSimilarity < this.verySimilarTolerance) {
@@ -432,6 +547,9 @@ public class SimilarLinesProcessor extends AbstractProcessor {
     	
     	this.similarityIndex.removeFeature(f);
     	this.similarityCache.removeFeature(f);
+    	if (this.featureIndex != null) {
+    	    this.featureIndex.remove(f);
+    	}
     	FeatureUtil.removeFeature(this.store, f);
     	loggingSystem.delete(f);
     }
@@ -444,6 +562,9 @@ public class SimilarLinesProcessor extends AbstractProcessor {
     }
     
     protected Feature getFeature(String fid) {
+        if (this.featureIndex != null) {
+            return this.featureIndex.getFeature(fid);
+        }
         FilterFactory ff = FilterFactoryFinder.createFilterFactory();
         FidFilter filter = ff.createFidFilter(fid);
         try {
@@ -515,56 +636,74 @@ public class SimilarLinesProcessor extends AbstractProcessor {
         }
     }
     
+    /**
+     * <p>
+     * Caches the similarity of f to g, keyed by the interned ids of f and g packed
+     * into a long.  Rows of removed features are dropped in bulk every so often
+     * rather than one by one.
+     * </p>
+     */
     private class SimilarityCache {
-        Map<String, Map<String, Double>> cache = 
-            new HashMap<String, Map<String, Double>>();
+        LongDoubleMap cache = new LongDoubleMap();
+        BitSet removed = new BitSet();
+        int removedSinceCompaction = 0;
         
         public double getSimilarity(Feature f, Feature g) {
-            double similarity = 0;
-            if (cached(f,g)) {
-                similarity = getNearbyFeatures(f).get(g.getID());
-            } else {
+            long key = key(fidTable.intern(f.getID()), fidTable.intern(g.getID()));
+            double similarity = cache.get(key, Double.NaN);
+            if (Double.isNaN(similarity)) {
                 similarity = calculateSimilarity(f, g);
-                cacheSimilarity(f, g, similarity);
+                cache.put(key, similarity);
                 indexSimilarity(f, g, similarity);
             }
             return similarity;
         }
         
-        private void cacheSimilarity(Feature f, Feature g, double similarityMetric) {
-            if (!cached(f, g)) {
-                getNearbyFeatures(f).put(g.getID(), similarityMetric);
-            }
-        }
-        
         private void indexSimilarity(Feature f, Feature g, double similarityMetric) {
             if (similarityMetric < similarTolerance) {
                 similarityIndex.addSimilarFeatures(f,g);
             }
         }
         
-        private Map<String, Double> getNearbyFeatures(Feature f) {
-            if (cache.containsKey(f.getID())) {
-                return cache.get(f.getID());
-            }
-            Map<String, Double> features = new HashMap<String, Double>();
-            cache.put(f.getID(), features);
-            return features;
-        }
-        
-        private boolean cached(Feature f, Feature g) {
-            return getNearbyFeatures(f).containsKey(g.getID());
-        }
-        
         private double calculateSimilarity(Feature f, Feature g) {
+            if (similarityEngine != null) {
+                double similarity = similarityEngine.getSimilarity(f, g);
+                if (!Double.isNaN(similarity)) {
+                    return similarity;
+                }
+            }
             Geometry fgeom = f.getDefaultGeometry();
             Geometry ggeom = g.getDefaultGeometry();
-            return similarityMetric.similarityF(fgeom, ggeom, samplingDistance);
+            return similarityMetric.similarityF(fgeom, ggeom, samplingDistance,
+                    similarityCutoff());
         }
         
         public void removeFeature(Feature f) {
-            cache.remove(f.getID());
+            int id = fidTable.id(f.getID());
+            if (id < 0 || removed.get(id)) {
+                return;
+            }
+            removed.set(id);
+            removedSinceCompaction++;
+            // compacting costs a pass over the table, so only do it once enough
+            // features have gone to make it pay
+            if (removedSinceCompaction * 8 > fidTable.size()) {
+                cache.retainAll(new LongDoubleMap.KeyFilter() {
+                    public boolean accept(long key) {
+                        return !removed.get((int) (key >>> 32)) && !removed.get((int) key);
+                    }
+                });
+                removedSinceCompaction = 0;
+            }
         }
+        
+        public long memoryUsage() {
+            return cache.memoryUsage();
+        }
+    }
+    
+    private static long key(int fid, int gid) {
+        return ((long) fid << 32) | (gid & 0xffffffffL);
     }
     
     /**
@@ -572,12 +711,13 @@ public class SimilarLinesProcessor extends AbstractProcessor {
      * <p>
      * A class that keeps track of similar features.  Keep in mind similarity
      * is one-way, ie if A is similar to B, B is not necessarily similar to A.
+     * Features are identified by their interned ids.
      * </p>
      */
     private class SimilarityIndex {
-        Map<String, Set<String>> similarityIndex = new HashMap<String, Set<String>>();
-        Map<String, Set<String>> transposeIndex = new HashMap<String, Set<String>>();
-        Map<String, Double> lengthIndex = new HashMap<String, Double>();
+        IntSetIndex similarityIndex = new IntSetIndex();
+        IntSetIndex transposeIndex = new IntSetIndex();
+        double[] lengthIndex = new double[16];
         
         /**
          * Add f is similar to g to the index.
@@ -585,10 +725,12 @@ public class SimilarLinesProcessor extends AbstractProcessor {
          * @param g
          */
         public void addSimilarFeatures(Feature f, Feature g) {
-            getSimilarFeatures(f).add(g.getID());
-            getFidsOfFeaturesSimilarTo(g).add(f.getID());
-            indexLength(f);
-            indexLength(g);
+            int fid = fidTable.intern(f.getID());
+            int gid = fidTable.intern(g.getID());
+            similarityIndex.add(fid, gid);
+            transposeIndex.add(gid, fid);
+            indexLength(fid, f);
+            indexLength(gid, g);
         }
 
         /**
@@ -596,53 +738,62 @@ public class SimilarLinesProcessor extends AbstractProcessor {
          * @param f
          */
         public void removeFeature(Feature f) {
-            String fid = f.getID();
-            Collection<String> similar = getSimilarFeatures(f);
-            Collection<String> transpose = getFidsOfFeaturesSimilarTo(f);
+            int fid = fidTable.id(f.getID());
+            if (fid < 0) {
+                return;
+            }
+            int[] similar = this.similarityIndex.get(fid);
+            int[] transpose = this.transposeIndex.get(fid);
             
-            for (String sfid: similar) {
-                this.transposeIndex.get(sfid).remove(fid);
+            for (int i = 0; i < similar.length; i++) {
+                this.transposeIndex.remove(similar[i], fid);
             }
-            for (String tfid: transpose) {
-                this.similarityIndex.get(tfid).remove(fid);
+            for (int i = 0; i < transpose.length; i++) {
+                this.similarityIndex.remove(transpose[i], fid);
+            }
+            this.similarityIndex.removeKey(fid);
+            this.transposeIndex.removeKey(fid);
+            if (fid < this.lengthIndex.length) {
+                this.lengthIndex[fid] = 0;
             }
-            this.similarityIndex.remove(fid);
-            this.transposeIndex.remove(fid);
-            this.lengthIndex.remove(fid);
         }
         
-        public Set<String> getKeys() {
-            return transposeIndex.keySet();
-        }       
-        
-        public Set<String> getSimilarFeatures(Feature f) {
-            return getValue(similarityIndex, f);
+        /**
+         * @return Ids of every feature something is similar to, in ascending order.
+         */
+        public int[] getKeys() {
+            return transposeIndex.keys();
         }
         
-        public Set<String> getFidsOfFeaturesSimilarTo(Feature f) {
-            return getValue(transposeIndex, f);
+        public double getLength(int id) {
+            return id < this.lengthIndex.length ? this.lengthIndex[id] : 0;
         }
         
         public Collection<Feature> getFeaturesSimilarTo(Feature f) {
-            return getFeatures(getFidsOfFeaturesSimilarTo(f));
-        }
-        
-        private Set<String> getValue(Map<String, Set<String>> index, Feature f) {
-            Set<String> similarFeatures;
-            if (index.containsKey(f.getID())) {
-                similarFeatures = index.get(f.getID());
-            } else {
-                similarFeatures = new HashSet<String>();
-                index.put(f.getID(), similarFeatures);
-            }            
-            return similarFeatures;
+            int[] ids = transposeIndex.get(fidTable.id(f.getID()));
+            Arrays.sort(ids);
+            List<String> fids = new ArrayList<String>(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                fids.add(fidTable.fid(ids[i]));
+            }
+            return getFeatures(fids);
         }
 
-		private void indexLength(Feature g) {
-			if (!this.lengthIndex.containsKey(g.getID())) {
-            	this.lengthIndex.put(g.getID(), g.getDefaultGeometry().getLength());
+		private void indexLength(int id, Feature g) {
+		    if (id >= this.lengthIndex.length) {
+		        double[] grown = new double[Math.max(id + 1, 2 * this.lengthIndex.length)];
+		        System.arraycopy(this.lengthIndex, 0, grown, 0, this.lengthIndex.length);
+		        this.lengthIndex = grown;
+		    }
+			if (this.lengthIndex[id] == 0) {
+            	this.lengthIndex[id] = g.getDefaultGeometry().getLength();
             }
 		}
+		
+		public long memoryUsage() {
+		    return similarityIndex.memoryUsage() + transposeIndex.memoryUsage()
+		        + 8L * lengthIndex.length;
+		}
     }
     
     private class SievedFeature {
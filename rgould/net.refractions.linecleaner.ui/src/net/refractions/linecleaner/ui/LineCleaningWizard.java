@@ -79,6 +79,7 @@ public class LineCleaningWizard extends Wizard {
 		final double samplingDistance = optionsPage.getSamplingDistance();
 		final double verySimilarTolerance = optionsPage.getVerySimilarTolerance();
 		final double similarTolerance = optionsPage.getSimilarTolerance();
+		final boolean pipelineMode = optionsPage.isPipelineMode();
 		
 		final String outputFileNoExt = outputSelectionPage.getFileNoExtension();
 		
@@ -144,6 +145,7 @@ public class LineCleaningWizard extends Wizard {
 						monitor.subTask("Data Preparation: ");
 						PerformCleansingAction action = new PerformCleansingAction(layer, pauseMonitor, mergedFeatureStore, 
 								minimumLength, minimumCycleLength, nodeDistanceTolerance, areaTolerance, douglasPeuckerTolerance);
+						action.setPipelineMode(pipelineMode);
 						action.run(new SubProgressMonitor(monitor, CLEANSE_TICKS, SubProgressMonitor.PREPEND_MAIN_LABEL_TO_SUBTASK));
 					}
 					
@@ -14,6 +14,7 @@ import org.eclipse.swt.events.KeyEvent;
 import org.eclipse.swt.events.KeyListener;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Group;
 import org.eclipse.swt.widgets.Label;
@@ -32,6 +33,7 @@ public class OptionsPage extends WizardPage {
 	private Text areaTolerance;
 	private Text dpTolerance;
 	private Text cyclesLength;
+	private Button pipelineMode;
 	
 	private String samplingDistanceDefault;
 	private String verySimilarToleranceDefault;
@@ -41,6 +43,7 @@ public class OptionsPage extends WizardPage {
 	private String areaToleranceDefault;
 	private String dpToleranceDefault;
 	private String cyclesLengthDefault;
+	private boolean pipelineModeDefault;
 	
 	private IDialogSettings savedSettings;
 	
@@ -59,6 +62,7 @@ public class OptionsPage extends WizardPage {
 		savedSettings.put("samplingDistance", getSamplingDistance());
 		savedSettings.put("similarTolerance", getSimilarTolerance());
 		savedSettings.put("verySimilarTolerance", getVerySimilarTolerance());
+		savedSettings.put("pipelineMode", isPipelineMode());
 	}
 	
 	public void loadSettings() {
@@ -70,6 +74,7 @@ public class OptionsPage extends WizardPage {
 		samplingDistanceDefault = savedSettings.get("samplingDistance");
 		similarToleranceDefault = savedSettings.get("similarTolerance");
 		verySimilarToleranceDefault = savedSettings.get("verySimilarTolerance");
+		pipelineModeDefault = savedSettings.getBoolean("pipelineMode");
 		
 		if (areaToleranceDefault == null) 
 			areaToleranceDefault = Double.toString(EndNodesProcessor.DEFAULT_AREA_TOLERANCE);
@@ -118,12 +123,14 @@ public class OptionsPage extends WizardPage {
 
         Group douglasP = createDouglasPeuckerGroup(right);
         Group cleaning = createCleaningGroup(right);
+        Group preparation = createPreparationGroup(right);
         
         cycles.setLayoutData(getDefaultGridData());
         douglasP.setLayoutData(getDefaultGridData());
         endNodes.setLayoutData(getDefaultGridData());
         minimumLength.setLayoutData(getDefaultGridData());
         cleaning.setLayoutData(getDefaultGridData());
+        preparation.setLayoutData(getDefaultGridData());
         
 		setControl(composite);
 	}
@@ -296,6 +303,23 @@ public class OptionsPage extends WizardPage {
         return group;
 	}
 	
+	private Group createPreparationGroup(Composite parent) {
+		Group group = new Group(parent, SWT.NULL);
+		GridLayout gridLayout = new GridLayout(1, false);
+		group.setLayout(gridLayout);
+        group.setText("Data Preparation");
+        
+        pipelineMode = new Button(group, SWT.CHECK);
+        pipelineMode.setLayoutData(getLabelGridData());
+        pipelineMode.setText("Run in memory");
+        pipelineMode.setToolTipText("Loads the geometry of every line into memory once and runs all of" +
+        		" the data preparation steps on it, instead of reading and writing the dataset for each" +
+        		" step. This is much faster, but needs enough heap for all of the geometries.");
+        pipelineMode.setSelection(pipelineModeDefault);
+        
+        return group;
+	}
+	
 	private void updateButtons() {
 		getWizard().getContainer().updateButtons();
 	}
@@ -353,6 +377,10 @@ public class OptionsPage extends WizardPage {
 	public double getVerySimilarTolerance() {
 		return getValue(verySimilarTolerance);
 	}
+	
+	public boolean isPipelineMode() {
+		return pipelineMode.getSelection();
+	}
 
 	private UpdateKeyListener updateButtonsKeyListener = new UpdateKeyListener();
 	
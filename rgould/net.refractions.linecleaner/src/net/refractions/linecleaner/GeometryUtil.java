@@ -199,6 +199,98 @@ public class GeometryUtil {
         }       
     }
     
+    /**
+     * A function object used in linestring subdivision that receives the ordinates
+     * of each subdivision point directly, so no Coordinate needs to be created.
+     */
+    public interface OrdinateFunction {
+        /**
+         * @param x
+         * @param y
+         * @return true to carry on, false to stop the subdivision early.
+         */
+        public boolean run(double x, double y);
+    }
+    
+    /**
+     * Subdivide g into intervals of length intervalLength, visiting exactly the same
+     * points as subdivide(LineString, double, CoordinateFunction) but without
+     * allocating a Line or Coordinate for each of them.
+     * @param g
+     * @param intervalLength
+     * @param f Closure fulfilling OrdinateFunction interface.
+     * @return Number of points visited.
+     */
+    public static int subdivide(LineString g, double intervalLength, OrdinateFunction f) {
+        int visited = 0;
+        // the linestring is too short to have any intervals.  fallback to nodes
+        if (g.getLength() <= intervalLength) {
+            Coordinate start = g.getCoordinateN(0);
+            Coordinate end = g.getCoordinateN(g.getNumPoints() - 1);
+            if (!f.run(start.x, start.y)) return 1;
+            f.run(end.x, end.y);
+            return 2;
+        }
+        
+        double intervalOffset = 0;
+        int limit = g.getNumPoints() - 2;
+        for (int i = 0; i <= limit; i++) {
+            Coordinate s = g.getCoordinateN(i);
+            Coordinate e = g.getCoordinateN(i+1);
+            double sx = s.x;
+            double sy = s.y;
+            double length = distance(sx, sy, e.x, e.y);
+            
+            if (intervalOffset < length) {
+                // same arithmetic as new Line(line.along(intervalOffset), line.getEnd())
+                if (intervalOffset != 0) {
+                    double percent = intervalOffset / length;
+                    sx = s.x + (e.x - s.x) * percent;
+                    sy = s.y + (e.y - s.y) * percent;
+                    length = distance(sx, sy, e.x, e.y);
+                }
+            } else {
+                intervalOffset -= length;
+                continue;
+            }
+            
+            if (length < intervalLength) {
+                // interval's too long, but there's a vertex in the current line
+                if (intervalOffset < intervalLength) {
+                    visited++;
+                    if (!f.run(sx, sy)) return visited;
+                }
+                intervalOffset = intervalLength - length;
+            } else if (length > intervalLength) {
+                // same arithmetic as Line.subdivide(intervalLength, 0, f)
+                int numPoints = (int) (length / intervalLength);
+                visited++;
+                if (!f.run(sx, sy)) return visited;
+                double px = sx;
+                double py = sy;
+                for (int j = 0; j < numPoints; j++) {
+                    double percent = intervalLength / distance(px, py, e.x, e.y);
+                    px = px + (e.x - px) * percent;
+                    py = py + (e.y - py) * percent;
+                    visited++;
+                    if (!f.run(px, py)) return visited;
+                }
+                intervalOffset = intervalLength - (length - (intervalLength * numPoints));
+            } else {
+                visited += 2;
+                if (!f.run(sx, sy)) return visited - 1;
+                if (!f.run(e.x, e.y)) return visited;
+            }
+        }
+        return visited;
+    }
+    
+    private static double distance(double x0, double y0, double x1, double y1) {
+        double dx = x0 - x1;
+        double dy = y0 - y1;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+    
     /**
      * Subdivide a LineString g into intervals of length intervalLength.
      * @param g